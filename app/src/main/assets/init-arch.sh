@@ -2,6 +2,9 @@ set -e  # Exit immediately on Failure
 
 export PATH=/bin:/sbin:/usr/bin:/usr/sbin:/usr/share/bin:/usr/share/sbin:/usr/local/bin:/usr/local/sbin:/system/bin:/system/xbin:$PREFIX/local/bin
 export HOME=/root
+
+# Startup trace marker for SessionStartupTrace in the app
+if [ -n "$TERMOS_TRACE_DIR" ]; then touch "$TERMOS_TRACE_DIR/.trace-guest" 2>/dev/null || true; fi
 n# Set hostname to avoid issues with commands that require it
 if ! hostname >/dev/null 2>&1 || [ -z "$(hostname 2>/dev/null)" ]; then
     hostname localhost 2>/dev/null || true
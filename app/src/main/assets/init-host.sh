@@ -24,6 +24,9 @@ if [ -z "$(ls -A "$ROOTFS_DIR_PATH" 2>/dev/null | grep -vE '^(root|tmp)$')" ]; t
         exit 1
     fi
     echo "Extracting $ROOTFS_FILE to $ROOTFS_DIR..."
+    # Extraction state for RootfsScanner in the app, "started" remains if extraction is interrupted
+    EXTRACT_MARKER="$PREFIX/local/.$ROOTFS_DIR.extract"
+    echo "started $ROOTFS_FILE" > "$EXTRACT_MARKER" 2>/dev/null || true
     # Use appropriate tar flags based on file extension
     # Suppress symlink warnings (normal on Android - symlinks point to system binaries)
     if echo "$ROOTFS_FILE" | grep -q "\.tar\.gz$"; then
@@ -45,6 +48,7 @@ if [ -z "$(ls -A "$ROOTFS_DIR_PATH" 2>/dev/null | grep -vE '^(root|tmp)$')" ]; t
         echo "Error: Failed to extract $ROOTFS_FILE - no system directories found"
         exit 1
     fi
+    echo "done $ROOTFS_FILE" > "$EXTRACT_MARKER" 2>/dev/null || true
     echo "$ROOTFS_FILE extracted successfully (some symlink warnings are normal)"
 fi
 
@@ -175,6 +179,9 @@ if [ ! -f "$PREFIX/local/bin/proot" ] || [ ! -x "$PREFIX/local/bin/proot" ]; the
     exit 1
 fi
 
+# Startup trace marker for SessionStartupTrace in the app
+if [ -n "$TERMOS_TRACE_DIR" ]; then touch "$TERMOS_TRACE_DIR/.trace-host" 2>/dev/null || true; fi
+
 # If using busybox as shell, we need to pass 'sh' as argument
 if [ "$USE_BUSYBOX_SH" = "true" ]; then
     $LINKER $PREFIX/local/bin/proot $ARGS $SHELL_PATH sh $PREFIX/local/bin/init "$@"
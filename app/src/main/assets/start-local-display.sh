@@ -0,0 +1,69 @@
+#!/bin/bash
+# Start the desktop on an Xvfb whose screen is kept in a file (-fbdir), so that
+# the app can map it and draw frames without encoding them over VNC.
+# x11vnc is still started, but only to deliver keyboard/pointer input and clipboard.
+# Falls back to the regular VNC server if Xvfb or x11vnc are missing.
+
+export USER=root
+export HOME=/root
+
+FB_DIR=/tmp/termos-fb
+GEOMETRY=${GEOMETRY:-1280x720}
+
+if ! command -v Xvfb >/dev/null 2>&1 || ! command -v x11vnc >/dev/null 2>&1; then
+    echo "Xvfb or x11vnc not installed, using regular VNC server"
+    exec /usr/local/bin/start-vnc.sh
+fi
+
+echo '=== Starting local display ==='
+
+# Kill existing servers
+pkill -f 'vncserver' 2>/dev/null || true
+pkill -f 'Xvnc' 2>/dev/null || true
+pkill -f 'x11vnc' 2>/dev/null || true
+pkill -f 'Xvfb' 2>/dev/null || true
+sleep 1
+
+rm -rf /tmp/.X11-unix/X* 2>/dev/null || true
+rm -f /tmp/.X*-lock 2>/dev/null || true
+rm -f /tmp/vnc-display.txt
+mkdir -p "$FB_DIR" /tmp/.X11-unix
+rm -f "$FB_DIR"/Xvfb_screen*
+
+DISPLAY_NUM=1
+PORT=$((5900 + DISPLAY_NUM))
+
+# 24 bit depth gives 32 bits-per-pixel BGRX pixels, the layout the app expects
+Xvfb :${DISPLAY_NUM} -screen 0 ${GEOMETRY}x24 -fbdir "$FB_DIR" -nolisten tcp >/tmp/xvfb.log 2>&1 &
+
+for i in $(seq 1 50); do
+    [ -f "$FB_DIR/Xvfb_screen0" ] && break
+    sleep 0.1
+done
+
+if [ ! -f "$FB_DIR/Xvfb_screen0" ]; then
+    echo "Xvfb did not start, check /tmp/xvfb.log. Using regular VNC server"
+    pkill -f 'Xvfb' 2>/dev/null || true
+    exec /usr/local/bin/start-vnc.sh
+fi
+
+# Input only: -nofb stops x11vnc from polling & sending the screen.
+# The app connects over the Unix socket when it exists, TCP is kept for readiness probing.
+SOCKET=/tmp/.termos-vnc/vnc${DISPLAY_NUM}
+mkdir -p /tmp/.termos-vnc
+rm -f "$SOCKET"
+x11vnc -display :${DISPLAY_NUM} -nofb -forever -shared -nopw -localhost -rfbport ${PORT} -unixsock "$SOCKET" \
+    >/tmp/x11vnc.log 2>&1 &
+
+echo "display:${DISPLAY_NUM}" > /tmp/vnc-display.txt
+echo "port:${PORT}" >> /tmp/vnc-display.txt
+echo "fbfile:$FB_DIR/Xvfb_screen0" >> /tmp/vnc-display.txt
+echo "socket:$SOCKET" >> /tmp/vnc-display.txt
+
+export DISPLAY=:${DISPLAY_NUM}
+if [ -x /root/.vnc/xstartup ]; then
+    pkill -f 'xstartup' 2>/dev/null || true
+    /root/.vnc/xstartup >/tmp/xstartup-local.log 2>&1 &
+fi
+
+echo "Local display started on display :${DISPLAY_NUM}, input port ${PORT}"
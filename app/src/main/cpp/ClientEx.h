@@ -11,6 +11,15 @@
 
 #include <jni.h>
 #include "Cursor.h"
+#include "FrameBuffers.h"
+#include "ContinuousUpdates.h"
+#include "UpdateScheduler.h"
+#include "DecodePool.h"
+#include "PerfCounters.h"
+
+// See LocalDisplay.h
+struct LocalDisplay;
+void closeLocalDisplay(LocalDisplay *display);
 
 /**
  * We attach some additional data to every rfbClient.
@@ -23,10 +32,61 @@ struct ClientEx {
     // Although frame width & height are maintained in rfbClient, those values
     // are modified before our MallocFrameBuffer callback is triggered, and
     // we cannot protect them with a mutex. So we maintain the framebuffer
-    // size here, protected with fbMutex.
+    // size here, protected with mutex & frontMutex.
     int fbRealWidth;
     int fbRealHeight;
 
+    // Buffers backing `client->frameBuffer`, see FrameBuffers.h
+    FrameBuffers frameBuffers;
+
+    // Workers decoding JPEG rects into the back buffer, see DecodePool.h.
+    // Jobs are submitted & awaited by receiver only.
+    DecodePool decodePool;
+
+    // Protected with mutex
+    FrameMetrics metrics;
+    PerfCounters perf;
+
+    // Per-encoding counters of the update being decoded, merged into `perf`
+    // when it is published. Byte count of the connection at the end of last rect,
+    // and whether current rect was handed to decode pool. Receiver only.
+    EncodingCounters updateEncodings[EncodingSlotCount];
+    uint64_t lastRectEndBytes;
+    bool rectIsJpeg;
+
+    // Start time of server message currently being handled. Receiver only.
+    int64_t messageStartTime;
+
+    // Byte count of the connection at the end of last update. Receiver only.
+    uint64_t lastUpdateEndBytes;
+
+    // Sends update requests, see UpdateScheduler.h. Receiver only.
+    UpdateScheduler updateScheduler;
+
+    // Owned copy of `client->appData.encodingsString`, if changed during session.
+    // The previous copy is kept alive, as the receiver may still be reading it.
+    // Sender only.
+    char *encodingsString;
+    char *previousEncodingsString;
+
+    // Size of the frame texture, as allocated by last full upload.
+    // Only accessed from renderer thread.
+    int texWidth;
+    int texHeight;
+
+    // Scratch buffer used to pack narrow regions before upload.
+    // Only accessed from renderer thread.
+    uint8_t *uploadBuffer;
+    size_t uploadBufferSize;
+
+    // Mapped framebuffer of local X server. If set, renderer uploads from it instead
+    // of `frameBuffers`. Assigned with mutex & frontMutex held.
+    LocalDisplay *localDisplay;
+
+    // Pause & continuous updates state, see ContinuousUpdates.h.
+    // Protected with updateControlMutex.
+    UpdateControl updateControl;
+
     // Cursor data used for client-side cursor rendering
     Cursor *cursor;
 
@@ -34,8 +94,16 @@ struct ClientEx {
     int interruptReadFd;
     int interruptWriteFd;
 
-    // Protects modification to framebuffer & cursor
+    // Protects buffer swaps, metrics & cursor. Only held for short durations.
     MUTEX(mutex);
+
+    // Held by renderer while uploading from front buffer, and while buffers
+    // are reallocated. Decoding never waits for it.
+    MUTEX(frontMutex);
+
+    // Protects updateControl. Held while its messages are written, so it is
+    // separate from `mutex`, which renderer waits for.
+    MUTEX(updateControlMutex);
 };
 
 const int ClientExTag = 1;
@@ -70,7 +138,29 @@ ClientEx *assignClientExtension(rfbClient *client) {
     int interruptPipe[2];
     if (ex) {
         INIT_MUTEX(ex->mutex);
+        INIT_MUTEX(ex->frontMutex);
+        INIT_MUTEX(ex->updateControlMutex);
+        memset(&ex->updateControl, 0, sizeof(UpdateControl));
         ex->cursor = nullptr;
+        ex->localDisplay = nullptr;
+        ex->fbRealWidth = 0;
+        ex->fbRealHeight = 0;
+        ex->texWidth = 0;
+        ex->texHeight = 0;
+        ex->uploadBuffer = nullptr;
+        ex->uploadBufferSize = 0;
+        ex->messageStartTime = 0;
+        memset(&ex->updateScheduler, 0, sizeof(UpdateScheduler));
+        ex->lastUpdateEndBytes = 0;
+        ex->encodingsString = nullptr;
+        ex->previousEncodingsString = nullptr;
+        initFrameBuffers(ex->frameBuffers);
+        initDecodePool(ex->decodePool);
+        memset(&ex->metrics, 0, sizeof(FrameMetrics));
+        memset(&ex->perf, 0, sizeof(PerfCounters));
+        memset(ex->updateEncodings, 0, sizeof(ex->updateEncodings));
+        ex->lastRectEndBytes = 0;
+        ex->rectIsJpeg = false;
 
         int r = pipe2(interruptPipe, O_NONBLOCK);
         ex->interruptReadFd = (r == 0) ? interruptPipe[0] : -1;
@@ -88,7 +178,15 @@ void freeClientExtension(rfbClient *client) {
     auto ex = getClientExtension(client);
     if (ex) {
         TINI_MUTEX(ex->mutex);
+        TINI_MUTEX(ex->frontMutex);
+        TINI_MUTEX(ex->updateControlMutex);
+        stopDecodePool(ex->decodePool);
         freeCursor(ex->cursor);
+        freeFrameBuffers(ex->frameBuffers);
+        closeLocalDisplay(ex->localDisplay);
+        free(ex->uploadBuffer);
+        free(ex->encodingsString);
+        free(ex->previousEncodingsString);
 
         if (ex->interruptReadFd > -1) close(ex->interruptReadFd);
         if (ex->interruptWriteFd > -1) close(ex->interruptWriteFd);
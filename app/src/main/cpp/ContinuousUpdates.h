@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_CONTINUOUSUPDATES_H
+#define AVNC_CONTINUOUSUPDATES_H
+
+#include <rfb/rfbclient.h>
+
+/******************************************************************************
+ * Update control: pausing, continuous updates & fences
+ *
+ * In plain RFB, client asks for every update. Requests are sent by our
+ * scheduler (see UpdateScheduler.h), and pausing updates simply means it
+ * does not send them.
+ *
+ * Servers supporting the ContinuousUpdates extension (TigerVNC & derivatives)
+ * can instead push updates without waiting for requests, which saves a round
+ * trip per update. They only allow it for clients which also support Fence,
+ * so we implement the minimum of both:
+ *
+ *  - Server announces CU support with an EndOfContinuousUpdates message.
+ *  - Server probes fence support with a fence request, which we echo back.
+ *  - Once both are known, and updates are not paused, we enable CU.
+ *  - Pausing disables CU, resuming enables it again.
+ *
+ * All functions here must be called with the update control lock held.
+ *****************************************************************************/
+
+const int PseudoEncodingFence = -312;
+const int PseudoEncodingContinuousUpdates = -313;
+
+const uint8_t MsgEnableContinuousUpdates = 150;  // Client -> Server
+const uint8_t MsgEndOfContinuousUpdates = 150;   // Server -> Client
+const uint8_t MsgFence = 248;                    // Both directions
+
+const uint32_t FenceFlagBlockBefore = 1u << 0;
+const uint32_t FenceFlagBlockAfter = 1u << 1;
+const uint32_t FenceFlagSyncNext = 1u << 2;
+const uint32_t FenceFlagRequest = 1u << 31;
+
+struct UpdateControl {
+    bool paused;
+    bool fenceSupported;
+    bool continuousUpdatesSupported;
+    bool continuousUpdatesEnabled;
+};
+
+static void putUint16(uint8_t *p, uint16_t v) {
+    p[0] = v >> 8;
+    p[1] = v & 0xff;
+}
+
+static void putUint32(uint8_t *p, uint32_t v) {
+    p[0] = v >> 24;
+    p[1] = (v >> 16) & 0xff;
+    p[2] = (v >> 8) & 0xff;
+    p[3] = v & 0xff;
+}
+
+static bool sendEnableContinuousUpdates(rfbClient *client, UpdateControl &uc, bool enable) {
+    uint8_t msg[10];
+    msg[0] = MsgEnableContinuousUpdates;
+    msg[1] = enable ? 1 : 0;
+    putUint16(msg + 2, 0);
+    putUint16(msg + 4, 0);
+    putUint16(msg + 6, (uint16_t) client->width);
+    putUint16(msg + 8, (uint16_t) client->height);
+
+    if (!WriteToRFBServer(client, (char *) msg, sizeof(msg)))
+        return false;
+
+    // Server pushes updates while CU is enabled, so scheduler stops sending requests.
+    // Only set after the message is sent, otherwise client would wait for updates that never come.
+    uc.continuousUpdatesEnabled = enable;
+    return true;
+}
+
+static void maybeEnableContinuousUpdates(rfbClient *client, UpdateControl &uc) {
+    if (uc.fenceSupported && uc.continuousUpdatesSupported && !uc.continuousUpdatesEnabled && !uc.paused) {
+        rfbClientLog("Enabling continuous updates\n");
+        sendEnableContinuousUpdates(client, uc, true);
+    }
+}
+
+/**
+ * Handles EndOfContinuousUpdates. Message has no body.
+ */
+static rfbBool handleEndOfContinuousUpdates(rfbClient *client, UpdateControl &uc) {
+    if (!uc.continuousUpdatesSupported) {
+        // First one just announces support
+        uc.continuousUpdatesSupported = true;
+        maybeEnableContinuousUpdates(client, uc);
+    } else if (uc.continuousUpdatesEnabled) {
+        // Server has stopped pushing updates on its own, scheduler goes back to requests
+        uc.continuousUpdatesEnabled = false;
+    }
+    return TRUE;
+}
+
+/**
+ * Reads rest of a fence message, and replies to it if server asked for it.
+ * We process messages strictly in order, so all blocking flags are trivially satisfied.
+ */
+static rfbBool handleFence(rfbClient *client, UpdateControl &uc) {
+    uint8_t header[8]; // 3 padding, 4 flags, 1 length
+    uint8_t payload[255];
+
+    if (!ReadFromRFBServer(client, (char *) header, sizeof(header)))
+        return FALSE;
+
+    uint32_t flags = ((uint32_t) header[3] << 24) | ((uint32_t) header[4] << 16)
+                     | ((uint32_t) header[5] << 8) | (uint32_t) header[6];
+    uint8_t length = header[7];
+
+    if (length > 0 && !ReadFromRFBServer(client, (char *) payload, length))
+        return FALSE;
+
+    if (!(flags & FenceFlagRequest))
+        return TRUE; // Response to a fence we never send
+
+    uint8_t reply[9 + 255];
+    reply[0] = MsgFence;
+    reply[1] = reply[2] = reply[3] = 0;
+    putUint32(reply + 4, flags & (FenceFlagBlockBefore | FenceFlagBlockAfter | FenceFlagSyncNext));
+    reply[8] = length;
+    memcpy(reply + 9, payload, length);
+
+    if (!WriteToRFBServer(client, (char *) reply, 9 + length))
+        return FALSE;
+
+    if (!uc.fenceSupported) {
+        uc.fenceSupported = true;
+        maybeEnableContinuousUpdates(client, uc);
+    }
+    return TRUE;
+}
+
+/**
+ * Pauses/resumes framebuffer updates. Connection is kept alive while paused.
+ * Caller should request an incremental update after resuming, to catch up.
+ */
+static void setUpdatesPaused(rfbClient *client, UpdateControl &uc, bool pause) {
+    uc.paused = pause;
+
+    if (pause) {
+        if (uc.continuousUpdatesEnabled)
+            sendEnableContinuousUpdates(client, uc, false);
+    } else {
+        maybeEnableContinuousUpdates(client, uc);
+    }
+}
+
+#endif //AVNC_CONTINUOUSUPDATES_H
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_DAMAGE_H
+#define AVNC_DAMAGE_H
+
+/******************************************************************************
+ * Damage tracking
+ *
+ * Servers usually update only small parts of the framebuffer (a blinking caret,
+ * a clock, a terminal line). We record the rectangles decoded since the last
+ * texture upload, so that only those regions have to be sent to the GPU.
+ *****************************************************************************/
+
+const int MaxDamageRects = 32;
+
+struct DamageRect {
+    int x;
+    int y;
+    int w;
+    int h;
+};
+
+/**
+ * List of framebuffer regions modified since last upload.
+ *
+ * If the list overflows, all rects are collapsed into their bounding box.
+ * If [full] is set, the whole framebuffer must be uploaded, e.g. after resize.
+ */
+struct Damage {
+    DamageRect rects[MaxDamageRects];
+    int count;
+    bool full;
+};
+
+static inline bool containsRect(const DamageRect &outer, const DamageRect &inner) {
+    return inner.x >= outer.x && inner.y >= outer.y
+           && inner.x + inner.w <= outer.x + outer.w
+           && inner.y + inner.h <= outer.y + outer.h;
+}
+
+static inline DamageRect unionRect(const DamageRect &a, const DamageRect &b) {
+    int left = a.x < b.x ? a.x : b.x;
+    int top = a.y < b.y ? a.y : b.y;
+    int right = (a.x + a.w) > (b.x + b.w) ? (a.x + a.w) : (b.x + b.w);
+    int bottom = (a.y + a.h) > (b.y + b.h) ? (a.y + a.h) : (b.y + b.h);
+    return {left, top, right - left, bottom - top};
+}
+
+void resetDamage(Damage &damage) {
+    damage.count = 0;
+    damage.full = false;
+}
+
+void markFullDamage(Damage &damage) {
+    damage.count = 0;
+    damage.full = true;
+}
+
+/**
+ * Record a modified region, clipped to framebuffer bounds.
+ */
+void addDamage(Damage &damage, int x, int y, int w, int h, int fbWidth, int fbHeight) {
+    if (damage.full)
+        return;
+
+    if (x < 0) { w += x; x = 0; }
+    if (y < 0) { h += y; y = 0; }
+    if (x + w > fbWidth) w = fbWidth - x;
+    if (y + h > fbHeight) h = fbHeight - y;
+    if (w <= 0 || h <= 0)
+        return;
+
+    DamageRect rect{x, y, w, h};
+
+    // Drop rects made redundant by the new one, and the new one if it is already covered
+    int n = 0;
+    for (int i = 0; i < damage.count; ++i) {
+        if (containsRect(damage.rects[i], rect))
+            return;
+        if (!containsRect(rect, damage.rects[i]))
+            damage.rects[n++] = damage.rects[i];
+    }
+    damage.count = n;
+
+    if (damage.count < MaxDamageRects) {
+        damage.rects[damage.count++] = rect;
+        return;
+    }
+
+    for (int i = 0; i < damage.count; ++i)
+        rect = unionRect(rect, damage.rects[i]);
+    damage.rects[0] = rect;
+    damage.count = 1;
+}
+
+#endif //AVNC_DAMAGE_H
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_DECODEPOOL_H
+#define AVNC_DECODEPOOL_H
+
+#include <unistd.h>
+#include <rfb/rfbclient.h>
+#include <turbojpeg.h>
+#include "Damage.h"
+
+/******************************************************************************
+ * Parallel JPEG decoding
+ *
+ * LibVNCClient decodes every rectangle on the receiver thread, so a large
+ * update made of many Tight JPEG rects keeps one core busy while the others
+ * idle. JPEG rects are independent of each other (unlike zlib based ones,
+ * which share stateful zlib streams), so we take them over with the `GotJpeg`
+ * hook and decode them on a small pool of workers:
+ *
+ *  - Receiver reads the compressed payload and queues a job, then moves on to
+ *    next rect. Each job writes only to its own region of the back buffer.
+ *  - Before any rect is written, receiver waits for pending jobs overlapping it
+ *    (via `SoftCursorLockArea`, which LibVNCClient calls for destination, and
+ *    source of CopyRect, of every rect). So later rects still win over earlier ones.
+ *  - Before an update is published, or buffers are reallocated, receiver
+ *    waits for all jobs to finish.
+ *
+ * Small rects are cheaper to decode in place than to hand over, so those
+ * are decoded on receiver thread.
+ *****************************************************************************/
+
+const int MaxDecodeWorkers = 4;
+
+// Rects with fewer pixels than this are decoded by receiver itself
+const int MinParallelDecodePixels = 64 * 64;
+
+struct DecodeJob {
+    // Compressed data, owned by job
+    uint8_t *data;
+    unsigned long length;
+
+    uint8_t *dst;
+    int pitch;
+    int pixelFormat;
+    DamageRect rect;
+
+    // True once a worker has picked it up
+    bool taken;
+    DecodeJob *next;
+};
+
+struct DecodePool {
+    pthread_t workers[MaxDecodeWorkers];
+    int workerCount;
+    bool started;
+    bool stopping;
+
+    // Unfinished jobs (queued & in progress), in submission order
+    DecodeJob *head;
+    DecodeJob *tail;
+
+    // Set if any decode has failed. Connection is unusable after that,
+    // so it is never cleared.
+    bool failed;
+
+    // Decompressor used by receiver for in-place decodes
+    tjhandle receiverHandle;
+
+    MUTEX(mutex);
+    COND(jobQueued);
+    COND(jobFinished);
+};
+
+void initDecodePool(DecodePool &pool) {
+    memset(&pool, 0, sizeof(DecodePool));
+    INIT_MUTEX(pool.mutex);
+    INIT_COND(pool.jobQueued);
+    INIT_COND(pool.jobFinished);
+}
+
+static bool decodeJpeg(tjhandle handle, const DecodeJob *job) {
+    if (!handle)
+        return false;
+
+    if (tjDecompress2(handle, job->data, job->length, job->dst,
+                      job->rect.w, job->pitch, job->rect.h, job->pixelFormat, 0) == -1) {
+        rfbClientErr("TurboJPEG error: %s\n", tjGetErrorStr2(handle));
+        return false;
+    }
+    return true;
+}
+
+static void *decodeWorker(void *arg) {
+    auto pool = (DecodePool *) arg;
+    auto handle = tjInitDecompress();
+
+    LOCK(pool->mutex);
+    while (true) {
+        DecodeJob *job = pool->head;
+        while (job && job->taken)
+            job = job->next;
+
+        if (!job) {
+            if (pool->stopping)
+                break;
+            WAIT(pool->jobQueued, pool->mutex);
+            continue;
+        }
+
+        job->taken = true;
+        UNLOCK(pool->mutex);
+
+        bool ok = decodeJpeg(handle, job);
+
+        LOCK(pool->mutex);
+        if (!ok)
+            pool->failed = true;
+
+        // Unlink the finished job
+        DecodeJob **link = &pool->head;
+        DecodeJob *previous = nullptr;
+        while (*link != job) {
+            previous = *link;
+            link = &(*link)->next;
+        }
+        *link = job->next;
+        if (pool->tail == job)
+            pool->tail = previous;
+
+        free(job->data);
+        free(job);
+        pthread_cond_broadcast(&pool->jobFinished);
+    }
+    UNLOCK(pool->mutex);
+
+    if (handle)
+        tjDestroy(handle);
+    return nullptr;
+}
+
+/**
+ * Starts workers, one less than available cores (receiver is busy too).
+ * If there is only one core, everything is decoded in place.
+ */
+static void startDecodePool(DecodePool &pool) {
+    pool.started = true;
+    pool.receiverHandle = tjInitDecompress();
+
+    auto cores = sysconf(_SC_NPROCESSORS_ONLN);
+    auto count = std::min((long) MaxDecodeWorkers, std::max(cores - 1, 0L));
+
+    for (int i = 0; i < count; ++i) {
+        if (pthread_create(&pool.workers[pool.workerCount], nullptr, decodeWorker, &pool) != 0)
+            break;
+        pool.workerCount++;
+    }
+}
+
+/**
+ * Decodes JPEG data into given rect of the framebuffer, either in place or on a worker.
+ * Takes ownership of [data].
+ *
+ * Returns false if this, or an earlier decode, has failed.
+ */
+bool submitJpegDecode(DecodePool &pool, uint8_t *data, unsigned long length, uint8_t *dst, int pitch,
+                      int pixelFormat, const DamageRect &rect) {
+    if (!pool.started)
+        startDecodePool(pool);
+
+    DecodeJob job{data, length, dst, pitch, pixelFormat, rect, false, nullptr};
+
+    if (pool.workerCount == 0 || rect.w * rect.h < MinParallelDecodePixels) {
+        bool ok = decodeJpeg(pool.receiverHandle, &job);
+        free(data);
+        return ok;
+    }
+
+    auto queued = (DecodeJob *) malloc(sizeof(DecodeJob));
+    if (!queued) {
+        bool ok = decodeJpeg(pool.receiverHandle, &job);
+        free(data);
+        return ok;
+    }
+    *queued = job;
+
+    bool failed;
+    LOCK(pool.mutex);
+    {
+        if (pool.tail)
+            pool.tail->next = queued;
+        else
+            pool.head = queued;
+        pool.tail = queued;
+        failed = pool.failed;
+        TSIGNAL(pool.jobQueued);
+    }
+    UNLOCK(pool.mutex);
+
+    return !failed;
+}
+
+static bool overlapsPendingJob(const DecodePool &pool, const DamageRect &rect) {
+    for (auto job = pool.head; job; job = job->next) {
+        auto &r = job->rect;
+        if (r.x < rect.x + rect.w && rect.x < r.x + r.w && r.y < rect.y + rect.h && rect.y < r.y + r.h)
+            return true;
+    }
+    return false;
+}
+
+/**
+ * Waits for pending jobs which write to given region.
+ */
+void waitForOverlappingDecodes(DecodePool &pool, const DamageRect &rect) {
+    if (pool.workerCount == 0)
+        return;
+
+    LOCK(pool.mutex);
+    while (overlapsPendingJob(pool, rect))
+        WAIT(pool.jobFinished, pool.mutex);
+    UNLOCK(pool.mutex);
+}
+
+/**
+ * Waits for all pending jobs.
+ * Returns false if any decode has failed.
+ */
+bool waitForDecodes(DecodePool &pool) {
+    if (pool.workerCount == 0)
+        return true;
+
+    bool failed;
+    LOCK(pool.mutex);
+    {
+        while (pool.head)
+            WAIT(pool.jobFinished, pool.mutex);
+        failed = pool.failed;
+    }
+    UNLOCK(pool.mutex);
+    return !failed;
+}
+
+/**
+ * Finishes pending jobs, and stops workers.
+ */
+void stopDecodePool(DecodePool &pool) {
+    LOCK(pool.mutex);
+    pool.stopping = true;
+    pthread_cond_broadcast(&pool.jobQueued);
+    UNLOCK(pool.mutex);
+
+    for (int i = 0; i < pool.workerCount; ++i)
+        pthread_join(pool.workers[i], nullptr);
+    pool.workerCount = 0;
+
+    if (pool.receiverHandle)
+        tjDestroy(pool.receiverHandle);
+    pool.receiverHandle = nullptr;
+
+    TINI_COND(pool.jobQueued);
+    TINI_COND(pool.jobFinished);
+    TINI_MUTEX(pool.mutex);
+}
+
+#endif //AVNC_DECODEPOOL_H
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_FRAMEBUFFERS_H
+#define AVNC_FRAMEBUFFERS_H
+
+#include "Damage.h"
+
+/******************************************************************************
+ * Triple-buffered framebuffer
+ *
+ * LibVNCClient decodes directly into `client->frameBuffer`. If the renderer
+ * reads from the same buffer, both threads have to serialize on a lock held
+ * for the whole texture upload, and a frame can be uploaded half-decoded.
+ *
+ * So we keep three buffers:
+ *
+ *  - back:  decoded into by the receiver thread (this is `client->frameBuffer`)
+ *  - ready: last completed update, not used by anyone
+ *  - front: uploaded from by the renderer thread
+ *
+ * When an update is finished, receiver swaps back & ready. When renderer wants
+ * to draw, it swaps front & ready if a new update is available. Swaps are done
+ * under a lock, but that lock is only held for a few instructions.
+ *
+ * VNC updates are incremental, so the buffer that becomes the new back buffer
+ * is missing the updates published since it was last written to. Receiver tracks
+ * these regions per buffer (`stale`) and copies them from the just published
+ * buffer before decoding the next update. Only the receiver writes to buffers,
+ * so reading the published buffer while renderer uploads from it is fine.
+ *****************************************************************************/
+
+const int FrameBufferCount = 3;
+
+struct FrameBuffers {
+    uint8_t *buffers[FrameBufferCount];
+    size_t size;
+
+    // Buffer indices, see above. `ready` & `front` are swapped under lock.
+    int back;
+    int ready;
+    int front;
+
+    // True if `ready` holds an update not yet taken by renderer
+    bool hasReady;
+
+    // Regions changed since renderer last took a buffer. Protected by lock.
+    Damage readyDamage;
+
+    // Regions of the update being decoded. Receiver only.
+    Damage updateDamage;
+
+    // Regions where each buffer differs from latest published one. Receiver only.
+    Damage stale[FrameBufferCount];
+};
+
+/**
+ * Timing information about framebuffer processing.
+ * All times are in nanoseconds.
+ */
+struct FrameMetrics {
+    uint64_t updates;           // Completed framebuffer updates
+    uint64_t skippedUpdates;    // Updates replaced by a newer one before renderer took them
+    uint64_t decodeTime;        // Total time spent receiving & decoding updates
+    uint64_t lastDecodeTime;
+    uint64_t maxDecodeTime;
+    uint64_t uploads;           // Texture uploads which transferred data
+    uint64_t uploadTime;        // Total time spent submitting texture uploads
+    uint64_t lastUploadTime;
+    uint64_t maxUploadTime;
+    uint64_t uploadedBytes;
+    uint64_t receivedBytes;     // Total bytes read from server
+    uint64_t lastUpdateBytes;   // Bytes read for last update, including any messages before it
+    uint64_t lastRoundTripTime; // From sending update request to start of the update it produced
+};
+
+void mergeDamage(Damage &dst, const Damage &src) {
+    if (src.full) {
+        markFullDamage(dst);
+        return;
+    }
+    // Rects in src are already clipped
+    for (int i = 0; i < src.count; ++i)
+        addDamage(dst, src.rects[i].x, src.rects[i].y, src.rects[i].w, src.rects[i].h, INT32_MAX, INT32_MAX);
+}
+
+static bool isDamageEmpty(const Damage &damage) {
+    return !damage.full && damage.count == 0;
+}
+
+void initFrameBuffers(FrameBuffers &fb) {
+    memset(&fb, 0, sizeof(FrameBuffers));
+    fb.back = 0;
+    fb.ready = 1;
+    fb.front = 2;
+}
+
+void freeFrameBuffers(FrameBuffers &fb) {
+    for (auto &buffer: fb.buffers) {
+        free(buffer);
+        buffer = nullptr;
+    }
+    fb.size = 0;
+}
+
+/**
+ * (Re)allocates all buffers with given size, cleared to zero.
+ * Returns the new back buffer, or null if allocation failed.
+ */
+uint8_t *allocFrameBuffers(FrameBuffers &fb, size_t size) {
+    freeFrameBuffers(fb);
+
+    for (auto &buffer: fb.buffers) {
+        buffer = static_cast<uint8_t *>(calloc(1, size));
+        if (!buffer) {
+            freeFrameBuffers(fb);
+            return nullptr;
+        }
+    }
+
+    fb.size = size;
+    fb.back = 0;
+    fb.ready = 1;
+    fb.front = 2;
+    fb.hasReady = false;
+    markFullDamage(fb.readyDamage);
+    resetDamage(fb.updateDamage);
+    for (auto &stale: fb.stale)
+        resetDamage(stale);
+
+    return fb.buffers[fb.back];
+}
+
+/**
+ * Copy given regions from src to dst buffer.
+ */
+static void copyRegions(uint8_t *dst, const uint8_t *src, const Damage &regions, int width, size_t size) {
+    if (regions.full) {
+        memcpy(dst, src, size);
+        return;
+    }
+
+    const size_t stride = (size_t) width * 4;
+    for (int i = 0; i < regions.count; ++i) {
+        auto &r = regions.rects[i];
+        size_t offset = r.y * stride + (size_t) r.x * 4;
+        size_t rowSize = (size_t) r.w * 4;
+        for (int row = 0; row < r.h; ++row, offset += stride)
+            memcpy(dst + offset, src + offset, rowSize);
+    }
+}
+
+#endif //AVNC_FRAMEBUFFERS_H
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_LOCALDISPLAY_H
+#define AVNC_LOCALDISPLAY_H
+
+#include <algorithm>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include "Damage.h"
+
+/******************************************************************************
+ * Local display
+ *
+ * When the X server runs on this device (inside the Linux rootfs), there is no
+ * need to encode, send & decode every frame. Xvfb started with `-fbdir` keeps
+ * its screen in a file using XWD format. We map that file and upload texture
+ * regions straight from the mapping, while the VNC connection is only used
+ * for input, clipboard etc.
+ *
+ * Xvfb does not tell anyone what it has drawn, so damage is found by hashing
+ * the screen in tiles and comparing with hashes from previous scan.
+ *****************************************************************************/
+
+const int LocalDisplayTileSize = 64;
+
+struct LocalDisplay {
+    int fd;
+    void *map;
+    size_t mapSize;
+
+    // Start of pixel data inside the mapping, in same BGRA layout as our framebuffers
+    const uint8_t *pixels;
+    int width;
+    int height;
+    size_t stride;
+
+    // Tile hashes from last scan. Scanner only.
+    uint64_t *tileHashes;
+    int tilesX;
+    int tilesY;
+
+    // Regions changed since renderer last uploaded. Protected by ClientEx mutex.
+    Damage damage;
+};
+
+/**
+ * Reads big-endian CARD32 from XWD header.
+ */
+static uint32_t readXwdCard32(const uint8_t *header, int index) {
+    auto p = header + index * 4;
+    return ((uint32_t) p[0] << 24) | ((uint32_t) p[1] << 16) | ((uint32_t) p[2] << 8) | (uint32_t) p[3];
+}
+
+static void closeLocalDisplay(LocalDisplay *display) {
+    if (!display)
+        return;
+
+    if (display->map && display->map != MAP_FAILED) munmap(display->map, display->mapSize);
+    if (display->fd > -1) close(display->fd);
+    free(display->tileHashes);
+    free(display);
+}
+
+/**
+ * Maps the XWD screen file written by Xvfb at given path.
+ * Only 32 bits-per-pixel ZPixmap screens with BGRX byte layout are supported,
+ * which is what Xvfb uses for `-screen 0 WxHx24`.
+ *
+ * Returns null on failure.
+ */
+static LocalDisplay *openLocalDisplay(const char *path) {
+    const int headerFields = 25;
+    const int headerSize = headerFields * 4;
+    const int colorSize = 12;
+
+    auto display = (LocalDisplay *) calloc(1, sizeof(LocalDisplay));
+    if (!display)
+        return nullptr;
+    display->fd = open(path, O_RDONLY | O_CLOEXEC);
+
+    struct stat st{};
+    if (display->fd < 0 || fstat(display->fd, &st) != 0 || st.st_size < headerSize) {
+        log_error("Cannot open local display %s: %s", path, strerror(errno));
+        closeLocalDisplay(display);
+        return nullptr;
+    }
+
+    display->mapSize = (size_t) st.st_size;
+    display->map = mmap(nullptr, display->mapSize, PROT_READ, MAP_SHARED, display->fd, 0);
+    if (display->map == MAP_FAILED) {
+        log_error("Cannot map local display %s: %s", path, strerror(errno));
+        closeLocalDisplay(display);
+        return nullptr;
+    }
+
+    auto header = static_cast<const uint8_t *>(display->map);
+    auto xwdHeaderSize = readXwdCard32(header, 0);
+    auto fileVersion = readXwdCard32(header, 1);
+    auto pixmapFormat = readXwdCard32(header, 2);
+    auto width = readXwdCard32(header, 4);
+    auto height = readXwdCard32(header, 5);
+    auto byteOrder = readXwdCard32(header, 7);
+    auto bitsPerPixel = readXwdCard32(header, 11);
+    auto bytesPerLine = readXwdCard32(header, 12);
+    auto redMask = readXwdCard32(header, 14);
+    auto greenMask = readXwdCard32(header, 15);
+    auto blueMask = readXwdCard32(header, 16);
+    auto colorCount = readXwdCard32(header, 19);
+
+    // XWD: version 7, ZPixmap (2), LSBFirst (0)
+    if (fileVersion != 7 || pixmapFormat != 2 || byteOrder != 0 || bitsPerPixel != 32
+        || redMask != 0xff0000 || greenMask != 0xff00 || blueMask != 0xff
+        || width == 0 || height == 0 || width > 16384 || height > 16384 || bytesPerLine < width * 4) {
+        log_error("Unsupported local display format in %s", path);
+        closeLocalDisplay(display);
+        return nullptr;
+    }
+
+    auto pixelOffset = (uint64_t) xwdHeaderSize + (uint64_t) colorCount * colorSize;
+    if (pixelOffset + (uint64_t) bytesPerLine * height > display->mapSize) {
+        log_error("Local display file %s is truncated", path);
+        closeLocalDisplay(display);
+        return nullptr;
+    }
+
+    display->pixels = header + pixelOffset;
+    display->width = (int) width;
+    display->height = (int) height;
+    display->stride = bytesPerLine;
+
+    display->tilesX = (display->width + LocalDisplayTileSize - 1) / LocalDisplayTileSize;
+    display->tilesY = (display->height + LocalDisplayTileSize - 1) / LocalDisplayTileSize;
+    display->tileHashes = (uint64_t *) calloc((size_t) display->tilesX * display->tilesY, sizeof(uint64_t));
+    if (!display->tileHashes) {
+        closeLocalDisplay(display);
+        return nullptr;
+    }
+
+    markFullDamage(display->damage);
+    return display;
+}
+
+static uint64_t hashTile(const LocalDisplay *display, int tileX, int tileY) {
+    const int x = tileX * LocalDisplayTileSize;
+    const int y = tileY * LocalDisplayTileSize;
+    const int w = std::min(LocalDisplayTileSize, display->width - x);
+    const int h = std::min(LocalDisplayTileSize, display->height - y);
+
+    // FNV-1a over 32-bit pixels
+    uint64_t hash = 14695981039346656037ULL;
+    for (int row = 0; row < h; ++row) {
+        auto src = reinterpret_cast<const uint32_t *>(display->pixels + (y + row) * display->stride) + x;
+        for (int col = 0; col < w; ++col) {
+            hash ^= src[col];
+            hash *= 1099511628211ULL;
+        }
+    }
+    return hash;
+}
+
+/**
+ * Rehashes all tiles and records changed ones in given damage.
+ * Adjacent changed tiles of a tile row are merged into one rect.
+ *
+ * Returns true if anything changed.
+ */
+static bool scanLocalDisplay(LocalDisplay *display, Damage &damage) {
+    bool changed = false;
+
+    for (int ty = 0; ty < display->tilesY; ++ty) {
+        int spanStart = -1;
+        for (int tx = 0; tx <= display->tilesX; ++tx) {
+            bool tileChanged = false;
+            if (tx < display->tilesX) {
+                auto &stored = display->tileHashes[ty * display->tilesX + tx];
+                auto hash = hashTile(display, tx, ty);
+                tileChanged = hash != stored;
+                stored = hash;
+            }
+
+            if (tileChanged && spanStart < 0) {
+                spanStart = tx;
+            } else if (!tileChanged && spanStart >= 0) {
+                addDamage(damage,
+                          spanStart * LocalDisplayTileSize, ty * LocalDisplayTileSize,
+                          (tx - spanStart) * LocalDisplayTileSize, LocalDisplayTileSize,
+                          display->width, display->height);
+                spanStart = -1;
+                changed = true;
+            }
+        }
+    }
+
+    return changed;
+}
+
+#endif //AVNC_LOCALDISPLAY_H
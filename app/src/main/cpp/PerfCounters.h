@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_PERFCOUNTERS_H
+#define AVNC_PERFCOUNTERS_H
+
+#include <rfb/rfbclient.h>
+
+/******************************************************************************
+ * Performance counters
+ *
+ * FrameMetrics tells how much time was spent in total & on last update. To see
+ * where time goes over a session, we also keep time distributions of decoding &
+ * uploading, and how many rects & bytes each encoding has contributed.
+ *
+ * Layout of the exported values must match `PerfCounters.kt`.
+ *****************************************************************************/
+
+const int TimeHistogramBuckets = 10;
+
+// Upper bounds (exclusive, in microseconds) of all but the last bucket
+const uint64_t TimeHistogramLimits[TimeHistogramBuckets - 1] = {500, 1000, 2000, 4000, 8000, 16000, 32000,
+                                                                64000, 128000};
+
+struct TimeHistogram {
+    uint64_t counts[TimeHistogramBuckets];
+};
+
+static void addToHistogram(TimeHistogram &histogram, uint64_t nanos) {
+    auto micros = nanos / 1000;
+    int bucket = 0;
+    while (bucket < TimeHistogramBuckets - 1 && micros >= TimeHistogramLimits[bucket])
+        ++bucket;
+    histogram.counts[bucket]++;
+}
+
+/**
+ * Encodings tracked separately. Tight JPEG rects are counted apart from other Tight rects,
+ * because their cost is very different.
+ */
+enum EncodingSlot {
+    EncodingSlotRaw,
+    EncodingSlotCopyRect,
+    EncodingSlotRRE,
+    EncodingSlotHextile,
+    EncodingSlotZlib,
+    EncodingSlotTight,
+    EncodingSlotTightJpeg,
+    EncodingSlotZRLE,
+    EncodingSlotOther,
+    EncodingSlotCount
+};
+
+static EncodingSlot getEncodingSlot(int32_t encoding, bool jpeg) {
+    switch (encoding) {
+        case rfbEncodingRaw: return EncodingSlotRaw;
+        case rfbEncodingCopyRect: return EncodingSlotCopyRect;
+        case rfbEncodingRRE:
+        case rfbEncodingCoRRE: return EncodingSlotRRE;
+        case rfbEncodingHextile: return EncodingSlotHextile;
+        case rfbEncodingZlib: return EncodingSlotZlib;
+        case rfbEncodingTight: return jpeg ? EncodingSlotTightJpeg : EncodingSlotTight;
+        case rfbEncodingZRLE:
+        case rfbEncodingZYWRLE: return EncodingSlotZRLE;
+        default: return EncodingSlotOther;
+    }
+}
+
+struct EncodingCounters {
+    uint64_t rects;
+    uint64_t bytes;  // Including rect headers
+};
+
+struct PerfCounters {
+    TimeHistogram decodeTimes;
+    TimeHistogram uploadTimes;
+    EncodingCounters encodings[EncodingSlotCount];
+};
+
+const int PerfCountersValueCount = 2 * TimeHistogramBuckets + 2 * EncodingSlotCount;
+
+static void mergeEncodingCounters(EncodingCounters *dst, EncodingCounters *src) {
+    for (int i = 0; i < EncodingSlotCount; ++i) {
+        dst[i].rects += src[i].rects;
+        dst[i].bytes += src[i].bytes;
+        src[i] = {0, 0};
+    }
+}
+
+/**
+ * Writes counters to [out] in the order expected by managed side.
+ */
+static void exportPerfCounters(const PerfCounters &counters, uint64_t *out) {
+    for (int i = 0; i < TimeHistogramBuckets; ++i) *out++ = counters.decodeTimes.counts[i];
+    for (int i = 0; i < TimeHistogramBuckets; ++i) *out++ = counters.uploadTimes.counts[i];
+    for (int i = 0; i < EncodingSlotCount; ++i) {
+        *out++ = counters.encodings[i].rects;
+        *out++ = counters.encodings[i].bytes;
+    }
+}
+
+#endif //AVNC_PERFCOUNTERS_H
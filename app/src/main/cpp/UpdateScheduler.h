@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2022  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+#ifndef AVNC_UPDATESCHEDULER_H
+#define AVNC_UPDATESCHEDULER_H
+
+#include <algorithm>
+#include <rfb/rfbclient.h>
+#include "ContinuousUpdates.h"
+
+/******************************************************************************
+ * Update request scheduling
+ *
+ * LibVNCClient sends the next update request right after an update is received,
+ * so with plain RFB there is at most one update per round trip. We take over
+ * sending requests (library's own request is always suppressed with
+ * `pauseFramebufferUpdates`), and send them from the receiver thread:
+ *
+ *  - If continuous updates are enabled, server pushes updates on its own and
+ *    no requests are sent. If updates are paused, nothing is sent either.
+ *  - Otherwise, a request is sent as soon as an update arrives (before it is
+ *    decoded), like before.
+ *  - While screen is changing continuously (updates arrive within [StreamingWindow]),
+ *    a second request is sent one frame interval later, without waiting for
+ *    the update. So a request is always waiting at server, and update rate is
+ *    not tied to round-trip time. Servers merge pending requests, so this does
+ *    not pile up updates.
+ *  - Requests are never sent faster than display refresh (`frameInterval`),
+ *    as updates arriving faster than that are never shown.
+ *  - If renderer has not yet taken the last published update, GL is falling
+ *    behind. Requests are then held back (for at most [MaxRendererWait]), so
+ *    that we don't decode updates only to drop them.
+ *
+ * Receiver only, except where noted.
+ *****************************************************************************/
+
+const int MaxRequestsInFlight = 2;
+const int64_t StreamingWindow = 250 * 1000000LL;
+const int64_t MaxRendererWait = 100 * 1000000LL;
+
+// Used to recheck renderer progress when there is no frame interval
+const int64_t RendererPollInterval = 4 * 1000000LL;
+
+// Returned when there is nothing to do until next message
+const int64_t SchedulerIdleWait = 1000 * 1000000LL;
+
+struct UpdateScheduler {
+    // Minimum time between requests, from display refresh rate. 0 means no limit.
+    int64_t frameInterval;
+
+    int64_t lastRequestTime;
+    int64_t lastUpdateTime;
+
+    // Requests sent since last update, and when the first of those was sent
+    int requestsSinceUpdate;
+    int64_t firstRequestTime;
+};
+
+static void onUpdateReceived(UpdateScheduler &scheduler, int64_t now) {
+    scheduler.lastUpdateTime = now;
+    scheduler.requestsSinceUpdate = 0;
+}
+
+/**
+ * Sends an update request if one is due. Must be called with update control lock held.
+ * [wait] is set to the time after which this should be called again, if no message arrives.
+ *
+ * Returns false if request could not be sent.
+ */
+static bool serviceUpdateScheduler(rfbClient *client, UpdateScheduler &scheduler, const UpdateControl &uc,
+                                   bool rendererBehind, int64_t now, int64_t &wait) {
+    wait = SchedulerIdleWait;
+
+    if (uc.paused || uc.continuousUpdatesEnabled) {
+        // If server stops pushing updates, we have to start with a fresh request
+        scheduler.requestsSinceUpdate = 0;
+        return true;
+    }
+
+    bool streaming = scheduler.lastUpdateTime > 0 && now - scheduler.lastUpdateTime < StreamingWindow;
+    int limit = streaming ? MaxRequestsInFlight : 1;
+    if (scheduler.requestsSinceUpdate >= limit)
+        return true; // Waiting for server
+
+    auto due = scheduler.requestsSinceUpdate == 0 ? scheduler.lastRequestTime + scheduler.frameInterval
+                                                  : scheduler.lastRequestTime + std::max(scheduler.frameInterval,
+                                                                                         RendererPollInterval);
+    if (rendererBehind && now - scheduler.lastUpdateTime < MaxRendererWait)
+        due = std::max(due, now + std::max(scheduler.frameInterval, RendererPollInterval));
+
+    if (due > now) {
+        wait = due - now;
+        return true;
+    }
+
+    if (!SendFramebufferUpdateRequest(client, 0, 0, client->width, client->height, TRUE))
+        return false;
+
+    if (scheduler.requestsSinceUpdate == 0)
+        scheduler.firstRequestTime = now;
+    scheduler.lastRequestTime = now;
+    scheduler.requestsSinceUpdate++;
+
+    if (scheduler.requestsSinceUpdate < limit)
+        wait = std::max(scheduler.frameInterval, RendererPollInterval);
+    return true;
+}
+
+#endif //AVNC_UPDATESCHEDULER_H
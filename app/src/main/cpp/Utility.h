@@ -12,6 +12,7 @@
 #include <stdarg.h>
 #include <netdb.h>
 #include <errno.h>
+#include <time.h>
 #include <android/log.h>
 
 
@@ -42,6 +43,15 @@ static void clearInterrupt(rfbClient *client) {
     while (read(ex->interruptReadFd, &i, 1) > 0);
 }
 
+/**
+ * Returns current monotonic time in nanoseconds.
+ */
+static int64_t nowNanos() {
+    struct timespec ts{};
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t) ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
 /******************************************************************************
  * Logging
  *****************************************************************************/
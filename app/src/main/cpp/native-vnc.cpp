@@ -8,16 +8,20 @@
 
 #include <jni.h>
 #include <GLES2/gl2.h>
+#include <algorithm>
 #include <rfb/rfbclient.h>
 
 #include "ClientEx.h"
 #include "Utility.h"
+#include "LocalDisplay.h"
 
 
 /******************************************************************************
  * Library Initialization
  *****************************************************************************/
 
+static void registerUpdateControlExtension();
+
 struct JniContext {
     JavaVM *vm;                     //JVM Instance
     jclass managedCls;              //Managed `VncClient` class
@@ -69,6 +73,8 @@ Java_com_gaurav_avnc_vnc_VncClient_initLibrary(JNIEnv *env, jclass clazz) {
 
     rfbClientLog = &log_info;
     rfbClientErr = &log_error;
+
+    registerUpdateControlExtension();
 }
 
 
@@ -180,7 +186,143 @@ static rfbBool onHandleCursorPos(rfbClient *client, int x, int y) {
     return TRUE;
 }
 
+/**
+ * Called for every rectangle decoded into the framebuffer.
+ * Runs on receiver thread, no locking needed.
+ */
+static void onGotFrameBufferUpdate(rfbClient *client, int x, int y, int w, int h) {
+    auto ex = getClientExtension(client);
+    addDamage(ex->frameBuffers.updateDamage, x, y, w, h, ex->fbRealWidth, ex->fbRealHeight);
+
+    auto &counters = ex->updateEncodings[getEncodingSlot(client->currentRectEncoding, ex->rectIsJpeg)];
+    counters.rects++;
+    counters.bytes += client->bytesReceived - ex->lastRectEndBytes;
+    ex->lastRectEndBytes = client->bytesReceived;
+    ex->rectIsJpeg = false;
+}
+
+/**
+ * Called before a rectangle is written to framebuffer (and for source of CopyRect).
+ * Any JPEG still being decoded into that region must land first.
+ */
+static void onSoftCursorLockArea(rfbClient *client, int x, int y, int w, int h) {
+    waitForOverlappingDecodes(getClientExtension(client)->decodePool, {x, y, w, h});
+}
+
+/**
+ * Hands JPEG rects of Tight encoding over to decode pool, see DecodePool.h.
+ * LibVNCClient does not free the buffer passed to this hook, so we take ownership of it.
+ */
+static rfbBool onGotJpeg(rfbClient *client, const uint8_t *buffer, int length, int x, int y, int w, int h) {
+    auto ex = getClientExtension(client);
+    auto data = const_cast<uint8_t *>(buffer);
+    ex->rectIsJpeg = true;
+
+    // Same layout LibVNCClient would use for 32 bpp, see DecompressJpegRect in tight.c
+    bool bgr = client->format.redShift == 16 && client->format.blueShift == 0;
+    int pixelFormat;
+    if (client->format.bigEndian)
+        pixelFormat = bgr ? TJPF_XRGB : TJPF_XBGR;
+    else
+        pixelFormat = bgr ? TJPF_BGRX : TJPF_RGBX;
+
+    auto pitch = client->width * 4;
+    auto dst = client->frameBuffer + (size_t) y * pitch + (size_t) x * 4;
+
+    if (!submitJpegDecode(ex->decodePool, data, (unsigned long) length, dst, pitch, pixelFormat, {x, y, w, h})) {
+        rfbClientErr("JPEG decoding failed\n");
+        return FALSE;
+    }
+    return TRUE;
+}
+
+/**
+ * Publishes the decoded update to renderer by swapping back & ready buffers,
+ * and brings the new back buffer up to date. See FrameBuffers.h
+ */
+static void publishFrameBuffer(rfbClient *client, ClientEx *ex, uint64_t updateBytes, uint64_t roundTripTime) {
+    auto &fb = ex->frameBuffers;
+    if (!client->frameBuffer || isDamageEmpty(fb.updateDamage))
+        return;
+
+    auto decodeTime = (uint64_t) (nowNanos() - ex->messageStartTime);
+    int published;
+
+    LOCK(ex->mutex);
+    {
+        if (fb.hasReady)
+            ex->metrics.skippedUpdates++;
+
+        std::swap(fb.back, fb.ready);
+        fb.hasReady = true;
+        published = fb.ready;
+        mergeDamage(fb.readyDamage, fb.updateDamage);
+
+        ex->metrics.updates++;
+        ex->metrics.decodeTime += decodeTime;
+        ex->metrics.lastDecodeTime = decodeTime;
+        ex->metrics.maxDecodeTime = std::max(ex->metrics.maxDecodeTime, decodeTime);
+        ex->metrics.receivedBytes = client->bytesReceived;
+        addToHistogram(ex->perf.decodeTimes, decodeTime);
+        mergeEncodingCounters(ex->perf.encodings, ex->updateEncodings);
+        ex->metrics.lastUpdateBytes = updateBytes;
+        if (roundTripTime > 0)
+            ex->metrics.lastRoundTripTime = roundTripTime;
+    }
+    UNLOCK(ex->mutex);
+
+    for (int i = 0; i < FrameBufferCount; ++i) {
+        if (i != published)
+            mergeDamage(fb.stale[i], fb.updateDamage);
+    }
+    resetDamage(fb.stale[published]);
+    resetDamage(fb.updateDamage);
+
+    // Renderer may be reading the published buffer, but nobody writes to it
+    copyRegions(fb.buffers[fb.back], fb.buffers[published], fb.stale[fb.back], ex->fbRealWidth, fb.size);
+    resetDamage(fb.stale[fb.back]);
+    client->frameBuffer = fb.buffers[fb.back];
+}
+
+/**
+ * Lets the scheduler send an update request if one is due, see UpdateScheduler.h.
+ */
+static bool scheduleUpdateRequest(rfbClient *client, ClientEx *ex, int64_t &wait) {
+    bool rendererBehind;
+    LOCK(ex->mutex);
+    rendererBehind = ex->frameBuffers.hasReady;
+    UNLOCK(ex->mutex);
+
+    LOCK(ex->updateControlMutex);
+    auto result = serviceUpdateScheduler(client, ex->updateScheduler, ex->updateControl, rendererBehind,
+                                         nowNanos(), wait);
+    UNLOCK(ex->updateControlMutex);
+    return result;
+}
+
 static void onFinishedFrameBufferUpdate(rfbClient *client) {
+    auto ex = getClientExtension(client);
+    auto &scheduler = ex->updateScheduler;
+
+    auto updateBytes = client->bytesReceived - ex->lastUpdateEndBytes;
+    ex->lastUpdateEndBytes = client->bytesReceived;
+
+    // Server may hold a request until something changes, so round-trip
+    // samples are only an upper bound, and consumers should use the minimum.
+    // Without requests (continuous updates) there is no sample.
+    int64_t roundTripTime = scheduler.requestsSinceUpdate > 0 ? ex->messageStartTime - scheduler.firstRequestTime : 0;
+    onUpdateReceived(scheduler, nowNanos());
+
+    // Ask for next update before waiting for decoders & publishing, so that
+    // the round trip overlaps with them. A failed send shows up on next read.
+    int64_t wait;
+    if (!scheduleUpdateRequest(client, ex, wait))
+        rfbClientErr("Failed to request framebuffer update\n");
+
+    // Failures are reported to the library when next JPEG rect is submitted
+    waitForDecodes(ex->decodePool);
+    publishFrameBuffer(client, ex, updateBytes, (uint64_t) std::max(roundTripTime, (int64_t) 0));
+
     auto obj = getManagedClient(client);
     auto env = context.getEnv();
 
@@ -205,30 +347,45 @@ static rfbBool onMallocFrameBuffer(rfbClient *client) {
     auto allocSize = (size_t) requestedSize;
     auto ex = getClientExtension(client);
 
-    LOCK(ex->mutex);
-    {
+    // Workers may still be writing to the old back buffer
+    waitForDecodes(ex->decodePool);
 
-        if (client->frameBuffer)
-            free(client->frameBuffer);
+    // Pool only handles 32 bpp, library decodes other formats itself
+    client->GotJpeg = client->format.bitsPerPixel == 32 ? onGotJpeg : nullptr;
 
-        client->frameBuffer = static_cast<uint8_t *>(malloc(allocSize));
+    // Renderer may be uploading from front buffer
+    LOCK(ex->frontMutex);
+    LOCK(ex->mutex);
+    {
+        client->frameBuffer = allocFrameBuffers(ex->frameBuffers, allocSize);
 
         if (client->frameBuffer) {
             ex->fbRealWidth = width;
             ex->fbRealHeight = height;
-            memset(client->frameBuffer, 0, allocSize); //Clear any garbage
+            markFullDamage(ex->frameBuffers.updateDamage);
         } else {
             ex->fbRealWidth = 0;
             ex->fbRealHeight = 0;
         }
     }
     UNLOCK(ex->mutex);
+    UNLOCK(ex->frontMutex);
 
     if (client->frameBuffer == nullptr) {
         rfbClientErr("CRITICAL: frameBuffer allocation failed\n");
         return FALSE;
     }
 
+    // Continuous updates region has to follow the new size
+    LOCK(ex->updateControlMutex);
+    if (ex->updateControl.continuousUpdatesEnabled)
+        sendEnableContinuousUpdates(client, ex->updateControl, true);
+    UNLOCK(ex->updateControlMutex);
+
+    // Displayed frame comes from local display, whose size does not change
+    if (ex->localDisplay)
+        return TRUE;
+
     auto obj = getManagedClient(client);
     auto env = context.getEnv();
     auto cls = context.managedCls;
@@ -254,6 +411,43 @@ static void onGotCursorShape(rfbClient *client, int xHot, int yHot, int width, i
     env->CallVoidMethod(obj, mid, width, height, xHot, yHot);
 }
 
+/**
+ * Handles server messages of Fence & ContinuousUpdates extensions.
+ */
+static rfbBool onExtensionMessage(rfbClient *client, rfbServerToClientMsg *message) {
+    if (message->type != MsgEndOfContinuousUpdates && message->type != MsgFence)
+        return FALSE;
+
+    auto ex = getClientExtension(client);
+    rfbBool result;
+
+    LOCK(ex->updateControlMutex);
+    if (message->type == MsgFence)
+        result = handleFence(client, ex->updateControl);
+    else
+        result = handleEndOfContinuousUpdates(client, ex->updateControl);
+    UNLOCK(ex->updateControlMutex);
+
+    if (!result)
+        rfbClientErr("Failed to handle message %d\n", message->type);
+
+    // Must return TRUE even on failure, otherwise library tries to read the message again
+    return TRUE;
+}
+
+static void registerUpdateControlExtension() {
+    static int encodings[] = {PseudoEncodingFence, PseudoEncodingContinuousUpdates, 0};
+    static rfbClientProtocolExtension extension{};
+    static bool registered = false;
+
+    if (!registered) {
+        extension.encodings = encodings;
+        extension.handleMessage = onExtensionMessage;
+        rfbClientRegisterExtension(&extension);
+        registered = true;
+    }
+}
+
 /**
  * Hooks callbacks to rfbClient.
  */
@@ -265,9 +459,11 @@ static void setCallbacks(rfbClient *client) {
     client->GotXCutText = onGotXCutTextLatin1;
     client->GotXCutTextUTF8 = onGotXCutTextUTF8;
     client->HandleCursorPos = onHandleCursorPos;
+    client->GotFrameBufferUpdate = onGotFrameBufferUpdate;
     client->FinishedFrameBufferUpdate = onFinishedFrameBufferUpdate;
     client->MallocFrameBuffer = onMallocFrameBuffer;
     client->GotCursorShape = onGotCursorShape;
+    client->SoftCursorLockArea = onSoftCursorLockArea;
 }
 
 
@@ -288,6 +484,9 @@ Java_com_gaurav_avnc_vnc_VncClient_nativeClientCreate(JNIEnv *env, jobject thiz)
 
     setCallbacks(client);
     client->canHandleNewFBSize = TRUE;
+
+    // Update requests are sent by our scheduler instead of the library
+    client->pauseFramebufferUpdates = TRUE;
     // client->interruptFd = ex->interruptReadFd; // Not available in current libvncserver
 
     //Attach reference to managed object
@@ -331,6 +530,41 @@ Java_com_gaurav_avnc_vnc_VncClient_nativeConfigure(JNIEnv *env, jobject thiz, jl
     client->format.blueShift = 0;
 }
 
+/**
+ * Changes preferred encodings & their quality/compression levels during session.
+ * Levels outside 0-9 are not sent.
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativeSetEncodings(JNIEnv *env, jobject thiz, jlong client_ptr,
+                                                      jstring encodings, jint quality_level, jint compress_level) {
+    auto client = (rfbClient *) client_ptr;
+    auto ex = getClientExtension(client);
+
+    free(ex->previousEncodingsString);
+    ex->previousEncodingsString = ex->encodingsString;
+    ex->encodingsString = getNativeStrCopy(env, encodings);
+
+    client->appData.encodingsString = ex->encodingsString;
+    client->appData.qualityLevel = quality_level;
+    client->appData.compressLevel = compress_level;
+    client->appData.enableJPEG = quality_level >= 0 && quality_level <= 9;
+
+    return (jboolean) SetFormatAndEncodings(client);
+}
+
+/**
+ * Sets minimum time between update requests, see UpdateScheduler.h.
+ * Must be called from receiver thread.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativeSetUpdateInterval(JNIEnv *env, jobject thiz, jlong client_ptr,
+                                                           jlong interval) {
+    auto client = (rfbClient *) client_ptr;
+    getClientExtension(client)->updateScheduler.frameInterval = std::max((int64_t) interval, (int64_t) 0);
+}
+
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_gaurav_avnc_vnc_VncClient_nativeSetDest(JNIEnv *env, jobject thiz, jlong client_ptr,
@@ -376,10 +610,8 @@ Java_com_gaurav_avnc_vnc_VncClient_nativeCleanup(JNIEnv *env, jobject thiz,
                                                  jlong client_ptr) {
     auto client = (rfbClient *) client_ptr;
 
-    if (client->frameBuffer) {
-        free(client->frameBuffer);
-        client->frameBuffer = nullptr;
-    }
+    // Buffers are owned by client extension
+    client->frameBuffer = nullptr;
 
     auto managedClient = getManagedClient(client);
     env->DeleteGlobalRef(managedClient);
@@ -393,15 +625,26 @@ JNIEXPORT jboolean JNICALL
 Java_com_gaurav_avnc_vnc_VncClient_nativeProcessServerMessage(JNIEnv *env, jobject thiz,
                                                               jlong client_ptr) {
     auto client = (rfbClient *) client_ptr;
+    auto ex = getClientExtension(client);
 
+    int64_t wait;
+    if (!scheduleUpdateRequest(client, ex, wait))
+        return JNI_FALSE;
+
+    // WaitForMessage() only looks at the socket, so data already read into
+    // library's buffer has to be handled without waiting.
     // auto waitResult = WaitForMessageInterruptible(client, 1000000, client->interruptFd); // interruptFd not available
-    auto waitResult = WaitForMessage(client, 1000000); // Use regular WaitForMessage instead
+    auto waitResult = client->buffered > 0 ? 1 : WaitForMessage(client, (unsigned int) (std::min(wait, SchedulerIdleWait) / 1000));
 
     if (waitResult == 0) // Timeout
         return JNI_TRUE;
 
-    if (waitResult > 0 && HandleRFBServerMessage(client))
-        return JNI_TRUE;
+    if (waitResult > 0) {
+        ex->messageStartTime = nowNanos();
+        ex->lastRectEndBytes = client->bytesReceived;
+        if (HandleRFBServerMessage(client))
+            return JNI_TRUE;
+    }
 
     if (errno == EINTR)
         rfbClientLog("Message processing interrupted");
@@ -436,6 +679,81 @@ Java_com_gaurav_avnc_vnc_VncClient_nativeSendPointerEvent(JNIEnv *env, jobject t
     return (jboolean) SendPointerEvent((rfbClient *) client_ptr, x, y, mask);
 }
 
+// Event types used by VncClient.sendInputEvents()
+const jint InputTypePointer = 0;
+const jint InputTypeKeyDown = 1;
+const jint InputTypeKeyUp = 2;
+
+/**
+ * Encodes a batch of input events into RFB messages and sends them with a single write.
+ * Each event takes 4 ints: [type, x|keySym, y|xtCode, mask|unused].
+ * Messages are the same as those sent by SendPointerEvent(), SendKeyEvent() & SendExtendedKeyEvent().
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativeSendInputEvents(JNIEnv *env, jobject thiz, jlong client_ptr,
+                                                         jintArray events, jint count) {
+    auto client = (rfbClient *) client_ptr;
+    if (count <= 0)
+        return JNI_TRUE;
+
+    const bool pointerSupported = SupportsClient2Server(client, rfbPointerEvent);
+    const bool keySupported = SupportsClient2Server(client, rfbKeyEvent);
+    const bool extendedKeySupported = SupportsClient2Server(client, rfbQemuEvent);
+
+    const size_t maxMessageSize = std::max({sz_rfbPointerEventMsg, sz_rfbKeyEventMsg, sz_rfbQemuExtendedKeyEventMsg});
+    auto buffer = static_cast<char *>(malloc(maxMessageSize * count));
+    if (!buffer)
+        return JNI_FALSE;
+
+    auto values = env->GetIntArrayElements(events, nullptr);
+    size_t length = 0;
+
+    for (int i = 0; i < count; ++i) {
+        auto e = values + i * 4;
+
+        if (e[0] == InputTypePointer && pointerSupported) {
+            rfbPointerEventMsg pe;
+            pe.type = rfbPointerEvent;
+            pe.buttonMask = e[3];
+            pe.x = rfbClientSwap16IfLE(e[1] < 0 ? 0 : e[1]);
+            pe.y = rfbClientSwap16IfLE(e[2] < 0 ? 0 : e[2]);
+            memcpy(buffer + length, &pe, sz_rfbPointerEventMsg);
+            length += sz_rfbPointerEventMsg;
+
+        } else if (e[0] == InputTypeKeyDown || e[0] == InputTypeKeyUp) {
+            const bool down = e[0] == InputTypeKeyDown;
+
+            if (e[2] > 0 && extendedKeySupported) {
+                rfbQemuExtendedKeyEventMsg ke;
+                memset(&ke, 0, sizeof(ke));
+                ke.type = rfbQemuEvent;
+                ke.subtype = 0; // key event subtype
+                ke.down = rfbClientSwap16IfLE(down ? 1 : 0);
+                ke.keysym = rfbClientSwap32IfLE((uint32_t) e[1]);
+                ke.keycode = rfbClientSwap32IfLE((uint32_t) e[2]);
+                memcpy(buffer + length, &ke, sz_rfbQemuExtendedKeyEventMsg);
+                length += sz_rfbQemuExtendedKeyEventMsg;
+
+            } else if (keySupported) {
+                rfbKeyEventMsg ke;
+                memset(&ke, 0, sizeof(ke));
+                ke.type = rfbKeyEvent;
+                ke.down = down ? 1 : 0;
+                ke.key = rfbClientSwap32IfLE((uint32_t) e[1]);
+                memcpy(buffer + length, &ke, sz_rfbKeyEventMsg);
+                length += sz_rfbKeyEventMsg;
+            }
+        }
+    }
+
+    env->ReleaseIntArrayElements(events, values, JNI_ABORT);
+
+    rfbBool result = (length == 0) || WriteToRFBServer(client, buffer, length);
+    free(buffer);
+    return (jboolean) result;
+}
+
 extern "C"
 JNIEXPORT jboolean JNICALL
 Java_com_gaurav_avnc_vnc_VncClient_nativeSendCutText(JNIEnv *env, jobject thiz, jlong client_ptr, jbyteArray bytes,
@@ -477,8 +795,12 @@ extern "C"
 JNIEXPORT void JNICALL
 Java_com_gaurav_avnc_vnc_VncClient_nativePauseFramebufferUpdates(JNIEnv *env, jobject thiz, jlong client_ptr,
                                                                  jboolean pause) {
-    // ((rfbClient *) client_ptr)->pauseFramebufferUpdates = pause; // Not available in current libvncserver
-    // TODO: Implement framebuffer update pausing when available
+    auto client = (rfbClient *) client_ptr;
+    auto ex = getClientExtension(client);
+
+    LOCK(ex->updateControlMutex);
+    setUpdatesPaused(client, ex->updateControl, pause);
+    UNLOCK(ex->updateControlMutex);
 }
 
 extern "C"
@@ -506,32 +828,141 @@ Java_com_gaurav_avnc_vnc_VncClient_nativeIsEncrypted(JNIEnv *env, jobject thiz,
     return static_cast<jboolean>(((rfbClient *) client_ptr)->tlsSession ? JNI_TRUE : JNI_FALSE);
 }
 
+/**
+ * Uploads a modified region of given buffer to currently bound texture.
+ * Returns number of bytes transferred.
+ *
+ * [stride] is the distance between rows of [buffer], which may be larger than
+ * [width] pixels for local displays.
+ *
+ * OpenGL ES 2.0 has no GL_UNPACK_ROW_LENGTH, so a sub-rectangle cannot be read
+ * directly out of the framebuffer. Wide regions are uploaded as full-width strips,
+ * which are contiguous in memory. Narrow ones are first packed into a scratch buffer,
+ * which is much cheaper than transferring whole rows to the GPU.
+ */
+static size_t uploadDamageRect(ClientEx *ex, const uint8_t *buffer, size_t stride, int width, const DamageRect &rect) {
+    const int bytesPerPixel = 4;
+    const size_t rowSize = (size_t) rect.w * bytesPerPixel;
+    const size_t size = rowSize * rect.h;
+
+    const bool contiguous = stride == (size_t) width * bytesPerPixel;
+
+    if ((!contiguous || rect.w * 2 < width) && size > ex->uploadBufferSize) {
+        auto scratch = static_cast<uint8_t *>(realloc(ex->uploadBuffer, size));
+        if (scratch) {
+            ex->uploadBuffer = scratch;
+            ex->uploadBufferSize = size;
+        }
+    }
+
+    if (contiguous && (rect.w * 2 >= width || size > ex->uploadBufferSize)) {
+        glTexSubImage2D(GL_TEXTURE_2D, 0, 0, rect.y, width, rect.h, GL_RGBA, GL_UNSIGNED_BYTE,
+                        buffer + rect.y * stride);
+        return stride * rect.h;
+    }
+
+    if (size > ex->uploadBufferSize)
+        return 0;
+
+    auto src = buffer + rect.y * stride + rect.x * bytesPerPixel;
+    for (int row = 0; row < rect.h; ++row)
+        memcpy(ex->uploadBuffer + row * rowSize, src + row * stride, rowSize);
+
+    glTexSubImage2D(GL_TEXTURE_2D, 0, rect.x, rect.y, rect.w, rect.h, GL_RGBA, GL_UNSIGNED_BYTE, ex->uploadBuffer);
+    return size;
+}
+
 extern "C"
-JNIEXPORT void JNICALL
+JNIEXPORT jboolean JNICALL
 Java_com_gaurav_avnc_vnc_VncClient_nativeUploadFrameTexture(JNIEnv *env, jobject thiz,
-                                                            jlong client_ptr) {
+                                                            jlong client_ptr, jboolean full_upload) {
     auto client = (rfbClient *) client_ptr;
     auto ex = getClientExtension(client);
+    auto &fb = ex->frameBuffers;
+    jboolean uploaded = JNI_FALSE;
+
+    // Keeps receiver from reallocating buffers, but not from decoding.
+    // Local display is written by X server, and uploaded from without any locks.
+    LOCK(ex->frontMutex);
+
+    // Take latest update, if any
+    Damage damage;
+    resetDamage(damage);
+    const uint8_t *buffer;
+    size_t stride, size;
+    int width, height;
 
     LOCK(ex->mutex);
+    if (ex->localDisplay) {
+        auto display = ex->localDisplay;
+        damage = display->damage;
+        resetDamage(display->damage);
+        buffer = display->pixels;
+        width = display->width;
+        height = display->height;
+        stride = display->stride;
+        size = stride * height;
+    } else {
+        if (fb.hasReady) {
+            std::swap(fb.front, fb.ready);
+            fb.hasReady = false;
+            damage = fb.readyDamage;
+            resetDamage(fb.readyDamage);
+        }
+        buffer = fb.buffers[fb.front];
+        width = ex->fbRealWidth;
+        height = ex->fbRealHeight;
+        stride = (size_t) width * 4;
+        size = fb.size;
+    }
+    UNLOCK(ex->mutex);
 
-    if (client->frameBuffer) {
-        glTexImage2D(GL_TEXTURE_2D,
-                     0,
-                     GL_RGBA,
-                     ex->fbRealWidth,
-                     ex->fbRealHeight,
-                     0,
-                     GL_RGBA,
-                     GL_UNSIGNED_BYTE,
-                     client->frameBuffer);
-
-        // Note: client->frameBuffer data is actually in 'BGRA' format, instead of 'RGBA'.
+    if (buffer && width > 0 && height > 0) {
+        auto startTime = nowNanos();
+        size_t bytes = 0;
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+
+        if (full_upload || damage.full || ex->texWidth != width || ex->texHeight != height) {
+            // Texture storage is (re)allocated only here, i.e. for new textures & after resize
+            bool contiguous = stride == (size_t) width * 4;
+            glTexImage2D(GL_TEXTURE_2D,
+                         0,
+                         GL_RGBA,
+                         width,
+                         height,
+                         0,
+                         GL_RGBA,
+                         GL_UNSIGNED_BYTE,
+                         contiguous ? buffer : nullptr);
+
+            ex->texWidth = width;
+            ex->texHeight = height;
+            bytes = contiguous ? size : uploadDamageRect(ex, buffer, stride, width, {0, 0, width, height});
+        } else {
+            for (int i = 0; i < damage.count; ++i)
+                bytes += uploadDamageRect(ex, buffer, stride, width, damage.rects[i]);
+        }
+
+        // Note: framebuffer data is actually in 'BGRA' format, instead of 'RGBA'.
         // But OpenGL ES doesn't support that directly. So we use 'GL_RGBA' here, and flip
         // the components to correct order inside fragment shader.
+
+        if (bytes > 0) {
+            auto uploadTime = (uint64_t) (nowNanos() - startTime);
+            LOCK(ex->mutex);
+            ex->metrics.uploads++;
+            ex->metrics.uploadTime += uploadTime;
+            ex->metrics.lastUploadTime = uploadTime;
+            ex->metrics.maxUploadTime = std::max(ex->metrics.maxUploadTime, uploadTime);
+            ex->metrics.uploadedBytes += bytes;
+            addToHistogram(ex->perf.uploadTimes, uploadTime);
+            UNLOCK(ex->mutex);
+        }
+        uploaded = JNI_TRUE;
     }
 
-    UNLOCK(ex->mutex);
+    UNLOCK(ex->frontMutex);
+    return uploaded;
 }
 
 extern "C"
@@ -559,3 +990,99 @@ Java_com_gaurav_avnc_vnc_VncClient_nativeUploadCursorTexture(JNIEnv *env, jobjec
 
     UNLOCK(ex->mutex);
 }
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativeGetFrameMetrics(JNIEnv *env, jobject thiz, jlong client_ptr,
+                                                         jlongArray out) {
+    auto ex = getClientExtension((rfbClient *) client_ptr);
+
+    LOCK(ex->mutex);
+    auto m = ex->metrics;
+    UNLOCK(ex->mutex);
+
+    jlong values[] = {(jlong) m.updates, (jlong) m.skippedUpdates,
+                      (jlong) m.decodeTime, (jlong) m.lastDecodeTime, (jlong) m.maxDecodeTime,
+                      (jlong) m.uploads,
+                      (jlong) m.uploadTime, (jlong) m.lastUploadTime, (jlong) m.maxUploadTime,
+                      (jlong) m.uploadedBytes,
+                      (jlong) m.receivedBytes, (jlong) m.lastUpdateBytes, (jlong) m.lastRoundTripTime};
+    auto count = std::min((jsize) (sizeof(values) / sizeof(values[0])), env->GetArrayLength(out));
+    env->SetLongArrayRegion(out, 0, count, values);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativeGetPerfCounters(JNIEnv *env, jobject thiz, jlong client_ptr,
+                                                         jlongArray out) {
+    auto ex = getClientExtension((rfbClient *) client_ptr);
+
+    LOCK(ex->mutex);
+    auto counters = ex->perf;
+    UNLOCK(ex->mutex);
+
+    uint64_t values[PerfCountersValueCount];
+    exportPerfCounters(counters, values);
+
+    auto count = std::min((jsize) PerfCountersValueCount, env->GetArrayLength(out));
+    env->SetLongArrayRegion(out, 0, count, (const jlong *) values);
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativeAttachLocalDisplay(JNIEnv *env, jobject thiz, jlong client_ptr,
+                                                            jstring path) {
+    auto client = (rfbClient *) client_ptr;
+    auto ex = getClientExtension(client);
+
+    auto cPath = getNativeStrCopy(env, path);
+    auto display = openLocalDisplay(cPath);
+    free(cPath);
+    if (!display)
+        return JNI_FALSE;
+
+    LOCK(ex->frontMutex);
+    LOCK(ex->mutex);
+    auto old = ex->localDisplay;
+    ex->localDisplay = display;
+    UNLOCK(ex->mutex);
+    UNLOCK(ex->frontMutex);
+    closeLocalDisplay(old);
+
+    auto mid = env->GetMethodID(context.managedCls, "cbFramebufferSizeChanged", "(II)V");
+    env->CallVoidMethod(thiz, mid, display->width, display->height);
+
+    log_info("Attached local display %dx%d", display->width, display->height);
+    return JNI_TRUE;
+}
+
+/**
+ * Scans local display for changes. Must not be called concurrently with itself.
+ * Returns true if a new frame should be rendered.
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_gaurav_avnc_vnc_VncClient_nativePollLocalDisplay(JNIEnv *env, jobject thiz, jlong client_ptr) {
+    auto ex = getClientExtension((rfbClient *) client_ptr);
+    auto display = ex->localDisplay;
+    if (!display)
+        return JNI_FALSE;
+
+    // Hashing reads the mapping without lock, only the result is merged under it
+    Damage damage;
+    resetDamage(damage);
+    auto startTime = nowNanos();
+    if (!scanLocalDisplay(display, damage))
+        return JNI_FALSE;
+    auto scanTime = (uint64_t) (nowNanos() - startTime);
+
+    LOCK(ex->mutex);
+    mergeDamage(display->damage, damage);
+    ex->metrics.updates++;
+    ex->metrics.decodeTime += scanTime;
+    ex->metrics.lastDecodeTime = scanTime;
+    ex->metrics.maxDecodeTime = std::max(ex->metrics.maxDecodeTime, scanTime);
+    addToHistogram(ex->perf.decodeTimes, scanTime);
+    UNLOCK(ex->mutex);
+    return JNI_TRUE;
+}
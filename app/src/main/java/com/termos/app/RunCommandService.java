@@ -102,6 +102,8 @@ public class RunCommandService extends Service {
         }
 
         executionCommand.stdin = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_STDIN, null);
+        executionCommand.stdoutFilePath = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_STDOUT_FILE, null);
+        executionCommand.stderrFilePath = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_STDERR_FILE, null);
         executionCommand.workingDirectory = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_WORKDIR, null);
 
         // If EXTRA_RUNNER is passed, use that, otherwise check EXTRA_BACKGROUND and default to Runner.TERMINAL_SESSION
@@ -123,6 +125,7 @@ public class RunCommandService extends Service {
         executionCommand.commandHelp = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_COMMAND_HELP, null);
         executionCommand.isPluginExecutionCommand = true;
         executionCommand.resultConfig.resultPendingIntent = intent.getParcelableExtra(RUN_COMMAND_SERVICE.EXTRA_PENDING_INTENT);
+        executionCommand.resultConfig.resultStream = intent.getBooleanExtra(RUN_COMMAND_SERVICE.EXTRA_RESULT_STREAM, false);
         executionCommand.resultConfig.resultDirectoryPath = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_RESULT_DIRECTORY, null);
         if (executionCommand.resultConfig.resultDirectoryPath != null) {
             executionCommand.resultConfig.resultSingleFile = intent.getBooleanExtra(RUN_COMMAND_SERVICE.EXTRA_RESULT_SINGLE_FILE, false);
@@ -190,6 +193,13 @@ public class RunCommandService extends Service {
             }
         }
 
+        // Get canonical paths of the files to write stdout and stderr to, if set. They are created
+        // or truncated when the command is started.
+        if (executionCommand.stdoutFilePath != null)
+            executionCommand.stdoutFilePath = TermuxFileUtils.getCanonicalPath(executionCommand.stdoutFilePath, null, true);
+        if (executionCommand.stderrFilePath != null)
+            executionCommand.stderrFilePath = TermuxFileUtils.getCanonicalPath(executionCommand.stderrFilePath, null, true);
+
         // If the executable passed as the extra was an applet for coreutils/busybox, then we must
         // use it instead of the canonical path above since otherwise arguments would be passed to
         // coreutils/busybox instead and command would fail. Broken symlinks would already have been
@@ -209,6 +219,8 @@ public class RunCommandService extends Service {
         execIntent.setClass(this, TermuxService.class);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS, executionCommand.arguments);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_STDIN, executionCommand.stdin);
+        execIntent.putExtra(TERMUX_SERVICE.EXTRA_STDOUT_FILE, executionCommand.stdoutFilePath);
+        execIntent.putExtra(TERMUX_SERVICE.EXTRA_STDERR_FILE, executionCommand.stderrFilePath);
         if (executionCommand.workingDirectory != null && !executionCommand.workingDirectory.isEmpty()) execIntent.putExtra(TERMUX_SERVICE.EXTRA_WORKDIR, executionCommand.workingDirectory);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_RUNNER, executionCommand.runner);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL, DataUtils.getStringFromInteger(executionCommand.backgroundCustomLogLevel, null));
@@ -220,6 +232,7 @@ public class RunCommandService extends Service {
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_COMMAND_HELP, executionCommand.commandHelp);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_PLUGIN_API_HELP, executionCommand.pluginAPIHelp);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT, executionCommand.resultConfig.resultPendingIntent);
+        execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_STREAM, executionCommand.resultConfig.resultStream);
         execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_DIRECTORY, executionCommand.resultConfig.resultDirectoryPath);
         if (executionCommand.resultConfig.resultDirectoryPath != null) {
             execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_SINGLE_FILE, executionCommand.resultConfig.resultSingleFile);
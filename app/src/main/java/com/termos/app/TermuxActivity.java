@@ -56,6 +56,8 @@ import com.termux.shared.termux.interact.TextInputDialogUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
+import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
+import com.termux.shared.termux.settings.properties.TermuxSharedProperties;
 import com.termux.shared.termux.theme.TermuxThemeUtils;
 import com.termux.shared.theme.NightMode;
 import com.termux.shared.view.ViewUtils;
@@ -117,6 +119,34 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
      */
     private TermuxAppSharedProperties mProperties;
 
+    /**
+     * The properties that are applied by {@link #applyChangedProperties()} when they change while
+     * the activity is alive, without requiring the activity to be recreated.
+     */
+    private static final String[] LIVE_RELOAD_PROPERTIES = {
+        TermuxPropertyConstants.KEY_EXTRA_KEYS,
+        TermuxPropertyConstants.KEY_EXTRA_KEYS_STYLE,
+        TermuxPropertyConstants.KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
+        TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR,
+        TermuxPropertyConstants.KEY_SHORTCUT_CREATE_SESSION,
+        TermuxPropertyConstants.KEY_SHORTCUT_NEXT_SESSION,
+        TermuxPropertyConstants.KEY_SHORTCUT_PREVIOUS_SESSION,
+        TermuxPropertyConstants.KEY_SHORTCUT_RENAME_SESSION
+    };
+
+    private final Runnable mApplyChangedPropertiesRunnable = this::applyChangedProperties;
+
+    /**
+     * The listener for changes to {@link #LIVE_RELOAD_PROPERTIES}, which is called on the properties
+     * file watcher thread, so changes are applied once on the main thread for all keys changed.
+     */
+    private final TermuxSharedProperties.OnPropertyChangeListener mPropertyChangeListener = (properties, key, oldValue, newValue) -> {
+        View rootView = mTermuxActivityRootView;
+        if (rootView == null) return;
+        rootView.removeCallbacks(mApplyChangedPropertiesRunnable);
+        rootView.post(mApplyChangedPropertiesRunnable);
+    };
+
     /**
      * The root view of the {@link TermuxActivity}.
      */
@@ -209,9 +239,11 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         // Delete ReportInfo serialized object files from cache older than 14 days
         ReportActivity.deleteReportInfoFilesOlderThanXDays(this, 14, false);
 
-        // Load Termux app SharedProperties from disk
+        // Load Termux app SharedProperties from disk, unless they are already kept up to date by
+        // watching the properties files
         mProperties = TermuxAppSharedProperties.getProperties();
-        reloadProperties();
+        if (!mProperties.isWatchingPropertiesFiles())
+            reloadProperties();
 
         setActivityTheme();
 
@@ -264,6 +296,9 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
         setToggleKeyboardView();
 
+        for (String key : LIVE_RELOAD_PROPERTIES)
+            mProperties.addPropertyChangeListener(key, mPropertyChangeListener);
+
         // Context menu registration will happen when TerminalView is ready (from TerminalTabFragment)
 
         FileReceiverActivity.updateFileReceiverActivityComponentsState(this);
@@ -365,6 +400,11 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
         if (mIsInvalidState) return;
 
+        for (String key : LIVE_RELOAD_PROPERTIES)
+            mProperties.removePropertyChangeListener(key, mPropertyChangeListener);
+        if (mTermuxActivityRootView != null)
+            mTermuxActivityRootView.removeCallbacks(mApplyChangedPropertiesRunnable);
+
         if (mTermuxService != null) {
             // Do not leave service and session clients with references to activity.
             mTermuxService.unsetTermuxTerminalSessionClient();
@@ -458,6 +498,32 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
     private void reloadProperties() {
         mProperties.loadTermuxPropertiesFromDisk();
 
+        if (mTermuxTerminalExtraKeys != null)
+            mTermuxTerminalExtraKeys.onReloadProperties();
+
+        if (mTermuxTerminalViewClient != null)
+            mTermuxTerminalViewClient.onReloadProperties();
+    }
+
+    /**
+     * Apply {@link #LIVE_RELOAD_PROPERTIES} after they were changed in the properties files.
+     */
+    private void applyChangedProperties() {
+        if (mIsInvalidState || isFinishing()) return;
+
+        Logger.logDebug(LOG_TAG, "Applying changed properties");
+
+        if (mTermuxTerminalExtraKeys != null)
+            mTermuxTerminalExtraKeys.onReloadProperties();
+
+        if (mExtraKeysView != null && mTermuxTerminalExtraKeys != null) {
+            mExtraKeysView.setButtonTextAllCaps(mProperties.shouldExtraKeysTextBeAllCaps());
+            mExtraKeysView.reload(mTermuxTerminalExtraKeys.getExtraKeysInfo(), mTerminalToolbarDefaultHeight);
+        }
+
+        if (mTermuxTerminalExtraKeys != null)
+            setTerminalToolbarHeight();
+
         if (mTermuxTerminalViewClient != null)
             mTermuxTerminalViewClient.onReloadProperties();
     }
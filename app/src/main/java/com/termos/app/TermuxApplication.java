@@ -5,6 +5,7 @@ import android.content.Context;
 
 import com.termos.BuildConfig;
 import com.termux.shared.errors.Error;
+import com.termux.shared.logger.LogFileSink;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxBootstrap;
 import com.termux.shared.termux.TermuxConstants;
@@ -16,6 +17,9 @@ import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment
 import com.termux.shared.termux.shell.am.TermuxAmSocketServer;
 import com.termux.shared.termux.shell.TermuxShellManager;
 import com.termux.shared.termux.theme.TermuxThemeUtils;
+import com.termux.terminal.ForkServer;
+
+import java.io.File;
 
 public class TermuxApplication extends Application {
 
@@ -34,6 +38,11 @@ public class TermuxApplication extends Application {
 
         Logger.logDebug("Starting Application");
 
+        // Start the fork server while the app process is still small, so that sessions and app shells don't have
+        // to fork the app process
+        if (!ForkServer.start(getApplicationInfo().nativeLibraryDir))
+            Logger.logWarn(LOG_TAG, "Failed to start fork server, subprocesses will be forked from the app process");
+
         // Set TermuxBootstrap.TERMUX_APP_PACKAGE_MANAGER and TermuxBootstrap.TERMUX_APP_PACKAGE_VARIANT
         TermuxBootstrap.setTermuxPackageManagerAndVariant(BuildConfig.TERMUX_PACKAGE_VARIANT);
 
@@ -76,6 +85,10 @@ public class TermuxApplication extends Application {
     public static void setLogConfig(Context context) {
         Logger.setDefaultLogTag(TermuxConstants.TERMUX_APP_NAME);
 
+        // Write log messages from a background thread, and also to rotating log files for debug builds
+        Logger.startAsyncLogging(BuildConfig.DEBUG ?
+            new LogFileSink(new File(TermuxConstants.TERMUX_APP.APPS_DIR_PATH, "logs"), "termux-app") : null);
+
         // Load the log level from shared preferences and set it to the {@link Logger.CURRENT_LOG_LEVEL}
         TermuxAppSharedPreferences preferences = TermuxAppSharedPreferences.build(context);
         if (preferences == null) return;
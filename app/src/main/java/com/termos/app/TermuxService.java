@@ -21,6 +21,7 @@ import androidx.annotation.Nullable;
 import com.termos.R;
 import com.termos.app.event.SystemEventReceiver;
 import com.termos.app.linuxruntime.LinuxSessionCreator;
+import com.termos.app.linuxruntime.LinuxSessionPool;
 import com.termos.app.linuxruntime.LinuxRuntimeManager;
 import com.termos.app.linuxruntime.RootfsManager;
 import com.termos.app.terminal.TermuxTerminalSessionActivityClient;
@@ -39,6 +40,7 @@ import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_ACTIVITY;
 import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
 import com.termux.shared.termux.settings.preferences.TermuxAppSharedPreferences;
 import com.termux.shared.termux.shell.TermuxShellManager;
+import com.termux.shared.termux.shell.TermuxTaskScheduler;
 import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
 import com.termux.shared.termux.terminal.TermuxTerminalSessionClientBase;
 import com.termux.shared.logger.Logger;
@@ -101,6 +103,13 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
      */
     private TermuxShellManager mShellManager;
 
+    /** Pre-started Linux sessions handed out to new tabs. */
+    private LinuxSessionPool mLinuxSessionPool;
+
+    /** Admits background TermuxTasks, so that bursts of plugin commands are queued instead of
+     * exceeding the phantom process limit. */
+    private TermuxTaskScheduler mTaskScheduler;
+
     /** The wake lock and wifi lock are always acquired and released together. */
     private PowerManager.WakeLock mWakeLock;
     private WifiManager.WifiLock mWifiLock;
@@ -108,6 +117,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     /** If the user has executed the {@link TERMUX_SERVICE#ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
+    /** The working mode of new Linux sessions. TODO: Make this configurable via preferences */
+    private static final int LINUX_SESSION_WORKING_MODE = 0;
+
     private static final String LOG_TAG = "TermuxService";
 
     @Override
@@ -120,6 +132,10 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         mShellManager = TermuxShellManager.getShellManager();
 
+        mLinuxSessionPool = new LinuxSessionPool(this, mTermuxTerminalSessionServiceClient, mProperties.getLinuxSessionPoolSize());
+        mTaskScheduler = new TermuxTaskScheduler(executionCommand -> createTermuxTask(executionCommand) != null,
+            mProperties.getMaxBackgroundTasks());
+
         runStartForeground();
 
         SystemEventReceiver.registerPackageUpdateEvents(this);
@@ -172,6 +188,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     public void onDestroy() {
         Logger.logVerbose(LOG_TAG, "onDestroy");
 
+        mLinuxSessionPool.clear();
+
         TermuxShellUtils.clearTermuxTMPDIR(true);
 
         actionReleaseWakeLock(false);
@@ -185,6 +203,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         runStopForeground();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mLinuxSessionPool.onTrimMemory(level);
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         Logger.logVerbose(LOG_TAG, "onBind");
@@ -224,6 +248,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     /** Process action to stop service. */
     private void actionStopService() {
         mWantsToStop = true;
+        mLinuxSessionPool.clear();
         killAllTermuxExecutionCommands();
         requestStopService();
     }
@@ -268,8 +293,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         Logger.logDebug(LOG_TAG, "Killing TermuxSessions=" + mShellManager.mTermuxSessions.size() +
             ", TermuxTasks=" + mShellManager.mTermuxTasks.size() +
+            ", QueuedTermuxTasks=" + mTaskScheduler.getQueuedCount() +
             ", PendingPluginExecutionCommands=" + mShellManager.mPendingPluginExecutionCommands.size());
 
+        // Queued plugin commands are still in mPendingPluginExecutionCommands and are cancelled below
+        mTaskScheduler.cancelAll();
+
         List<TermuxSession> termuxSessions = new ArrayList<>(mShellManager.mTermuxSessions);
         List<AppShell> termuxTasks = new ArrayList<>(mShellManager.mTermuxTasks);
         List<ExecutionCommand> pendingPluginExecutionCommands = new ArrayList<>(mShellManager.mPendingPluginExecutionCommands);
@@ -386,8 +415,11 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             // Get full path including fragment (anything after last "#")
             executionCommand.executable = UriUtils.getUriFilePathWithFragment(executionCommand.executableUri);
             executionCommand.arguments = IntentUtils.getStringArrayExtraIfSet(intent, TERMUX_SERVICE.EXTRA_ARGUMENTS, null);
-            if (Runner.APP_SHELL.equalsRunner(executionCommand.runner))
+            if (Runner.APP_SHELL.equalsRunner(executionCommand.runner)) {
                 executionCommand.stdin = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_STDIN, null);
+                executionCommand.stdoutFilePath = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_STDOUT_FILE, null);
+                executionCommand.stderrFilePath = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_STDERR_FILE, null);
+            }
             executionCommand.backgroundCustomLogLevel = IntentUtils.getIntegerExtraIfSet(intent, TERMUX_SERVICE.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL, null);
         }
 
@@ -401,6 +433,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         executionCommand.commandHelp = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_COMMAND_HELP, null);
         executionCommand.pluginAPIHelp = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_PLUGIN_API_HELP, null);
         executionCommand.resultConfig.resultPendingIntent = intent.getParcelableExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT);
+        executionCommand.resultConfig.resultStream = intent.getBooleanExtra(TERMUX_SERVICE.EXTRA_RESULT_STREAM, false);
         executionCommand.resultConfig.resultDirectoryPath = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_DIRECTORY, null);
         if (executionCommand.resultConfig.resultDirectoryPath != null) {
             executionCommand.resultConfig.resultSingleFile = intent.getBooleanExtra(TERMUX_SERVICE.EXTRA_RESULT_SINGLE_FILE, false);
@@ -452,8 +485,11 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 Logger.logVerbose(LOG_TAG, "No existing TermuxTask with \"" + executionCommand.shellName + "\" shell name found for shell create mode \"" + shellCreateMode.getMode() + "\"");
         }
 
-        if (newTermuxTask == null)
-            newTermuxTask = createTermuxTask(executionCommand);
+        if (newTermuxTask == null) {
+            // Started by createTermuxTask() once admitted
+            mTaskScheduler.submit(executionCommand);
+            updateNotification();
+        }
     }
 
     /** Create a TermuxTask. */
@@ -518,8 +554,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 // If the execution command was started for a plugin, then process the results
                 if (executionCommand != null && executionCommand.isPluginExecutionCommand)
                     TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
+                if (executionCommand != null)
+                    executionCommand.resultData.closeOutputCaptures();
 
                 mShellManager.mTermuxTasks.remove(termuxTask);
+                if (executionCommand != null)
+                    mTaskScheduler.onTaskExited(executionCommand);
             }
 
             updateNotification();
@@ -627,15 +667,25 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 try {
                     // Use LinuxSessionCreator to create proot-based session
                     // Default to ALPINE mode (0), could be made configurable
-                    int workingMode = 0; // TODO: Make this configurable via preferences
+                    int workingMode = LINUX_SESSION_WORKING_MODE;
                     String sessionId = executionCommand.shellName != null ? executionCommand.shellName : "session-" + System.currentTimeMillis();
                     
-                    TerminalSession terminalSession = LinuxSessionCreator.createSession(
-                        this,
-                        getTermuxTerminalSessionClient(),
-                        sessionId,
-                        workingMode
-                    );
+                    // Use a pre-started session if one is ready, it is already past proot startup
+                    TerminalSession terminalSession = null;
+                    if (runtimeManager.isSetupComplete()) {
+                        mLinuxSessionPool.setSize(mProperties.getLinuxSessionPoolSize());
+                        terminalSession = mLinuxSessionPool.acquire(workingMode);
+                    }
+                    if (terminalSession != null) {
+                        terminalSession.updateTerminalSessionClient(getTermuxTerminalSessionClient());
+                    } else {
+                        terminalSession = LinuxSessionCreator.createSession(
+                            this,
+                            getTermuxTerminalSessionClient(),
+                            sessionId,
+                            workingMode
+                        );
+                    }
                     
                     if (terminalSession != null) {
                         // Set session name if provided
@@ -662,6 +712,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                             
                             if (executionCommand.setState(ExecutionCommand.ExecutionState.EXECUTING)) {
                                 Logger.logDebug(LOG_TAG, "Created Linux rootfs-based TermuxSession successfully");
+                                // Pooled sessions were started before the wrapper existed to receive the pid
+                                if (terminalSession.getPid() > 0)
+                                    executionCommand.mPid = terminalSession.getPid();
                                 // Add to shell manager and notify (same as normal flow)
                                 mShellManager.mTermuxSessions.add(newTermuxSession);
                                 if (executionCommand.isPluginExecutionCommand) {
@@ -865,6 +918,15 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         for (int i = 0; i < mShellManager.mTermuxSessions.size(); i++)
             mShellManager.mTermuxSessions.get(i).getTerminalSession().updateTerminalSessionClient(mTermuxTerminalSessionActivityClient);
+
+        // Start warming up sessions for new tabs while the user is looking at the activity
+        if (new RootfsManager(this).isRootfsInstalled() && LinuxRuntimeManager.getInstance(this).isSetupComplete()) {
+            mLinuxSessionPool.setSize(mProperties.getLinuxSessionPoolSize());
+            mLinuxSessionPool.scheduleRefill(LINUX_SESSION_WORKING_MODE);
+        }
+
+        // Properties may have been reloaded by the activity
+        mTaskScheduler.setMaxConcurrentTasks(mProperties.getMaxBackgroundTasks());
     }
 
     /** This should be called when {@link TermuxActivity} has been destroyed and in {@link #onUnbind(Intent)}
@@ -893,10 +955,14 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         // Set notification text
         int sessionCount = getTermuxSessionsSize();
         int taskCount = mShellManager.mTermuxTasks.size();
+        int queuedTaskCount = mTaskScheduler.getQueuedCount();
         String notificationText = sessionCount + " session" + (sessionCount == 1 ? "" : "s");
         if (taskCount > 0) {
             notificationText += ", " + taskCount + " task" + (taskCount == 1 ? "" : "s");
         }
+        if (queuedTaskCount > 0) {
+            notificationText += ", " + queuedTaskCount + " queued";
+        }
 
         final boolean wakeLockHeld = mWakeLock != null;
         if (wakeLockHeld) notificationText += " (wake lock held)";
@@ -953,7 +1019,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
     /** Update the shown foreground service notification after making any changes that affect it. */
     private synchronized void updateNotification() {
-        if (mWakeLock == null && mShellManager.mTermuxSessions.isEmpty() && mShellManager.mTermuxTasks.isEmpty()) {
+        if (mWakeLock == null && mShellManager.mTermuxSessions.isEmpty() && mShellManager.mTermuxTasks.isEmpty() &&
+            mTaskScheduler.getQueuedCount() == 0) {
             // Exit if we are updating after the user disabled all locks with no sessions or tasks running.
             requestStopService();
         } else {
@@ -16,6 +16,8 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.termos.R;
+import com.termos.app.linuxruntime.InstallProgressChannel;
+import com.termos.app.linuxruntime.InstallProgressParser;
 import com.termos.app.linuxruntime.LinuxCommandExecutor;
 import com.termos.app.linuxruntime.RootfsManager;
 import com.termux.terminal.TerminalSession;
@@ -26,6 +28,9 @@ import com.termux.shared.shell.command.environment.IShellEnvironment;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Activity to install desktop environment and VNC server for OS tab.
@@ -35,6 +40,9 @@ public class InstallOSActivity extends AppCompatActivity {
     private static final String TAG = "InstallOSActivity";
     private static final String PREFS_NAME = "termos_os_install";
     private static final String KEY_OS_INSTALLED = "os_installed";
+    private static final long INSTALL_TIMEOUT_MS = 1800000; // 30 minutes
+    /** Most recent characters of install script stdout and stderr kept for logs and errors. */
+    private static final int INSTALL_OUTPUT_RING_CAPACITY = 64 * 1024;
     
     private RootfsManager rootfsManager;
     private LinuxCommandExecutor commandExecutor;
@@ -186,6 +194,7 @@ public class InstallOSActivity extends AppCompatActivity {
         }
         
         installButton.setEnabled(false);
+        progressBar.setIndeterminate(true);
         progressBar.setVisibility(View.VISIBLE);
         statusText.setText("Installing desktop environment and VNC server...\nThis may take several minutes.");
         
@@ -195,9 +204,35 @@ public class InstallOSActivity extends AppCompatActivity {
     
     private class InstallationTask extends AsyncTask<Void, String, Boolean> {
         private String errorMessage = null;
+        private long startTime;
+        
+        /**
+         * Show a progress record from the install script. Called on the channel reader thread.
+         */
+        private void onInstallProgress(InstallProgressParser.Record record) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            StringBuilder progressMsg = new StringBuilder();
+            if (record.step > 0 && record.total > 0) {
+                progressMsg.append("Step ").append(record.step).append(" of ").append(record.total).append("\n");
+            }
+            progressMsg.append(record.message != null ? record.message : "Installing desktop environment...").append("\n");
+            if (record.bytes > 0) {
+                progressMsg.append("Downloaded: ").append(android.text.format.Formatter.formatShortFileSize(InstallOSActivity.this, record.bytes)).append("\n");
+            }
+            progressMsg.append(String.format(java.util.Locale.ENGLISH, "Elapsed time: %d:%02d", elapsed / 60000, (elapsed % 60000) / 1000));
+            publishProgress(progressMsg.toString());
+            
+            if (record.percent >= 0) {
+                runOnUiThread(() -> {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setProgress(record.percent);
+                });
+            }
+        }
         
         @Override
         protected Boolean doInBackground(Void... params) {
+            startTime = System.currentTimeMillis();
             try {
                 publishProgress("Checking rootfs...");
                 
@@ -268,6 +303,18 @@ public class InstallOSActivity extends AppCompatActivity {
                 
                 final boolean[] success = {false};
                 final String[] error = {null};
+                final CountDownLatch finished = new CountDownLatch(1);
+                
+                // Stream script output and progress records back through named pipes in the rootfs
+                InstallProgressChannel progressChannel = new InstallProgressChannel(rootfsDir,
+                    INSTALL_OUTPUT_RING_CAPACITY, this::onInstallProgress);
+                try {
+                    progressChannel.open();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to open install progress channel, progress will not be reported", e);
+                    progressChannel = null;
+                }
+                final InstallProgressChannel channel = progressChannel;
                 
                 // Execute using AppShell - the command will run within rootfs via init-host script
                 try {
@@ -366,7 +413,7 @@ public class InstallOSActivity extends AppCompatActivity {
                         // We need to pass: sh -c '/root/install-os.sh'
                         // But as separate arguments, not as a single string
                         String initScriptPath = initScriptFile.getAbsolutePath();
-                        String commandToRun = "/root/install-os.sh";
+                        String commandToRun = "/root/install-os.sh" + (channel != null ? channel.getRedirection() : "");
                         // Escape single quotes in the command
                         String escapedCommand = commandToRun.replace("'", "'\"'\"'");
                         shellArgs = new String[]{"-c", initScriptPath + " sh -c '" + escapedCommand + "'"};
@@ -439,6 +486,19 @@ public class InstallOSActivity extends AppCompatActivity {
                     AppShell.AppShellClient appShellClient = new AppShell.AppShellClient() {
                         @Override
                         public void onAppShellExited(AppShell appShell) {
+                            try {
+                                handleExit(appShell);
+                            } finally {
+                                finished.countDown();
+                            }
+                        }
+                        
+                        private void handleExit(AppShell appShell) {
+                            // Drain whatever the script wrote before it exited
+                            if (channel != null) {
+                                channel.close();
+                            }
+                            
                             if (appShell == null) {
                                 error[0] = "Command execution failed - AppShell returned null";
                                 return;
@@ -451,8 +511,9 @@ public class InstallOSActivity extends AppCompatActivity {
                             }
                             
                             int exitCode = cmd.resultData.exitCode;
-                            String stdout = cmd.resultData.stdout != null ? cmd.resultData.stdout.toString() : "";
-                            String stderr = cmd.resultData.stderr != null ? cmd.resultData.stderr.toString() : "";
+                            String stdout = channel != null ? channel.getStdout().toString() : cmd.resultData.stdout.toString();
+                            String stderr = channel != null ? channel.getStderr().toString() : cmd.resultData.stderr.toString();
+                            cmd.resultData.closeOutputCaptures();
                             
                             Log.d(TAG, "Installation command completed (exit code: " + exitCode + ")");
                             Log.d(TAG, "stdout: " + stdout);
@@ -460,7 +521,7 @@ public class InstallOSActivity extends AppCompatActivity {
                             
                             if (exitCode == 0) {
                                 success[0] = true;
-                                Log.d(TAG, "Installation successful: " + stdout);
+                                Log.d(TAG, "Installation successful");
                             } else {
                                 error[0] = "Command failed with exit code " + exitCode + ": " + stderr;
                             }
@@ -486,33 +547,11 @@ public class InstallOSActivity extends AppCompatActivity {
                         return false;
                     }
                     
-                    // Wait for completion (with timeout)
-                    long startTime = System.currentTimeMillis();
-                    long timeout = 1800000; // 30 minute timeout (increased from 10 minutes)
-                    int progressCounter = 0;
-                    while (!success[0] && error[0] == null && 
-                           (System.currentTimeMillis() - startTime) < timeout) {
-                        try {
-                            Thread.sleep(2000);
-                            progressCounter++;
-                            long elapsed = System.currentTimeMillis() - startTime;
-                            long minutes = elapsed / 60000;
-                            long seconds = (elapsed % 60000) / 1000;
-                            
-                            // Update progress message every 5 seconds
-                            if (progressCounter % 3 == 0) {
-                                String progressMsg = String.format(
-                                    "Installing desktop environment...\n" +
-                                    "Elapsed time: %d:%02d\n" +
-                                    "This may take 10-20 minutes.\n" +
-                                    "Please be patient...",
-                                    minutes, seconds
-                                );
-                                publishProgress(progressMsg);
-                            }
-                        } catch (InterruptedException e) {
-                            break;
-                        }
+                    // Progress is reported by the channel as it happens, just wait for the script to exit
+                    try {
+                        finished.await(INSTALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                     }
                     
                     if (error[0] != null) {
@@ -536,6 +575,10 @@ public class InstallOSActivity extends AppCompatActivity {
                     errorMessage = "Execution error: " + e.getMessage();
                     Log.e(TAG, "Installation error", e);
                     return false;
+                } finally {
+                    if (channel != null) {
+                        channel.close();
+                    }
                 }
                 
             } catch (Exception e) {
@@ -588,12 +631,21 @@ public class InstallOSActivity extends AppCompatActivity {
                 "set -e\n" +
                 "export DEBIAN_FRONTEND=noninteractive\n" +
                 "\n" +
+                "# Structured progress records, parsed by InstallProgressParser in the app\n" +
+                "TOTAL_STEPS=9\n" +
+                "progress() {\n" +
+                "    BYTES=$(du -sb /var/cache/apt/archives 2>/dev/null | cut -f1)\n" +
+                "    echo \"@progress step=$1 total=$TOTAL_STEPS percent=$((($1 - 1) * 100 / TOTAL_STEPS)) bytes=${BYTES:-0} msg=$2\"\n" +
+                "}\n" +
+                "\n" +
                 "# Fix any interrupted dpkg operations first\n" +
+                "progress 1 'Fixing package manager state...'\n" +
                 "echo 'Checking for interrupted dpkg operations...'\n" +
                 "dpkg --configure -a 2>&1 || true\n" +
                 "echo 'Fixed dpkg configuration'\n" +
                 "\n" +
                 "# Update package lists\n" +
+                "progress 2 'Updating package lists...'\n" +
                 "echo 'Updating package lists...'\n" +
                 "apt-get update -qq || {\n" +
                 "    echo 'apt-get update failed, retrying after fixing dpkg...'\n" +
@@ -603,6 +655,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "echo 'Package lists updated'\n" +
                 "\n" +
                 "# Try to add UBports repository for Lomiri packages\n" +
+                "progress 3 'Adding UBports repository...'\n" +
                 "echo 'Attempting to add UBports repository for Lomiri...'\n" +
                 "UBPORTS_ADDED=0\n" +
                 "# Check Ubuntu version\n" +
@@ -619,6 +672,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "fi\n" +
                 "\n" +
                 "# Try to install Lomiri (Ubuntu Touch desktop environment)\n" +
+                "progress 4 'Installing desktop environment...'\n" +
                 "echo 'Attempting to install Lomiri desktop environment...'\n" +
                 "LOMIRI_INSTALLED=0\n" +
                 "# Try multiple methods to install Lomiri\n" +
@@ -645,6 +699,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "fi\n" +
                 "\n" +
                 "# Install Mir display server and Xwayland (required for Lomiri with VNC)\n" +
+                "progress 5 'Installing display server...'\n" +
                 "if [ $LOMIRI_INSTALLED -eq 1 ]; then\n" +
                 "    echo 'Installing Mir display server and Xwayland...'\n" +
                 "    apt-get install -y -qq mir mir-graphics-drivers-mesa xwayland || {\n" +
@@ -656,6 +711,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "fi\n" +
                 "\n" +
                 "# Install VNC server (TigerVNC or tightvnc)\n" +
+                "progress 6 'Installing VNC server...'\n" +
                 "echo 'Installing VNC server...'\n" +
                 "apt-get install -y -qq tigervnc-standalone-server tigervnc-common || \\\n" +
                 "apt-get install -y -qq tightvncserver || \\\n" +
@@ -669,6 +725,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "}\n" +
                 "\n" +
                 "# Install additional utilities\n" +
+                "progress 7 'Installing additional utilities...'\n" +
                 "echo 'Installing additional utilities...'\n" +
                 "apt-get install -y -qq dbus-x11 || {\n" +
                 "    dpkg --configure -a 2>&1 || true\n" +
@@ -681,6 +738,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "echo 'Additional utilities installed'\n" +
                 "\n" +
                 "# Create VNC startup script\n" +
+                "progress 8 'Configuring VNC server...'\n" +
                 "mkdir -p /root/.vnc\n" +
                 "if [ $LOMIRI_INSTALLED -eq 1 ]; then\n" +
                 "    # Lomiri startup script with Xwayland bridge for VNC\n" +
@@ -1031,7 +1089,14 @@ public class InstallOSActivity extends AppCompatActivity {
                 "    if command -v Xvnc >/dev/null 2>&1; then\n" +
                 "        # Start Xvnc (it will look for xstartup in ~/.vnc/xstartup automatically)\n" +
                 "        # But we'll also manually trigger it to be sure\n" +
-                "        Xvnc :${DISPLAY_NUM} -geometry 1280x720 -depth 24 -SecurityTypes None -rfbport ${PORT} >\"${LOG_FILE}\" 2>&1 &\n" +
+                "        # Also listen on a Unix socket if supported, the app prefers it over TCP loopback\n" +
+                "        local SOCKET=\"/tmp/.termos-vnc/vnc${DISPLAY_NUM}\"\n" +
+                "        local UNIX_ARGS=\"\"\n" +
+                "        if Xvnc -help 2>&1 | grep -q rfbunixpath; then\n" +
+                "            mkdir -p /tmp/.termos-vnc && rm -f \"${SOCKET}\"\n" +
+                "            UNIX_ARGS=\"-rfbunixpath ${SOCKET}\"\n" +
+                "        fi\n" +
+                "        Xvnc :${DISPLAY_NUM} -geometry 1280x720 -depth 24 -SecurityTypes None -rfbport ${PORT} ${UNIX_ARGS} >\"${LOG_FILE}\" 2>&1 &\n" +
                 "        local PID=$!\n" +
                 "        sleep 3\n" +
                 "        \n" +
@@ -1057,6 +1122,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "                # Save display and port to file\n" +
                 "                echo \"display:${DISPLAY_NUM}\" > /tmp/vnc-display.txt\n" +
                 "                echo \"port:${PORT}\" >> /tmp/vnc-display.txt\n" +
+                "                if [ -n \"${UNIX_ARGS}\" ]; then echo \"socket:${SOCKET}\" >> /tmp/vnc-display.txt; fi\n" +
                 "                echo \"VNC display info saved to /tmp/vnc-display.txt\"\n" +
                 "                \n" +
                 "                # Xvnc should automatically run xstartup, but let's ensure it happens\n" +
@@ -1066,6 +1132,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "                # Save display info for xstartup to use\n" +
                 "                echo \"display:${DISPLAY_NUM}\" > /tmp/vnc-display.txt\n" +
                 "                echo \"port:${PORT}\" >> /tmp/vnc-display.txt\n" +
+                "                if [ -n \"${UNIX_ARGS}\" ]; then echo \"socket:${SOCKET}\" >> /tmp/vnc-display.txt; fi\n" +
                 "                \n" +
                 "                # Manually trigger xstartup to ensure desktop starts\n" +
                 "                # This is needed because Xvnc doesn't always execute xstartup automatically\n" +
@@ -1137,10 +1204,12 @@ public class InstallOSActivity extends AppCompatActivity {
                 "chmod +x /usr/local/bin/start-vnc.sh\n" +
                 "\n" +
                 "# Final dpkg check to ensure everything is properly configured\n" +
+                "progress 9 'Performing final configuration check...'\n" +
                 "echo 'Performing final configuration check...'\n" +
                 "dpkg --configure -a 2>&1 || true\n" +
                 "apt-get install -y -qq -f 2>&1 || true\n" +
                 "\n" +
+                "echo \"@progress step=$TOTAL_STEPS total=$TOTAL_STEPS percent=100 msg=Installation complete!\"\n" +
                 "echo 'Installation complete!'\n";
         } else {
             // Alpine installation script
@@ -1148,9 +1217,11 @@ public class InstallOSActivity extends AppCompatActivity {
                 "set -e\n" +
                 "\n" +
                 "# Update package lists\n" +
+                "echo '@progress step=1 total=3 percent=0 msg=Updating package lists...'\n" +
                 "apk update\n" +
                 "\n" +
                 "# Install XFCE and VNC\n" +
+                "echo '@progress step=2 total=3 percent=33 msg=Installing XFCE and VNC server...'\n" +
                 "apk add xfce4 xfce4-terminal tigervnc dbus\n" +
                 "\n" +
                 "# Create VNC startup script\n" +
@@ -1160,6 +1231,7 @@ public class InstallOSActivity extends AppCompatActivity {
                 "# Note: start-vnc.sh is created by the main installation script\n" +
                 "# which uses Xvnc (TigerVNC) that includes both X server and VNC\n" +
                 "\n" +
+                "echo '@progress step=3 total=3 percent=100 msg=Installation complete!'\n" +
                 "echo 'Installation complete!'\n";
         }
     }
@@ -6,6 +6,7 @@ import android.os.Bundle;
 import android.os.Environment;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
@@ -27,6 +28,11 @@ import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.activity.media.AppCompatActivityUtils;
 import com.termux.shared.theme.NightMode;
 import com.termos.app.activities.RootfsSetupActivity;
+import com.termos.app.linuxruntime.RootfsManager;
+import com.termos.app.linuxruntime.RootfsScanner;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class SettingsActivity extends AppCompatActivity {
 
@@ -70,6 +76,7 @@ public class SettingsActivity extends AppCompatActivity {
                     configureTermuxTaskerPreference(context);
                     configureTermuxWidgetPreference(context);
                     configureRootfsSetupPreference(context);
+                    configureRootfsScanPreference(context);
                     configureInstallOSPreference(context);
                     configureAboutPreference(context);
                     configureDonatePreference(context);
@@ -156,6 +163,63 @@ public class SettingsActivity extends AppCompatActivity {
             }
         }
 
+        private void configureRootfsScanPreference(@NonNull Context context) {
+            Preference rootfsScanPreference = findPreference("rootfs_scan");
+            if (rootfsScanPreference != null) {
+                rootfsScanPreference.setOnPreferenceClickListener(preference -> {
+                    CharSequence[] modes = {
+                        context.getString(R.string.rootfs_scan_quick),
+                        context.getString(R.string.rootfs_scan_verify_contents)
+                    };
+                    new AlertDialog.Builder(context)
+                        .setTitle(R.string.rootfs_scan_preference_title)
+                        .setItems(modes, (dialog, which) -> startRootfsScan(context, preference, which == 1))
+                        .show();
+                    return true;
+                });
+            }
+        }
+
+        private void startRootfsScan(@NonNull Context context, @NonNull Preference preference, boolean verifyHashes) {
+            List<String> installedRootfs = new RootfsManager(context).getInstalledRootfsList();
+            if (installedRootfs.isEmpty()) {
+                preference.setSummary(R.string.rootfs_scan_preference_none_installed);
+                return;
+            }
+
+            preference.setEnabled(false);
+            preference.setSummary(R.string.rootfs_scan_preference_scanning);
+
+            List<RootfsScanner.Report> reports = new ArrayList<>();
+            for (String rootfsFileName : installedRootfs) {
+                RootfsScanner.scan(context, rootfsFileName, verifyHashes, report -> {
+                    reports.add(report);
+                    if (reports.size() < installedRootfs.size()) return;
+
+                    StringBuilder summary = new StringBuilder();
+                    StringBuilder reportString = new StringBuilder();
+                    for (RootfsScanner.Report result : reports) {
+                        if (summary.length() > 0) summary.append("\n");
+                        summary.append(result.getSummary());
+                        reportString.append(result.toMarkdown()).append("\n\n");
+                    }
+                    preference.setEnabled(true);
+                    preference.setSummary(summary.toString());
+
+                    String title = context.getString(R.string.rootfs_scan_report_title);
+                    String userActionName = UserAction.ROOTFS_SCAN.getName();
+                    ReportInfo reportInfo = new ReportInfo(userActionName,
+                        TermuxConstants.TERMUX_APP.TERMUX_SETTINGS_ACTIVITY_NAME, title);
+                    reportInfo.setReportString(reportString.toString());
+                    reportInfo.setReportSaveFileLabelAndPath(userActionName,
+                        Environment.getExternalStorageDirectory() + "/" +
+                            FileUtils.sanitizeFileName(TermuxConstants.TERMUX_APP_NAME + "-" + userActionName + ".log", true, true));
+
+                    ReportActivity.startReportActivity(context, reportInfo);
+                });
+            }
+        }
+
         private void configureInstallOSPreference(@NonNull Context context) {
             Preference installOSPreference = findPreference("install_os");
             if (installOSPreference != null) {
@@ -0,0 +1,189 @@
+package com.termos.app.linuxruntime;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams the stdout and stderr of an install script running inside the rootfs back to the app.
+ *
+ * Two named pipes are created in the rootfs /tmp directory and the script's output is redirected
+ * into them (see {@link #getRedirection()}). A reader thread per pipe consumes the output as it is
+ * written: stdout goes through an {@link InstallProgressParser} so that progress records are
+ * delivered to the {@link Listener} immediately, and all plain output of both streams is kept in
+ * bounded {@link OutputRing}s instead of being accumulated in full.
+ */
+public class InstallProgressChannel implements Closeable {
+    private static final String TAG = "InstallProgressChannel";
+
+    private static final String STDOUT_PIPE = "tmp/termos-install.stdout";
+    private static final String STDERR_PIPE = "tmp/termos-install.stderr";
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final long READER_JOIN_TIMEOUT_MS = 1000;
+
+    public interface Listener {
+        /** Called for every progress record, on a reader thread. */
+        void onProgress(InstallProgressParser.Record record);
+    }
+
+    private final File stdoutPipe;
+    private final File stderrPipe;
+    private final OutputRing stdout;
+    private final OutputRing stderr;
+    private final Listener listener;
+
+    private PipeReader stdoutReader;
+    private PipeReader stderrReader;
+
+    /**
+     * @param rootfsDir The extracted rootfs directory the script runs in.
+     * @param ringCapacity The number of most recent characters of each stream to keep.
+     * @param listener Receives progress records, may be {@code null}.
+     */
+    public InstallProgressChannel(File rootfsDir, int ringCapacity, Listener listener) {
+        this.stdoutPipe = new File(rootfsDir, STDOUT_PIPE);
+        this.stderrPipe = new File(rootfsDir, STDERR_PIPE);
+        this.stdout = new OutputRing(ringCapacity);
+        this.stderr = new OutputRing(ringCapacity);
+        this.listener = listener;
+    }
+
+    /**
+     * Create the pipes and start reading from them. The readers block until the script opens
+     * the pipes for writing.
+     */
+    public void open() throws IOException {
+        createPipe(stdoutPipe);
+        createPipe(stderrPipe);
+
+        stdoutReader = new PipeReader(stdoutPipe, new InstallProgressParser(new InstallProgressParser.Listener() {
+            @Override
+            public void onRecord(InstallProgressParser.Record record) {
+                Log.d(TAG, "Install progress: " + record);
+                if (listener != null)
+                    listener.onProgress(record);
+            }
+
+            @Override
+            public void onLine(String line) {
+                stdout.appendLine(line);
+            }
+        }));
+        stderrReader = new PipeReader(stderrPipe, new InstallProgressParser(new InstallProgressParser.Listener() {
+            @Override
+            public void onRecord(InstallProgressParser.Record record) {
+                // Records are only meaningful on stdout, keep them as plain output here
+                stderr.appendLine(record.toString());
+            }
+
+            @Override
+            public void onLine(String line) {
+                stderr.appendLine(line);
+            }
+        }));
+        stdoutReader.start();
+        stderrReader.start();
+    }
+
+    /**
+     * Get the shell redirection, relative to the rootfs, to append to the script command so that
+     * its output is sent through this channel.
+     */
+    public String getRedirection() {
+        return " >/" + STDOUT_PIPE + " 2>/" + STDERR_PIPE;
+    }
+
+    public OutputRing getStdout() {
+        return stdout;
+    }
+
+    public OutputRing getStderr() {
+        return stderr;
+    }
+
+    /**
+     * Stop reading and remove the pipes. Any output already written is drained first, and readers
+     * still waiting for a writer, e.g. because the script never started, are released.
+     */
+    @Override
+    public void close() {
+        for (PipeReader reader : new PipeReader[]{stdoutReader, stderrReader}) {
+            if (reader == null)
+                continue;
+            reader.release();
+            try {
+                reader.join(READER_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        stdoutPipe.delete();
+        stderrPipe.delete();
+    }
+
+    private static void createPipe(File pipe) throws IOException {
+        File parent = pipe.getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+        if (pipe.exists() && !pipe.delete())
+            throw new IOException("Failed to remove stale pipe " + pipe.getAbsolutePath());
+
+        try {
+            Os.mkfifo(pipe.getAbsolutePath(), 0600);
+        } catch (ErrnoException e) {
+            throw new IOException("Failed to create pipe " + pipe.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static class PipeReader extends Thread {
+        private final File pipe;
+        private final InstallProgressParser parser;
+        private volatile boolean opened = false;
+
+        PipeReader(File pipe, InstallProgressParser parser) {
+            super(TAG + "#" + pipe.getName());
+            this.pipe = pipe;
+            this.parser = parser;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // Opening a pipe for reading blocks until a writer opens it
+            try (InputStream in = new FileInputStream(pipe)) {
+                opened = true;
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    parser.feed(buffer, 0, read);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + pipe.getName() + ": " + e.getMessage());
+            }
+            parser.finish();
+        }
+
+        /**
+         * If the reader is still waiting in open(), briefly open the pipe for writing so that
+         * it gets an immediate end of stream.
+         */
+        void release() {
+            if (opened)
+                return;
+            try {
+                FileDescriptor fd = Os.open(pipe.getAbsolutePath(), OsConstants.O_WRONLY | OsConstants.O_NONBLOCK, 0);
+                Os.close(fd);
+            } catch (ErrnoException e) {
+                // ENXIO, the reader already finished or was never started
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.termos.app.linuxruntime;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming parser for the output of install scripts.
+ *
+ * Bytes are fed in whatever chunks they arrive in and split into lines without ever holding more
+ * than {@link #MAX_LINE_LENGTH} bytes. Lines starting with {@link #RECORD_PREFIX} are structured
+ * progress records of the form
+ *
+ * <pre>
+ * {@literal @}progress step=3 total=9 percent=30 bytes=123456 msg=Installing desktop environment...
+ * </pre>
+ *
+ * All fields are optional, {@code msg} must be last since it runs to the end of the line.
+ * Every other line is plain script output.
+ */
+public class InstallProgressParser {
+
+    public static final String RECORD_PREFIX = "@progress ";
+
+    /** Longer lines are split, so a script printing binary data cannot grow the buffer. */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    /**
+     * A single progress record. Numeric fields are -1 if they were not present.
+     */
+    public static final class Record {
+        public final int step;
+        public final int total;
+        public final int percent;
+        public final long bytes;
+        public final String message;
+
+        public Record(int step, int total, int percent, long bytes, String message) {
+            this.step = step;
+            this.total = total;
+            this.percent = percent;
+            this.bytes = bytes;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{step=" + step + "/" + total + ", percent=" + percent + ", bytes=" + bytes + ", message='" + message + "'}";
+        }
+    }
+
+    public interface Listener {
+        /** Called for every progress record, on the reading thread. */
+        void onRecord(Record record);
+
+        /** Called for every other line of output, on the reading thread. */
+        void onLine(String line);
+    }
+
+    private final Listener listener;
+    private final byte[] lineBuffer = new byte[MAX_LINE_LENGTH];
+    private int lineLength = 0;
+
+    public InstallProgressParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feed the next chunk of output.
+     */
+    public void feed(byte[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = buffer[i];
+            if (b == '\n') {
+                flushLine();
+            } else {
+                lineBuffer[lineLength++] = b;
+                if (lineLength == MAX_LINE_LENGTH)
+                    flushLine();
+            }
+        }
+    }
+
+    /**
+     * Flush any trailing output not terminated by a newline. Call at end of stream.
+     */
+    public void finish() {
+        if (lineLength > 0)
+            flushLine();
+    }
+
+    private void flushLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r')
+            length--;
+        String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        lineLength = 0;
+
+        Record record = parseRecord(line);
+        if (record != null)
+            listener.onRecord(record);
+        else
+            listener.onLine(line);
+    }
+
+    /**
+     * Parse a progress record line.
+     *
+     * @return The record, or {@code null} if the line is not a progress record.
+     */
+    public static Record parseRecord(String line) {
+        if (line == null || !line.startsWith(RECORD_PREFIX))
+            return null;
+
+        int step = -1, total = -1, percent = -1;
+        long bytes = -1;
+        String message = null;
+
+        int pos = RECORD_PREFIX.length();
+        while (pos < line.length()) {
+            if (line.charAt(pos) == ' ') {
+                pos++;
+                continue;
+            }
+
+            int equals = line.indexOf('=', pos);
+            if (equals < 0)
+                break;
+            String key = line.substring(pos, equals);
+            if ("msg".equals(key)) {
+                message = line.substring(equals + 1);
+                break;
+            }
+
+            int end = line.indexOf(' ', equals);
+            if (end < 0)
+                end = line.length();
+            String value = line.substring(equals + 1, end);
+            pos = end;
+
+            try {
+                switch (key) {
+                    case "step": step = Integer.parseInt(value); break;
+                    case "total": total = Integer.parseInt(value); break;
+                    case "percent": percent = Math.max(0, Math.min(100, Integer.parseInt(value))); break;
+                    case "bytes": bytes = Long.parseLong(value); break;
+                    default: break; // Ignore unknown keys for forward compatibility
+                }
+            } catch (NumberFormatException e) {
+                // Ignore malformed value, keep the rest of the record
+            }
+        }
+
+        // A step record announces the start of that step, so only the previous steps are done
+        if (percent < 0 && step > 0 && total > 0)
+            percent = Math.min(100, (step - 1) * 100 / total);
+
+        return new Record(step, total, percent, bytes, message);
+    }
+}
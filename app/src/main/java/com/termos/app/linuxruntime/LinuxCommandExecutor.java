@@ -18,15 +18,18 @@ import java.util.HashMap;
  */
 public class LinuxCommandExecutor {
     private static final String TAG = "LinuxCommandExecutor";
+    private static final long VNC_READY_TIMEOUT_MS = 15000;
     
     private Context context;
     private RootfsManager rootfsManager;
     private LinuxRuntimeManager runtimeManager;
+    private VncServerProber vncServerProber;
     
     public LinuxCommandExecutor(Context context) {
         this.context = context.getApplicationContext();
         this.rootfsManager = new RootfsManager(context);
         this.runtimeManager = LinuxRuntimeManager.getInstance(context);
+        this.vncServerProber = new VncServerProber(context);
     }
     
     /**
@@ -89,6 +92,7 @@ public class LinuxCommandExecutor {
                     int exitCode = cmd.resultData.exitCode;
                     String stdout = cmd.resultData.stdout.toString();
                     String stderr = cmd.resultData.stderr.toString();
+                    cmd.resultData.closeOutputCaptures();
                     
                     Log.d(TAG, "Command execution completed: " + command + " (exit code: " + exitCode + ")");
                     
@@ -124,54 +128,19 @@ public class LinuxCommandExecutor {
     }
     
     /**
-     * Check if a process/port is listening (for VNC server check).
-     * Uses netstat or ss command if available, or checks for VNC processes.
+     * Check if the VNC server is accepting connections.
+     * Probes the port from /tmp/vnc-display.txt in the rootfs for an RFB banner, see
+     * {@link VncServerProber}. The callback is invoked on the main thread.
      */
     public void checkVNCServerRunning(com.termux.terminal.TerminalSessionClient serviceClient,
                                       ServerCheckCallback callback) {
-        // Try multiple methods to check if VNC is running
-        // Check port, processes, or if VNC log files exist
-        // First try to read port from saved file, then check if it's listening
-        executeCommand("PORT=$(cat /tmp/vnc-display.txt 2>/dev/null | grep '^port:' | cut -d: -f2); " +
-            "if [ -n \"$PORT\" ]; then " +
-            "  (ss -ln 2>/dev/null | grep \":$PORT \") || " +
-            "  (netstat -ln 2>/dev/null | grep \":$PORT \") || " +
-            "  (pgrep -f '[X]vnc.*:$PORT' >/dev/null 2>&1 && echo 'xvnc_process') || " +
-            "  echo 'not_found'; " +
-            "else " +
-            "  (ss -ln 2>/dev/null | grep ':590[0-9] ') || " +
-            "  (netstat -ln 2>/dev/null | grep ':590[0-9] ') || " +
-            "  (test -f /tmp/vncserver.log && echo 'vncserver_log_exists') || " +
-            "  (test -f /tmp/xvnc*.log && echo 'xvnc_log_exists') || " +
-            "  (test -f /tmp/x11vnc.log && echo 'x11vnc_log_exists') || " +
-            "  (pgrep -f '[X]vnc' >/dev/null 2>&1 && echo 'xvnc_process') || " +
-            "  (pgrep -f '[v]ncserver' >/dev/null 2>&1 && echo 'vncserver_process') || " +
-            "  (pgrep -f '[x]11vnc' >/dev/null 2>&1 && echo 'x11vnc_process') || " +
-            "  echo 'not_found'; " +
-            "fi", 
-            serviceClient,
-            new CommandCallback() {
-                @Override
-                public void onSuccess(String output) {
-                    boolean isRunning = output != null && 
-                        (output.contains("590") || 
-                         output.contains("vncserver") || 
-                         output.contains("xvnc") || 
-                         output.contains("x11vnc") ||
-                         output.contains("_log_exists") ||
-                         output.contains("_process")) && 
-                        !output.contains("not_found");
-                    Log.d(TAG, "VNC server check result: " + output + " (isRunning: " + isRunning + ")");
-                    callback.onResult(isRunning);
-                }
-                
-                @Override
-                public void onError(String error) {
-                    Log.w(TAG, "VNC server check failed: " + error);
-                    // If check command fails, assume server is not running
-                    callback.onResult(false);
-                }
-            });
+        vncServerProber.probeOnce((state, port) -> {
+            if (state == VncServerProber.State.PROBING)
+                return;
+            boolean isRunning = state == VncServerProber.State.READY;
+            Log.d(TAG, "VNC server check result: " + state + " (isRunning: " + isRunning + ")");
+            callback.onResult(isRunning);
+        });
     }
     
     /**
@@ -212,36 +181,15 @@ public class LinuxCommandExecutor {
                         @Override
                         public void onSuccess(String output) {
                             Log.d(TAG, "VNC server start output: " + output);
-                            // Wait a bit for server to fully start
-                            new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                                if (callback != null) {
-                                    callback.onSuccess(output);
-                                }
-                            }, 3000);
+                            // Report success as soon as the server answers with its RFB banner
+                            awaitVNCServerReady(output, null, callback);
                         }
                         
                         @Override
                         public void onError(String error) {
                             Log.e(TAG, "VNC server start error: " + error);
                             // Check if server started despite error (might have started in background)
-                            new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                                checkVNCServerRunning(serviceClient, new ServerCheckCallback() {
-                                    @Override
-                                    public void onResult(boolean isRunning) {
-                                        if (isRunning) {
-                                            Log.d(TAG, "VNC server is running despite error message");
-                                            if (callback != null) {
-                                                callback.onSuccess("VNC server started");
-                                            }
-                                        } else {
-                                            Log.e(TAG, "VNC server not running: " + error);
-                                            if (callback != null) {
-                                                callback.onError(error);
-                                            }
-                                        }
-                                    }
-                                });
-                            }, 5000);
+                            awaitVNCServerReady("VNC server started", error, callback);
                         }
                     });
                 }
@@ -249,6 +197,35 @@ public class LinuxCommandExecutor {
         });
     }
     
+    /**
+     * Wait for the VNC server to become ready after running the start script.
+     *
+     * @param output Passed to {@link CommandCallback#onSuccess(String)} once the server is ready.
+     * @param error Start script error, reported if the server never becomes ready. If null, a
+     *              timeout message is reported instead.
+     */
+    private void awaitVNCServerReady(String output, String error, CommandCallback callback) {
+        vncServerProber.awaitReady(VNC_READY_TIMEOUT_MS, (state, port) -> {
+            if (state == VncServerProber.State.READY) {
+                Log.d(TAG, "VNC server is ready on port " + port);
+                if (callback != null) {
+                    callback.onSuccess(output);
+                }
+            } else if (state == VncServerProber.State.NOT_RUNNING) {
+                String reason = error != null ? error : "VNC server did not become ready within " + (VNC_READY_TIMEOUT_MS / 1000) + "s";
+                Log.e(TAG, "VNC server not running: " + reason);
+                if (callback != null) {
+                    callback.onError(reason);
+                }
+            } else if (state == VncServerProber.State.CANCELLED) {
+                Log.d(TAG, "Waiting for VNC server was cancelled");
+                if (callback != null) {
+                    callback.onError("Waiting for VNC server was cancelled");
+                }
+            }
+        });
+    }
+    
     /**
      * Run setup script if not already completed.
      */
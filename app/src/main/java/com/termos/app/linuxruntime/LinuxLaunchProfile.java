@@ -0,0 +1,387 @@
+package com.termos.app.linuxruntime;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.termos.BuildConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable description of how to launch a proot session for a working mode.
+ *
+ * Resolving the rootfs, the distro type and the init scripts and building the environment is done
+ * once per working mode and cached, so opening a new tab only has to add the per-session variables.
+ * The init scripts are written to the local bin directory only when the SHA-256 of their content
+ * differs from the one recorded on the last write, so unchanged assets are never copied again and
+ * updated assets always replace stale copies.
+ *
+ * Call {@link #invalidate()} when rootfs settings change.
+ */
+public final class LinuxLaunchProfile {
+    private static final String TAG = "LinuxLaunchProfile";
+
+    private static final int WORKING_MODE_UBUNTU = 2;
+    private static final String SHELL = "/system/bin/sh";
+    private static final String INIT_SCRIPT_FILE_NAME = "init";
+    private static final String SCRIPTS_HASH_FILE_NAME = ".init-scripts.sha256";
+
+    private static final Map<Integer, LinuxLaunchProfile> sProfiles = new HashMap<>();
+    /** Hash of the init scripts currently written to the local bin directory. */
+    private static String sInstalledScriptsHash;
+    /** Incremented on every {@link #invalidate()}. */
+    private static int sGeneration = 0;
+
+    public final int workingMode;
+    public final String rootfsFileName;
+    public final String rootfsDirName;
+    public final String distroType;
+    public final String shell;
+    public final String workingDirectory;
+    /** SHA-256 of the init script contents, used to decide whether they must be rewritten. */
+    public final String scriptsHash;
+
+    private final String[] arguments;
+    private final String[] environment;
+    private final File initHostFile;
+    private final byte[] initHostScript;
+    private final File initScriptFile;
+    private final byte[] initScript;
+
+    private LinuxLaunchProfile(int workingMode, String rootfsFileName, String rootfsDirName, String distroType,
+                               String workingDirectory, String[] arguments, String[] environment,
+                               File initHostFile, byte[] initHostScript, File initScriptFile, byte[] initScript) {
+        this.workingMode = workingMode;
+        this.rootfsFileName = rootfsFileName;
+        this.rootfsDirName = rootfsDirName;
+        this.distroType = distroType;
+        this.shell = SHELL;
+        this.workingDirectory = workingDirectory;
+        this.arguments = arguments;
+        this.environment = environment;
+        this.initHostFile = initHostFile;
+        this.initHostScript = initHostScript;
+        this.initScriptFile = initScriptFile;
+        this.initScript = initScript;
+        this.scriptsHash = sha256(initHostScript, initScript);
+    }
+
+    /**
+     * Get the launch profile for a working mode, building it on first use, and make sure its
+     * init scripts are the ones currently written to disk.
+     */
+    public static synchronized LinuxLaunchProfile get(Context context, int workingMode) {
+        LinuxLaunchProfile profile = sProfiles.get(workingMode);
+        if (profile == null) {
+            profile = build(context.getApplicationContext(), workingMode);
+            sProfiles.put(workingMode, profile);
+        }
+        profile.installScriptsIfChanged();
+        return profile;
+    }
+
+    /**
+     * Drop all cached profiles. They are rebuilt on next use.
+     */
+    public static synchronized void invalidate() {
+        sProfiles.clear();
+        sGeneration++;
+    }
+
+    /**
+     * Get the number of times the profiles were invalidated, so that sessions started from an
+     * older profile can be recognized.
+     */
+    public static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Get the arguments for {@link #shell}.
+     */
+    public String[] getArguments() {
+        return arguments.clone();
+    }
+
+    /**
+     * Get the environment for a new session, the cached base environment plus the per-session
+     * temp directory.
+     */
+    public String[] buildEnvironment(File sessionTempDir) {
+        String[] result = Arrays.copyOf(environment, environment.length + 2);
+        result[environment.length] = "PROOT_TMP_DIR=" + sessionTempDir.getAbsolutePath();
+        result[environment.length + 1] = SessionStartupTrace.ENV_TRACE_DIR + "=" + sessionTempDir.getAbsolutePath();
+        return result;
+    }
+
+    private void installScriptsIfChanged() {
+        if (scriptsHash.equals(sInstalledScriptsHash))
+            return;
+
+        File hashFile = new File(initScriptFile.getParentFile(), SCRIPTS_HASH_FILE_NAME);
+        if (scriptsHash.equals(readHashFile(hashFile)) && initHostFile.exists() && initScriptFile.exists()) {
+            sInstalledScriptsHash = scriptsHash;
+            return;
+        }
+
+        try {
+            if (initHostScript.length > 0)
+                writeExecutable(initHostFile, initHostScript);
+            if (initScript.length > 0)
+                writeExecutable(initScriptFile, initScript);
+            Files.write(hashFile.toPath(), scriptsHash.getBytes(StandardCharsets.US_ASCII));
+            sInstalledScriptsHash = scriptsHash;
+            Log.d(TAG, "Installed init scripts for working mode " + workingMode + " (" + scriptsHash + ")");
+        } catch (IOException e) {
+            // Retried on next session
+            Log.e(TAG, "Failed to install init scripts", e);
+        }
+    }
+
+    private static LinuxLaunchProfile build(Context context, int workingMode) {
+        RootfsManager rootfsManager = new RootfsManager(context);
+        File filesDir = context.getFilesDir();
+        File localDir = new File(filesDir.getParentFile(), "local");
+        File localBinDir = new File(localDir, "bin");
+        File localLibDir = new File(localDir, "lib");
+        localBinDir.mkdirs();
+        localLibDir.mkdirs();
+
+        String rootfsFileName = rootfsManager.getRootfsFileName(workingMode);
+        String rootfsDirName = getRootfsDirName(rootfsFileName);
+        String distroType = resolveDistroType(rootfsManager, rootfsFileName);
+
+        // Host side init script that sets up and runs proot
+        String initHostAssetName = (workingMode == WORKING_MODE_UBUNTU) ? "init-host-ubuntu.sh" : "init-host.sh";
+        File initHostFile = new File(localBinDir, initHostAssetName.replace(".sh", ""));
+        byte[] initHostScript = readAsset(context, initHostAssetName);
+        if (initHostScript == null)
+            initHostScript = readAsset(context, "init-host.sh");
+        if (initHostScript == null)
+            initHostScript = new byte[0]; // Will use system shell if init scripts not available
+
+        // Init script inside Linux (runs after proot starts)
+        File initScriptFile = new File(localBinDir, INIT_SCRIPT_FILE_NAME);
+        byte[] initScript;
+        String customInitScript = rootfsManager.getRootfsInitScript(rootfsFileName);
+        if (customInitScript != null && !customInitScript.isEmpty()) {
+            initScript = customInitScript.getBytes(StandardCharsets.UTF_8);
+        } else {
+            initScript = readAsset(context, getInitScriptAssetName(distroType, rootfsFileName, workingMode));
+            if (initScript == null)
+                initScript = readAsset(context, "init.sh");
+            if (initScript == null)
+                initScript = new byte[0]; // Will fail gracefully if no init script
+        }
+
+        // Working directory - default to home in rootfs
+        File workingDir = new File(new File(localDir, rootfsDirName), "root");
+        workingDir.mkdirs();
+
+        String[] arguments = (initHostScript.length > 0 || initHostFile.exists())
+            ? new String[]{"-c", initHostFile.getAbsolutePath()}
+            : new String[0];
+
+        return new LinuxLaunchProfile(workingMode, rootfsFileName, rootfsDirName, distroType,
+            workingDir.getAbsolutePath(), arguments,
+            buildBaseEnvironment(context, localBinDir, localLibDir, rootfsFileName, rootfsDirName, workingMode),
+            initHostFile, initHostScript, initScriptFile, initScript);
+    }
+
+    /**
+     * Get the rootfs directory name under local/ for a rootfs file.
+     */
+    static String getRootfsDirName(String rootfsFileName) {
+        if ("ubuntu.tar.gz".equals(rootfsFileName)) {
+            return "ubuntu";
+        } else if ("alpine.tar.gz".equals(rootfsFileName)) {
+            return "alpine";
+        }
+
+        // Custom rootfs - use filename without extension
+        int lastDot = rootfsFileName.lastIndexOf('.');
+        if (lastDot > 0) {
+            return rootfsFileName.substring(0, lastDot).toLowerCase().replace(" ", "_");
+        }
+        return "alpine"; // fallback
+    }
+
+    /**
+     * Get the stored distro type of a rootfs, detecting and storing it from the file name
+     * for existing installations that do not have one.
+     */
+    private static String resolveDistroType(RootfsManager rootfsManager, String rootfsFileName) {
+        String distroType = rootfsManager.getRootfsDistroType(rootfsFileName);
+        if (distroType != null && !distroType.isEmpty())
+            return distroType;
+
+        String lowerFileName = rootfsFileName.toLowerCase();
+        if (lowerFileName.contains("ubuntu")) {
+            distroType = "UBUNTU";
+        } else if (lowerFileName.contains("debian")) {
+            distroType = "DEBIAN";
+        } else if (lowerFileName.contains("kali")) {
+            distroType = "KALI";
+        } else if (lowerFileName.contains("arch")) {
+            distroType = "ARCH";
+        } else if (lowerFileName.contains("alpine")) {
+            distroType = "ALPINE";
+        } else {
+            return "";
+        }
+
+        rootfsManager.setRootfsDistroType(rootfsFileName, distroType);
+        return distroType;
+    }
+
+    private static String getInitScriptAssetName(String distroType, String rootfsFileName, int workingMode) {
+        // First check distro type, then working mode
+        switch (distroType) {
+            case "UBUNTU": return "init-ubuntu.sh";
+            case "DEBIAN": return "init-debian.sh";
+            case "KALI": return "init-kali.sh";
+            case "ARCH": return "init-arch.sh";
+            default: break;
+        }
+        if ("ubuntu.tar.gz".equals(rootfsFileName))
+            return "init-ubuntu.sh";
+        // Fallback to working mode or default to Alpine
+        return (workingMode == WORKING_MODE_UBUNTU) ? "init-ubuntu.sh" : "init.sh";
+    }
+
+    private static String[] buildBaseEnvironment(Context context, File localBinDir, File localLibDir,
+                                                 String rootfsFileName, String rootfsDirName, int workingMode) {
+        File filesDir = context.getFilesDir();
+        List<String> env = new ArrayList<>();
+        String path = System.getenv("PATH");
+        if (path == null) path = "";
+        env.add("PATH=" + path + ":/sbin:" + localBinDir.getAbsolutePath());
+        env.add("HOME=/sdcard");
+
+        File externalFilesDir = context.getExternalFilesDir(null);
+        if (externalFilesDir != null) {
+            env.add("PUBLIC_HOME=" + externalFilesDir.getAbsolutePath());
+        }
+
+        env.add("COLORTERM=truecolor");
+        env.add("TERM=xterm-256color");
+        env.add("LANG=C.UTF-8");
+        env.add("BIN=" + localBinDir.getAbsolutePath());
+        env.add("DEBUG=" + (BuildConfig.DEBUG ? "1" : "0"));
+        env.add("PREFIX=" + filesDir.getParentFile().getAbsolutePath());
+        env.add("LD_LIBRARY_PATH=" + localLibDir.getAbsolutePath());
+
+        // Determine linker
+        File linker64 = new File("/system/bin/linker64");
+        String linker = linker64.exists() ? "/system/bin/linker64" : "/system/bin/linker";
+        env.add("LINKER=" + linker);
+
+        ApplicationInfo appInfo = context.getApplicationInfo();
+        env.add("NATIVE_LIB_DIR=" + appInfo.nativeLibraryDir);
+        env.add("PKG=" + context.getPackageName());
+        env.add("RISH_APPLICATION_ID=" + context.getPackageName());
+        env.add("PKG_PATH=" + appInfo.sourceDir);
+
+        File tempDir = new File(context.getCacheDir(), "termos_temp");
+        env.add("TMPDIR=" + tempDir.getAbsolutePath());
+
+        env.add("ROOTFS_FILE=" + rootfsFileName);
+        env.add("ROOTFS_DIR=" + rootfsDirName);
+        env.add("WORKING_MODE=" + workingMode);
+
+        // PROOT_LOADER
+        File prootLoader32 = new File(appInfo.nativeLibraryDir, "libproot-loader32.so");
+        File prootLoader = new File(appInfo.nativeLibraryDir, "libproot-loader.so");
+
+        if (prootLoader32.exists()) {
+            env.add("PROOT_LOADER32=" + prootLoader32.getAbsolutePath());
+        }
+        if (prootLoader.exists()) {
+            env.add("PROOT_LOADER=" + prootLoader.getAbsolutePath());
+        }
+
+        // Add Android environment variables
+        addEnvIfNotNull(env, "ANDROID_ART_ROOT");
+        addEnvIfNotNull(env, "ANDROID_DATA");
+        addEnvIfNotNull(env, "ANDROID_I18N_ROOT");
+        addEnvIfNotNull(env, "ANDROID_ROOT");
+        addEnvIfNotNull(env, "ANDROID_RUNTIME_ROOT");
+        addEnvIfNotNull(env, "ANDROID_TZDATA_ROOT");
+        addEnvIfNotNull(env, "BOOTCLASSPATH");
+        addEnvIfNotNull(env, "DEX2OATBOOTCLASSPATH");
+        addEnvIfNotNull(env, "EXTERNAL_STORAGE");
+
+        return env.toArray(new String[0]);
+    }
+
+    private static void addEnvIfNotNull(List<String> env, String key) {
+        String value = System.getenv(key);
+        if (value != null) {
+            env.add(key + "=" + value);
+        }
+    }
+
+    private static byte[] readAsset(Context context, String assetName) {
+        AssetManager assets = context.getAssets();
+        try (InputStream in = assets.open(assetName)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeExecutable(File file, byte[] content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        file.setExecutable(true, false);
+    }
+
+    private static String readHashFile(File hashFile) {
+        try {
+            return new String(Files.readAllBytes(hashFile.toPath()), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String sha256(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) {
+                digest.update(part);
+                // Separator so that moving bytes between parts changes the hash
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.termos.app.linuxruntime;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.util.Log;
+import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
 import java.io.*;
 
 /**
@@ -16,6 +17,8 @@ public class LinuxRuntimeManager {
     private static final String SETUP_MARKER = "/root/.termos-setup-complete";
     private static final String VNC_START_SCRIPT_NAME = "start-vnc.sh";
     private static final String VNC_START_SCRIPT_PATH = "/usr/local/bin/start-vnc.sh";
+    private static final String LOCAL_DISPLAY_START_SCRIPT_NAME = "start-local-display.sh";
+    private static final String LOCAL_DISPLAY_START_SCRIPT_PATH = "/usr/local/bin/start-local-display.sh";
     private static final String INSTALL_LOMIRI_SCRIPT_NAME = "install-lomiri.sh";
     private static final String MOUNT_PROC_SCRIPT_NAME = "mount-proc.sh";
     private static final String DIAGNOSE_DESKTOP_SCRIPT_NAME = "diagnose-desktop.sh";
@@ -51,6 +54,7 @@ public class LinuxRuntimeManager {
         
         // Copy VNC start script to rootfs if not present
         copyScriptToRootfs(VNC_START_SCRIPT_NAME, VNC_START_SCRIPT_PATH);
+        copyScriptToRootfs(LOCAL_DISPLAY_START_SCRIPT_NAME, LOCAL_DISPLAY_START_SCRIPT_PATH);
         
         // Copy helper scripts to rootfs (accessible from PRoot via $PREFIX/local/bin)
         copyScriptToRootfs(INSTALL_LOMIRI_SCRIPT_NAME, "$PREFIX/local/bin/" + INSTALL_LOMIRI_SCRIPT_NAME);
@@ -154,8 +158,13 @@ public class LinuxRuntimeManager {
     
     /**
      * Get command to start VNC server.
+     * If `desktop-local-display` is enabled in termux.properties, the desktop is started on
+     * an Xvfb whose screen is mapped by the viewer, with VNC only used for input.
      */
     public String getVNCStartCommand() {
+        TermuxAppSharedProperties properties = TermuxAppSharedProperties.getProperties();
+        if (properties != null && properties.isDesktopLocalDisplayEnabled())
+            return LOCAL_DISPLAY_START_SCRIPT_PATH;
         return VNC_START_SCRIPT_PATH;
     }
     
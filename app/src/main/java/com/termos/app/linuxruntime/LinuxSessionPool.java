@@ -0,0 +1,214 @@
+package com.termos.app.linuxruntime;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSessionClient;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Keeps a small number of Linux sessions per working mode already started, so that a new tab
+ * only has to attach to a shell that has finished loading proot and the init script.
+ *
+ * Pooled sessions are started with a placeholder terminal size. The view resizes the pty and the
+ * emulator through {@link TerminalSession#updateSize(int, int, int, int)} when it attaches, which
+ * sends SIGWINCH to the shell. Sessions that stay unused for {@link #IDLE_TIMEOUT_MS} are killed
+ * and the pool for that working mode is only refilled once a session is requested again. Under
+ * memory pressure reported through {@link #onTrimMemory(int)} the pool is shrunk.
+ *
+ * All methods must be called on the main thread.
+ */
+public class LinuxSessionPool {
+    private static final String TAG = "LinuxSessionPool";
+
+    private static final int PLACEHOLDER_COLUMNS = 80;
+    private static final int PLACEHOLDER_ROWS = 24;
+
+    /** Pooled sessions unused for this long are reclaimed. */
+    private static final long IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+    /** Delay before refilling, so that spawning does not compete with the tab being opened. */
+    private static final long REFILL_DELAY_MS = 1500;
+    /** How long after the last memory trim the pool may grow back to its configured size. */
+    private static final long MEMORY_PRESSURE_RECOVERY_MS = 5 * 60 * 1000;
+
+    private static final class PooledSession {
+        final TerminalSession session;
+        final int profileGeneration;
+        final long createdAt;
+
+        PooledSession(TerminalSession session, int profileGeneration, long createdAt) {
+            this.session = session;
+            this.profileGeneration = profileGeneration;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final Context mContext;
+    private final TerminalSessionClient mIdleClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SparseArray<ArrayDeque<PooledSession>> mPools = new SparseArray<>();
+
+    private int mConfiguredSize;
+    /** Upper bound imposed by memory pressure, -1 if there is none. */
+    private int mMemoryCap = -1;
+    private long mLastTrimTime;
+    private int mNextId = 0;
+
+    private final Runnable mReclaimIdle = this::reclaimIdle;
+
+    /**
+     * @param idleClient The client pooled sessions use until they are handed out. It must not
+     *                   hold references to an activity.
+     * @param size The number of sessions to keep per working mode.
+     */
+    public LinuxSessionPool(Context context, TerminalSessionClient idleClient, int size) {
+        mContext = context.getApplicationContext();
+        mIdleClient = idleClient;
+        mConfiguredSize = Math.max(0, size);
+    }
+
+    /**
+     * Set the number of sessions to keep per working mode. Excess sessions are killed.
+     */
+    public void setSize(int size) {
+        mConfiguredSize = Math.max(0, size);
+        trimTo(getTargetSize());
+    }
+
+    /**
+     * Take a started session for a working mode out of the pool and schedule a refill.
+     *
+     * The caller must set its own client with {@link TerminalSession#updateTerminalSessionClient}.
+     *
+     * @return The session, or {@code null} if none is available and one must be created normally.
+     */
+    public TerminalSession acquire(int workingMode) {
+        ArrayDeque<PooledSession> pool = mPools.get(workingMode);
+        TerminalSession result = null;
+        int generation = LinuxLaunchProfile.getGeneration();
+        while (pool != null && !pool.isEmpty()) {
+            PooledSession pooled = pool.pollFirst();
+            if (pooled.session.isRunning() && pooled.profileGeneration == generation) {
+                result = pooled.session;
+                break;
+            }
+            // Exited or started with settings that have changed since
+            pooled.session.finishIfRunning();
+        }
+
+        Log.d(TAG, "acquire(mode=" + workingMode + "): " + (result != null ? "hit" : "miss"));
+        scheduleRefill(workingMode);
+        return result;
+    }
+
+    /**
+     * Fill the pool for a working mode up to its target size, after a short delay.
+     */
+    public void scheduleRefill(final int workingMode) {
+        mHandler.postDelayed(() -> refill(workingMode), REFILL_DELAY_MS);
+    }
+
+    /**
+     * Adapt the pool size to memory pressure.
+     */
+    public void onTrimMemory(int level) {
+        int cap;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cap = 0;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cap = Math.min(1, mConfiguredSize);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            cap = Math.max(0, mConfiguredSize - 1);
+        } else {
+            // TRIM_MEMORY_UI_HIDDEN, sessions are still wanted when the user comes back
+            return;
+        }
+
+        mLastTrimTime = SystemClock.elapsedRealtime();
+        mMemoryCap = (mMemoryCap < 0) ? cap : Math.min(mMemoryCap, cap);
+        Log.d(TAG, "onTrimMemory(" + level + "): pool size capped at " + mMemoryCap);
+        trimTo(mMemoryCap);
+    }
+
+    /**
+     * Kill all pooled sessions.
+     */
+    public void clear() {
+        mHandler.removeCallbacksAndMessages(null);
+        trimTo(0);
+    }
+
+    private void refill(int workingMode) {
+        int target = getTargetSize();
+        ArrayDeque<PooledSession> pool = mPools.get(workingMode);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            mPools.put(workingMode, pool);
+        }
+
+        while (pool.size() < target) {
+            String sessionId = "pool-" + workingMode + "-" + (mNextId++);
+            try {
+                TerminalSession session = LinuxSessionCreator.createSession(mContext, mIdleClient, sessionId, workingMode);
+                // Read after creation, since building the launch profile may itself invalidate it
+                int generation = LinuxLaunchProfile.getGeneration();
+                // Starts the process, the real size is set when a view attaches
+                session.updateSize(PLACEHOLDER_COLUMNS, PLACEHOLDER_ROWS, 0, 0);
+                pool.addLast(new PooledSession(session, generation, SystemClock.elapsedRealtime()));
+                Log.d(TAG, "Pre-started " + sessionId);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to pre-start " + sessionId, e);
+                break;
+            }
+        }
+
+        mHandler.removeCallbacks(mReclaimIdle);
+        mHandler.postDelayed(mReclaimIdle, IDLE_TIMEOUT_MS);
+    }
+
+    private void reclaimIdle() {
+        long now = SystemClock.elapsedRealtime();
+        long nextCheck = Long.MAX_VALUE;
+        for (int i = 0; i < mPools.size(); i++) {
+            Iterator<PooledSession> it = mPools.valueAt(i).iterator();
+            while (it.hasNext()) {
+                PooledSession pooled = it.next();
+                long idle = now - pooled.createdAt;
+                if (idle >= IDLE_TIMEOUT_MS || !pooled.session.isRunning()) {
+                    Log.d(TAG, "Reclaiming idle pooled session of mode " + mPools.keyAt(i));
+                    pooled.session.finishIfRunning();
+                    it.remove();
+                } else {
+                    nextCheck = Math.min(nextCheck, IDLE_TIMEOUT_MS - idle);
+                }
+            }
+        }
+
+        if (nextCheck != Long.MAX_VALUE)
+            mHandler.postDelayed(mReclaimIdle, nextCheck);
+    }
+
+    private int getTargetSize() {
+        if (mMemoryCap >= 0 && SystemClock.elapsedRealtime() - mLastTrimTime >= MEMORY_PRESSURE_RECOVERY_MS)
+            mMemoryCap = -1;
+        return (mMemoryCap < 0) ? mConfiguredSize : Math.min(mConfiguredSize, mMemoryCap);
+    }
+
+    private void trimTo(int size) {
+        for (int i = 0; i < mPools.size(); i++) {
+            ArrayDeque<PooledSession> pool = mPools.valueAt(i);
+            while (pool.size() > size) {
+                // Keep the oldest sessions, they are the furthest along in starting up
+                pool.pollLast().session.finishIfRunning();
+            }
+        }
+    }
+}
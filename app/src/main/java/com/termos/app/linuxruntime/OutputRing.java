@@ -0,0 +1,74 @@
+package com.termos.app.linuxruntime;
+
+/**
+ * Fixed-capacity buffer that keeps only the most recent characters of command output.
+ * Used instead of an unbounded {@link StringBuilder} for long-running scripts.
+ */
+public class OutputRing {
+
+    private final char[] buffer;
+    private int start = 0;
+    private int length = 0;
+    private long totalLength = 0;
+
+    public OutputRing(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.buffer = new char[capacity];
+    }
+
+    /**
+     * Append a line, followed by a newline.
+     */
+    public synchronized void appendLine(String line) {
+        append(line);
+        append('\n');
+    }
+
+    public synchronized void append(CharSequence text) {
+        for (int i = 0; i < text.length(); i++)
+            append(text.charAt(i));
+    }
+
+    private void append(char c) {
+        int end = (start + length) % buffer.length;
+        buffer[end] = c;
+        if (length < buffer.length)
+            length++;
+        else
+            start = (start + 1) % buffer.length;
+        totalLength++;
+    }
+
+    /**
+     * Get the total number of characters ever appended, including those that were dropped.
+     */
+    public synchronized long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Check whether older output was dropped to stay within capacity.
+     */
+    public synchronized boolean isTruncated() {
+        return totalLength > length;
+    }
+
+    public synchronized void clear() {
+        start = 0;
+        length = 0;
+        totalLength = 0;
+    }
+
+    /**
+     * Get the retained output, oldest first.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder(length);
+        int firstPart = Math.min(length, buffer.length - start);
+        result.append(buffer, start, firstPart);
+        result.append(buffer, 0, length - firstPart);
+        return result.toString();
+    }
+}
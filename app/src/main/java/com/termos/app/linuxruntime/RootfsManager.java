@@ -6,6 +6,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Manages Linux rootfs files and installation state.
@@ -109,6 +110,7 @@ public class RootfsManager {
                 .putString(KEY_INSTALLED_ROOTFS, String.join(",", installed))
                 .apply();
         }
+        LinuxLaunchProfile.invalidate();
         
         if (displayName != null && !displayName.isEmpty()) {
             setRootfsDisplayName(rootfsName, displayName);
@@ -202,7 +204,9 @@ public class RootfsManager {
      */
     public void setRootfsFileForWorkingMode(int workingMode, String rootfsFileName) {
         String modeKey = KEY_ROOTFS_FILE_MODE_PREFIX + workingMode;
+        if (Objects.equals(rootfsFileName, prefs.getString(modeKey, null))) return;
         prefs.edit().putString(modeKey, rootfsFileName).apply();
+        LinuxLaunchProfile.invalidate();
     }
     
     /**
@@ -218,7 +222,11 @@ public class RootfsManager {
      */
     public void setRootfsDistroType(String rootfsName, String distroType) {
         String distroKey = KEY_ROOTFS_DISTRO_PREFIX + rootfsName;
+        // Only invalidate on an actual change, resolving the distro type while building a profile
+        // would otherwise make every session started from it stale
+        if (Objects.equals(distroType, prefs.getString(distroKey, null))) return;
         prefs.edit().putString(distroKey, distroType).apply();
+        LinuxLaunchProfile.invalidate();
     }
     
     /**
@@ -234,7 +242,9 @@ public class RootfsManager {
      */
     public void setRootfsInitScript(String rootfsName, String initScript) {
         String initKey = KEY_ROOTFS_INIT_PREFIX + rootfsName;
+        if (Objects.equals(initScript, prefs.getString(initKey, null))) return;
         prefs.edit().putString(initKey, initScript).apply();
+        LinuxLaunchProfile.invalidate();
     }
 }
 
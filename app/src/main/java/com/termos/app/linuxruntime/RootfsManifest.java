@@ -0,0 +1,281 @@
+package com.termos.app.linuxruntime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The regular files a rootfs archive extracts to, with their sizes and optionally SHA-256 hashes.
+ *
+ * Built by reading the archive the rootfs was extracted from, see {@link #fromArchive(File, boolean)},
+ * and stored next to the scan cache as one tab separated {@code size sha256 path} line per file,
+ * with {@code -} for a missing hash. Paths are relative to the rootfs directory.
+ */
+public class RootfsManifest {
+
+    private static final String HEADER = "# termos rootfs manifest v1";
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    public static final class Entry {
+        public final long size;
+        /** Lowercase hex SHA-256 of the content, or {@code null} if not recorded. */
+        public final String sha256;
+
+        Entry(long size, String sha256) {
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private RootfsManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Build a manifest from a {@code .tar} or {@code .tar.gz} rootfs archive.
+     *
+     * Only regular files are recorded. Symlinks and hard links often fail to extract on Android
+     * and are not part of the integrity check.
+     *
+     * @param withHashes Whether to hash file contents while reading, which costs little on top of
+     *                   decompressing.
+     */
+    public static RootfsManifest fromArchive(File archive, boolean withHashes) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        MessageDigest digest = withHashes ? newDigest() : null;
+
+        InputStream in = new BufferedInputStream(new FileInputStream(archive), 64 * 1024);
+        try {
+            if (archive.getName().endsWith(".gz") || archive.getName().endsWith(".tgz"))
+                in = new GZIPInputStream(in, 64 * 1024);
+
+            byte[] header = new byte[TAR_BLOCK_SIZE];
+            byte[] buffer = new byte[64 * 1024];
+            String longName = null;
+            while (readFully(in, header)) {
+                if (isZeroBlock(header))
+                    break;
+
+                String name = getString(header, 0, 100);
+                String prefix = getString(header, 345, 155);
+                if (!prefix.isEmpty())
+                    name = prefix + "/" + name;
+                long size = parseNumber(header, 124, 12);
+                char type = (char) header[156];
+
+                if (type == 'L' || type == 'x') {
+                    // GNU long name or pax extended header for the next entry
+                    byte[] data = new byte[(int) size];
+                    if (!readFully(in, data))
+                        throw new EOFException("Truncated archive " + archive.getName());
+                    skip(in, padding(size));
+                    String value = new String(data, StandardCharsets.UTF_8);
+                    longName = (type == 'L') ? trimNul(value) : getPaxPath(value, longName);
+                    continue;
+                }
+
+                if (longName != null) {
+                    name = longName;
+                    longName = null;
+                }
+
+                if (type == '0' || type == '\0' || type == '7') {
+                    if (digest != null) digest.reset();
+                    long remaining = size;
+                    while (remaining > 0) {
+                        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0)
+                            throw new EOFException("Truncated archive " + archive.getName());
+                        if (digest != null) digest.update(buffer, 0, read);
+                        remaining -= read;
+                    }
+                    skip(in, padding(size));
+                    String path = normalizePath(name);
+                    if (!path.isEmpty())
+                        entries.put(path, new Entry(size, digest != null ? toHex(digest.digest()) : null));
+                } else {
+                    skip(in, size + padding(size));
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return new RootfsManifest(entries);
+    }
+
+    /**
+     * Read a manifest written by {@link #write(File)}.
+     */
+    public static RootfsManifest read(File file) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line))
+                throw new IOException("Unsupported manifest " + file.getAbsolutePath());
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3)
+                    continue;
+                try {
+                    entries.put(parts[2], new Entry(Long.parseLong(parts[0]), "-".equals(parts[1]) ? null : parts[1]));
+                } catch (NumberFormatException e) {
+                    // Ignore corrupt line
+                }
+            }
+        }
+        return new RootfsManifest(entries);
+    }
+
+    /**
+     * Write the manifest, replacing the file atomically.
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                String path = entry.getKey();
+                // The format cannot represent these, they are not checked
+                if (path.indexOf('\n') >= 0 || path.indexOf('\t') >= 0)
+                    continue;
+                writer.write(Long.toString(entry.getValue().size));
+                writer.write('\t');
+                writer.write(entry.getValue().sha256 != null ? entry.getValue().sha256 : "-");
+                writer.write('\t');
+                writer.write(path);
+                writer.write('\n');
+            }
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to write " + file.getAbsolutePath());
+    }
+
+    /**
+     * Strip leading {@code ./} and {@code /} and trailing {@code /} from an archive path.
+     */
+    static String normalizePath(String path) {
+        int start = 0, end = path.length();
+        while (true) {
+            if (path.startsWith("./", start)) start += 2;
+            else if (path.startsWith("/", start)) start++;
+            else break;
+        }
+        while (end > start && path.charAt(end - 1) == '/') end--;
+        return (start < end) ? path.substring(start, end) : "";
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    private static String getPaxPath(String records, String current) {
+        // Records are "<length> <key>=<value>\n"
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1))
+                return record.substring(space + 6);
+        }
+        return current;
+    }
+
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            // GNU base-256 encoding for large sizes
+            long value = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++)
+                value = (value << 8) | (header[offset + i] & 0xff);
+            return value;
+        }
+        String octal = getString(header, offset, length).trim();
+        return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+    }
+
+    private static String getString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0)
+            end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return (nul >= 0) ? value.substring(0, nul) : value;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block)
+            if (b != 0) return false;
+        return true;
+    }
+
+    private static long padding(long size) {
+        long remainder = size % TAR_BLOCK_SIZE;
+        return (remainder == 0) ? 0 : TAR_BLOCK_SIZE - remainder;
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                if (offset == 0) return false;
+                throw new EOFException("Truncated tar block");
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException("Truncated archive");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package com.termos.app.linuxruntime;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the disk usage of an extracted rootfs and checks it against the {@link RootfsManifest}
+ * of the archive it was extracted from.
+ *
+ * The tree is walked with a {@link ForkJoinPool}, one task per directory. The listing of every
+ * directory is cached together with its mtime, and a later scan reuses the cached listing of
+ * directories whose mtime has not changed instead of stat'ing all of their entries again. Since
+ * rewriting a file in place does not change the mtime of its directory, such changes are only
+ * noticed by the optional hash verification.
+ *
+ * init-host writes a marker before and after extracting a rootfs, see {@link #getExtractMarker},
+ * so that an extraction interrupted by a crash is reported instead of silently leaving a
+ * partial rootfs behind.
+ */
+public class RootfsScanner {
+    private static final String TAG = "RootfsScanner";
+
+    private static final String SCAN_DIR = "rootfs-scan";
+    private static final int CACHE_VERSION = 1;
+    /** The number of examples of each kind of integrity problem kept in a {@link Report}. */
+    private static final int MAX_REPORTED_PATHS = 50;
+    /** Directories up to this depth are listed in {@link Report#directories}. */
+    private static final int REPORTED_DIR_DEPTH = 2;
+    private static final int HASH_BATCH_SIZE = 16;
+
+    public interface Listener {
+        /** Called on the main thread when a scan has finished. */
+        void onScanFinished(Report report);
+    }
+
+    public static final class DirUsage {
+        public final String path;
+        public final long bytes;
+        public final long files;
+
+        DirUsage(String path, long bytes, long files) {
+            this.path = path;
+            this.bytes = bytes;
+            this.files = files;
+        }
+    }
+
+    public static final class Report {
+        public String rootfsFileName;
+        public String rootfsDirName;
+        /** Set if the rootfs directory does not exist or could not be scanned. */
+        public String error;
+
+        public long totalBytes;
+        public long totalFiles;
+        public long totalDirs;
+        /** Directories up to {@link #REPORTED_DIR_DEPTH} levels deep, largest first. */
+        public List<DirUsage> directories = new ArrayList<>();
+        public int reusedDirs;
+        public int scannedDirs;
+
+        /** Whether the last extraction was started but never finished. */
+        public boolean partialExtraction;
+        public boolean manifestAvailable;
+        public int manifestFiles;
+        public int missingCount;
+        public int sizeMismatchCount;
+        public int hashMismatchCount;
+        public boolean hashesVerified;
+        public List<String> missing = new ArrayList<>();
+        public List<String> sizeMismatch = new ArrayList<>();
+        public List<String> hashMismatch = new ArrayList<>();
+
+        public long durationMs;
+
+        public boolean isIntact() {
+            return error == null && !partialExtraction && missingCount == 0 && sizeMismatchCount == 0 && hashMismatchCount == 0;
+        }
+
+        /** Get a one line summary. */
+        public String getSummary() {
+            if (error != null)
+                return rootfsDirName + ": " + error;
+            String summary = String.format(Locale.ENGLISH, "%s: %s in %d files", rootfsDirName, formatBytes(totalBytes), totalFiles);
+            if (partialExtraction)
+                return summary + ", extraction incomplete";
+            if (!manifestAvailable)
+                return summary;
+            return summary + (isIntact() ? ", intact" : String.format(Locale.ENGLISH, ", %d files differ from the archive",
+                missingCount + sizeMismatchCount + hashMismatchCount));
+        }
+
+        public String toMarkdown() {
+            StringBuilder markdown = new StringBuilder();
+            markdown.append("## ").append(rootfsDirName).append(" (").append(rootfsFileName).append(")\n\n");
+            if (error != null) {
+                markdown.append("**Error**: ").append(error).append("\n");
+                return markdown.toString();
+            }
+
+            markdown.append(String.format(Locale.ENGLISH, "**Disk Usage**: `%s` in `%d` files and `%d` directories  \n", formatBytes(totalBytes), totalFiles, totalDirs));
+            markdown.append(String.format(Locale.ENGLISH, "**Scan**: `%d ms`, `%d` directories read, `%d` unchanged  \n", durationMs, scannedDirs, reusedDirs));
+            if (partialExtraction)
+                markdown.append("**Extraction**: started but never finished, the rootfs is likely incomplete  \n");
+
+            if (!manifestAvailable) {
+                markdown.append("**Integrity**: no manifest, the rootfs archive is not available\n");
+            } else {
+                markdown.append(String.format(Locale.ENGLISH, "**Integrity**: `%d` files in manifest, `%d` missing, `%d` size differs%s\n",
+                    manifestFiles, missingCount, sizeMismatchCount,
+                    hashesVerified ? String.format(Locale.ENGLISH, ", `%d` content differs", hashMismatchCount) : ""));
+            }
+
+            if (!directories.isEmpty()) {
+                markdown.append("\n### Largest Directories\n\n");
+                int count = 0;
+                for (DirUsage usage : directories) {
+                    if (count++ == 20) break;
+                    markdown.append(String.format(Locale.ENGLISH, "- `/%s`: %s, %d files\n", usage.path, formatBytes(usage.bytes), usage.files));
+                }
+            }
+
+            appendPaths(markdown, "Missing Files", missing, missingCount);
+            appendPaths(markdown, "Size Differs", sizeMismatch, sizeMismatchCount);
+            appendPaths(markdown, "Content Differs", hashMismatch, hashMismatchCount);
+            return markdown.toString();
+        }
+
+        private static void appendPaths(StringBuilder markdown, String title, List<String> paths, int total) {
+            if (paths.isEmpty()) return;
+            markdown.append("\n### ").append(title).append("\n\n");
+            for (String path : paths)
+                markdown.append("- `/").append(path).append("`\n");
+            if (total > paths.size())
+                markdown.append("- ... and ").append(total - paths.size()).append(" more\n");
+        }
+    }
+
+    /** The cached listing of a single directory. */
+    private static final class DirEntry {
+        final long mtime;
+        final String[] fileNames;
+        final long[] fileSizes;
+        final String[] subdirs;
+
+        DirEntry(long mtime, String[] fileNames, long[] fileSizes, String[] subdirs) {
+            this.mtime = mtime;
+            this.fileNames = fileNames;
+            this.fileSizes = fileSizes;
+            this.subdirs = subdirs;
+        }
+    }
+
+    private static final ExecutorService SCAN_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Map<String, Report> sLastReports = new ConcurrentHashMap<>();
+    private static ForkJoinPool sPool;
+
+    private RootfsScanner() {
+    }
+
+    /**
+     * Scan a rootfs in the background. Scans are run one at a time.
+     *
+     * @param verifyHashes Whether to also hash the files and compare them with the manifest.
+     */
+    public static void scan(Context context, String rootfsFileName, boolean verifyHashes, Listener listener) {
+        final Context appContext = context.getApplicationContext();
+        SCAN_EXECUTOR.execute(() -> {
+            Report report = scanBlocking(appContext, rootfsFileName, verifyHashes);
+            if (listener != null)
+                MAIN_HANDLER.post(() -> listener.onScanFinished(report));
+        });
+    }
+
+    /**
+     * Get the report of the last scan of a rootfs in this process, or {@code null}.
+     */
+    public static Report getLastReport(String rootfsFileName) {
+        return sLastReports.get(rootfsFileName);
+    }
+
+    /**
+     * Get the marker init-host writes while extracting a rootfs. It contains {@code started} or
+     * {@code done} followed by the rootfs file name.
+     */
+    public static File getExtractMarker(Context context, String rootfsDirName) {
+        return new File(getLocalDir(context), "." + rootfsDirName + ".extract");
+    }
+
+    /**
+     * Scan a rootfs on the calling thread.
+     */
+    public static Report scanBlocking(Context context, String rootfsFileName, boolean verifyHashes) {
+        long start = System.currentTimeMillis();
+        Report report = new Report();
+        report.rootfsFileName = rootfsFileName;
+        report.rootfsDirName = LinuxLaunchProfile.getRootfsDirName(rootfsFileName);
+
+        File rootfsDir = new File(getLocalDir(context), report.rootfsDirName);
+        File scanDir = new File(context.getFilesDir(), SCAN_DIR);
+        scanDir.mkdirs();
+        File cacheFile = new File(scanDir, report.rootfsDirName + ".cache");
+        File manifestFile = new File(scanDir, report.rootfsDirName + ".manifest");
+
+        if (!rootfsDir.isDirectory()) {
+            report.error = "not extracted";
+            sLastReports.put(rootfsFileName, report);
+            return report;
+        }
+
+        File marker = getExtractMarker(context, report.rootfsDirName);
+        String markerState = readMarkerState(marker);
+        report.partialExtraction = "started".equals(markerState);
+
+        // Walk the tree
+        long[] cacheTime = new long[1];
+        Map<String, DirEntry> oldCache = readCache(cacheFile, cacheTime);
+        Map<String, DirEntry> newCache = new ConcurrentHashMap<>();
+        Map<String, DirUsage> usages = new ConcurrentHashMap<>();
+        AtomicInteger reused = new AtomicInteger();
+        AtomicInteger scanned = new AtomicInteger();
+        long walkStartSeconds = System.currentTimeMillis() / 1000;
+        long[] totals = getPool().invoke(new DirTask(rootfsDir, "", 0, oldCache, cacheTime[0], newCache, usages, reused, scanned));
+        report.totalBytes = totals[0];
+        report.totalFiles = totals[1];
+        report.totalDirs = totals[2];
+        report.reusedDirs = reused.get();
+        report.scannedDirs = scanned.get();
+        report.directories = new ArrayList<>(usages.values());
+        Collections.sort(report.directories, (a, b) -> Long.compare(b.bytes, a.bytes));
+        writeCache(cacheFile, newCache, walkStartSeconds);
+
+        // Check against the manifest
+        RootfsManifest manifest = loadManifest(context, rootfsFileName, marker, manifestFile);
+        if (manifest != null) {
+            report.manifestAvailable = true;
+            report.manifestFiles = manifest.size();
+            checkIntegrity(report, rootfsDir, manifest, newCache, verifyHashes);
+        }
+
+        report.durationMs = System.currentTimeMillis() - start;
+        Log.d(TAG, report.getSummary() + " (" + report.durationMs + " ms, " + report.reusedDirs + " directories unchanged)");
+        sLastReports.put(rootfsFileName, report);
+        return report;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null)
+            sPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        return sPool;
+    }
+
+    private static File getLocalDir(Context context) {
+        return new File(context.getFilesDir().getParentFile(), "local");
+    }
+
+    /**
+     * Walks a directory and returns {bytes, files, directories} of its subtree.
+     */
+    private static final class DirTask extends RecursiveTask<long[]> {
+        private final File dir;
+        private final String path;
+        private final int depth;
+        private final Map<String, DirEntry> oldCache;
+        private final long oldCacheTime;
+        private final Map<String, DirEntry> newCache;
+        private final Map<String, DirUsage> usages;
+        private final AtomicInteger reused;
+        private final AtomicInteger scanned;
+
+        DirTask(File dir, String path, int depth, Map<String, DirEntry> oldCache, long oldCacheTime,
+                Map<String, DirEntry> newCache, Map<String, DirUsage> usages, AtomicInteger reused, AtomicInteger scanned) {
+            this.dir = dir;
+            this.path = path;
+            this.depth = depth;
+            this.oldCache = oldCache;
+            this.oldCacheTime = oldCacheTime;
+            this.newCache = newCache;
+            this.usages = usages;
+            this.reused = reused;
+            this.scanned = scanned;
+        }
+
+        @Override
+        protected long[] compute() {
+            StructStat stat;
+            try {
+                stat = Os.lstat(dir.getAbsolutePath());
+            } catch (ErrnoException e) {
+                return new long[]{0, 0, 0};
+            }
+
+            DirEntry entry = oldCache.get(path);
+            // mtime has a resolution of a second, so a listing cached in the same second the
+            // directory was modified may be stale
+            if (entry != null && entry.mtime == stat.st_mtime && stat.st_mtime < oldCacheTime) {
+                reused.incrementAndGet();
+            } else {
+                entry = list(stat.st_mtime);
+                scanned.incrementAndGet();
+            }
+            newCache.put(path, entry);
+
+            long bytes = 0;
+            for (long size : entry.fileSizes)
+                bytes += size;
+            long files = entry.fileNames.length;
+            long dirs = 1;
+
+            List<DirTask> tasks = new ArrayList<>(entry.subdirs.length);
+            for (String subdir : entry.subdirs) {
+                tasks.add(new DirTask(new File(dir, subdir), path.isEmpty() ? subdir : path + "/" + subdir, depth + 1,
+                    oldCache, oldCacheTime, newCache, usages, reused, scanned));
+            }
+            invokeAll(tasks);
+            for (DirTask task : tasks) {
+                long[] result = task.join();
+                bytes += result[0];
+                files += result[1];
+                dirs += result[2];
+            }
+
+            if (depth > 0 && depth <= REPORTED_DIR_DEPTH)
+                usages.put(path, new DirUsage(path, bytes, files));
+            return new long[]{bytes, files, dirs};
+        }
+
+        private DirEntry list(long mtime) {
+            String[] names = dir.list();
+            if (names == null)
+                return new DirEntry(mtime, new String[0], new long[0], new String[0]);
+
+            List<String> fileNames = new ArrayList<>();
+            List<Long> fileSizes = new ArrayList<>();
+            List<String> subdirs = new ArrayList<>();
+            for (String name : names) {
+                try {
+                    // Do not follow symlinks, they often point outside the rootfs
+                    StructStat stat = Os.lstat(new File(dir, name).getAbsolutePath());
+                    if (OsConstants.S_ISDIR(stat.st_mode)) {
+                        subdirs.add(name);
+                    } else if (OsConstants.S_ISREG(stat.st_mode)) {
+                        fileNames.add(name);
+                        fileSizes.add(stat.st_size);
+                    }
+                } catch (ErrnoException e) {
+                    // Removed while scanning
+                }
+            }
+
+            long[] sizes = new long[fileSizes.size()];
+            for (int i = 0; i < sizes.length; i++)
+                sizes[i] = fileSizes.get(i);
+            return new DirEntry(mtime, fileNames.toArray(new String[0]), sizes, subdirs.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Hashes a range of files and records those whose content differs from the manifest.
+     */
+    private static final class HashTask extends RecursiveAction {
+        private final File rootfsDir;
+        private final List<Map.Entry<String, RootfsManifest.Entry>> entries;
+        private final int from;
+        private final int to;
+        private final ConcurrentLinkedQueue<String> mismatches;
+
+        HashTask(File rootfsDir, List<Map.Entry<String, RootfsManifest.Entry>> entries, int from, int to,
+                 ConcurrentLinkedQueue<String> mismatches) {
+            this.rootfsDir = rootfsDir;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.mismatches = mismatches;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > HASH_BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HashTask(rootfsDir, entries, from, middle, mismatches),
+                    new HashTask(rootfsDir, entries, middle, to, mismatches));
+                return;
+            }
+
+            MessageDigest digest = RootfsManifest.newDigest();
+            byte[] buffer = new byte[64 * 1024];
+            for (int i = from; i < to; i++) {
+                Map.Entry<String, RootfsManifest.Entry> entry = entries.get(i);
+                digest.reset();
+                try (InputStream in = new FileInputStream(new File(rootfsDir, entry.getKey()))) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1)
+                        digest.update(buffer, 0, read);
+                    if (!entry.getValue().sha256.equals(RootfsManifest.toHex(digest.digest())))
+                        mismatches.add(entry.getKey());
+                } catch (IOException e) {
+                    // Unreadable files are as bad as modified ones
+                    mismatches.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static void checkIntegrity(Report report, File rootfsDir, RootfsManifest manifest,
+                                       Map<String, DirEntry> listings, boolean verifyHashes) {
+        Map<String, Long> fileSizes = new HashMap<>();
+        for (Map.Entry<String, DirEntry> listing : listings.entrySet()) {
+            String dirPath = listing.getKey();
+            DirEntry dir = listing.getValue();
+            for (int i = 0; i < dir.fileNames.length; i++)
+                fileSizes.put(dirPath.isEmpty() ? dir.fileNames[i] : dirPath + "/" + dir.fileNames[i], dir.fileSizes[i]);
+        }
+
+        List<Map.Entry<String, RootfsManifest.Entry>> toHash = new ArrayList<>();
+        for (Map.Entry<String, RootfsManifest.Entry> entry : manifest.getEntries().entrySet()) {
+            String path = entry.getKey();
+            Long size = fileSizes.get(path);
+
+            if (size == null) {
+                report.missingCount++;
+                addPath(report.missing, path);
+            } else if (size != entry.getValue().size) {
+                report.sizeMismatchCount++;
+                addPath(report.sizeMismatch, path);
+            } else if (verifyHashes && entry.getValue().sha256 != null) {
+                toHash.add(entry);
+            }
+        }
+
+        if (verifyHashes) {
+            ConcurrentLinkedQueue<String> mismatches = new ConcurrentLinkedQueue<>();
+            if (!toHash.isEmpty())
+                getPool().invoke(new HashTask(rootfsDir, toHash, 0, toHash.size(), mismatches));
+            report.hashesVerified = true;
+            report.hashMismatchCount = mismatches.size();
+            for (String path : mismatches)
+                addPath(report.hashMismatch, path);
+        }
+
+        Collections.sort(report.missing);
+        Collections.sort(report.sizeMismatch);
+        Collections.sort(report.hashMismatch);
+    }
+
+    private static void addPath(List<String> paths, String path) {
+        if (paths.size() < MAX_REPORTED_PATHS)
+            paths.add(path);
+    }
+
+    /**
+     * Load the manifest, recording it from the rootfs archive if it does not exist yet or the
+     * archive was extracted again since it was recorded.
+     */
+    private static RootfsManifest loadManifest(Context context, String rootfsFileName, File marker, File manifestFile) {
+        File archive = new File(context.getFilesDir(), rootfsFileName);
+        boolean stale = !manifestFile.exists() ||
+            (archive.exists() && manifestFile.lastModified() < archive.lastModified()) ||
+            (marker.exists() && manifestFile.lastModified() < marker.lastModified());
+
+        if (stale && archive.isFile()) {
+            try {
+                RootfsManifest manifest = RootfsManifest.fromArchive(archive, true);
+                manifest.write(manifestFile);
+                return manifest;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to record manifest of " + archive.getName(), e);
+            }
+        }
+
+        if (!manifestFile.exists())
+            return null;
+        try {
+            return RootfsManifest.read(manifestFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read manifest " + manifestFile.getName(), e);
+            return null;
+        }
+    }
+
+    private static String readMarkerState(File marker) {
+        try {
+            String content = new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim();
+            int space = content.indexOf(' ');
+            return (space < 0) ? content : content.substring(0, space);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, DirEntry> readCache(File cacheFile, long[] cacheTime) {
+        Map<String, DirEntry> cache = new HashMap<>();
+        if (!cacheFile.exists())
+            return cache;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 64 * 1024))) {
+            if (in.readInt() != CACHE_VERSION)
+                return cache;
+            cacheTime[0] = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                String[] fileNames = new String[in.readInt()];
+                long[] fileSizes = new long[fileNames.length];
+                for (int j = 0; j < fileNames.length; j++) {
+                    fileNames[j] = in.readUTF();
+                    fileSizes[j] = in.readLong();
+                }
+                String[] subdirs = new String[in.readInt()];
+                for (int j = 0; j < subdirs.length; j++)
+                    subdirs[j] = in.readUTF();
+                cache.put(path, new DirEntry(mtime, fileNames, fileSizes, subdirs));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable scan cache: " + e.getMessage());
+            cache.clear();
+        }
+        return cache;
+    }
+
+    private static void writeCache(File cacheFile, Map<String, DirEntry> cache, long cacheTime) {
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(CACHE_VERSION);
+            out.writeLong(cacheTime);
+            out.writeInt(cache.size());
+            for (Map.Entry<String, DirEntry> entry : cache.entrySet()) {
+                DirEntry dir = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(dir.mtime);
+                out.writeInt(dir.fileNames.length);
+                for (int i = 0; i < dir.fileNames.length; i++) {
+                    out.writeUTF(dir.fileNames[i]);
+                    out.writeLong(dir.fileSizes[i]);
+                }
+                out.writeInt(dir.subdirs.length);
+                for (String subdir : dir.subdirs)
+                    out.writeUTF(subdir);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write scan cache: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(cacheFile))
+            tmp.delete();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        String[] units = {"KiB", "MiB", "GiB", "TiB"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ENGLISH, "%.1f %s", value, units[unit]);
+    }
+}
@@ -0,0 +1,130 @@
+package com.termos.app.linuxruntime;
+
+import android.util.Log;
+
+import com.termux.terminal.TerminalSession;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records per-phase timings of opening a proot session, so tab-open latency can be measured.
+ *
+ * Phases:
+ * - java_setup: from {@link LinuxSessionCreator#createSession} being called until the
+ *   {@link TerminalSession} is constructed.
+ * - attach: until the terminal view attaches and the subprocess is requested.
+ * - fork_exec: the fork and exec of the subprocess in {@code JNI.createSubprocess}, through the
+ *   {@link com.termux.terminal.ForkServer} if it is running.
+ * - host_script: init-host running on the Android side, until it launches proot.
+ * - proot_loader: proot loading the rootfs, until the init script inside it starts.
+ * - first_output: until the first byte of shell output is received.
+ *
+ * The host_script and proot_loader phases are taken from marker files that the init scripts
+ * touch in {@link #getMarkerDir()}, and are -1 if the markers were not written.
+ */
+public class SessionStartupTrace implements TerminalSession.StartupListener {
+    private static final String TAG = "SessionStartupTrace";
+
+    /** Environment variable holding the directory the init scripts write their markers to. */
+    public static final String ENV_TRACE_DIR = "TERMOS_TRACE_DIR";
+    private static final String HOST_MARKER = ".trace-host";
+    private static final String GUEST_MARKER = ".trace-guest";
+
+    private static final int MAX_RECENT_TRACES = 20;
+    private static final ArrayDeque<String> sRecentTraces = new ArrayDeque<>();
+
+    private final String sessionId;
+    private final File markerDir;
+    private final long createStartNanos;
+    private final long createStartMillis;
+    private long javaSetupDoneNanos;
+    private long forkStartNanos;
+    private long forkEndNanos;
+    private long forkEndMillis;
+
+    /**
+     * Start a trace. Should be called first thing when a session is requested.
+     *
+     * @param markerDir Directory for the init script markers, unique to this session.
+     */
+    public SessionStartupTrace(String sessionId, File markerDir) {
+        this.sessionId = sessionId;
+        this.markerDir = markerDir;
+        this.createStartNanos = System.nanoTime();
+        this.createStartMillis = System.currentTimeMillis();
+        new File(markerDir, HOST_MARKER).delete();
+        new File(markerDir, GUEST_MARKER).delete();
+    }
+
+    public File getMarkerDir() {
+        return markerDir;
+    }
+
+    /**
+     * Mark the end of the java_setup phase and start listening for the session's milestones.
+     */
+    public void attach(TerminalSession session) {
+        javaSetupDoneNanos = System.nanoTime();
+        session.setStartupListener(this);
+    }
+
+    @Override
+    public void onSubprocessStarted(TerminalSession session, long startNanos, long endNanos) {
+        forkStartNanos = startNanos;
+        forkEndNanos = endNanos;
+        forkEndMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void onFirstOutput(TerminalSession session, long nanos) {
+        // Marker mtimes are wall clock, convert them relative to the end of fork/exec
+        long hostMarkerMillis = new File(markerDir, HOST_MARKER).lastModified();
+        long guestMarkerMillis = new File(markerDir, GUEST_MARKER).lastModified();
+        long hostScriptMs = -1, prootLoaderMs = -1;
+        if (hostMarkerMillis > 0 && hostMarkerMillis >= createStartMillis) {
+            hostScriptMs = Math.max(0, hostMarkerMillis - forkEndMillis);
+            if (guestMarkerMillis >= hostMarkerMillis)
+                prootLoaderMs = guestMarkerMillis - hostMarkerMillis;
+        }
+
+        String report = String.format(Locale.ENGLISH,
+            "session=%s java_setup=%dms attach=%dms fork_exec=%dms host_script=%dms proot_loader=%dms first_output=%dms total=%dms",
+            sessionId,
+            toMillis(javaSetupDoneNanos - createStartNanos),
+            toMillis(forkStartNanos - javaSetupDoneNanos),
+            toMillis(forkEndNanos - forkStartNanos),
+            hostScriptMs,
+            prootLoaderMs,
+            toMillis(nanos - forkEndNanos),
+            toMillis(nanos - createStartNanos));
+        Log.i(TAG, report);
+
+        synchronized (sRecentTraces) {
+            if (sRecentTraces.size() == MAX_RECENT_TRACES)
+                sRecentTraces.removeFirst();
+            sRecentTraces.addLast(report);
+        }
+
+        new File(markerDir, HOST_MARKER).delete();
+        new File(markerDir, GUEST_MARKER).delete();
+    }
+
+    /**
+     * Get the reports of the most recent session startups, oldest first. These are added to the
+     * dumpsys output of {@link com.termos.app.ui.TerminalTabFragment}.
+     */
+    public static List<String> getRecentTraces() {
+        synchronized (sRecentTraces) {
+            return new ArrayList<>(sRecentTraces);
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+    }
+}
@@ -0,0 +1,370 @@
+package com.termos.app.linuxruntime;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Detects when the VNC server inside the rootfs is ready to accept viewers.
+ *
+ * Instead of running `ss`/`netstat`/`pgrep` through a shell, the port written by start-vnc.sh to
+ * /tmp/vnc-display.txt is read straight from the rootfs directory, and the server is probed with a
+ * non-blocking TCP connect followed by a check of the "RFB 003.00x" protocol banner. Probes are
+ * retried with exponential backoff and every state change is published on the main thread.
+ */
+public class VncServerProber {
+    private static final String TAG = "VncServerProber";
+
+    /** Path of the display info file inside the rootfs, relative to its root. */
+    private static final String VNC_DISPLAY_FILE = "tmp/vnc-display.txt";
+
+    /** Ports checked when no display info file is present (displays :1 to :3). */
+    private static final int[] DEFAULT_PORTS = {5901, 5902, 5903};
+
+    private static final String LOOPBACK_HOST = "127.0.0.1";
+    private static final int RFB_BANNER_LENGTH = 12;
+    private static final int PROBE_TIMEOUT_MS = 500;
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 2000;
+
+    /**
+     * Readiness state of the VNC server.
+     */
+    public enum State {
+        UNKNOWN,
+        PROBING,
+        READY,
+        NOT_RUNNING,
+        /** Only delivered to listeners, the probe was cancelled before it completed. */
+        CANCELLED
+    }
+
+    /**
+     * Callback for readiness state changes. Always invoked on the main thread.
+     */
+    public interface StateListener {
+        /**
+         * @param state The new state.
+         * @param port The port the server answered on if state is {@link State#READY}, otherwise -1.
+         */
+        void onStateChanged(State state, int port);
+    }
+
+    /**
+     * Probes from all instances share a cached pool of daemon threads, so that a long
+     * {@link #awaitReady(long, StateListener)} of one instance does not delay the probes of others.
+     */
+    private static final ExecutorService PROBE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File localDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile State state = State.UNKNOWN;
+    private volatile int readyPort = -1;
+    private Probe pendingProbe;
+
+    /** A submitted probe and the listener that receives its result. */
+    private static final class Probe {
+        final StateListener listener;
+        Future<?> future;
+        /** Set once the final state is published or the probe is cancelled, guarded by the prober. */
+        boolean finished;
+
+        Probe(StateListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    public VncServerProber(Context context) {
+        File filesDir = context.getApplicationContext().getFilesDir();
+        this.localDir = new File(filesDir.getParentFile(), "local");
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the port the server last answered on, or -1 if it is not known to be ready.
+     */
+    public int getReadyPort() {
+        return readyPort;
+    }
+
+    /**
+     * Probe the server once without retrying.
+     *
+     * @param listener Receives {@link State#READY} or {@link State#NOT_RUNNING}, or
+     *                 {@link State#CANCELLED} if the probe is cancelled first.
+     */
+    public synchronized void probeOnce(StateListener listener) {
+        submit(0, listener);
+    }
+
+    /**
+     * Probe the server with exponential backoff until it answers or the timeout elapses.
+     * Any probe that is already pending is cancelled.
+     *
+     * @param timeoutMs Maximum time to wait for the server.
+     * @param listener Receives {@link State#PROBING} first and then {@link State#READY},
+     *                 {@link State#NOT_RUNNING} or {@link State#CANCELLED} if the probe is
+     *                 cancelled first.
+     */
+    public synchronized void awaitReady(long timeoutMs, StateListener listener) {
+        submit(timeoutMs, listener);
+    }
+
+    /**
+     * Cancel any pending probe. If its result was not delivered yet, its listener receives
+     * {@link State#CANCELLED} instead and no further callbacks.
+     */
+    public synchronized void cancel() {
+        Probe probe = pendingProbe;
+        if (probe == null)
+            return;
+
+        pendingProbe = null;
+        probe.finished = true;
+        probe.future.cancel(true);
+        // Replace any undelivered callback with the cancellation
+        mainHandler.removeCallbacksAndMessages(probe);
+        if (probe.listener != null)
+            mainHandler.post(() -> probe.listener.onStateChanged(State.CANCELLED, -1));
+    }
+
+    private void submit(long timeoutMs, StateListener listener) {
+        cancel();
+        Probe probe = new Probe(listener);
+        pendingProbe = probe;
+        probe.future = PROBE_EXECUTOR.submit(() -> runProbe(timeoutMs, probe));
+    }
+
+    private void runProbe(long timeoutMs, Probe probe) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long backoff = INITIAL_BACKOFF_MS;
+
+        publish(State.PROBING, -1, probe);
+        while (!Thread.currentThread().isInterrupted()) {
+            int port = findReadyPort();
+            if (port > 0) {
+                publish(State.READY, port, probe);
+                return;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+
+            try {
+                Thread.sleep(Math.min(backoff, remaining));
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+
+        if (!Thread.currentThread().isInterrupted())
+            publish(State.NOT_RUNNING, -1, probe);
+    }
+
+    private synchronized void publish(State newState, int port, Probe probe) {
+        // A cancelled probe has already delivered State.CANCELLED
+        if (probe.finished)
+            return;
+        if (newState != State.PROBING)
+            probe.finished = true;
+
+        if (state != newState)
+            Log.d(TAG, "VNC server state: " + state + " -> " + newState + (port > 0 ? " (port " + port + ")" : ""));
+        state = newState;
+        readyPort = port;
+        if (probe.listener == null)
+            return;
+
+        // Posted with the probe as token, so that cancel() can replace it if not delivered yet
+        mainHandler.postAtTime(() -> {
+            if (newState != State.PROBING)
+                onProbeDelivered(probe);
+            probe.listener.onStateChanged(newState, port);
+        }, probe, SystemClock.uptimeMillis());
+    }
+
+    private synchronized void onProbeDelivered(Probe probe) {
+        if (pendingProbe == probe)
+            pendingProbe = null;
+    }
+
+    /**
+     * Get the port of the first server that answers with an RFB banner, or -1 if none does.
+     */
+    private int findReadyPort() {
+        int displayPort = readDisplayPort();
+        if (displayPort > 0)
+            return isRfbServerReady(displayPort) ? displayPort : -1;
+
+        for (int port : DEFAULT_PORTS) {
+            if (isRfbServerReady(port))
+                return port;
+        }
+        return -1;
+    }
+
+    /**
+     * Read the port from the most recently written vnc-display.txt of any extracted rootfs.
+     *
+     * @return The port, or -1 if no display info file exists or it has no valid port line.
+     */
+    public int readDisplayPort() {
+        String value = readDisplayValue("port");
+        if (value == null)
+            return -1;
+        try {
+            int port = Integer.parseInt(value);
+            return (port > 0 && port <= 65535) ? port : -1;
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid port in display info: " + value);
+            return -1;
+        }
+    }
+
+    /**
+     * Read the X framebuffer file written by start-local-display.sh from the most recently written
+     * vnc-display.txt, translated to its path outside of the rootfs.
+     *
+     * @return The file, or null if the display is not a local display or the file does not exist.
+     */
+    public File readFramebufferFile() {
+        File framebufferFile = readRootfsPath("fbfile");
+        return framebufferFile != null && framebufferFile.isFile() ? framebufferFile : null;
+    }
+
+    /**
+     * Read the Unix domain socket the VNC server listens on (Xvnc -rfbunixpath, x11vnc -unixsock)
+     * from the most recently written vnc-display.txt, translated to its path outside of the rootfs.
+     *
+     * @return The socket, or null if the server does not listen on one or it does not exist.
+     */
+    public File readUnixSocketFile() {
+        File socketFile = readRootfsPath("socket");
+        // java.io.File cannot tell sockets apart, but they are neither files nor directories
+        return socketFile != null && socketFile.exists() && !socketFile.isFile() && !socketFile.isDirectory()
+            ? socketFile : null;
+    }
+
+    /**
+     * Read an absolute rootfs path from the most recently written vnc-display.txt, and
+     * translate it to the path of the same file outside of the rootfs.
+     */
+    private File readRootfsPath(String key) {
+        File displayFile = findDisplayFile();
+        String value = readDisplayValue(key);
+        if (displayFile == null || value == null || !value.startsWith("/"))
+            return null;
+
+        // displayFile is <rootfs>/tmp/vnc-display.txt
+        File rootfsDir = displayFile.getParentFile().getParentFile();
+        return new File(rootfsDir, value.substring(1));
+    }
+
+    private File findDisplayFile() {
+        File[] rootfsDirs = localDir.listFiles(File::isDirectory);
+        if (rootfsDirs == null)
+            return null;
+
+        File displayFile = null;
+        for (File rootfsDir : rootfsDirs) {
+            File candidate = new File(rootfsDir, VNC_DISPLAY_FILE);
+            if (candidate.isFile() && (displayFile == null || candidate.lastModified() > displayFile.lastModified()))
+                displayFile = candidate;
+        }
+        return displayFile;
+    }
+
+    /**
+     * Read the value of a "key:value" line from the most recently written vnc-display.txt.
+     */
+    private String readDisplayValue(String key) {
+        File displayFile = findDisplayFile();
+        if (displayFile == null)
+            return null;
+
+        String prefix = key + ":";
+        try (BufferedReader reader = new BufferedReader(new FileReader(displayFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(prefix))
+                    return line.substring(prefix.length()).trim();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + displayFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Check whether an RFB server is accepting connections on the loopback port.
+     *
+     * The connect and the read of the 12 byte protocol version banner are both non-blocking and
+     * bounded by {@link #PROBE_TIMEOUT_MS}. The connection is closed right after the banner is
+     * read, before any security handshake.
+     */
+    public static boolean isRfbServerReady(int port) {
+        try (Selector selector = Selector.open();
+             SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            long deadline = System.currentTimeMillis() + PROBE_TIMEOUT_MS;
+
+            if (!channel.connect(new InetSocketAddress(LOOPBACK_HOST, port))) {
+                channel.register(selector, SelectionKey.OP_CONNECT);
+                if (!awaitSelect(selector, deadline) || !channel.finishConnect())
+                    return false;
+            }
+
+            ByteBuffer banner = ByteBuffer.allocate(RFB_BANNER_LENGTH);
+            channel.register(selector, SelectionKey.OP_READ);
+            while (banner.hasRemaining()) {
+                if (!awaitSelect(selector, deadline) || channel.read(banner) < 0)
+                    return false;
+            }
+
+            return isRfbBanner(new String(banner.array(), StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean awaitSelect(Selector selector, long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0 || selector.select(remaining) == 0)
+            return false;
+        selector.selectedKeys().clear();
+        return true;
+    }
+
+    /**
+     * Check for a "RFB xxx.yyy\n" protocol version message.
+     */
+    static boolean isRfbBanner(String banner) {
+        return banner.length() == RFB_BANNER_LENGTH && banner.matches("RFB \\d{3}\\.\\d{3}\n");
+    }
+}
@@ -38,6 +38,7 @@ data class ServerProfile(
         /**
          * Internet address of the server (without port number).
          * This can be hostname or IP address.
+         * For [CHANNEL_UNIX_SOCKET], this is the socket path instead.
          */
         var host: String = "",
 
@@ -65,7 +66,7 @@ data class ServerProfile(
 
         /**
          * Transport channel to be used for communicating with the server.
-         * e.g. TCP, SSH Tunnel
+         * e.g. TCP, SSH Tunnel, Unix socket
          */
         var channelType: Int = CHANNEL_TCP,
 
@@ -178,6 +179,14 @@ data class ServerProfile(
         @ColumnInfo(defaultValue = "9")
         var wolPort: Int = 9,
 
+        /**
+         * Path of the screen file of an Xvfb running on this device (see `-fbdir`).
+         * If set, frames are read directly from this file, and the VNC connection
+         * is only used for input. Empty for remote servers.
+         */
+        @ColumnInfo(defaultValue = "")
+        var localFramebufferPath: String = "",
+
         /**
          * These values are used for SSH Tunnel
          */
@@ -195,6 +204,9 @@ data class ServerProfile(
         const val CHANNEL_TCP = 1
         const val CHANNEL_SSH_TUNNEL = 24
 
+        // Non-standard: [host] is the path of a Unix domain socket on this device
+        const val CHANNEL_UNIX_SOCKET = 1001
+
         // SSH auth types
         const val SSH_AUTH_KEY = 1
         const val SSH_AUTH_PASSWORD = 2
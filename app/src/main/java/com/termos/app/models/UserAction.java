@@ -3,6 +3,7 @@ package com.termos.app.models;
 public enum UserAction {
 
     ABOUT("about"),
+    ROOTFS_SCAN("rootfs scan"),
     REPORT_ISSUE_FROM_TRANSCRIPT("report issue from transcript");
 
     private final String name;
@@ -32,6 +32,7 @@ import com.termux.shared.activities.ReportActivity;
 import com.termux.shared.models.ReportInfo;
 import com.termos.app.models.UserAction;
 import com.termos.app.terminal.io.KeyboardShortcut;
+import com.termux.shared.termux.settings.properties.TermuxCompiledProperties;
 import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.logger.Logger;
@@ -513,10 +514,12 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
     private void setSessionShortcuts() {
         mSessionShortcuts = new ArrayList<>();
 
+        TermuxCompiledProperties properties = mActivity.getProperties().getCompiledProperties();
+
         // The {@link TermuxPropertyConstants#MAP_SESSION_SHORTCUTS} stores the session shortcut key and action pair
         for (Map.Entry<String, Integer> entry : TermuxPropertyConstants.MAP_SESSION_SHORTCUTS.entrySet()) {
-            // The mMap stores the code points for the session shortcuts while loading properties
-            Integer codePoint = (Integer) mActivity.getProperties().getInternalPropertyValue(entry.getKey(), true);
+            // The compiled properties store the code points for the session shortcuts while loading properties
+            Integer codePoint = (Integer) properties.getInternalPropertyValue(entry.getKey());
             // If codePoint is null, then session shortcut did not exist in properties or was invalid
             // as parsed by {@link #getCodePointForSessionShortcuts(String,String)}
             // If codePoint is not null, then get the action for the MAP_SESSION_SHORTCUTS key and
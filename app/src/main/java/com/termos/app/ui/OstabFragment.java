@@ -13,6 +13,9 @@ import android.widget.ProgressBar;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 
 import android.opengl.GLSurfaceView;
@@ -24,9 +27,12 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.termos.R;
 import com.termos.app.TermuxActivity;
+import com.termos.app.linuxruntime.VncServerProber;
 import com.termos.app.model.ServerProfile;
 import com.termos.app.ui.vnc.FrameView;
+import com.termos.app.ui.vnc.PerfHud;
 import com.termos.app.viewmodel.VncViewModel;
+import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
 
 /**
  * Fragment for the OS tab.
@@ -35,6 +41,8 @@ import com.termos.app.viewmodel.VncViewModel;
 public class OstabFragment extends Fragment {
 
     private static final String TAG = "OstabFragment";
+    private static final String LOCAL_VNC_HOST = "127.0.0.1";
+    private static final long VNC_READY_TIMEOUT_MS = 30000;
 
     private Activity activity;
     private VncViewModel vncViewModel;
@@ -47,10 +55,14 @@ public class OstabFragment extends Fragment {
     private ProgressBar loadingProgress;
     private Handler uiHandler;
     private boolean isVncConnected = false;
+    private VncServerProber vncServerProber;
 
     // VNC canvas container
     private android.widget.FrameLayout vncContainer;
 
+    // Performance overlay, shown if `desktop-perf-hud` is enabled in termux.properties
+    private PerfHud perfHud;
+
 
     @Override
     public void onAttach(@NonNull Activity activity) {
@@ -83,6 +95,8 @@ public class OstabFragment extends Fragment {
         // Initialize AVNC ViewModel
         vncViewModel = new ViewModelProvider(this).get(VncViewModel.class);
         uiHandler = new Handler(Looper.getMainLooper());
+        vncServerProber = new VncServerProber(inflater.getContext());
+        perfHud = new PerfHud(vncViewModel, vncContainer);
 
         // Observe VNC connection state
         observeVncState();
@@ -131,6 +145,14 @@ public class OstabFragment extends Fragment {
             vncFrameView.onResume();
         }
 
+        // Catch up with changes made while hidden
+        if (vncViewModel != null) {
+            vncViewModel.resume();
+        }
+        if (isVncConnected) {
+            updatePerfHud();
+        }
+
         // Initialize VNC ViewModel when fragment becomes visible
         if (vncViewModel != null && vncFrameView != null && activity != null) {
             try {
@@ -154,13 +176,33 @@ public class OstabFragment extends Fragment {
                 showErrorStatus("Connection Failed", "Failed to initialize VNC: " + e.getMessage());
             }
 
-            // Show connection form instead of auto-connecting
-            showConnectionForm();
+            // Connect to the local desktop as soon as its VNC server is ready
+            if (!isVncConnected) {
+                connectWhenLocalServerReady();
+            }
         } else {
             showErrorStatus("Setup Error", "VNC components not available");
         }
 }
 
+    /**
+     * Wait for the VNC server in the rootfs and connect to it the moment it answers.
+     * Falls back to the connection form if it does not come up in time.
+     */
+    private void connectWhenLocalServerReady() {
+        showStatusOverlay("Waiting for desktop", "Waiting for the VNC server in the Linux environment to start...", "");
+        vncServerProber.awaitReady(VNC_READY_TIMEOUT_MS, (state, port) -> {
+            if (state == VncServerProber.State.READY) {
+                if (!isVncConnected) {
+                    connectToVNC(LOCAL_VNC_HOST, port, "", "");
+                }
+            } else if (state == VncServerProber.State.NOT_RUNNING) {
+                Log.d(TAG, "Local VNC server not ready, showing connection form");
+                showConnectionForm();
+            }
+        });
+    }
+
     /**
      * Set up the VNC connection form event listeners
      */
@@ -236,6 +278,23 @@ public class OstabFragment extends Fragment {
             profile.setPassword(password);
             profile.setSecurityType(0); // 0 = enable all supported security types
 
+            if (LOCAL_VNC_HOST.equals(host) && vncServerProber != null) {
+                // Prefer the server's Unix socket over TCP loopback, no SSH tunnel is needed either
+                File socketFile = vncServerProber.readUnixSocketFile();
+                if (socketFile != null) {
+                    Log.d(TAG, "Using VNC socket " + socketFile.getAbsolutePath());
+                    profile.setHost(socketFile.getAbsolutePath());
+                    profile.setChannelType(ServerProfile.CHANNEL_UNIX_SOCKET);
+                }
+
+                // Local display mode: frames are read from the mapped Xvfb screen
+                File framebufferFile = vncServerProber.readFramebufferFile();
+                if (framebufferFile != null) {
+                    Log.d(TAG, "Using local display " + framebufferFile.getAbsolutePath());
+                    profile.setLocalFramebufferPath(framebufferFile.getAbsolutePath());
+                }
+            }
+
             // Connect using VncViewModel
             vncViewModel.initConnection(profile);
         } catch (Exception e) {
@@ -248,21 +307,35 @@ public class OstabFragment extends Fragment {
     public void onPause() {
         super.onPause();
 
+        // Stop waiting for the local server while hidden
+        if (vncServerProber != null) {
+            vncServerProber.cancel();
+        }
+
         // Pause FrameView when fragment becomes hidden
         if (vncFrameView != null) {
             vncFrameView.onPause();
         }
 
-        // Pause VNC connection when fragment becomes hidden
+        // Stop framebuffer updates while hidden, the connection stays open.
+        // With BEHAVIOR_RESUME_ONLY_CURRENT_FRAGMENT this also covers the terminal tab being shown.
         if (vncViewModel != null) {
             vncViewModel.pause();
         }
+
+        if (perfHud != null) {
+            perfHud.hide();
+        }
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
 
+        if (vncServerProber != null) {
+            vncServerProber.cancel();
+        }
+
         // Disconnect VNC when fragment is destroyed
         if (vncViewModel != null) {
             vncViewModel.disconnect();
@@ -346,7 +419,33 @@ public class OstabFragment extends Fragment {
             if (vncContainer != null) {
                 vncContainer.setVisibility(View.VISIBLE);
             }
+            updatePerfHud();
         });
     }
 
+    /**
+     * Show or hide the performance overlay according to termux.properties.
+     */
+    private void updatePerfHud() {
+        if (perfHud == null) return;
+
+        TermuxAppSharedProperties properties = TermuxAppSharedProperties.getProperties();
+        if (properties != null && properties.isDesktopPerfHudEnabled())
+            perfHud.show();
+        else
+            perfHud.hide();
+    }
+
+    /**
+     * Adds VNC performance report to `adb shell dumpsys activity com.termos/.app.TermuxActivity`.
+     */
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd, @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (vncViewModel != null && isVncConnected) {
+            for (String line : vncViewModel.getPerfReport().split("\n"))
+                writer.println(prefix + line);
+        }
+    }
+
 }
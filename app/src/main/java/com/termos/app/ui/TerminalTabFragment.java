@@ -5,11 +5,15 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import com.termos.app.TermuxActivity;
+import com.termos.app.linuxruntime.SessionStartupTrace;
 import com.termux.view.TerminalView;
 import com.termos.R;
 
@@ -56,5 +60,15 @@ public class TerminalTabFragment extends Fragment {
     public TerminalView getTerminalView() {
         return mTerminalView;
     }
+    
+    /**
+     * Adds session startup phase timings to `adb shell dumpsys activity com.termos/.app.TermuxActivity`.
+     */
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd, @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        for (String trace : SessionStartupTrace.getRecentTraces())
+            writer.println(prefix + trace);
+    }
 }
 
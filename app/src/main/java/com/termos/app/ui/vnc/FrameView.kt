@@ -13,6 +13,7 @@ import android.content.Context
 import android.opengl.GLSurfaceView
 import android.os.Build
 import android.util.AttributeSet
+import android.view.Choreographer
 import android.view.KeyEvent
 import android.view.MotionEvent
 import android.view.PointerIcon
@@ -49,6 +50,44 @@ class FrameView(context: Context?, attrs: AttributeSet? = null) : GLSurfaceView(
 
     private lateinit var inputHandler: InputHandler
 
+    /**
+     * Display refresh interval (in nanoseconds), as measured with [Choreographer].
+     * 0 until measurement is complete. Used to cap the rate of framebuffer updates
+     * requested from server, as faster updates can't be shown anyway.
+     */
+    @Volatile
+    var frameInterval = 0L
+        private set
+
+    private val refreshSampler = object : Choreographer.FrameCallback {
+        private val samples = LongArray(REFRESH_SAMPLES)
+        private var count = 0
+        private var lastFrameTime = 0L
+
+        fun start() {
+            count = 0
+            lastFrameTime = 0
+            Choreographer.getInstance().postFrameCallback(this)
+        }
+
+        fun stop() = Choreographer.getInstance().removeFrameCallback(this)
+
+        override fun doFrame(frameTimeNanos: Long) {
+            if (lastFrameTime != 0L)
+                samples[count++] = frameTimeNanos - lastFrameTime
+            lastFrameTime = frameTimeNanos
+
+            if (count < samples.size) {
+                Choreographer.getInstance().postFrameCallback(this)
+                return
+            }
+
+            // Median ignores frames skipped by the UI thread
+            samples.sort()
+            frameInterval = samples[samples.size / 2]
+        }
+    }
+
     /**
      * Input connection used for intercepting key events
      */
@@ -74,6 +113,17 @@ class FrameView(context: Context?, attrs: AttributeSet? = null) : GLSurfaceView(
             pointerIcon = PointerIcon.getSystemIcon(context, PointerIcon.TYPE_NULL)
     }
 
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        // Refresh rate may differ between displays, so it is measured on every attach
+        refreshSampler.start()
+    }
+
+    override fun onDetachedFromWindow() {
+        refreshSampler.stop()
+        super.onDetachedFromWindow()
+    }
+
     override fun onCreateInputConnection(outAttrs: EditorInfo): InputConnection {
         outAttrs.imeOptions = outAttrs.imeOptions or
                 EditorInfo.IME_FLAG_NO_EXTRACT_UI or
@@ -101,4 +151,8 @@ class FrameView(context: Context?, attrs: AttributeSet? = null) : GLSurfaceView(
     override fun onCapturedPointerEvent(event: MotionEvent): Boolean {
         return inputHandler.onCapturedPointerEvent(event)
     }
+
+    companion object {
+        private const val REFRESH_SAMPLES = 31
+    }
 }
\ No newline at end of file
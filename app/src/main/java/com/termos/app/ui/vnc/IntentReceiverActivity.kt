@@ -108,17 +108,18 @@ class IntentReceiverActivity : AppCompatActivity() {
     }
 
     private fun validateUri(uri: VncUri): Boolean {
-        if (uri.host.isNullOrBlank() && uri.connectionName.isNullOrBlank()) {
+        if (uri.host.isNullOrBlank() && uri.socketPath.isNullOrBlank() && uri.connectionName.isNullOrBlank()) {
             toast(getString(R.string.msg_invalid_vnc_uri))
             return false
         }
 
-        if (uri.host.isNullOrBlank() && uri.connectionName.isNullOrBlank()) {
+        if (uri.host.isNullOrBlank() && uri.socketPath.isNullOrBlank() && uri.connectionName.isNullOrBlank()) {
             toast(getString(R.string.msg_invalid_vnc_uri))
             return false
         }
 
-        if (uri.channelType !in listOf(null, ServerProfile.CHANNEL_TCP, ServerProfile.CHANNEL_SSH_TUNNEL)) {
+        if (uri.channelType !in listOf(null, ServerProfile.CHANNEL_TCP, ServerProfile.CHANNEL_SSH_TUNNEL,
+                                         ServerProfile.CHANNEL_UNIX_SOCKET)) {
             toast("Unknown channel type: ${uri.channelType}")
             return false
         }
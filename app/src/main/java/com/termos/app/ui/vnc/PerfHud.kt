@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2025  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+package com.termos.app.ui.vnc
+
+import android.graphics.Color
+import android.graphics.Typeface
+import android.util.TypedValue
+import android.view.Gravity
+import android.view.ViewGroup
+import android.widget.FrameLayout
+import android.widget.TextView
+import androidx.core.view.isVisible
+import com.termos.app.viewmodel.VncViewModel
+
+/**
+ * Overlay showing live performance numbers of current session, see [com.termos.app.vnc.PerfMonitor].
+ * View is created lazily in [container] (a FrameLayout above the frame), when first shown.
+ */
+class PerfHud(private val viewModel: VncViewModel, private val container: ViewGroup) {
+
+    private var view: TextView? = null
+
+    private val updater = object : Runnable {
+        override fun run() {
+            val v = view ?: return
+            if (!v.isVisible)
+                return
+
+            if (viewModel.client.connected)
+                v.text = viewModel.perfMonitor.formatHud(viewModel.samplePerf())
+            v.postDelayed(this, UPDATE_INTERVAL)
+        }
+    }
+
+    val isShowing get() = view?.isVisible == true
+
+    fun show() {
+        val v = view ?: createView().also { view = it }
+        v.isVisible = true
+        v.removeCallbacks(updater)
+        v.post(updater)
+    }
+
+    fun hide() {
+        view?.let {
+            it.removeCallbacks(updater)
+            it.isVisible = false
+        }
+    }
+
+    fun toggle() {
+        if (isShowing) hide() else show()
+    }
+
+    private fun createView(): TextView {
+        val context = container.context
+        val padding = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 4f, context.resources.displayMetrics).toInt()
+
+        return TextView(context).apply {
+            typeface = Typeface.MONOSPACE
+            setTextSize(TypedValue.COMPLEX_UNIT_SP, 10f)
+            setTextColor(Color.WHITE)
+            setBackgroundColor(0x99000000.toInt())
+            setPadding(padding, padding, padding, padding)
+
+            // Purely informational, touches go to the frame below
+            isClickable = false
+            isFocusable = false
+
+            container.addView(this, FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                             ViewGroup.LayoutParams.WRAP_CONTENT,
+                                                             Gravity.TOP or Gravity.START))
+        }
+    }
+
+    companion object {
+        private const val UPDATE_INTERVAL = 1000L
+    }
+}
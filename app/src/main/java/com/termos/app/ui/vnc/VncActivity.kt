@@ -51,6 +51,8 @@ import com.termos.app.vnc.VncUri
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.parcelize.Parcelize
+import java.io.FileDescriptor
+import java.io.PrintWriter
 import java.lang.ref.WeakReference
 
 /********** [VncActivity] startup helpers *********************************/
@@ -102,6 +104,7 @@ class VncActivity : AppCompatActivity() {
     val toolbar by lazy { Toolbar(this) }
     private val serverUnlockPrompt = DeviceAuthPrompt(this)
     private val layoutManager by lazy { LayoutManager(this) }
+    private val perfHud by lazy { PerfHud(viewModel, binding.frameContainer) }
     private var forceDisabledPointerCapture = false
     private var restoredFromBundle = false
     private var wasConnectedWhenStopped = false
@@ -174,6 +177,17 @@ class VncActivity : AppCompatActivity() {
         outState.putBoolean("wasConnectedWhenStopped", wasConnectedWhenStopped || viewModel.state.value.isConnected)
     }
 
+    fun togglePerfHud() = perfHud.toggle()
+
+    /**
+     * Adds VNC performance report to `adb shell dumpsys activity com.termos/com.termos.app.ui.vnc.VncActivity`.
+     */
+    override fun dump(prefix: String, fd: FileDescriptor?, writer: PrintWriter, args: Array<out String>?) {
+        super.dump(prefix, fd, writer, args)
+        if (viewModel.state.value.isConnected)
+            viewModel.getPerfReport().lines().forEach { writer.println(prefix + it) }
+    }
+
     private fun initConnection(savedState: Bundle?): Boolean {
         @Suppress("DEPRECATION")
         val profile = savedState?.getParcelable(PROFILE_KEY)
@@ -17,6 +17,12 @@ class Frame : Image() {
 
     private val frameRect = RectF()
 
+    /**
+     * Whether texture of this frame has received a complete upload.
+     * Until then, partial uploads of modified regions can't be used.
+     */
+    var hasTextureContent = false
+
     init {
         // Texture rectangle is fixed and covers the entire texture
         updateTextureRect(RectF(0f, 0f, 1f, 1f))
@@ -91,6 +91,8 @@ class Renderer(val viewModel: VncViewModel) : GLSurfaceView.Renderer {
         if (state.vpWidth == 0f || state.vpHeight == 0f)
             return
 
+        val startTime = System.nanoTime()
+
         Matrix.setIdentityM(projectionMatrix, 0)
         Matrix.orthoM(projectionMatrix, 0, 0f, state.vpWidth, -state.vpHeight, 0f, -1f, 1f)
         Matrix.translateM(projectionMatrix, 0, state.frameX, -state.frameY, 0f)
@@ -101,7 +103,8 @@ class Renderer(val viewModel: VncViewModel) : GLSurfaceView.Renderer {
 
         frame.updateFbSize(state.fbWidth, state.fbHeight)
         frame.bind(program)
-        client.uploadFrameTexture()
+        if (client.uploadFrameTexture(!frame.hasTextureContent))
+            frame.hasTextureContent = true
         frame.draw()
 
         program.validate()
@@ -118,5 +121,7 @@ class Renderer(val viewModel: VncViewModel) : GLSurfaceView.Renderer {
 
             glDisable(GL_BLEND)
         }
+
+        viewModel.perfMonitor.drawTimes.record(System.nanoTime() - startTime)
     }
 }
\ No newline at end of file
@@ -46,7 +46,11 @@ class EditorViewModel(app: Application, state: SavedStateHandle, initialProfile:
         profile.idOnRepeater = idOnRepeater.value?.toIntOrNull() ?: 0
         profile.useRawEncoding = useRawEncoding.value ?: false
         profile.enableWol = enableWol.value ?: false
-        profile.channelType = if (useSshTunnel.value == true) ServerProfile.CHANNEL_SSH_TUNNEL else ServerProfile.CHANNEL_TCP
+        profile.channelType = when {
+            useSshTunnel.value == true -> ServerProfile.CHANNEL_SSH_TUNNEL
+            profile.channelType == ServerProfile.CHANNEL_UNIX_SOCKET -> ServerProfile.CHANNEL_UNIX_SOCKET
+            else -> ServerProfile.CHANNEL_TCP
+        }
         profile.sshAuthType = if (sshUsePassword.value == true) ServerProfile.SSH_AUTH_PASSWORD else ServerProfile.SSH_AUTH_KEY
         return profile
     }
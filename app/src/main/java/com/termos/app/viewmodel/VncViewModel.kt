@@ -30,17 +30,25 @@ import com.termos.app.util.setClipboardText
 import com.termos.app.util.trustCertificate
 import com.termos.app.viewmodel.VncViewModel.State.Companion.isConnected
 import com.termos.app.viewmodel.service.SshTunnel
+import com.termos.app.vnc.EncodingController
 import com.termos.app.vnc.Messenger
+import com.termos.app.vnc.PerfMonitor
 import com.termos.app.vnc.UserCredential
 import com.termos.app.vnc.VncClient
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
+import java.io.File
 import java.io.IOException
 import java.lang.ref.WeakReference
 import java.security.cert.X509Certificate
 import kotlin.concurrent.thread
 
+/**
+ * How often local display is scanned for changes, in milliseconds (~60 fps).
+ */
+private const val LOCAL_DISPLAY_POLL_INTERVAL = 16L
+
 /**
  * ViewModel for VncActivity
  *
@@ -186,6 +194,19 @@ class VncViewModel(app: Application) : BaseViewModel(app), VncClient.Observer {
 
     private val sshTunnel = SshTunnel(this)
 
+    private var localDisplayThread: Thread? = null
+
+    /**
+     * Adapts encodings to the connection, see [EncodingController].
+     * Initialized in [preConnect], used from receiver thread.
+     */
+    private lateinit var encodingController: EncodingController
+
+    /**
+     * Performance data for HUD & report, see [PerfMonitor].
+     */
+    val perfMonitor = PerfMonitor()
+
     /**
      * Used to confirm something with user before continuing.
      * This is mostly used to warn about unknown SSH host, x509 certificates etc.
@@ -246,6 +267,11 @@ class VncViewModel(app: Application) : BaseViewModel(app), VncClient.Observer {
         client.configure(profile.securityType, true  /* Hardcoded to true */,
                          profile.imageQuality, profile.useRawEncoding)
 
+        // Raw encoding setting only picks the starting point, controller takes over from there
+        encodingController = EncodingController(if (profile.useRawEncoding) 0 else EncodingController.DEFAULT_TIER)
+        perfMonitor.reset(System.nanoTime())
+        appliedUpdateInterval = 0
+
         if (profile.useRepeater)
             client.setupRepeater(profile.idOnRepeater)
 
@@ -269,21 +295,59 @@ class VncViewModel(app: Application) : BaseViewModel(app), VncClient.Observer {
                     client.connect(it.host, it.port)
                 }
 
+            ServerProfile.CHANNEL_UNIX_SOCKET -> {
+                // LibVNCClient connects over AF_UNIX when host is an existing socket,
+                // and would silently try it as a hostname otherwise.
+                if (!File(profile.host).exists())
+                    throw IOException("VNC socket not found: ${profile.host}")
+                client.connect(profile.host, 0)
+            }
+
             else -> throw IOException("Unknown Channel: ${profile.channelType}")
         }
 
+        if (profile.localFramebufferPath.isNotBlank())
+            attachLocalDisplay()
+
         state.postValue(State.Connected)
 
         // Initial sync, slightly delayed to allow extended clipboard negotiations
         launchIO { delay(1000L); sendClipboardText() }
     }
 
+    /**
+     * Switches frame source to local display, and starts polling it for changes.
+     * Falls back to regular framebuffer updates if the display cannot be mapped.
+     */
+    private fun attachLocalDisplay() {
+        if (!client.attachLocalDisplay(profile.localFramebufferPath)) {
+            Log.w(javaClass.simpleName, "Cannot use local display, falling back to framebuffer updates")
+            return
+        }
+
+        localDisplayThread = thread(name = "LocalDisplay") {
+            try {
+                while (client.connected) {
+                    if (client.pollLocalDisplay())
+                        frameViewRef.get()?.requestRender()
+                    Thread.sleep(LOCAL_DISPLAY_POLL_INTERVAL)
+                }
+            } catch (e: InterruptedException) {
+                // Stopped by cleanup()
+            }
+        }
+    }
+
     private fun processMessages() {
         while (viewModelScope.isActive)
             client.processServerMessage()
     }
 
     private fun cleanup() {
+        localDisplayThread?.let {
+            it.interrupt()
+            it.join()
+        }
         messenger.cleanup()
         client.cleanup()
         sshTunnel.close()
@@ -422,6 +486,33 @@ class VncViewModel(app: Application) : BaseViewModel(app), VncClient.Observer {
         messenger.setFrameBufferUpdatesPaused(paused)
     }
 
+    /**
+     * Whether frame is currently not visible to user (e.g. its tab is hidden).
+     */
+    private var frameHidden = false
+
+    /**
+     * Stops framebuffer updates while frame is not visible, so that nothing is decoded.
+     * Connection is kept alive, and [resume] catches up with a single incremental update.
+     * Must be called from Main thread.
+     */
+    fun pause() {
+        frameHidden = true
+        updateFrameBufferUpdatesPaused()
+    }
+
+    /**
+     * Undoes [pause]. Updates stay paused if video is disabled by view mode.
+     */
+    fun resume() {
+        frameHidden = false
+        updateFrameBufferUpdatesPaused()
+    }
+
+    private fun updateFrameBufferUpdatesPaused() {
+        setFrameBufferUpdatesPaused(frameHidden || videoDisabled)
+    }
+
     fun refreshFrameBuffer() {
         messenger.refreshFrameBuffer()
     }
@@ -462,7 +553,7 @@ class VncViewModel(app: Application) : BaseViewModel(app), VncClient.Observer {
         if (activeViewMode.value != newMode) {
             activeViewMode.value = newMode
             client.setInputDisabled(newMode == ServerProfile.VIEW_MODE_NO_INPUT)
-            setFrameBufferUpdatesPaused(newMode == ServerProfile.VIEW_MODE_NO_VIDEO)
+            updateFrameBufferUpdatesPaused()
             resolveGestureStyle()
         }
     }
@@ -492,8 +583,41 @@ class VncViewModel(app: Application) : BaseViewModel(app), VncClient.Observer {
         return true
     }
 
+    /**
+     * Collects current performance data of the session.
+     */
+    fun samplePerf() = PerfMonitor.Sample(System.nanoTime(), client.getFrameMetrics(), client.getPerfCounters(),
+                                          messenger.coalescedInputCount, messenger.droppedInputCount)
+
+    /**
+     * Returns text report of session performance, e.g. for `dumpsys`.
+     */
+    fun getPerfReport() = perfMonitor.formatReport(samplePerf())
+
+    /**
+     * Update interval last passed to [VncClient.setUpdateInterval]. Receiver thread only.
+     */
+    private var appliedUpdateInterval = 0L
+
     override fun onFramebufferUpdated() {
-        frameViewRef.get()?.requestRender()
+        val frameView = frameViewRef.get()
+        frameView?.requestRender()
+
+        val updateInterval = frameView?.frameInterval ?: 0L
+        if (updateInterval != appliedUpdateInterval) {
+            appliedUpdateInterval = updateInterval
+            client.setUpdateInterval(updateInterval)
+        }
+
+        val now = System.nanoTime()
+        val inputTime = messenger.takeUnansweredInputTime()
+        if (inputTime != 0L)
+            perfMonitor.inputLatencies.record(now - inputTime)
+
+        encodingController.onUpdate(client.getFrameMetrics(), now)?.let {
+            Log.i(javaClass.simpleName, "Switching to encoding tier ${encodingController.tier}: $it")
+            messenger.setEncodings(it)
+        }
     }
 
     override fun onGotXCutText(text: String) {
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2025  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+package com.termos.app.vnc
+
+/**
+ * Encodings requested from server, in order of preference.
+ * Levels outside 0-9 are not sent, and a negative [qualityLevel] disables JPEG.
+ */
+data class EncodingSettings(val encodings: String, val qualityLevel: Int, val compressLevel: Int)
+
+/**
+ * Picks encodings for current connection from the measured cost of updates.
+ *
+ * On localhost, compression only burns CPU on both sides, so raw (or cheap zlib)
+ * is best. Over Wi-Fi or internet, bandwidth is the bottleneck, and tight with
+ * JPEG wins. Instead of making this a manual setting, we move along a ladder of
+ * [TIERS], from least to most compression:
+ *
+ * - Updates are grouped in windows of [WINDOW_UPDATES].
+ * - Throughput of a window is bytes/time of its large updates. Small updates are
+ *   dominated by latency and say nothing about bandwidth.
+ * - If current tier needs more throughput than measured, move to next tier.
+ * - If measured throughput comfortably exceeds the need of previous tier (by [HEADROOM]),
+ *   move back to it. Very small round-trip time means server is on this device,
+ *   so we move towards raw regardless of throughput.
+ *
+ * To avoid flapping, a move must be proposed by several consecutive windows, and at
+ * least [MIN_DWELL_TIME] must have passed since last move. Only one tier is moved at a time.
+ *
+ * Not thread-safe, [onUpdate] is expected to be called from receiver thread only.
+ */
+class EncodingController(initialTier: Int = DEFAULT_TIER) {
+
+    class Tier(val settings: EncodingSettings, val minThroughput: Long)
+
+    /**
+     * Index of current tier in [TIERS].
+     */
+    var tier = initialTier.coerceIn(0, TIERS.lastIndex)
+        private set
+
+    private var lastSeenUpdates = -1L
+    private var lastMoveTime = Long.MIN_VALUE
+
+    // Current window
+    private var windowUpdates = 0
+    private var sampleCount = 0
+    private var sampleBytes = 0L
+    private var sampleTime = 0L
+    private var minRoundTripTime = Long.MAX_VALUE
+
+    // Direction proposed by last windows
+    private var proposal = 0
+    private var proposalCount = 0
+
+    /**
+     * Feeds metrics after a framebuffer update. [now] is in nanoseconds.
+     *
+     * @return Settings to send to server if tier has changed, null otherwise.
+     */
+    fun onUpdate(metrics: FrameMetrics, now: Long): EncodingSettings? {
+        if (metrics.updates == lastSeenUpdates)
+            return null
+        lastSeenUpdates = metrics.updates
+
+        if (metrics.lastUpdateBytes >= MIN_SAMPLE_BYTES && metrics.lastDecodeTime > 0) {
+            sampleCount++
+            sampleBytes += metrics.lastUpdateBytes
+            sampleTime += metrics.lastDecodeTime
+        }
+        if (metrics.lastRoundTripTime > 0)
+            minRoundTripTime = minOf(minRoundTripTime, metrics.lastRoundTripTime)
+
+        if (++windowUpdates < WINDOW_UPDATES)
+            return null
+
+        val direction = evaluateWindow()
+        resetWindow()
+
+        if (direction != proposal) {
+            proposal = direction
+            proposalCount = 0
+        }
+        proposalCount++
+
+        val required = if (direction > 0) WINDOWS_TO_COMPRESS_MORE else WINDOWS_TO_COMPRESS_LESS
+        if (direction == 0 || proposalCount < required)
+            return null
+        if (lastMoveTime != Long.MIN_VALUE && now - lastMoveTime < MIN_DWELL_TIME)
+            return null
+
+        tier += direction
+        lastMoveTime = now
+        proposal = 0
+        proposalCount = 0
+        return TIERS[tier].settings
+    }
+
+    /**
+     * Returns the direction (-1, 0, 1) current window suggests to move in.
+     */
+    private fun evaluateWindow(): Int {
+        if (minRoundTripTime < LOCAL_ROUND_TRIP_TIME)
+            return if (tier > 0) -1 else 0
+
+        if (sampleCount < MIN_SAMPLES || sampleTime <= 0)
+            return 0
+
+        val throughput = sampleBytes * 1_000_000_000L / sampleTime
+        return when {
+            tier < TIERS.lastIndex && throughput < TIERS[tier].minThroughput -> 1
+            tier > 0 && throughput >= TIERS[tier - 1].minThroughput * HEADROOM -> -1
+            else -> 0
+        }
+    }
+
+    private fun resetWindow() {
+        windowUpdates = 0
+        sampleCount = 0
+        sampleBytes = 0
+        sampleTime = 0
+        minRoundTripTime = Long.MAX_VALUE
+    }
+
+    companion object {
+        private const val TIGHT = "tight zrle copyrect zlib raw"
+
+        /**
+         * Encoding ladder, from least to most compression.
+         * [Tier.minThroughput] (bytes/second) is the throughput below which the tier is too expensive.
+         */
+        val TIERS = listOf(
+                Tier(EncodingSettings("raw copyrect", -1, -1), 150_000_000),
+                Tier(EncodingSettings("zlib copyrect raw", -1, 1), 30_000_000),
+                Tier(EncodingSettings(TIGHT, 8, 2), 6_000_000),
+                Tier(EncodingSettings(TIGHT, 6, 6), 1_500_000),
+                Tier(EncodingSettings(TIGHT, 3, 9), 0),
+        )
+
+        /**
+         * Tight with good quality, a sensible start for unknown connections.
+         */
+        const val DEFAULT_TIER = 2
+
+        const val WINDOW_UPDATES = 30
+        const val MIN_SAMPLES = 5
+        const val MIN_SAMPLE_BYTES = 16 * 1024L
+        const val HEADROOM = 2
+        const val WINDOWS_TO_COMPRESS_MORE = 2
+        const val WINDOWS_TO_COMPRESS_LESS = 3
+        const val MIN_DWELL_TIME = 5_000_000_000L
+        const val LOCAL_ROUND_TRIP_TIME = 1_000_000L
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2025  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+package com.termos.app.vnc
+
+
+/**
+ * Snapshot of framebuffer processing statistics, collected by native side.
+ * All times are in nanoseconds, and counters are cumulative since connection.
+ *
+ * Decode time covers receiving & decoding a complete framebuffer update.
+ * Upload time is the time spent submitting texture uploads on renderer thread.
+ *
+ * [lastRoundTripTime] is measured from sending an update request to the start of the
+ * update it produced. Servers may delay the update until something changes, so it
+ * is an upper bound of network round-trip time.
+ */
+data class FrameMetrics(
+        val updates: Long = 0,
+        val skippedUpdates: Long = 0,
+        val decodeTime: Long = 0,
+        val lastDecodeTime: Long = 0,
+        val maxDecodeTime: Long = 0,
+        val uploads: Long = 0,
+        val uploadTime: Long = 0,
+        val lastUploadTime: Long = 0,
+        val maxUploadTime: Long = 0,
+        val uploadedBytes: Long = 0,
+        val receivedBytes: Long = 0,
+        val lastUpdateBytes: Long = 0,
+        val lastRoundTripTime: Long = 0,
+) {
+    val avgDecodeTime get() = if (updates > 0) decodeTime / updates else 0
+    val avgUploadTime get() = if (uploads > 0) uploadTime / uploads else 0
+
+    companion object {
+        /**
+         * Number of values filled in by native side, in declaration order.
+         */
+        const val FIELD_COUNT = 13
+
+        fun fromArray(v: LongArray) = FrameMetrics(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9],
+                                                   v[10], v[11], v[12])
+    }
+}
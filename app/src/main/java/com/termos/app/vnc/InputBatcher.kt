@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2025  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+package com.termos.app.vnc
+
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Input event waiting to be sent to server.
+ */
+sealed class InputEvent {
+    data class Pointer(val x: Int, val y: Int, val mask: Int) : InputEvent()
+    data class Key(val keySym: Int, val xtCode: Int, val isDown: Boolean) : InputEvent()
+}
+
+/**
+ * Groups input events into batches, which are sent on [executor] with a single call to [sender].
+ *
+ * Touch screens can generate pointer moves much faster than they can be sent, so
+ * sending each one separately makes the remote pointer lag behind. Instead:
+ *
+ * - A pointer move (event with same button mask as the previous pointer event) replaces
+ *   the previous move if that is the last event in the batch, so only the latest
+ *   position is sent.
+ * - Button transitions (events which change the button mask) & key events are never
+ *   dropped or reordered. Moves are not coalesced across them.
+ * - Events are sent in the order they were queued.
+ *
+ * A batch is scheduled on [executor] when its first event is queued, and keeps
+ * collecting events until it starts executing. [barrier] ends current batch early,
+ * so that other tasks submitted to [executor] after it are ordered correctly
+ * relative to input events.
+ *
+ * Except for the scheduled batches, methods of this class must be externally synchronized.
+ */
+class InputBatcher(private val executor: Executor, private val sender: Sender) {
+
+    fun interface Sender {
+        fun send(events: List<InputEvent>)
+    }
+
+    private var current: Batch? = null
+    private var lastPointerMask = 0
+    private val coalesced = AtomicLong()
+
+    /**
+     * Number of pointer moves dropped in favour of a later one.
+     */
+    val coalescedCount get() = coalesced.get()
+
+    fun queuePointer(x: Int, y: Int, mask: Int) {
+        val isMove = mask == lastPointerMask
+        lastPointerMask = mask
+        queue(InputEvent.Pointer(x, y, mask), isMove)
+    }
+
+    fun queueKey(keySym: Int, xtCode: Int, isDown: Boolean) {
+        queue(InputEvent.Key(keySym, xtCode, isDown), false)
+    }
+
+    /**
+     * Events queued after this call will go in a new batch, executed after anything
+     * submitted to [executor] after this call.
+     */
+    fun barrier() {
+        current = null
+    }
+
+    private fun queue(event: InputEvent, isMove: Boolean) {
+        current?.let {
+            if (it.add(event, isMove))
+                return
+        }
+
+        val batch = Batch()
+        batch.add(event, isMove)
+        current = batch
+        executor.execute { batch.drain()?.let { sender.send(it) } }
+    }
+
+    private inner class Batch {
+        private val events = ArrayList<InputEvent>()
+        private var lastIsMove = false
+        private var drained = false
+
+        /**
+         * Returns false if batch has already started executing.
+         */
+        @Synchronized
+        fun add(event: InputEvent, isMove: Boolean): Boolean {
+            if (drained)
+                return false
+
+            if (isMove && lastIsMove) {
+                events[events.lastIndex] = event
+                coalesced.incrementAndGet()
+            } else {
+                events.add(event)
+            }
+            lastIsMove = isMove
+            return true
+        }
+
+        @Synchronized
+        fun drain(): List<InputEvent>? {
+            drained = true
+            return events.takeIf { it.isNotEmpty() }
+        }
+    }
+}
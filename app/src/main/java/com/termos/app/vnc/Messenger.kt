@@ -12,6 +12,7 @@ import android.graphics.PointF
 import android.util.Log
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * Allows sending different types of messages to remote server.
@@ -25,13 +26,55 @@ class Messenger(private val client: VncClient) {
     private val sender = Executors.newSingleThreadExecutor()
     private val senderLock = Any()
 
+    /**
+     * Input events are batched, see [InputBatcher].
+     * Accessed under [senderLock].
+     */
+    private val inputBatcher = InputBatcher({ sender.execute(it) }, { client.sendInputEvents(it) })
+
+    /**
+     * Number of pointer moves which were dropped because a newer one was available.
+     */
+    val coalescedInputCount get() = inputBatcher.coalescedCount
+
+    /**
+     * Number of input events which could not be sent because sender was stopped
+     * or client was not connected.
+     */
+    val droppedInputCount get() = droppedInputs.get()
+    private val droppedInputs = AtomicLong()
+
+    /**
+     * Time of the first input event queued since last [takeUnansweredInputTime], 0 if none.
+     */
+    private val unansweredInputTime = AtomicLong()
+
+    /**
+     * Returns time (from [System.nanoTime]) of the first input event queued since
+     * last call, or 0 if there was none. Used to measure input-to-update latency.
+     */
+    fun takeUnansweredInputTime() = unansweredInputTime.getAndSet(0)
+
     private fun execute(action: Runnable) {
         synchronized(senderLock) {
-            if (!sender.isShutdown)
+            if (!sender.isShutdown) {
+                inputBatcher.barrier()
                 sender.execute(action)
+            }
         }
     }
 
+    private inline fun queueInput(block: InputBatcher.() -> Unit) {
+        synchronized(senderLock) {
+            if (sender.isShutdown) {
+                droppedInputs.incrementAndGet()
+                return
+            }
+            inputBatcher.block()
+        }
+        unansweredInputTime.compareAndSet(0, System.nanoTime())
+    }
+
     fun cleanup() {
         synchronized(senderLock) { sender.shutdown() }
         runCatching { sender.awaitTermination(60, TimeUnit.SECONDS) }
@@ -52,7 +95,7 @@ class Messenger(private val client: VncClient) {
         val x = p.x.toInt()
         val y = p.y.toInt()
         client.moveClientPointer(x, y)
-        execute { client.sendPointerEvent(x, y, mask) }
+        queueInput { queuePointer(x, y, mask) }
     }
 
     fun sendPointerButtonDown(button: PointerButton, p: PointF) {
@@ -73,10 +116,12 @@ class Messenger(private val client: VncClient) {
     }
 
     fun sendKey(keySym: Int, xtCode: Int, isDown: Boolean): Boolean {
-        if (!client.connected)
+        if (!client.connected) {
+            droppedInputs.incrementAndGet()
             return false
+        }
 
-        execute { client.sendKeyEvent(keySym, xtCode, isDown) }
+        queueInput { queueKey(keySym, xtCode, isDown) }
         return true
     }
 
@@ -103,4 +148,8 @@ class Messenger(private val client: VncClient) {
     fun setFrameBufferUpdatesPaused(pause: Boolean) {
         execute { client.setFrameBufferUpdatesPaused(pause) }
     }
+
+    fun setEncodings(settings: EncodingSettings) {
+        execute { client.setEncodings(settings) }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2025  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+package com.termos.app.vnc
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Distribution of durations, in fixed buckets of roughly doubling width.
+ * Bucket limits match the native side (see PerfCounters.h).
+ */
+class TimeHistogram(val counts: LongArray = LongArray(BUCKET_COUNT)) {
+
+    val total get() = counts.sum()
+
+    /**
+     * Returns upper limit (in microseconds) of the bucket containing given percentile,
+     * or [Long.MAX_VALUE] if it falls in the last, open-ended, bucket.
+     * Returns 0 if histogram is empty.
+     */
+    fun percentile(percent: Int): Long {
+        val total = total
+        if (total == 0L)
+            return 0
+
+        val target = (total * percent + 99) / 100
+        var seen = 0L
+        counts.forEachIndexed { i, count ->
+            seen += count
+            if (seen >= target)
+                return BUCKET_LIMITS.getOrElse(i) { Long.MAX_VALUE }
+        }
+        return Long.MAX_VALUE
+    }
+
+    /**
+     * Formats non-empty buckets like `<1ms:12 <2ms:3 >=128ms:1`.
+     */
+    fun format() = counts.withIndex().filter { it.value > 0 }.joinToString(" ") { (i, count) ->
+        val label = if (i < BUCKET_LIMITS.size) "<${formatMicros(BUCKET_LIMITS[i])}"
+        else ">=${formatMicros(BUCKET_LIMITS.last())}"
+        "$label:$count"
+    }.ifEmpty { "-" }
+
+    companion object {
+        /**
+         * Upper bounds (exclusive, in microseconds) of all but the last bucket.
+         */
+        val BUCKET_LIMITS = longArrayOf(500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000)
+        val BUCKET_COUNT = BUCKET_LIMITS.size + 1
+
+        fun bucketOf(nanos: Long): Int {
+            val micros = nanos / 1000
+            var bucket = 0
+            while (bucket < BUCKET_LIMITS.size && micros >= BUCKET_LIMITS[bucket])
+                ++bucket
+            return bucket
+        }
+
+        fun formatMicros(micros: Long) = when {
+            micros == Long.MAX_VALUE -> "inf"
+            micros % 1000 == 0L -> "${micros / 1000}ms"
+            else -> "%.1fms".format(micros / 1000.0)
+        }
+    }
+}
+
+/**
+ * Thread-safe [TimeHistogram] builder, for durations measured on managed side.
+ */
+class TimeHistogramRecorder {
+    private val counts = AtomicLongArray(TimeHistogram.BUCKET_COUNT)
+
+    fun record(nanos: Long) {
+        counts.incrementAndGet(TimeHistogram.bucketOf(nanos))
+    }
+
+    fun snapshot() = TimeHistogram(LongArray(counts.length()) { counts[it] })
+}
+
+/**
+ * Rects & bytes (including rect headers) received with an encoding.
+ */
+data class EncodingCounters(val name: String, val rects: Long, val bytes: Long)
+
+/**
+ * Snapshot of per-session counters collected by native side, cumulative since connection.
+ * See [FrameMetrics] for totals.
+ */
+class PerfCounters(
+        val decodeTimes: TimeHistogram = TimeHistogram(),
+        val uploadTimes: TimeHistogram = TimeHistogram(),
+        val encodings: List<EncodingCounters> = ENCODING_NAMES.map { EncodingCounters(it, 0, 0) },
+) {
+    companion object {
+        /**
+         * Encodings in the order of native `EncodingSlot`.
+         */
+        val ENCODING_NAMES = listOf("raw", "copyrect", "rre", "hextile", "zlib", "tight", "tight-jpeg", "zrle", "other")
+
+        /**
+         * Number of values filled in by native side.
+         */
+        val VALUE_COUNT = 2 * TimeHistogram.BUCKET_COUNT + 2 * ENCODING_NAMES.size
+
+        fun fromArray(v: LongArray): PerfCounters {
+            val n = TimeHistogram.BUCKET_COUNT
+            return PerfCounters(
+                    TimeHistogram(v.copyOfRange(0, n)),
+                    TimeHistogram(v.copyOfRange(n, 2 * n)),
+                    ENCODING_NAMES.mapIndexed { i, name -> EncodingCounters(name, v[2 * n + 2 * i], v[2 * n + 2 * i + 1]) }
+            )
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2025  Gaurav Ujjwal.
+ *
+ * SPDX-License-Identifier:  GPL-3.0-or-later
+ *
+ * See COPYING.txt for more details.
+ */
+
+package com.termos.app.vnc
+
+/**
+ * Collects performance data of a session, and formats it for the HUD & text report.
+ *
+ * Network & decoding numbers come from native side ([FrameMetrics], [PerfCounters]).
+ * Draw time & input-to-update latency are measured on managed side and recorded
+ * here directly. Draw time covers a whole frame on renderer thread, texture upload
+ * included. Input latency is measured from the first input event sent after an
+ * update, to the end of next update.
+ *
+ * Recording is thread-safe. Formatting is expected to be done from a single thread.
+ */
+class PerfMonitor {
+
+    class Sample(
+            val time: Long,
+            val metrics: FrameMetrics,
+            val counters: PerfCounters,
+            val coalescedInputs: Long,
+            val droppedInputs: Long,
+    )
+
+    val drawTimes = TimeHistogramRecorder()
+    val inputLatencies = TimeHistogramRecorder()
+
+    @Volatile
+    private var startTime = System.nanoTime()
+
+    /**
+     * Last sample formatted by [formatHud], used to compute rates.
+     */
+    private var previous: Sample? = null
+
+    /**
+     * Marks the start of a new session. Histograms of managed side are kept,
+     * as the HUD is mostly used to compare settings within an app session.
+     */
+    fun reset(now: Long) {
+        startTime = now
+        previous = null
+    }
+
+    /**
+     * Short summary of recent activity. Rates are computed since last call.
+     */
+    fun formatHud(sample: Sample): String {
+        val prev = previous?.takeIf { sample.time > it.time && sample.metrics.updates >= it.metrics.updates }
+        previous = sample
+
+        val seconds = if (prev != null) (sample.time - prev.time) / 1e9 else 0.0
+        val updates = sample.metrics.updates - (prev?.metrics?.updates ?: 0)
+        val bytes = sample.metrics.receivedBytes - (prev?.metrics?.receivedBytes ?: 0)
+
+        val encodings = sample.counters.encodings.mapIndexed { i, c ->
+            c.name to c.bytes - (prev?.counters?.encodings?.get(i)?.bytes ?: 0)
+        }.filter { it.second > 0 }.sortedByDescending { it.second }.take(HUD_ENCODINGS)
+
+        val m = sample.metrics
+        return buildString {
+            if (seconds > 0) {
+                append("%.1f upd/s  %s/s".format(updates / seconds, formatBytes((bytes / seconds).toLong())))
+                encodings.forEach { (name, b) -> append("  $name ${formatBytes((b / seconds).toLong())}/s") }
+                append('\n')
+            }
+            append("decode ${formatPercentiles(sample.counters.decodeTimes)}")
+            append("  upload ${formatPercentiles(sample.counters.uploadTimes)}")
+            append("  draw ${formatPercentiles(drawTimes.snapshot())}\n")
+            append("input>update ${formatPercentiles(inputLatencies.snapshot())}")
+            append("  skipped ${m.skippedUpdates}  coalesced ${sample.coalescedInputs}  dropped ${sample.droppedInputs}")
+        }
+    }
+
+    /**
+     * Complete report of the session so far.
+     */
+    fun formatReport(sample: Sample): String {
+        val m = sample.metrics
+        val seconds = (sample.time - startTime) / 1e9
+        val draws = drawTimes.snapshot()
+        val inputs = inputLatencies.snapshot()
+
+        return buildString {
+            appendLine("VNC performance report (%.1f s)".format(seconds))
+            appendLine("  updates:     ${m.updates} (%.1f/s), skipped by renderer: ${m.skippedUpdates}"
+                               .format(if (seconds > 0) m.updates / seconds else 0.0))
+            appendLine("  received:    ${formatBytes(m.receivedBytes)} (${formatBytes(rate(m.receivedBytes, seconds))}/s)")
+            appendLine("  uploaded:    ${formatBytes(m.uploadedBytes)} in ${m.uploads} uploads")
+            appendLine("  decode:      avg ${formatNanos(m.avgDecodeTime)}, max ${formatNanos(m.maxDecodeTime)}")
+            appendLine("               ${sample.counters.decodeTimes.format()}")
+            appendLine("  upload:      avg ${formatNanos(m.avgUploadTime)}, max ${formatNanos(m.maxUploadTime)}")
+            appendLine("               ${sample.counters.uploadTimes.format()}")
+            appendLine("  draw:        ${draws.format()}")
+            appendLine("  input>update ${inputs.format()}")
+            appendLine("  input:       coalesced ${sample.coalescedInputs}, dropped ${sample.droppedInputs}")
+            if (m.lastRoundTripTime > 0)
+                appendLine("  last RTT:    ${formatNanos(m.lastRoundTripTime)} (upper bound)")
+
+            appendLine("  encodings:")
+            val totalBytes = sample.counters.encodings.sumOf { it.bytes }
+            sample.counters.encodings.filter { it.rects > 0 }.forEach {
+                appendLine("    %-11s %8d rects %10s %5.1f%%  %s/s".format(
+                        it.name, it.rects, formatBytes(it.bytes),
+                        if (totalBytes > 0) it.bytes * 100.0 / totalBytes else 0.0,
+                        formatBytes(rate(it.bytes, seconds))))
+            }
+        }
+    }
+
+    private fun formatPercentiles(histogram: TimeHistogram): String {
+        if (histogram.total == 0L)
+            return "-"
+        return "p50<${TimeHistogram.formatMicros(histogram.percentile(50))}" +
+               " p95<${TimeHistogram.formatMicros(histogram.percentile(95))}"
+    }
+
+    companion object {
+        private const val HUD_ENCODINGS = 3
+
+        private fun rate(value: Long, seconds: Double) = if (seconds > 0) (value / seconds).toLong() else 0
+
+        fun formatBytes(bytes: Long) = when {
+            bytes >= 1 shl 20 -> "%.1f MB".format(bytes / 1048576.0)
+            bytes >= 1 shl 10 -> "%.1f KB".format(bytes / 1024.0)
+            else -> "$bytes B"
+        }
+
+        fun formatNanos(nanos: Long) = "%.1fms".format(nanos / 1e6)
+    }
+}
@@ -135,6 +135,22 @@ class VncClient(private val observer: Observer) {
         }
     }
 
+    /**
+     * Changes encodings requested from server during session.
+     * This will do network IO, so must not be called from Main thread.
+     */
+    fun setEncodings(settings: EncodingSettings) = ifConnected {
+        nativeSetEncodings(nativePtr, settings.encodings, settings.qualityLevel, settings.compressLevel)
+    }
+
+    /**
+     * Sets minimum time between framebuffer update requests, 0 for no limit.
+     * Must be called from the thread processing server messages.
+     */
+    fun setUpdateInterval(nanos: Long) = ifConnected {
+        nativeSetUpdateInterval(nativePtr, nanos)
+    }
+
     fun setupRepeater(serverId: Int) {
         stateLock.read {
             if (!connected && !destroyed)
@@ -144,6 +160,8 @@ class VncClient(private val observer: Observer) {
 
     /**
      * Initializes VNC connection.
+     * If [host] is the path of a Unix domain socket, connection is made over that
+     * socket, and [port] is ignored.
      */
     fun connect(host: String, port: Int) {
         stateLock.read {
@@ -217,6 +235,30 @@ class VncClient(private val observer: Observer) {
         nativeSendPointerEvent(nativePtr, x, y, mask)
     }
 
+    /**
+     * Sends a batch of input events to remote server, in order, using a single write.
+     */
+    fun sendInputEvents(events: List<InputEvent>) = ifConnectedAndInteractive {
+        val encoded = IntArray(events.size * 4)
+        events.forEachIndexed { i, event ->
+            val o = i * 4
+            when (event) {
+                is InputEvent.Pointer -> {
+                    encoded[o] = INPUT_TYPE_POINTER
+                    encoded[o + 1] = event.x
+                    encoded[o + 2] = event.y
+                    encoded[o + 3] = event.mask
+                }
+                is InputEvent.Key -> {
+                    encoded[o] = if (event.isDown) INPUT_TYPE_KEY_DOWN else INPUT_TYPE_KEY_UP
+                    encoded[o + 1] = event.keySym
+                    encoded[o + 2] = event.xtCode
+                }
+            }
+        }
+        nativeSendInputEvents(nativePtr, encoded, events.size)
+    }
+
     /**
      * Updates client-side pointer position.
      * No event is sent to server.
@@ -276,8 +318,10 @@ class VncClient(private val observer: Observer) {
 
     /**
      * Change framebuffer update status.
-     * If paused, client will effectively stop asking for framebuffer updates from server.
-     * This will do network IO when resuming, so must not be called from Main thread.
+     * If paused, client will effectively stop asking for framebuffer updates from server
+     * (or disable continuous updates, if server supports them), while connection stays open.
+     * When resuming, a single incremental update is requested to catch up.
+     * This will do network IO, so must not be called from Main thread.
      */
     fun setFrameBufferUpdatesPaused(pause: Boolean) {
         stateLock.read {
@@ -293,9 +337,75 @@ class VncClient(private val observer: Observer) {
     /**
      * Puts framebuffer contents in currently active OpenGL texture.
      * Must be called from an OpenGL ES context (i.e. from renderer thread).
+     *
+     * Framebuffer is triple-buffered on native side, so this never waits for
+     * decoding of an in-progress update, and only complete updates are uploaded.
+     *
+     * Only the regions modified since previous upload are transferred, so the same
+     * texture must be bound on every call. Set [fullUpload] for a newly created
+     * texture. Texture storage is also reallocated when framebuffer size changes.
+     *
+     * @return true if texture now holds current framebuffer contents
+     */
+    fun uploadFrameTexture(fullUpload: Boolean): Boolean {
+        ifConnected {
+            return nativeUploadFrameTexture(nativePtr, fullUpload)
+        }
+        return false
+    }
+
+    /**
+     * Use the memory-mapped screen of a local Xvfb (see `-fbdir`) at [path] as
+     * frame source, instead of framebuffer updates received from server.
+     * Server connection is still used for input, clipboard etc.
+     *
+     * Must be called after [connect], from the receiver thread.
+     *
+     * @return false if the file could not be mapped, frame source is unchanged in that case
      */
-    fun uploadFrameTexture() = ifConnected {
-        nativeUploadFrameTexture(nativePtr)
+    fun attachLocalDisplay(path: String): Boolean {
+        ifConnected {
+            return nativeAttachLocalDisplay(nativePtr, path)
+        }
+        return false
+    }
+
+    /**
+     * Looks for changes in local display attached with [attachLocalDisplay].
+     * Must not be called concurrently from multiple threads.
+     *
+     * @return true if local display has changed and frame should be rendered again
+     */
+    fun pollLocalDisplay(): Boolean {
+        ifConnected {
+            if (!frameBufferUpdatesPaused.get())
+                return nativePollLocalDisplay(nativePtr)
+        }
+        return false
+    }
+
+    /**
+     * Returns statistics about decoding & uploading of framebuffer.
+     */
+    fun getFrameMetrics(): FrameMetrics {
+        ifConnected {
+            val values = LongArray(FrameMetrics.FIELD_COUNT)
+            nativeGetFrameMetrics(nativePtr, values)
+            return FrameMetrics.fromArray(values)
+        }
+        return FrameMetrics()
+    }
+
+    /**
+     * Returns per-session performance counters, see [PerfCounters].
+     */
+    fun getPerfCounters(): PerfCounters {
+        ifConnected {
+            val values = LongArray(PerfCounters.VALUE_COUNT)
+            nativeGetPerfCounters(nativePtr, values)
+            return PerfCounters.fromArray(values)
+        }
+        return PerfCounters()
     }
 
     /**
@@ -374,10 +484,13 @@ class VncClient(private val observer: Observer) {
     private external fun nativeClientCreate(): Long
     private external fun nativeConfigure(clientPtr: Long, securityType: Int, useLocalCursor: Boolean, imageQuality: Int, useRawEncoding: Boolean)
     private external fun nativeInit(clientPtr: Long, host: String, port: Int): Boolean
+    private external fun nativeSetEncodings(clientPtr: Long, encodings: String, qualityLevel: Int, compressLevel: Int): Boolean
+    private external fun nativeSetUpdateInterval(clientPtr: Long, interval: Long)
     private external fun nativeSetDest(clientPtr: Long, host: String, port: Int)
     private external fun nativeProcessServerMessage(clientPtr: Long): Boolean
     private external fun nativeSendKeyEvent(clientPtr: Long, keySym: Int, xtCode: Int, isDown: Boolean): Boolean
     private external fun nativeSendPointerEvent(clientPtr: Long, x: Int, y: Int, mask: Int): Boolean
+    private external fun nativeSendInputEvents(clientPtr: Long, events: IntArray, count: Int): Boolean
     private external fun nativeSendCutText(clientPtr: Long, bytes: ByteArray, isUTF8: Boolean): Boolean
     private external fun nativeIsUTF8CutTextSupported(clientPtr: Long): Boolean
     private external fun nativeSetDesktopSize(clientPtr: Long, width: Int, height: Int): Boolean
@@ -387,8 +500,12 @@ class VncClient(private val observer: Observer) {
     private external fun nativeGetWidth(clientPtr: Long): Int
     private external fun nativeGetHeight(clientPtr: Long): Int
     private external fun nativeIsEncrypted(clientPtr: Long): Boolean
-    private external fun nativeUploadFrameTexture(clientPtr: Long)
+    private external fun nativeUploadFrameTexture(clientPtr: Long, fullUpload: Boolean): Boolean
     private external fun nativeUploadCursorTexture(clientPtr: Long)
+    private external fun nativeGetFrameMetrics(clientPtr: Long, out: LongArray)
+    private external fun nativeGetPerfCounters(clientPtr: Long, out: LongArray)
+    private external fun nativeAttachLocalDisplay(clientPtr: Long, path: String): Boolean
+    private external fun nativePollLocalDisplay(clientPtr: Long): Boolean
     private external fun nativeGetLastErrorStr(): String
     private external fun nativeIsServerMacOS(clientPtr: Long): Boolean
     private external fun nativeInterrupt(clientPtr: Long)
@@ -446,6 +563,11 @@ class VncClient(private val observer: Observer) {
      * Native library initialization
      */
     companion object {
+        // Must match with native side
+        private const val INPUT_TYPE_POINTER = 0
+        private const val INPUT_TYPE_KEY_DOWN = 1
+        private const val INPUT_TYPE_KEY_UP = 2
+
         fun loadLibrary() {
             System.loadLibrary("native-vnc")
         }
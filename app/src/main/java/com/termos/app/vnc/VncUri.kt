@@ -20,6 +20,10 @@ import java.net.URI
  * (This requirement come from using Java [URI] internally.)
  *
  * If given URI doesn't start with 'vnc://' scheme, it will be automatically added.
+ *
+ * Servers listening on a Unix domain socket can be addressed with the non-standard
+ * 'vnc+unix' scheme, where path of the URI is the socket path,
+ * e.g. `vnc+unix:///data/data/com.termos/local/ubuntu/tmp/.termos-vnc/vnc1`.
  */
 class VncUri(str: String) {
 
@@ -28,7 +32,10 @@ class VncUri(str: String) {
      * It is also common for users to accidentally type 'vnc:host' instead of 'vnc://host',
      * so we gracefully handle that case too.
      */
-    private val uriString = str.replaceFirst(Regex("^(vnc:/?/?)?", RegexOption.IGNORE_CASE), "vnc://")
+    private val isUnixSocket = str.startsWith("$UNIX_SCHEME:", ignoreCase = true)
+
+    private val uriString = if (isUnixSocket) str
+    else str.replaceFirst(Regex("^(vnc:/?/?)?", RegexOption.IGNORE_CASE), "vnc://")
 
     private val uri = Uri.parse(uriString)
 
@@ -41,8 +48,9 @@ class VncUri(str: String) {
 
     val host = javaUri?.host?.trim('[', ']')
     val port = if (javaUri?.port == -1) null else javaUri?.port
+    val socketPath = if (isUnixSocket) uri.path?.takeIf { it.isNotEmpty() } else null
     val connectionName = uri.getQueryParameter("ConnectionName")
-    val connectionNameForProfile = connectionName ?: host?.let { "vnc://$it" }
+    val connectionNameForProfile = connectionName ?: host?.let { "vnc://$it" } ?: socketPath?.let { "$UNIX_SCHEME://$it" }
     val saveConnection = uri.getBooleanQueryParameter("SaveConnection", false)
 
     val username = uri.getQueryParameter("VncUsername")
@@ -69,6 +77,10 @@ class VncUri(str: String) {
         password?.let { profile.password = it }
         securityType?.let { profile.securityType = it }
         channelType?.let { profile.channelType = it }
+        socketPath?.let {
+            profile.host = it
+            profile.channelType = ServerProfile.CHANNEL_UNIX_SOCKET
+        }
         colorLevel?.let { profile.colorLevel = it }
         viewOnly?.let { profile.viewMode = if (it) ServerProfile.VIEW_MODE_NO_INPUT else ServerProfile.VIEW_MODE_NORMAL }
         sshHost?.let { profile.sshHost = it }
@@ -86,4 +98,8 @@ class VncUri(str: String) {
     fun toServerProfile() = applyToProfile(ServerProfile())
 
     override fun toString() = uriString
+
+    companion object {
+        const val UNIX_SCHEME = "vnc+unix"
+    }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.termos.app.vnc;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EncodingControllerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long SECOND = 1000 * MS;
+
+    private EncodingController controller;
+    private long updates;
+    private long now;
+
+    @Before
+    public void setUp() {
+        controller = new EncodingController(EncodingController.DEFAULT_TIER);
+        updates = 0;
+        now = 0;
+    }
+
+    private static FrameMetrics metrics(long updates, long bytes, long decodeTime, long roundTripTime) {
+        return new FrameMetrics(updates, 0, 0, decodeTime, 0, 0, 0, 0, 0, 0, 0, bytes, roundTripTime);
+    }
+
+    /**
+     * Feeds given number of identical updates, 50 ms apart.
+     * Returns the last settings change, or null if there was none.
+     */
+    private EncodingSettings feed(int count, long bytes, long decodeTime, long roundTripTime) {
+        EncodingSettings last = null;
+        for (int i = 0; i < count; ++i) {
+            now += 50 * MS;
+            EncodingSettings settings = controller.onUpdate(metrics(++updates, bytes, decodeTime, roundTripTime), now);
+            if (settings != null)
+                last = settings;
+        }
+        return last;
+    }
+
+    @Test
+    public void testSlowLinkMovesToMoreCompression() {
+        // 100 KB in 100 ms = 1 MB/s, less than what the default tier needs
+        int windows = EncodingController.WINDOWS_TO_COMPRESS_MORE;
+        EncodingSettings settings = feed(windows * EncodingController.WINDOW_UPDATES, 100_000, 100 * MS, 20 * MS);
+
+        Assert.assertEquals(EncodingController.DEFAULT_TIER + 1, controller.getTier());
+        Assert.assertEquals(EncodingController.Companion.getTIERS().get(controller.getTier()).getSettings(), settings);
+    }
+
+    @Test
+    public void testSingleBadWindowDoesNotMove() {
+        feed(EncodingController.WINDOW_UPDATES, 100_000, 100 * MS, 20 * MS);
+        feed(EncodingController.WINDOW_UPDATES, 100_000, 10 * MS, 20 * MS);
+        feed(EncodingController.WINDOW_UPDATES, 100_000, 100 * MS, 20 * MS);
+
+        Assert.assertEquals(EncodingController.DEFAULT_TIER, controller.getTier());
+    }
+
+    @Test
+    public void testLocalServerMovesTowardsRaw() {
+        // Tiny round-trip time, even though decoding is slow
+        for (int i = 0; i < 10 && controller.getTier() > 0; ++i)
+            feed(EncodingController.WINDOWS_TO_COMPRESS_LESS * EncodingController.WINDOW_UPDATES, 100_000, 100 * MS, MS / 4);
+
+        Assert.assertEquals(0, controller.getTier());
+        Assert.assertEquals("raw copyrect", EncodingController.Companion.getTIERS().get(0).getSettings().getEncodings());
+    }
+
+    @Test
+    public void testMovesAreRateLimited() {
+        int updatesPerMove = EncodingController.WINDOWS_TO_COMPRESS_MORE * EncodingController.WINDOW_UPDATES;
+        Assert.assertNotNull(feed(updatesPerMove, 100_000, 400 * MS, 20 * MS));
+
+        // Still congested, but too soon after last move
+        long elapsed = updatesPerMove * 50 * MS;
+        Assert.assertTrue(elapsed < EncodingController.MIN_DWELL_TIME);
+        Assert.assertNull(feed(updatesPerMove, 100_000, 400 * MS, 20 * MS));
+
+        now += EncodingController.MIN_DWELL_TIME;
+        Assert.assertNotNull(feed(updatesPerMove, 100_000, 400 * MS, 20 * MS));
+        Assert.assertEquals(EncodingController.DEFAULT_TIER + 2, controller.getTier());
+    }
+
+    @Test
+    public void testSmallUpdatesAreIgnored() {
+        // Slow, but tiny updates (typing, blinking caret) tell nothing about bandwidth
+        feed(10 * EncodingController.WINDOW_UPDATES, 500, 100 * MS, 20 * MS);
+        Assert.assertEquals(EncodingController.DEFAULT_TIER, controller.getTier());
+    }
+
+    @Test
+    public void testRepeatedMetricsAreCountedOnce() {
+        FrameMetrics m = metrics(1, 100_000, 100 * MS, 20 * MS);
+        for (int i = 0; i < 10 * EncodingController.WINDOW_UPDATES; ++i)
+            Assert.assertNull(controller.onUpdate(m, i * SECOND));
+        Assert.assertEquals(EncodingController.DEFAULT_TIER, controller.getTier());
+    }
+}
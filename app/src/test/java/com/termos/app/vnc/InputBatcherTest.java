@@ -0,0 +1,106 @@
+package com.termos.app.vnc;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class InputBatcherTest {
+
+    /** Runs submitted tasks only when asked, like a busy sender thread would. */
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+    private final List<Object> sent = new ArrayList<>();
+    private InputBatcher batcher;
+
+    @Before
+    public void setUp() {
+        pendingTasks.clear();
+        sent.clear();
+        batcher = new InputBatcher(pendingTasks::add, events -> sent.add(new ArrayList<>(events)));
+    }
+
+    private void runPendingTasks() {
+        while (!pendingTasks.isEmpty())
+            pendingTasks.remove(0).run();
+    }
+
+    private static InputEvent.Pointer pointer(int x, int y, int mask) {
+        return new InputEvent.Pointer(x, y, mask);
+    }
+
+    private static InputEvent.Key key(int keySym, boolean isDown) {
+        return new InputEvent.Key(keySym, 0, isDown);
+    }
+
+    @Test
+    public void testMovesWithSameMaskAreCoalesced() {
+        batcher.queuePointer(1, 1, 0);
+        batcher.queuePointer(2, 2, 0);
+        batcher.queuePointer(3, 3, 0);
+        runPendingTasks();
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(pointer(3, 3, 0))), sent);
+        Assert.assertEquals(2, batcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testButtonTransitionsAreNeverDropped() {
+        batcher.queuePointer(1, 1, 0);
+        batcher.queuePointer(2, 2, 1);  // press
+        batcher.queuePointer(3, 3, 1);
+        batcher.queuePointer(4, 4, 1);
+        batcher.queuePointer(5, 5, 0);  // release
+        batcher.queuePointer(6, 6, 0);
+        runPendingTasks();
+
+        // The press keeps its own position, only the moves after it are merged
+        Assert.assertEquals(Arrays.asList(Arrays.asList(
+                pointer(1, 1, 0), pointer(2, 2, 1), pointer(4, 4, 1), pointer(5, 5, 0), pointer(6, 6, 0))), sent);
+    }
+
+    @Test
+    public void testKeyAndPointerEventsStayInOrder() {
+        batcher.queuePointer(1, 1, 0);
+        batcher.queueKey(65, 0, true);
+        batcher.queuePointer(2, 2, 0);
+        batcher.queuePointer(3, 3, 0);
+        batcher.queueKey(65, 0, false);
+        batcher.queuePointer(4, 4, 0);
+        runPendingTasks();
+
+        // Moves are not coalesced across key events
+        Assert.assertEquals(Arrays.asList(Arrays.asList(
+                pointer(1, 1, 0), key(65, true), pointer(3, 3, 0), key(65, false), pointer(4, 4, 0))), sent);
+    }
+
+    @Test
+    public void testEventsAreSentInOneBatchPerFlush() {
+        batcher.queueKey(65, 0, true);
+        batcher.queueKey(65, 0, false);
+        batcher.queuePointer(1, 1, 1);
+        Assert.assertEquals(1, pendingTasks.size());
+        runPendingTasks();
+        Assert.assertEquals(1, sent.size());
+
+        // Events queued after a batch has been sent start a new one
+        batcher.queueKey(66, 0, true);
+        Assert.assertEquals(1, pendingTasks.size());
+        runPendingTasks();
+        Assert.assertEquals(Arrays.asList(key(66, true)), sent.get(1));
+    }
+
+    @Test
+    public void testBarrierOrdersEventsAroundOtherTasks() {
+        batcher.queuePointer(1, 1, 1);
+        batcher.barrier();
+        pendingTasks.add(() -> sent.add("delay"));
+        batcher.queuePointer(1, 1, 0);
+        runPendingTasks();
+
+        Assert.assertEquals(Arrays.asList(
+                Arrays.asList(pointer(1, 1, 1)), "delay", Arrays.asList(pointer(1, 1, 0))), sent);
+    }
+}
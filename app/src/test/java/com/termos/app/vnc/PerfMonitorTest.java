@@ -0,0 +1,68 @@
+package com.termos.app.vnc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PerfMonitorTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long SECOND = 1000 * MS;
+
+    private static FrameMetrics metrics(long updates, long bytes) {
+        return new FrameMetrics(updates, 0, 0, 0, 0, 0, 0, 0, 0, 0, bytes, 0, 0);
+    }
+
+    private static PerfCounters counters(long tightJpegBytes) {
+        long[] values = new long[PerfCounters.Companion.getVALUE_COUNT()];
+        int jpeg = PerfCounters.Companion.getENCODING_NAMES().indexOf("tight-jpeg");
+        int base = 2 * TimeHistogram.Companion.getBUCKET_COUNT();
+        values[base + 2 * jpeg] = 1;
+        values[base + 2 * jpeg + 1] = tightJpegBytes;
+        return PerfCounters.Companion.fromArray(values);
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        Assert.assertEquals(0, TimeHistogram.Companion.bucketOf(100_000));
+        Assert.assertEquals(1, TimeHistogram.Companion.bucketOf(500_000));
+        Assert.assertEquals(4, TimeHistogram.Companion.bucketOf(5 * MS));
+        Assert.assertEquals(TimeHistogram.Companion.getBUCKET_COUNT() - 1, TimeHistogram.Companion.bucketOf(SECOND));
+    }
+
+    @Test
+    public void testPercentile() {
+        TimeHistogramRecorder recorder = new TimeHistogramRecorder();
+        for (int i = 0; i < 90; ++i)
+            recorder.record(3 * MS);
+        for (int i = 0; i < 10; ++i)
+            recorder.record(50 * MS);
+
+        TimeHistogram histogram = recorder.snapshot();
+        Assert.assertEquals(100, histogram.getTotal());
+        Assert.assertEquals(4000, histogram.percentile(50));
+        Assert.assertEquals(64000, histogram.percentile(95));
+        Assert.assertEquals(0, new TimeHistogram().percentile(50));
+    }
+
+    @Test
+    public void testHudRatesAreSinceLastSample() {
+        PerfMonitor monitor = new PerfMonitor();
+        monitor.formatHud(new PerfMonitor.Sample(SECOND, metrics(10, 1000), counters(0), 0, 0));
+
+        String hud = monitor.formatHud(new PerfMonitor.Sample(3 * SECOND, metrics(50, 4 * 1048576 + 1000),
+                                                              counters(2 * 1048576), 0, 0));
+
+        Assert.assertTrue(hud, hud.startsWith("20.0 upd/s  2.0 MB/s  tight-jpeg 1.0 MB/s"));
+    }
+
+    @Test
+    public void testReportListsUsedEncodings() {
+        PerfMonitor monitor = new PerfMonitor();
+        monitor.reset(0);
+        String report = monitor.formatReport(new PerfMonitor.Sample(2 * SECOND, metrics(10, 1000), counters(1000), 3, 1));
+
+        Assert.assertTrue(report, report.contains("tight-jpeg"));
+        Assert.assertFalse(report, report.contains("hextile"));
+        Assert.assertTrue(report, report.contains("coalesced 3, dropped 1"));
+    }
+}
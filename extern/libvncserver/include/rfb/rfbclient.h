@@ -489,6 +489,15 @@ typedef struct _rfbClient {
 
         /* flag to indicate wheter updateRect is managed by lib or user */
         rfbBool isUpdateRectManagedByLib;
+
+        /** Total number of bytes read from the server connection */
+        uint64_t bytesReceived;
+
+        /** If set, incremental update requests are not sent after each update */
+        rfbBool pauseFramebufferUpdates;
+
+        /** Encoding of the framebuffer update rectangle currently being handled */
+        int32_t currentRectEncoding;
 } rfbClient;
 
 /* cursor.c */
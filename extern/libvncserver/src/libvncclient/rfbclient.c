@@ -1479,6 +1479,9 @@ SetFormatAndEncodings(rfbClient* client)
 rfbBool
 SendIncrementalFramebufferUpdateRequest(rfbClient* client)
 {
+	if (client->pauseFramebufferUpdates)
+		return TRUE;
+
 	return SendFramebufferUpdateRequest(client,
 			client->updateRect.x, client->updateRect.y,
 			client->updateRect.w, client->updateRect.h, TRUE);
@@ -2100,6 +2103,7 @@ HandleRFBServerMessage(rfbClient* client)
 	return FALSE;
 
       rect.encoding = rfbClientSwap32IfLE(rect.encoding);
+      client->currentRectEncoding = rect.encoding;
       if (rect.encoding == rfbEncodingLastRect)
 	break;
 
@@ -0,0 +1,115 @@
+package com.termux.terminal;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks processes started through the {@link ForkServer}, and compares its spawn latency with forking the app
+ * process. Timings are logged and reported as instrumentation status, so they can be tracked across devices.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ForkServerTest {
+
+    private static final String LOG_TAG = "ForkServerTest";
+    private static final int WARMUP_SPAWNS = 10;
+    private static final int MEASURED_SPAWNS = 100;
+
+    @Before
+    public void setUp() {
+        String nativeLibraryDir = InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationInfo().nativeLibraryDir;
+        Assert.assertTrue(ForkServer.start(nativeLibraryDir));
+    }
+
+    @After
+    public void tearDown() {
+        ForkServer.stop();
+    }
+
+    @Test
+    public void testPtyExitStatus() {
+        int[] processId = new int[1];
+        int ptm = JNI.createSubprocess("/system/bin/sh", "/", new String[]{"sh", "-c", "exit 3"}, new String[]{"A=1"},
+            processId, 24, 80, 10, 20);
+        try {
+            Assert.assertTrue(processId[0] > 0);
+            Assert.assertEquals(3, JNI.waitFor(processId[0]));
+        } finally {
+            JNI.close(ptm);
+        }
+    }
+
+    @Test
+    public void testPipedProcess() throws Exception {
+        Process process = ForkServer.exec(new String[]{"/system/bin/sh", "-c", "echo $GREETING; echo err >&2; read line; echo $line"},
+            new String[]{"GREETING=hello"}, new File("/"));
+        Assert.assertNotNull(process);
+
+        process.getOutputStream().write("input\n".getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().close();
+        Assert.assertEquals("hello\ninput\n", readFully(process.getInputStream()));
+        Assert.assertEquals("err\n", readFully(process.getErrorStream()));
+        Assert.assertEquals(0, process.waitFor());
+        process.destroy();
+    }
+
+    @Test(expected = IOException.class)
+    public void testPipedExecFailure() throws Exception {
+        ForkServer.exec(new String[]{"/nonexistent"}, new String[0], new File("/"));
+    }
+
+    @Test
+    public void testSpawnLatency() {
+        long serverMicros = measureSpawnMicros();
+        ForkServer.stop();
+        Assert.assertFalse(ForkServer.isRunning());
+        long appForkMicros = measureSpawnMicros();
+
+        Log.i(LOG_TAG, "Mean spawn latency: fork server " + serverMicros + "us, app process " + appForkMicros + "us");
+        Bundle results = new Bundle();
+        results.putLong("fork_server_spawn_us", serverMicros);
+        results.putLong("app_fork_spawn_us", appForkMicros);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    /** Mean time to start a process in a pseudoterminal and wait for it to exit. */
+    private static long measureSpawnMicros() {
+        for (int i = 0; i < WARMUP_SPAWNS; i++) spawnAndWait();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_SPAWNS; i++) spawnAndWait();
+        return (System.nanoTime() - start) / MEASURED_SPAWNS / 1000;
+    }
+
+    private static void spawnAndWait() {
+        int[] processId = new int[1];
+        int ptm = JNI.createSubprocess("/system/bin/true", "/", new String[]{"true"}, new String[0], processId, 24, 80, 10, 20);
+        try {
+            Assert.assertEquals(0, JNI.waitFor(processId[0]));
+        } finally {
+            JNI.close(ptm);
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return out.toString("UTF-8");
+    }
+
+}
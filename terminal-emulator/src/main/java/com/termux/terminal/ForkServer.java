@@ -0,0 +1,155 @@
+package com.termux.terminal;
+
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A small native helper process which forks subprocesses on behalf of the app. C code is in jni/termux-spawn.c.
+ * <p/>
+ * Forking the app process means copying the page tables of the whole ART heap, and then closing every inherited
+ * file descriptor in the child. The fork server is exec'd once, early, and only maps libc, so starting a process
+ * through it is cheaper and doesn't cause a memory spike in the app. File descriptors of started processes are
+ * passed back to the app over a Unix socket.
+ * <p/>
+ * Once started, {@link TerminalSession} uses it automatically, and {@link #exec(String[], String[], File)} can be
+ * used instead of {@link Runtime#exec(String[], String[], File)}. If it is not running or dies, processes are forked
+ * from the app as before.
+ */
+public final class ForkServer {
+
+    /** File name of the fork server executable in the native library directory. */
+    public static final String EXECUTABLE_NAME = "libtermux-spawn.so";
+
+    private ForkServer() {}
+
+    /**
+     * Start the fork server, if not already running.
+     *
+     * @param nativeLibraryDir The native library directory of the app, see
+     *                         {@link android.content.pm.ApplicationInfo#nativeLibraryDir}.
+     * @return whether the fork server is running.
+     */
+    public static boolean start(@NonNull String nativeLibraryDir) {
+        File executable = new File(nativeLibraryDir, EXECUTABLE_NAME);
+        return executable.canExecute() && JNI.startForkServer(executable.getAbsolutePath());
+    }
+
+    /** Stop the fork server. Processes started by it keep running. */
+    public static void stop() {
+        JNI.stopForkServer();
+    }
+
+    public static boolean isRunning() {
+        return JNI.isForkServerRunning();
+    }
+
+    /**
+     * Start a process with pipes as stdin, stdout and stderr through the fork server.
+     *
+     * @param command     The command and its arguments.
+     * @param environment Environment variables of the form "VAR=value". The environment of the app is not inherited.
+     * @param directory   The working directory.
+     * @return the started {@link Process}, or {@code null} if the fork server is not running.
+     * @throws IOException if the process could not be started.
+     */
+    @Nullable
+    public static Process exec(@NonNull String[] command, @NonNull String[] environment, @NonNull File directory) throws IOException {
+        int[] stdioFds = new int[3];
+        int pid = JNI.spawnPiped(command[0], directory.getAbsolutePath(), command, environment, stdioFds);
+        if (pid <= 0) return null;
+        return new SpawnedProcess(pid, stdioFds);
+    }
+
+    /**
+     * A {@link Process} started through the fork server.
+     */
+    static final class SpawnedProcess extends Process {
+
+        /** Read by name through reflection, like for the platform {@link Process} implementation. */
+        private final int pid;
+
+        private final OutputStream mStdin;
+        private final InputStream mStdout;
+        private final InputStream mStderr;
+
+        private volatile Integer mExitCode;
+
+        SpawnedProcess(int pid, int[] stdioFds) {
+            this.pid = pid;
+            mStdin = new ParcelFileDescriptor.AutoCloseOutputStream(ParcelFileDescriptor.adoptFd(stdioFds[0]));
+            mStdout = new ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.adoptFd(stdioFds[1]));
+            mStderr = new ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.adoptFd(stdioFds[2]));
+        }
+
+        public int getPid() {
+            return pid;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mStdin;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mStdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return mStderr;
+        }
+
+        @Override
+        public synchronized int waitFor() {
+            if (mExitCode == null) {
+                int status = JNI.waitFor(pid);
+                // Same as the platform implementation: 128 + signal number if killed by a signal
+                mExitCode = status < 0 ? 128 - status : status;
+            }
+            return mExitCode;
+        }
+
+        @Override
+        public int exitValue() {
+            Integer exitCode = mExitCode;
+            if (exitCode == null) throw new IllegalThreadStateException("Process has not exited");
+            return exitCode;
+        }
+
+        @Override
+        public void destroy() {
+            if (mExitCode == null) {
+                try {
+                    Os.kill(pid, OsConstants.SIGKILL);
+                } catch (ErrnoException e) {
+                    // Already exited
+                }
+            }
+            closeQuietly(mStdin);
+            closeQuietly(mStdout);
+            closeQuietly(mStderr);
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+
+    }
+
+}
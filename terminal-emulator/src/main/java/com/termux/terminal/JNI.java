@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.io.IOException;
+
 /**
  * Native methods for creating and managing pseudoterminal subprocesses. C code is in jni/termux.c.
  */
@@ -25,11 +27,34 @@ final class JNI {
      */
     public static native int createSubprocess(String cmd, String cwd, String[] args, String[] envVars, int[] processId, int rows, int columns, int cellWidth, int cellHeight);
 
+    /**
+     * Create a subprocess with pipes as stdin, stdout and stderr through the fork server, see {@link ForkServer}.
+     *
+     * @param stdioFds A three-element array to which the write end of stdin and the read ends of stdout and stderr
+     *                 will be written. Callers are responsible for closing them.
+     * @return the process ID of the started process, or -1 if the fork server is not running.
+     * @throws IOException if the fork server failed to start the process.
+     */
+    public static native int spawnPiped(String cmd, String cwd, String[] args, String[] envVars, int[] stdioFds) throws IOException;
+
+    /**
+     * Start the fork server executable at the given path, if not already running.
+     *
+     * @return whether the fork server is running.
+     */
+    public static native boolean startForkServer(String path);
+
+    /** Stop the fork server. Processes started by it keep running. */
+    public static native void stopForkServer();
+
+    public static native boolean isForkServerRunning();
+
     /** Set the window size for a given pty, which allows connected programs to learn how large their screen is. */
     public static native void setPtyWindowSize(int fd, int rows, int cols, int cellWidth, int cellHeight);
 
     /**
      * Causes the calling thread to wait for the process associated with the receiver to finish executing.
+     * Must be called at most once per process.
      *
      * @return if >= 0, the exit status of the process. If < 0, the signal causing the process to stop negated.
      */
@@ -30,6 +30,27 @@ import java.util.UUID;
  */
 public final class TerminalSession extends TerminalOutput {
 
+    /**
+     * Listener for startup milestones of the session, used to trace how long it takes for a
+     * new session to become interactive. All callbacks are invoked on the main thread.
+     */
+    public interface StartupListener {
+        /**
+         * Called after the subprocess has been forked and exec'ed.
+         *
+         * @param startNanos The {@link System#nanoTime()} before the subprocess was created.
+         * @param endNanos The {@link System#nanoTime()} after the subprocess was created.
+         */
+        void onSubprocessStarted(TerminalSession session, long startNanos, long endNanos);
+
+        /**
+         * Called once when the first output of the subprocess has been received.
+         *
+         * @param nanos The {@link System#nanoTime()} at which the output was received.
+         */
+        void onFirstOutput(TerminalSession session, long nanos);
+    }
+
     private static final int MSG_NEW_INPUT = 1;
     private static final int MSG_PROCESS_EXITED = 4;
 
@@ -76,6 +97,10 @@ public final class TerminalSession extends TerminalOutput {
     private final String[] mEnv;
     private final Integer mTranscriptRows;
 
+    private StartupListener mStartupListener;
+    /** The {@link System#nanoTime()} of the first subprocess output, 0 until it was received. */
+    private volatile long mFirstOutputNanos;
+
 
     private static final String LOG_TAG = "TerminalSession";
 
@@ -99,6 +124,14 @@ public final class TerminalSession extends TerminalOutput {
             mEmulator.updateTerminalSessionClient(client);
     }
 
+    /**
+     * Set a {@link StartupListener}. Must be called before the session is started by the first
+     * call to {@link #updateSize(int, int, int, int)}.
+     */
+    public void setStartupListener(StartupListener listener) {
+        mStartupListener = listener;
+    }
+
     /** Inform the attached pty of the new size and reflow or initialize the emulator. */
     public void updateSize(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
         if (mEmulator == null) {
@@ -124,9 +157,12 @@ public final class TerminalSession extends TerminalOutput {
         mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
 
         int[] processId = new int[1];
+        long subprocessStartNanos = System.nanoTime();
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns, cellWidthPixels, cellHeightPixels);
         mShellPid = processId[0];
         mClient.setTerminalShellPid(this, mShellPid);
+        if (mStartupListener != null)
+            mStartupListener.onSubprocessStarted(this, subprocessStartNanos, System.nanoTime());
 
         final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
 
@@ -138,6 +174,7 @@ public final class TerminalSession extends TerminalOutput {
                     while (true) {
                         int read = termIn.read(buffer);
                         if (read == -1) return;
+                        if (mFirstOutputNanos == 0) mFirstOutputNanos = System.nanoTime();
                         if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
                         mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
                     }
@@ -341,6 +378,11 @@ public final class TerminalSession extends TerminalOutput {
         @Override
         public void handleMessage(Message msg) {
             int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
+            if (bytesRead > 0 && mStartupListener != null) {
+                StartupListener startupListener = mStartupListener;
+                mStartupListener = null;
+                startupListener.onFirstOutput(TerminalSession.this, mFirstOutputNanos);
+            }
             if (bytesRead > 0) {
                 mEmulator.append(mReceiveBuffer, bytesRead);
                 notifyScreenUpdate();
@@ -3,3 +3,10 @@ include $(CLEAR_VARS)
 LOCAL_MODULE:= libtermux
 LOCAL_SRC_FILES:= termux.c
 include $(BUILD_SHARED_LIBRARY)
+
+# Fork server executable. Named like a library so that it is packaged and extracted to the native library directory.
+include $(CLEAR_VARS)
+LOCAL_MODULE:= termux-spawn
+LOCAL_MODULE_FILENAME:= libtermux-spawn.so
+LOCAL_SRC_FILES:= termux-spawn.c
+include $(BUILD_EXECUTABLE)
@@ -0,0 +1,46 @@
+#ifndef TERMUX_FORK_SERVER_H
+#define TERMUX_FORK_SERVER_H
+
+// Protocol between the app (termux.c) and the fork server (termux-spawn.c).
+//
+// The app creates a SOCK_SEQPACKET socket pair and execs the fork server with one end as FORK_SERVER_FD.
+// Once ready, the server sends a spawn_response with its own pid. After that, each spawn_request message is
+// answered with exactly one spawn_response message. On success the response carries these fds via SCM_RIGHTS:
+//
+//  - SPAWN_PTY: the pseudoterminal master and the exit status fd.
+//  - otherwise: write end of stdin, read ends of stdout and stderr, and the exit status fd.
+//
+// The exit status fd is the read end of a pipe, to which the server writes an int32_t in the format of
+// JNI.waitFor() once the process has exited. EOF without a status means the server died first, in which case
+// the process is killed along with it by PR_SET_PDEATHSIG.
+// The server exits when the app end of the socket is closed.
+
+#include <stdint.h>
+
+#define FORK_SERVER_VERSION 1
+#define FORK_SERVER_FD 3
+#define FORK_SERVER_MAX_REQUEST (64 * 1024)
+#define FORK_SERVER_MAX_FDS 4
+
+#define SPAWN_PTY 1
+
+// Followed by cmd, cwd, argc arguments and envc environment variables, each terminated by a NUL byte.
+struct spawn_request {
+    uint32_t version;
+    uint32_t flags;
+    uint16_t rows;
+    uint16_t columns;
+    uint16_t cell_width;
+    uint16_t cell_height;
+    uint32_t argc;
+    uint32_t envc;
+};
+
+struct spawn_response {
+    // Process id, or 0 on failure
+    int32_t pid;
+    // errno of the failed call, or 0
+    int32_t error;
+};
+
+#endif
@@ -0,0 +1,133 @@
+#ifndef TERMUX_SUBPROCESS_H
+#define TERMUX_SUBPROCESS_H
+
+// Code shared by termux.c and the fork server (termux-spawn.c) for setting up a subprocess.
+
+#include <errno.h>
+#include <fcntl.h>
+#include <signal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/ioctl.h>
+#include <sys/wait.h>
+#include <termios.h>
+#include <unistd.h>
+
+#ifdef __APPLE__
+# define LACKS_PTSNAME_R
+#endif
+
+/**
+ * Open a pseudoterminal master device, with UTF-8 mode, no flow control and the initial window size set.
+ * The path of the slave device is written to devname.
+ *
+ * @return the master fd (with O_CLOEXEC set), or -1 with *error set to a description of the failed call.
+ */
+static int open_pty_master(char* devname, size_t devname_size, int rows, int columns, int cell_width,
+        int cell_height, char const** error)
+{
+    int ptm = open("/dev/ptmx", O_RDWR | O_CLOEXEC);
+    if (ptm < 0) {
+        *error = "Cannot open /dev/ptmx";
+        return -1;
+    }
+
+#ifdef LACKS_PTSNAME_R
+    char* name;
+    if (grantpt(ptm) || unlockpt(ptm) || (name = ptsname(ptm)) == NULL) {
+#else
+    if (grantpt(ptm) || unlockpt(ptm) || ptsname_r(ptm, devname, devname_size)) {
+#endif
+        close(ptm);
+        *error = "Cannot grantpt()/unlockpt()/ptsname_r() on /dev/ptmx";
+        return -1;
+    }
+#ifdef LACKS_PTSNAME_R
+    strncpy(devname, name, devname_size - 1);
+    devname[devname_size - 1] = 0;
+#endif
+
+    // Enable UTF-8 mode and disable flow control to prevent Ctrl+S from locking up the display.
+    struct termios tios;
+    tcgetattr(ptm, &tios);
+    tios.c_iflag |= IUTF8;
+    tios.c_iflag &= ~(IXON | IXOFF);
+    tcsetattr(ptm, TCSANOW, &tios);
+
+    /** Set initial winsize. */
+    struct winsize sz = { .ws_row = (unsigned short) rows, .ws_col = (unsigned short) columns, .ws_xpixel = (unsigned short) (columns * cell_width), .ws_ypixel = (unsigned short) (rows * cell_height)};
+    ioctl(ptm, TIOCSWINSZ, &sz);
+
+    return ptm;
+}
+
+/** In a forked child: start a new session with the pseudoterminal slave devname as stdin, stdout and stderr. */
+static void setup_pty_child(char const* devname)
+{
+    setsid();
+
+    int pts = open(devname, O_RDWR);
+    if (pts < 0) exit(-1);
+
+    dup2(pts, 0);
+    dup2(pts, 1);
+    dup2(pts, 2);
+    if (pts > 2) close(pts);
+}
+
+/** In a forked child: clear signal state which the parent may have changed, so that it is not inherited by exec. */
+static void reset_child_signals(void)
+{
+    sigset_t signals_to_unblock;
+    sigfillset(&signals_to_unblock);
+    sigprocmask(SIG_UNBLOCK, &signals_to_unblock, 0);
+    signal(SIGPIPE, SIG_DFL);
+}
+
+/**
+ * In a forked child: replace the environment, change to cwd and exec cmd. Never returns.
+ *
+ * If exec fails and error_fd is >= 0, errno is written to it, otherwise an error message is printed to stderr.
+ */
+static void exec_child(char const* cmd, char const* cwd, char* const argv[], char** envp, int error_fd)
+{
+    clearenv();
+    if (envp) for (; *envp; ++envp) putenv(*envp);
+
+    if (chdir(cwd) != 0) {
+        char* error_message;
+        // No need to free asprintf()-allocated memory since doing execvp() or exit() below.
+        if (asprintf(&error_message, "chdir(\"%s\")", cwd) == -1) error_message = "chdir()";
+        perror(error_message);
+        fflush(stderr);
+    }
+    execvp(cmd, argv);
+
+    if (error_fd >= 0) {
+        int exec_errno = errno;
+        while (write(error_fd, &exec_errno, sizeof(exec_errno)) < 0 && errno == EINTR);
+        _exit(127);
+    }
+
+    // Show terminal output about failing exec() call:
+    char* error_message;
+    if (asprintf(&error_message, "exec(\"%s\")", cmd) == -1) error_message = "exec()";
+    perror(error_message);
+    _exit(1);
+}
+
+/** Convert a waitpid(2) status to the value returned by JNI.waitFor(). */
+static int decode_wait_status(int status)
+{
+    if (WIFEXITED(status)) {
+        return WEXITSTATUS(status);
+    } else if (WIFSIGNALED(status)) {
+        return -WTERMSIG(status);
+    } else {
+        // Should never happen - waitpid(2) says "One of the first three macros will evaluate to a non-zero (true) value".
+        return 0;
+    }
+}
+
+#endif
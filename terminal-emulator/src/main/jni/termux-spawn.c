@@ -0,0 +1,320 @@
+// Fork server: a small helper process which forks subprocesses on behalf of the app.
+//
+// Forking the app process itself is slow, as the page tables of hundreds of MB of mapped ART heap have to be copied,
+// and the child then has to close every inherited fd. This process is exec'd once and only maps libc, so fork()
+// here is cheap and all fds it keeps are close-on-exec. See fork_server.h for the protocol.
+
+#define _GNU_SOURCE
+
+#include <dirent.h>
+#include <poll.h>
+#include <sys/prctl.h>
+#include <sys/signalfd.h>
+#include <sys/socket.h>
+
+#include "fork_server.h"
+#include "subprocess.h"
+
+struct child {
+    pid_t pid;
+    int status_fd;
+};
+
+static struct child* children;
+static size_t child_count;
+static size_t child_capacity;
+
+static int send_response(int control_fd, int32_t pid, int32_t error, int const* fds, int fd_count)
+{
+    struct spawn_response response = { .pid = pid, .error = error };
+    struct iovec iov = { .iov_base = &response, .iov_len = sizeof(response) };
+    char control[CMSG_SPACE(sizeof(int) * FORK_SERVER_MAX_FDS)];
+    struct msghdr msg = { .msg_iov = &iov, .msg_iovlen = 1 };
+
+    if (fd_count > 0) {
+        memset(control, 0, sizeof(control));
+        msg.msg_control = control;
+        msg.msg_controllen = CMSG_SPACE(sizeof(int) * fd_count);
+        struct cmsghdr* cmsg = CMSG_FIRSTHDR(&msg);
+        cmsg->cmsg_level = SOL_SOCKET;
+        cmsg->cmsg_type = SCM_RIGHTS;
+        cmsg->cmsg_len = CMSG_LEN(sizeof(int) * fd_count);
+        memcpy(CMSG_DATA(cmsg), fds, sizeof(int) * fd_count);
+    }
+
+    ssize_t sent;
+    do sent = sendmsg(control_fd, &msg, MSG_NOSIGNAL); while (sent < 0 && errno == EINTR);
+    return sent == sizeof(response) ? 0 : -1;
+}
+
+/**
+ * In a forked child: make the child be killed when the fork server dies. Exit statuses are only reported through
+ * the server, so JNI.waitFor() could otherwise not tell a child that still runs from one that was killed.
+ */
+static void die_with_server(pid_t server_pid)
+{
+    prctl(PR_SET_PDEATHSIG, SIGKILL);
+    // The server may have died before prctl() was called
+    if (getppid() != server_pid) _exit(127);
+}
+
+static void add_child(pid_t pid, int status_fd)
+{
+    if (child_count == child_capacity) {
+        size_t capacity = child_capacity ? child_capacity * 2 : 16;
+        struct child* grown = realloc(children, capacity * sizeof(struct child));
+        if (!grown) {
+            // The exit status could not be reported, so do not leave a process running that the app sees as killed
+            kill(pid, SIGKILL);
+            close(status_fd);
+            return;
+        }
+        children = grown;
+        child_capacity = capacity;
+    }
+    children[child_count].pid = pid;
+    children[child_count].status_fd = status_fd;
+    child_count++;
+}
+
+static void reap_children(void)
+{
+    int status;
+    pid_t pid;
+    while ((pid = waitpid(-1, &status, WNOHANG)) > 0) {
+        for (size_t i = 0; i < child_count; i++) {
+            if (children[i].pid != pid) continue;
+            int32_t exit_status = decode_wait_status(status);
+            while (write(children[i].status_fd, &exit_status, sizeof(exit_status)) < 0 && errno == EINTR);
+            close(children[i].status_fd);
+            children[i] = children[--child_count];
+            break;
+        }
+    }
+}
+
+static void close_all(int const* fds, int count)
+{
+    for (int i = 0; i < count; i++) if (fds[i] >= 0) close(fds[i]);
+}
+
+/** Fork a process with a new pseudoterminal. Returns 0, or errno if the process could not be started. */
+static int spawn_pty(int control_fd, struct spawn_request const* request, char const* cmd, char const* cwd,
+        char* const argv[], char** envp)
+{
+    char devname[64];
+    char const* error_message;
+    int ptm = open_pty_master(devname, sizeof(devname), request->rows, request->columns, request->cell_width,
+            request->cell_height, &error_message);
+    if (ptm < 0) return errno ? errno : EIO;
+
+    int status_pipe[2];
+    if (pipe2(status_pipe, O_CLOEXEC) != 0) {
+        int error = errno;
+        close(ptm);
+        return error;
+    }
+
+    pid_t server_pid = getpid();
+    pid_t pid = fork();
+    if (pid < 0) {
+        int error = errno;
+        int fds[] = { ptm, status_pipe[0], status_pipe[1] };
+        close_all(fds, 3);
+        return error;
+    } else if (pid == 0) {
+        die_with_server(server_pid);
+        reset_child_signals();
+        setup_pty_child(devname);
+        exec_child(cmd, cwd, argv, envp, -1);
+    }
+
+    int fds[] = { ptm, status_pipe[0] };
+    if (send_response(control_fd, pid, 0, fds, 2) == 0) {
+        add_child(pid, status_pipe[1]);
+    } else {
+        kill(pid, SIGKILL);
+        close(status_pipe[1]);
+    }
+    close_all(fds, 2);
+    return 0;
+}
+
+/** Fork a process with pipes as stdin, stdout and stderr. Returns 0, or errno if the process could not be started. */
+static int spawn_piped(int control_fd, char const* cmd, char const* cwd, char* const argv[], char** envp)
+{
+    // stdin, stdout, stderr, exit status and exec error pipes
+    int pipes[5][2];
+    int opened = 0;
+    for (; opened < 5; opened++) {
+        if (pipe2(pipes[opened], O_CLOEXEC) != 0) {
+            int error = errno;
+            for (int i = 0; i < opened; i++) close_all(pipes[i], 2);
+            return error;
+        }
+    }
+
+    pid_t server_pid = getpid();
+    pid_t pid = fork();
+    if (pid < 0) {
+        int error = errno;
+        for (int i = 0; i < 5; i++) close_all(pipes[i], 2);
+        return error;
+    } else if (pid == 0) {
+        die_with_server(server_pid);
+        reset_child_signals();
+        dup2(pipes[0][0], 0);
+        dup2(pipes[1][1], 1);
+        dup2(pipes[2][1], 2);
+        exec_child(cmd, cwd, argv, envp, pipes[4][1]);
+    }
+
+    int child_ends[] = { pipes[0][0], pipes[1][1], pipes[2][1], pipes[4][1] };
+    close_all(child_ends, 4);
+
+    // Report exec failures like Runtime.exec() does, instead of as exit status
+    int exec_errno = 0;
+    ssize_t n;
+    do n = read(pipes[4][0], &exec_errno, sizeof(exec_errno)); while (n < 0 && errno == EINTR);
+    close(pipes[4][0]);
+
+    int fds[] = { pipes[0][1], pipes[1][0], pipes[2][0], pipes[3][0] };
+    if (n == sizeof(exec_errno)) {
+        int status;
+        while (waitpid(pid, &status, 0) < 0 && errno == EINTR);
+        close_all(fds, 4);
+        close(pipes[3][1]);
+        return exec_errno ? exec_errno : ENOEXEC;
+    }
+
+    if (send_response(control_fd, pid, 0, fds, 4) == 0) {
+        add_child(pid, pipes[3][1]);
+    } else {
+        kill(pid, SIGKILL);
+        close(pipes[3][1]);
+    }
+    close_all(fds, 4);
+    return 0;
+}
+
+/** Get the next NUL-terminated string of a request, or NULL if the request is malformed. */
+static char* next_string(char** position, char* end)
+{
+    char* string = *position;
+    char* terminator = memchr(string, 0, (size_t) (end - string));
+    if (!terminator) return NULL;
+    *position = terminator + 1;
+    return string;
+}
+
+static void handle_request(int control_fd, char* buffer, size_t length)
+{
+    struct spawn_request request;
+    if (length < sizeof(request)) {
+        send_response(control_fd, 0, EINVAL, NULL, 0);
+        return;
+    }
+    memcpy(&request, buffer, sizeof(request));
+    if (request.version != FORK_SERVER_VERSION || request.argc > length || request.envc > length) {
+        send_response(control_fd, 0, EINVAL, NULL, 0);
+        return;
+    }
+
+    char** argv = calloc(request.argc + 1, sizeof(char*));
+    char** envp = calloc(request.envc + 1, sizeof(char*));
+    int error = argv && envp ? 0 : ENOMEM;
+
+    char* position = buffer + sizeof(request);
+    char* end = buffer + length;
+    char* cmd = NULL;
+    char* cwd = NULL;
+    if (!error) {
+        cmd = next_string(&position, end);
+        cwd = cmd ? next_string(&position, end) : NULL;
+        if (!cwd) error = EINVAL;
+        for (uint32_t i = 0; !error && i < request.argc; i++)
+            if (!(argv[i] = next_string(&position, end))) error = EINVAL;
+        for (uint32_t i = 0; !error && i < request.envc; i++)
+            if (!(envp[i] = next_string(&position, end))) error = EINVAL;
+    }
+
+    if (!error) {
+        if (request.flags & SPAWN_PTY)
+            error = spawn_pty(control_fd, &request, cmd, cwd, argv, envp);
+        else
+            error = spawn_piped(control_fd, cmd, cwd, argv, envp);
+    }
+    if (error) send_response(control_fd, 0, error, NULL, 0);
+
+    free(argv);
+    free(envp);
+}
+
+/** Close everything inherited from the app except the control socket, and point stdio at /dev/null. */
+static void sanitize_fds(void)
+{
+    DIR* self_dir = opendir("/proc/self/fd");
+    if (self_dir != NULL) {
+        int self_dir_fd = dirfd(self_dir);
+        struct dirent* entry;
+        while ((entry = readdir(self_dir)) != NULL) {
+            int fd = atoi(entry->d_name);
+            if (fd > 2 && fd != FORK_SERVER_FD && fd != self_dir_fd) close(fd);
+        }
+        closedir(self_dir);
+    }
+
+    int null_fd = open("/dev/null", O_RDWR);
+    if (null_fd >= 0) {
+        dup2(null_fd, 0);
+        dup2(null_fd, 1);
+        dup2(null_fd, 2);
+        if (null_fd > 2) close(null_fd);
+    }
+    fcntl(FORK_SERVER_FD, F_SETFD, FD_CLOEXEC);
+}
+
+int main(void)
+{
+    sanitize_fds();
+
+    // Children are reaped when SIGCHLD is read from signalfd. Closed status pipes must not kill the server.
+    sigset_t mask;
+    sigemptyset(&mask);
+    sigaddset(&mask, SIGCHLD);
+    sigprocmask(SIG_BLOCK, &mask, NULL);
+    int signal_fd = signalfd(-1, &mask, SFD_CLOEXEC | SFD_NONBLOCK);
+    if (signal_fd < 0) return 1;
+    signal(SIGPIPE, SIG_IGN);
+
+    char* buffer = malloc(FORK_SERVER_MAX_REQUEST);
+    if (!buffer || send_response(FORK_SERVER_FD, getpid(), 0, NULL, 0) != 0) return 1;
+
+    struct pollfd fds[2] = {
+        { .fd = FORK_SERVER_FD, .events = POLLIN },
+        { .fd = signal_fd, .events = POLLIN },
+    };
+    while (1) {
+        if (poll(fds, 2, -1) < 0) {
+            if (errno == EINTR) continue;
+            return 1;
+        }
+
+        if (fds[1].revents & POLLIN) {
+            struct signalfd_siginfo info;
+            while (read(signal_fd, &info, sizeof(info)) == sizeof(info));
+            reap_children();
+        }
+
+        if (fds[0].revents & (POLLIN | POLLHUP | POLLERR)) {
+            ssize_t length = recv(FORK_SERVER_FD, buffer, FORK_SERVER_MAX_REQUEST, MSG_TRUNC);
+            if (length < 0 && errno == EINTR) continue;
+            // The app has exited or closed the socket
+            if (length <= 0) return 0;
+            if (length > FORK_SERVER_MAX_REQUEST)
+                send_response(FORK_SERVER_FD, 0, E2BIG, NULL, 0);
+            else
+                handle_request(FORK_SERVER_FD, buffer, (size_t) length);
+        }
+    }
+}
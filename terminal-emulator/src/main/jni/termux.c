@@ -1,27 +1,32 @@
 #include <dirent.h>
-#include <fcntl.h>
 #include <jni.h>
-#include <signal.h>
-#include <stdio.h>
-#include <stdlib.h>
-#include <string.h>
-#include <sys/ioctl.h>
-#include <sys/wait.h>
-#include <termios.h>
-#include <unistd.h>
+#include <pthread.h>
+#include <sys/socket.h>
+
+#include "fork_server.h"
+#include "subprocess.h"
 
 #define TERMUX_UNUSED(x) x __attribute__((__unused__))
-#ifdef __APPLE__
-# define LACKS_PTSNAME_R
-#endif
 
-static int throw_runtime_exception(JNIEnv* env, char const* message)
+static int throw_exception(JNIEnv* env, char const* class_name, char const* message)
 {
-    jclass exClass = (*env)->FindClass(env, "java/lang/RuntimeException");
+    jclass exClass = (*env)->FindClass(env, class_name);
     (*env)->ThrowNew(env, exClass, message);
     return -1;
 }
 
+static int throw_runtime_exception(JNIEnv* env, char const* message)
+{
+    return throw_exception(env, "java/lang/RuntimeException", message);
+}
+
+static void free_string_array(char** strings)
+{
+    if (!strings) return;
+    for (char** tmp = strings; *tmp; ++tmp) free(*tmp);
+    free(strings);
+}
+
 static int create_subprocess(JNIEnv* env,
         char const* cmd,
         char const* cwd,
@@ -33,34 +38,10 @@ static int create_subprocess(JNIEnv* env,
         jint cell_width,
         jint cell_height)
 {
-    int ptm = open("/dev/ptmx", O_RDWR | O_CLOEXEC);
-    if (ptm < 0) return throw_runtime_exception(env, "Cannot open /dev/ptmx");
-
-#ifdef LACKS_PTSNAME_R
-    char* devname;
-#else
     char devname[64];
-#endif
-    if (grantpt(ptm) || unlockpt(ptm) ||
-#ifdef LACKS_PTSNAME_R
-            (devname = ptsname(ptm)) == NULL
-#else
-            ptsname_r(ptm, devname, sizeof(devname))
-#endif
-       ) {
-        return throw_runtime_exception(env, "Cannot grantpt()/unlockpt()/ptsname_r() on /dev/ptmx");
-    }
-
-    // Enable UTF-8 mode and disable flow control to prevent Ctrl+S from locking up the display.
-    struct termios tios;
-    tcgetattr(ptm, &tios);
-    tios.c_iflag |= IUTF8;
-    tios.c_iflag &= ~(IXON | IXOFF);
-    tcsetattr(ptm, TCSANOW, &tios);
-
-    /** Set initial winsize. */
-    struct winsize sz = { .ws_row = (unsigned short) rows, .ws_col = (unsigned short) columns, .ws_xpixel = (unsigned short) (columns * cell_width), .ws_ypixel = (unsigned short) (rows * cell_height)};
-    ioctl(ptm, TIOCSWINSZ, &sz);
+    char const* error_message;
+    int ptm = open_pty_master(devname, sizeof(devname), rows, columns, cell_width, cell_height, &error_message);
+    if (ptm < 0) return throw_runtime_exception(env, error_message);
 
     pid_t pid = fork();
     if (pid < 0) {
@@ -70,19 +51,10 @@ static int create_subprocess(JNIEnv* env,
         return ptm;
     } else {
         // Clear signals which the Android java process may have blocked:
-        sigset_t signals_to_unblock;
-        sigfillset(&signals_to_unblock);
-        sigprocmask(SIG_UNBLOCK, &signals_to_unblock, 0);
+        reset_child_signals();
 
         close(ptm);
-        setsid();
-
-        int pts = open(devname, O_RDWR);
-        if (pts < 0) exit(-1);
-
-        dup2(pts, 0);
-        dup2(pts, 1);
-        dup2(pts, 2);
+        setup_pty_child(devname);
 
         DIR* self_dir = opendir("/proc/self/fd");
         if (self_dir != NULL) {
@@ -95,23 +67,171 @@ static int create_subprocess(JNIEnv* env,
             closedir(self_dir);
         }
 
-        clearenv();
-        if (envp) for (; *envp; ++envp) putenv(*envp);
+        exec_child(cmd, cwd, argv, envp, -1);
+        return -1;
+    }
+}
+
+/**
+ * Exit status fds of processes started by the fork server, by pid. Read by waitFor() instead of calling waitpid(),
+ * since those processes are children of the fork server.
+ */
+struct spawned_process {
+    pid_t pid;
+    int status_fd;
+    struct spawned_process* next;
+};
+
+static pthread_mutex_t fork_server_lock = PTHREAD_MUTEX_INITIALIZER;
+static int fork_server_fd = -1;
+static pid_t fork_server_pid;
+static struct spawned_process* spawned_processes;
+
+static void add_spawned_process(pid_t pid, int status_fd)
+{
+    struct spawned_process* process = malloc(sizeof(struct spawned_process));
+    if (!process) {
+        close(status_fd);
+        return;
+    }
+    process->pid = pid;
+    process->status_fd = status_fd;
+    pthread_mutex_lock(&fork_server_lock);
+    process->next = spawned_processes;
+    spawned_processes = process;
+    pthread_mutex_unlock(&fork_server_lock);
+}
+
+/** Remove the exit status fd of pid from spawned_processes. Returns -1 if the process was not started by the fork server. */
+static int take_spawned_process(pid_t pid)
+{
+    int status_fd = -1;
+    pthread_mutex_lock(&fork_server_lock);
+    for (struct spawned_process** p = &spawned_processes; *p; p = &(*p)->next) {
+        if ((*p)->pid != pid) continue;
+        struct spawned_process* process = *p;
+        status_fd = process->status_fd;
+        *p = process->next;
+        free(process);
+        break;
+    }
+    pthread_mutex_unlock(&fork_server_lock);
+    return status_fd;
+}
 
-        if (chdir(cwd) != 0) {
-            char* error_message;
-            // No need to free asprintf()-allocated memory since doing execvp() or exit() below.
-            if (asprintf(&error_message, "chdir(\"%s\")", cwd) == -1) error_message = "chdir()";
-            perror(error_message);
-            fflush(stderr);
+/** Must be called with fork_server_lock held. */
+static void stop_fork_server_locked(void)
+{
+    if (fork_server_fd < 0) return;
+    // Server exits once it sees EOF on the socket
+    close(fork_server_fd);
+    fork_server_fd = -1;
+    while (waitpid(fork_server_pid, NULL, 0) < 0 && errno == EINTR);
+}
+
+static size_t append_string(char* buffer, size_t position, char const* string)
+{
+    size_t length = strlen(string) + 1;
+    if (position + length > FORK_SERVER_MAX_REQUEST) return FORK_SERVER_MAX_REQUEST + 1;
+    memcpy(buffer + position, string, length);
+    return position + length;
+}
+
+/**
+ * Ask the fork server to start a process, see fork_server.h.
+ *
+ * @return 0 on success, with expected_fds fds received into fds. -1 if the fork server is not running or the request
+ * could not be sent or answered, in which case the caller should start the process itself. Otherwise the errno
+ * reported by the fork server.
+ */
+static int spawn_with_fork_server(uint32_t flags, char const* cmd, char const* cwd, char* const argv[], char** envp,
+        jint rows, jint columns, jint cell_width, jint cell_height, pid_t* pid, int* fds, int expected_fds)
+{
+    if (fork_server_fd < 0) return -1;
+
+    struct spawn_request request = {
+        .version = FORK_SERVER_VERSION,
+        .flags = flags,
+        .rows = (uint16_t) rows,
+        .columns = (uint16_t) columns,
+        .cell_width = (uint16_t) cell_width,
+        .cell_height = (uint16_t) cell_height,
+    };
+
+    char* buffer = malloc(FORK_SERVER_MAX_REQUEST);
+    if (!buffer) return -1;
+    size_t length = sizeof(request);
+    length = append_string(buffer, length, cmd);
+    length = append_string(buffer, length, cwd);
+    if (argv) for (char* const* arg = argv; *arg; ++arg, ++request.argc) length = append_string(buffer, length, *arg);
+    if (envp) for (char** var = envp; *var; ++var, ++request.envc) length = append_string(buffer, length, *var);
+    if (length > FORK_SERVER_MAX_REQUEST) {
+        // Too large for a single message, let the caller fork instead
+        free(buffer);
+        return -1;
+    }
+    memcpy(buffer, &request, sizeof(request));
+
+    struct spawn_response response;
+    char control[CMSG_SPACE(sizeof(int) * FORK_SERVER_MAX_FDS)];
+    struct iovec iov = { .iov_base = &response, .iov_len = sizeof(response) };
+    struct msghdr msg = { .msg_iov = &iov, .msg_iovlen = 1, .msg_control = control, .msg_controllen = sizeof(control) };
+
+    // One request at a time, since responses are matched to requests by order
+    pthread_mutex_lock(&fork_server_lock);
+    ssize_t n = -1;
+    if (fork_server_fd >= 0) {
+        do n = send(fork_server_fd, buffer, length, MSG_NOSIGNAL); while (n < 0 && errno == EINTR);
+        if (n == (ssize_t) length)
+            do n = recvmsg(fork_server_fd, &msg, MSG_CMSG_CLOEXEC); while (n < 0 && errno == EINTR);
+        else
+            n = -1;
+        if (n != sizeof(response)) stop_fork_server_locked();
+    }
+    pthread_mutex_unlock(&fork_server_lock);
+    free(buffer);
+    if (n != sizeof(response)) return -1;
+
+    int received = 0;
+    struct cmsghdr* cmsg = CMSG_FIRSTHDR(&msg);
+    if (cmsg && cmsg->cmsg_level == SOL_SOCKET && cmsg->cmsg_type == SCM_RIGHTS) {
+        received = (int) ((cmsg->cmsg_len - CMSG_LEN(0)) / sizeof(int));
+        if (received > FORK_SERVER_MAX_FDS) received = FORK_SERVER_MAX_FDS;
+        memcpy(fds, CMSG_DATA(cmsg), sizeof(int) * received);
+    }
+
+    if (response.pid > 0 && received == expected_fds) {
+        *pid = response.pid;
+        return 0;
+    }
+
+    for (int i = 0; i < received; i++) close(fds[i]);
+    return response.error ? response.error : EIO;
+}
+
+static char** get_string_array(JNIEnv* env, jobjectArray array, char const* error_message)
+{
+    jsize size = array ? (*env)->GetArrayLength(env, array) : 0;
+    if (size <= 0) return NULL;
+
+    char** strings = (char**) calloc(size + 1, sizeof(char*));
+    if (!strings) {
+        throw_runtime_exception(env, "malloc() for string array failed");
+        return NULL;
+    }
+    for (int i = 0; i < size; ++i) {
+        jstring java_string = (jstring) (*env)->GetObjectArrayElement(env, array, i);
+        char const* utf8 = (*env)->GetStringUTFChars(env, java_string, NULL);
+        if (!utf8) {
+            free_string_array(strings);
+            throw_runtime_exception(env, error_message);
+            return NULL;
         }
-        execvp(cmd, argv);
-        // Show terminal output about failing exec() call:
-        char* error_message;
-        if (asprintf(&error_message, "exec(\"%s\")", cmd) == -1) error_message = "exec()";
-        perror(error_message);
-        _exit(1);
+        strings[i] = strdup(utf8);
+        (*env)->ReleaseStringUTFChars(env, java_string, utf8);
+        (*env)->DeleteLocalRef(env, java_string);
     }
+    return strings;
 }
 
 JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createSubprocess(
@@ -127,61 +247,157 @@ JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createSubprocess(
         jint cell_width,
         jint cell_height)
 {
-    jsize size = args ? (*env)->GetArrayLength(env, args) : 0;
-    char** argv = NULL;
-    if (size > 0) {
-        argv = (char**) malloc((size + 1) * sizeof(char*));
-        if (!argv) return throw_runtime_exception(env, "Couldn't allocate argv array");
-        for (int i = 0; i < size; ++i) {
-            jstring arg_java_string = (jstring) (*env)->GetObjectArrayElement(env, args, i);
-            char const* arg_utf8 = (*env)->GetStringUTFChars(env, arg_java_string, NULL);
-            if (!arg_utf8) return throw_runtime_exception(env, "GetStringUTFChars() failed for argv");
-            argv[i] = strdup(arg_utf8);
-            (*env)->ReleaseStringUTFChars(env, arg_java_string, arg_utf8);
-        }
-        argv[size] = NULL;
-    }
-
-    size = envVars ? (*env)->GetArrayLength(env, envVars) : 0;
-    char** envp = NULL;
-    if (size > 0) {
-        envp = (char**) malloc((size + 1) * sizeof(char *));
-        if (!envp) return throw_runtime_exception(env, "malloc() for envp array failed");
-        for (int i = 0; i < size; ++i) {
-            jstring env_java_string = (jstring) (*env)->GetObjectArrayElement(env, envVars, i);
-            char const* env_utf8 = (*env)->GetStringUTFChars(env, env_java_string, 0);
-            if (!env_utf8) return throw_runtime_exception(env, "GetStringUTFChars() failed for env");
-            envp[i] = strdup(env_utf8);
-            (*env)->ReleaseStringUTFChars(env, env_java_string, env_utf8);
-        }
-        envp[size] = NULL;
+    char** argv = get_string_array(env, args, "GetStringUTFChars() failed for argv");
+    if ((*env)->ExceptionCheck(env)) return -1;
+    char** envp = get_string_array(env, envVars, "GetStringUTFChars() failed for env");
+    if ((*env)->ExceptionCheck(env)) {
+        free_string_array(argv);
+        return -1;
     }
 
-    int procId = 0;
+    pid_t procId = 0;
+    int ptm = -1;
     char const* cmd_cwd = (*env)->GetStringUTFChars(env, cwd, NULL);
     char const* cmd_utf8 = (*env)->GetStringUTFChars(env, cmd, NULL);
-    int ptm = create_subprocess(env, cmd_utf8, cmd_cwd, argv, envp, &procId, rows, columns, cell_width, cell_height);
-    (*env)->ReleaseStringUTFChars(env, cmd, cmd_utf8);
-    (*env)->ReleaseStringUTFChars(env, cmd, cmd_cwd);
 
-    if (argv) {
-        for (char** tmp = argv; *tmp; ++tmp) free(*tmp);
-        free(argv);
-    }
-    if (envp) {
-        for (char** tmp = envp; *tmp; ++tmp) free(*tmp);
-        free(envp);
+    int fds[FORK_SERVER_MAX_FDS];
+    int result = spawn_with_fork_server(SPAWN_PTY, cmd_utf8, cmd_cwd, argv, envp, rows, columns, cell_width,
+            cell_height, &procId, fds, 2);
+    if (result == 0) {
+        ptm = fds[0];
+        add_spawned_process(procId, fds[1]);
+    } else if (result > 0) {
+        throw_runtime_exception(env, strerror(result));
+    } else {
+        int pid = 0;
+        ptm = create_subprocess(env, cmd_utf8, cmd_cwd, argv, envp, &pid, rows, columns, cell_width, cell_height);
+        procId = pid;
     }
 
+    (*env)->ReleaseStringUTFChars(env, cmd, cmd_utf8);
+    (*env)->ReleaseStringUTFChars(env, cwd, cmd_cwd);
+    free_string_array(argv);
+    free_string_array(envp);
+    if ((*env)->ExceptionCheck(env)) return -1;
+
     int* pProcId = (int*) (*env)->GetPrimitiveArrayCritical(env, processIdArray, NULL);
     if (!pProcId) return throw_runtime_exception(env, "JNI call GetPrimitiveArrayCritical(processIdArray, &isCopy) failed");
 
-    *pProcId = procId;
+    *pProcId = (int) procId;
     (*env)->ReleasePrimitiveArrayCritical(env, processIdArray, pProcId, 0);
 
     return ptm;
 }
 
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_spawnPiped(
+        JNIEnv* env,
+        jclass TERMUX_UNUSED(clazz),
+        jstring cmd,
+        jstring cwd,
+        jobjectArray args,
+        jobjectArray envVars,
+        jintArray stdioFds)
+{
+    char** argv = get_string_array(env, args, "GetStringUTFChars() failed for argv");
+    if ((*env)->ExceptionCheck(env)) return -1;
+    char** envp = get_string_array(env, envVars, "GetStringUTFChars() failed for env");
+    if ((*env)->ExceptionCheck(env)) {
+        free_string_array(argv);
+        return -1;
+    }
+
+    pid_t pid = -1;
+    char const* cmd_cwd = (*env)->GetStringUTFChars(env, cwd, NULL);
+    char const* cmd_utf8 = (*env)->GetStringUTFChars(env, cmd, NULL);
+
+    int fds[FORK_SERVER_MAX_FDS];
+    int result = spawn_with_fork_server(0, cmd_utf8, cmd_cwd, argv, envp, 0, 0, 0, 0, &pid, fds, 4);
+    if (result == 0) {
+        add_spawned_process(pid, fds[3]);
+        (*env)->SetIntArrayRegion(env, stdioFds, 0, 3, fds);
+    } else if (result > 0) {
+        char* error_message;
+        if (asprintf(&error_message, "Cannot run program \"%s\": %s", cmd_utf8, strerror(result)) == -1) error_message = NULL;
+        throw_exception(env, "java/io/IOException", error_message ? error_message : strerror(result));
+        free(error_message);
+        pid = -1;
+    } else {
+        pid = -1;
+    }
+
+    (*env)->ReleaseStringUTFChars(env, cmd, cmd_utf8);
+    (*env)->ReleaseStringUTFChars(env, cwd, cmd_cwd);
+    free_string_array(argv);
+    free_string_array(envp);
+    return (jint) pid;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_termux_terminal_JNI_startForkServer(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jstring path)
+{
+    pthread_mutex_lock(&fork_server_lock);
+    if (fork_server_fd >= 0) {
+        pthread_mutex_unlock(&fork_server_lock);
+        return JNI_TRUE;
+    }
+
+    int sockets[2];
+    if (socketpair(AF_UNIX, SOCK_SEQPACKET | SOCK_CLOEXEC, 0, sockets) != 0) {
+        pthread_mutex_unlock(&fork_server_lock);
+        return JNI_FALSE;
+    }
+
+    // Copied before fork(), since only async-signal-safe calls may be made in the child
+    char const* path_utf8 = (*env)->GetStringUTFChars(env, path, NULL);
+    char* executable = path_utf8 ? strdup(path_utf8) : NULL;
+    if (path_utf8) (*env)->ReleaseStringUTFChars(env, path, path_utf8);
+
+    pid_t pid = executable ? fork() : -1;
+    if (pid == 0) {
+        reset_child_signals();
+        if (sockets[1] == FORK_SERVER_FD)
+            fcntl(FORK_SERVER_FD, F_SETFD, 0);
+        else if (dup2(sockets[1], FORK_SERVER_FD) < 0)
+            _exit(127);
+        execl(executable, executable, (char*) NULL);
+        _exit(127);
+    }
+    free(executable);
+    close(sockets[1]);
+
+    // Wait for the server to report that it is ready, so that a missing or non-executable file is noticed here
+    struct spawn_response response = { 0, 0 };
+    ssize_t n = -1;
+    if (pid > 0)
+        do n = recv(sockets[0], &response, sizeof(response), 0); while (n < 0 && errno == EINTR);
+
+    if (n != sizeof(response) || response.pid != pid) {
+        close(sockets[0]);
+        if (pid > 0) while (waitpid(pid, NULL, 0) < 0 && errno == EINTR);
+        pthread_mutex_unlock(&fork_server_lock);
+        return JNI_FALSE;
+    }
+
+    fork_server_fd = sockets[0];
+    fork_server_pid = pid;
+    pthread_mutex_unlock(&fork_server_lock);
+    return JNI_TRUE;
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_stopForkServer(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz))
+{
+    pthread_mutex_lock(&fork_server_lock);
+    stop_fork_server_locked();
+    pthread_mutex_unlock(&fork_server_lock);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_termux_terminal_JNI_isForkServerRunning(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz))
+{
+    pthread_mutex_lock(&fork_server_lock);
+    jboolean running = fork_server_fd >= 0;
+    pthread_mutex_unlock(&fork_server_lock);
+    return running;
+}
+
 JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_setPtyWindowSize(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fd, jint rows, jint cols, jint cell_width, jint cell_height)
 {
     struct winsize sz = { .ws_row = (unsigned short) rows, .ws_col = (unsigned short) cols, .ws_xpixel = (unsigned short) (cols * cell_width), .ws_ypixel = (unsigned short) (rows * cell_height) };
@@ -200,16 +416,20 @@ JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_setPtyUTF8Mode(JNIEnv* TERMU
 
 JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
 {
+    int status_fd = take_spawned_process(pid);
+    if (status_fd >= 0) {
+        int32_t exit_status;
+        ssize_t n;
+        do n = read(status_fd, &exit_status, sizeof(exit_status)); while (n < 0 && errno == EINTR);
+        close(status_fd);
+        // The fork server died before the process, which is then killed along with it by PR_SET_PDEATHSIG,
+        // see die_with_server() in termux-spawn.c
+        return n == sizeof(exit_status) ? exit_status : -SIGKILL;
+    }
+
     int status;
     waitpid(pid, &status, 0);
-    if (WIFEXITED(status)) {
-        return WEXITSTATUS(status);
-    } else if (WIFSIGNALED(status)) {
-        return -WTERMSIG(status);
-    } else {
-        // Should never happen - waitpid(2) says "One of the first three macros will evaluate to a non-zero (true) value".
-        return 0;
-    }
+    return decode_wait_status(status);
 }
 
 JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_close(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fileDescriptor)
@@ -1,10 +1,13 @@
+#include <climits>
 #include <cstdio>
 #include <ctime>
 #include <cerrno>
 #include <jni.h>
+#include <poll.h>
 #include <sstream>
 #include <string>
 #include <unistd.h>
+#include <vector>
 
 #include <android/log.h>
 
@@ -137,6 +140,120 @@ timeval milliseconds_to_timeval(int milliseconds) {
 }
 
 
+/*
+ * Wait with poll() until fd is ready for events or the deadline milliseconds since epoch passes.
+ * Returns 1 if fd is ready, 0 if the deadline passed and -1 on failure with errno set.
+ * If current time can't be read, then 1 is returned so that the caller does not wait for deadline.
+ */
+int wait_for_fd(const int fd, const short events, const jlong deadline) {
+    struct timespec time = {};
+    while (true) {
+        if (clock_gettime(CLOCK_REALTIME, &time) == -1) {
+            log_warn("Deadline \"" + to_string(deadline) + "\" timeout will not work since failed to get current time");
+            return 1;
+        }
+
+        int64_t remaining = deadline - timespec_to_milliseconds(&time);
+        // If current time is greater than the time defined in deadline
+        if (remaining <= 0)
+            return 0;
+
+        struct pollfd pfd = {.fd = fd, .events = events};
+        int ret = poll(&pfd, 1, remaining > INT_MAX ? INT_MAX : (int) remaining);
+        if (ret == -1 && errno == EINTR)
+            continue;
+        if (ret != 0)
+            return ret;
+    }
+}
+
+/*
+ * Read up to bytes from fd into data. If readFully is true, then reading continues until bytes
+ * have been read or EOF is reached. If deadline is greater than 0, then reading fails once the
+ * deadline milliseconds since epoch passes, instead of blocking past it.
+ * Returns the bytes read, or -1 on failure with errnoParam and errmsg set. The errnoParam will be 0
+ * if the deadline passed.
+ */
+int read_from_fd(const int fd, jbyte* data, const int bytes, const bool readFully, const jlong deadline,
+                 int* errnoParam, string* errmsg) {
+    int bytesRead = 0;
+    while (bytesRead < bytes) {
+        if (deadline > 0) {
+            int ready = wait_for_fd(fd, POLLIN, deadline);
+            if (ready == 0) {
+                *errnoParam = 0;
+                *errmsg = "Deadline \"" + to_string(deadline) + "\" timeout";
+                return -1;
+            } else if (ready == -1) {
+                *errnoParam = errno;
+                *errmsg = "Failed to wait for data on fd " + to_string(fd);
+                return -1;
+            }
+        }
+
+        // Read data from socket
+        ssize_t ret = read(fd, data + bytesRead, bytes - bytesRead);
+        if (ret == -1) {
+            if (errno == EINTR)
+                continue;
+            *errnoParam = errno;
+            *errmsg = "Failed to read on fd " + to_string(fd);
+            return -1;
+        }
+        // EOF, peer closed writing end
+        if (ret == 0) {
+            break;
+        }
+
+        bytesRead += (int) ret;
+        if (!readFully)
+            break;
+    }
+
+    return bytesRead;
+}
+
+/*
+ * Send bytes from data to fd. If deadline is greater than 0, then sending fails once the
+ * deadline milliseconds since epoch passes, instead of blocking past it.
+ * Returns 0 on success, or -1 on failure with errnoParam and errmsg set. The errnoParam will be 0
+ * if the deadline passed.
+ */
+int send_to_fd(const int fd, jbyte* data, int bytes, const jlong deadline,
+               int* errnoParam, string* errmsg) {
+    while (bytes > 0) {
+        if (deadline > 0) {
+            int ready = wait_for_fd(fd, POLLOUT, deadline);
+            if (ready == 0) {
+                *errnoParam = 0;
+                *errmsg = "Deadline \"" + to_string(deadline) + "\" timeout";
+                return -1;
+            } else if (ready == -1) {
+                *errnoParam = errno;
+                *errmsg = "Failed to wait for space to send on fd " + to_string(fd);
+                return -1;
+            }
+        }
+
+        // Send data to socket. With a deadline, only send what fits in the socket buffer so that
+        // send() does not block past the deadline.
+        ssize_t ret = send(fd, data, bytes, MSG_NOSIGNAL | (deadline > 0 ? MSG_DONTWAIT : 0));
+        if (ret == -1) {
+            if (errno == EINTR || (deadline > 0 && (errno == EAGAIN || errno == EWOULDBLOCK)))
+                continue;
+            *errnoParam = errno;
+            *errmsg = "Failed to send on fd " + to_string(fd);
+            return -1;
+        }
+
+        bytes -= (int) ret;
+        data += ret;
+    }
+
+    return 0;
+}
+
+
 // Note: Exceptions thrown from JNI must be caught with Throwable class instead of Exception,
 // otherwise exception will be sent to UncaughtExceptionHandler of the thread.
 // Android studio complains that getJniResult functions always return nullptr since linter is broken
@@ -261,8 +378,9 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_createServerSocketNat
                                                to_string(backlog) + "\" is not between 1-500");
     }
 
-    // Create server socket
-    int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+    // Create non-blocking server socket, so that accept() can be called until there are no pending
+    // clients after poll() returns. The accepted client sockets are blocking.
+    int fd = socket(AF_UNIX, SOCK_STREAM | SOCK_NONBLOCK, 0);
     if (fd == -1) {
         return getJniResult(env, logTitle, -1, errno, "createServerSocketNative(): Create local socket failed");
     }
@@ -364,48 +482,22 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *en
         return getJniResult(env, logTitle, -1, "readNative(): data passed is null");
     }
 
-    struct timespec time = {};
-    jbyte* current = data;
     int bytes = env->GetArrayLength(dataArray);
     if (checkJniException(env)) return NULL;
-    int bytesRead = 0;
-    while (bytesRead < bytes) {
-        if (deadline > 0) {
-            if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
-                // If current time is greater than the time defined in deadline
-                if (timespec_to_milliseconds(&time) > deadline) {
-                    env->ReleaseByteArrayElements(dataArray, data, 0);
-                    if (checkJniException(env)) return NULL;
-                    return getJniResult(env, logTitle, -1,
-                                        "readNative(): Deadline \"" + to_string(deadline) + "\" timeout");
-                }
-            } else {
-                log_warn(get_title_and_message(env, logTitle,
-                                               "readNative(): Deadline \"" + to_string(deadline) +
-                                               "\" timeout will not work since failed to get current time"));
-            }
-        }
-
-        // Read data from socket
-        int ret = read(fd, current, bytes);
-        if (ret == -1) {
-            int errnoBackup = errno;
-            env->ReleaseByteArrayElements(dataArray, data, 0);
-            if (checkJniException(env)) return NULL;
-            return getJniResult(env, logTitle, -1, errnoBackup, "readNative(): Failed to read on fd "  + to_string(fd));
-        }
-        // EOF, peer closed writing end
-        if (ret == 0) {
-            break;
-        }
 
-        bytesRead += ret;
-        current += ret;
-    }
+    int errnoBackup = 0;
+    string errmsg;
+    int bytesRead = read_from_fd(fd, data, bytes, true, deadline, &errnoBackup, &errmsg);
 
     env->ReleaseByteArrayElements(dataArray, data, 0);
     if (checkJniException(env)) return NULL;
 
+    if (bytesRead == -1) {
+        if (errnoBackup == 0)
+            return getJniResult(env, logTitle, -1, "readNative(): " + errmsg);
+        return getJniResult(env, logTitle, -1, errnoBackup, "readNative(): " + errmsg);
+    }
+
     // Return success and bytes read in JniResult.intData field
     return getJniResult(env, logTitle, bytesRead);
 }
@@ -427,42 +519,163 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_sendNative(JNIEnv *en
         return getJniResult(env, logTitle, -1, "sendNative(): data passed is null");
     }
 
-    struct timespec time = {};
-    jbyte* current = data;
     int bytes = env->GetArrayLength(dataArray);
     if (checkJniException(env)) return NULL;
-    while (bytes > 0) {
-        if (deadline > 0) {
-            if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
-                // If current time is greater than the time defined in deadline
-                if (timespec_to_milliseconds(&time) > deadline) {
-                    env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
-                    if (checkJniException(env)) return NULL;
-                    return getJniResult(env, logTitle, -1,
-                                        "sendNative(): Deadline \"" + to_string(deadline) + "\" timeout");
-                }
-            } else {
-                log_warn(get_title_and_message(env, logTitle,
-                                               "sendNative(): Deadline \"" + to_string(deadline) +
-                                               "\" timeout will not work since failed to get current time"));
-            }
-        }
 
-        // Send data to socket
-        int ret = send(fd, current, bytes, MSG_NOSIGNAL);
-        if (ret == -1) {
-            int errnoBackup = errno;
-            env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
-            if (checkJniException(env)) return NULL;
-            return getJniResult(env, logTitle, -1, errnoBackup, "sendNative(): Failed to send on fd " + to_string(fd));
-        }
+    int errnoBackup = 0;
+    string errmsg;
+    int ret = send_to_fd(fd, data, bytes, deadline, &errnoBackup, &errmsg);
 
-        bytes -= ret;
-        current += ret;
+    env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
+    if (checkJniException(env)) return NULL;
+
+    if (ret == -1) {
+        if (errnoBackup == 0)
+            return getJniResult(env, logTitle, -1, "sendNative(): " + errmsg);
+        return getJniResult(env, logTitle, -1, errnoBackup, "sendNative(): " + errmsg);
     }
 
-    env->ReleaseByteArrayElements(dataArray, data, JNI_ABORT);
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
+/* Get the address of a direct ByteBuffer, or nullptr if it is not a direct buffer or range is invalid. */
+jbyte* get_direct_buffer_range(JNIEnv *env, jobject buffer, const jint position, const jint limit) {
+    if (buffer == nullptr) return nullptr;
+    auto* address = (jbyte*) env->GetDirectBufferAddress(buffer);
+    if (address == nullptr) return nullptr;
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    if (position < 0 || limit < position || limit > capacity) return nullptr;
+    return address + position;
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_readBufferNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jint fd, jobject buffer,
+                                                                            jint position, jint limit,
+                                                                            jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "readBufferNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    jbyte* data = get_direct_buffer_range(env, buffer, position, limit);
+    if (checkJniException(env)) return NULL;
+    if (data == nullptr) {
+        return getJniResult(env, logTitle, -1, "readBufferNative(): buffer passed is null, not direct or range " +
+                                               to_string(position) + "-" + to_string(limit) + " is invalid");
+    }
+
+    // Read directly into the buffer memory, without copying from a java array, and only once so
+    // that caller can process data as soon as it's available
+    int errnoBackup = 0;
+    string errmsg;
+    int bytesRead = read_from_fd(fd, data, limit - position, false, deadline, &errnoBackup, &errmsg);
+    if (bytesRead == -1) {
+        if (errnoBackup == 0)
+            return getJniResult(env, logTitle, -1, "readBufferNative(): " + errmsg);
+        return getJniResult(env, logTitle, -1, errnoBackup, "readBufferNative(): " + errmsg);
+    }
+
+    // Return success and bytes read in JniResult.intData field
+    return getJniResult(env, logTitle, bytesRead);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_sendBufferNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jint fd, jobject buffer,
+                                                                            jint position, jint limit,
+                                                                            jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "sendBufferNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    jbyte* data = get_direct_buffer_range(env, buffer, position, limit);
     if (checkJniException(env)) return NULL;
+    if (data == nullptr) {
+        return getJniResult(env, logTitle, -1, "sendBufferNative(): buffer passed is null, not direct or range " +
+                                               to_string(position) + "-" + to_string(limit) + " is invalid");
+    }
+
+    int errnoBackup = 0;
+    string errmsg;
+    if (send_to_fd(fd, data, limit - position, deadline, &errnoBackup, &errmsg) == -1) {
+        if (errnoBackup == 0)
+            return getJniResult(env, logTitle, -1, "sendBufferNative(): " + errmsg);
+        return getJniResult(env, logTitle, -1, errnoBackup, "sendBufferNative(): " + errmsg);
+    }
+
+    // Return success and bytes sent in JniResult.intData field
+    return getJniResult(env, logTitle, limit - position);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_pollNative(JNIEnv *env, jclass clazz,
+                                                                      jstring logTitle,
+                                                                      jintArray fdsArray, jintArray eventsArray,
+                                                                      jint count, jint timeout) {
+    if (fdsArray == nullptr || eventsArray == nullptr) {
+        return getJniResult(env, logTitle, -1, "pollNative(): fds or events passed is null");
+    }
+
+    jsize fdsLength = env->GetArrayLength(fdsArray);
+    if (checkJniException(env)) return NULL;
+    jsize eventsLength = env->GetArrayLength(eventsArray);
+    if (checkJniException(env)) return NULL;
+    if (count < 0 || count > fdsLength || count > eventsLength) {
+        return getJniResult(env, logTitle, -1, "pollNative(): Count \"" + to_string(count) +
+                                               "\" is not between 0-" + to_string(min(fdsLength, eventsLength)));
+    }
+
+    vector<jint> fds(count);
+    vector<jint> events(count);
+    env->GetIntArrayRegion(fdsArray, 0, count, fds.data());
+    if (checkJniException(env)) return NULL;
+    env->GetIntArrayRegion(eventsArray, 0, count, events.data());
+    if (checkJniException(env)) return NULL;
+
+    // Negative fds are ignored by poll() and their revents are set to 0
+    vector<struct pollfd> pfds(count);
+    for (int i = 0; i < count; i++) {
+        pfds[i].fd = fds[i];
+        pfds[i].events = (short) events[i];
+        pfds[i].revents = 0;
+    }
+
+    int ret = poll(pfds.data(), count, timeout);
+    if (ret == -1) {
+        // Interrupted by a signal, let caller poll again
+        if (errno == EINTR)
+            ret = 0;
+        else
+            return getJniResult(env, logTitle, -1, errno, "pollNative(): Failed to poll " + to_string(count) + " fds");
+    }
+
+    for (int i = 0; i < count; i++)
+        events[i] = ret > 0 ? pfds[i].revents : 0;
+    env->SetIntArrayRegion(eventsArray, 0, count, events.data());
+    if (checkJniException(env)) return NULL;
+
+    // Return success and number of ready fds in JniResult.intData field
+    return getJniResult(env, logTitle, ret);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_shutdownNative(JNIEnv *env, jclass clazz,
+                                                                          jstring logTitle, jint fd) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "shutdownNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    // Wakes up any thread blocked in read() or send() on the socket, unlike close()
+    if (shutdown(fd, SHUT_RDWR) == -1) {
+        return getJniResult(env, logTitle, -1, errno, "shutdownNative(): Failed to shutdown socket fd " + to_string(fd));
+    }
 
     // Return success
     return getJniResult(env, logTitle);
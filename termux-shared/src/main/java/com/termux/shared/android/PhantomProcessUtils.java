@@ -2,6 +2,9 @@ package com.termux.shared.android;
 
 import android.Manifest;
 import android.content.Context;
+import android.os.Process;
+import android.system.ErrnoException;
+import android.system.Os;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -11,6 +14,8 @@ import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.runner.app.AppShell;
 
+import java.io.File;
+
 /**
  * Utils for phantom processes added in android 12.
  *
@@ -53,6 +58,12 @@ public class PhantomProcessUtils {
      */
     public static final String SETTINGS_GLOBAL_DEVICE_CONFIG_SYNC_DISABLED = "device_config_sync_disabled";
 
+    /**
+     * The default ActivityManagerConstants MAX_PHANTOM_PROCESSES value. Reading the enforced value
+     * with {@link #getActivityManagerMaxPhantomProcesses(Context)} requires the DUMP permission.
+     */
+    public static final int DEFAULT_MAX_PHANTOM_PROCESSES = 32;
+
     /**
      * Get {@link #FEATURE_FLAG_SETTINGS_ENABLE_MONITOR_PHANTOM_PROCS} feature flag value.
      *
@@ -100,6 +111,43 @@ public class PhantomProcessUtils {
         return null;
     }
 
+    /**
+     * Get the number of live processes of the app uid other than the app process itself, which is
+     * what android 12+ counts as phantom processes of the app. Only processes of the app uid are
+     * visible in `/proc` anyway, so phantom processes of other apps, which count towards the same
+     * {@link #KEY_MAX_PHANTOM_PROCESSES} limit, are not included.
+     *
+     * @return Returns the number of processes, or {@code -1} if `/proc` could not be read.
+     */
+    public static int getAppPhantomProcessCount() {
+        String[] entries = new File("/proc").list();
+        if (entries == null) return -1;
+
+        int uid = Process.myUid();
+        int myPid = Process.myPid();
+        int count = 0;
+        for (String entry : entries) {
+            if (entry.isEmpty() || !Character.isDigit(entry.charAt(0))) continue;
+
+            int pid;
+            try {
+                pid = Integer.parseInt(entry);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (pid == myPid) continue;
+
+            try {
+                if (Os.stat("/proc/" + entry).st_uid == uid)
+                    count++;
+            } catch (ErrnoException e) {
+                // Process has exited
+            }
+        }
+
+        return count;
+    }
+
     /**
      * Get {@link #SETTINGS_GLOBAL_DEVICE_CONFIG_SYNC_DISABLED} settings value.
      *
@@ -37,8 +37,11 @@ public class CrashHandler implements Thread.UncaughtExceptionHandler {
         logCrash(thread, throwable);
 
         // Don't stop the app if not on the main thread
-        if (mIsDefaultHandler)
+        if (mIsDefaultHandler) {
+            // Write queued log messages before the process is killed
+            Logger.flush();
             mDefaultUEH.uncaughtException(thread, throwable);
+        }
     }
 
     /**
@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -1697,6 +1698,48 @@ public class FileUtils {
         return null;
     }
 
+    /**
+     * Write the bytes of {@code inputStream} to file at path, without holding them in memory.
+     * The {@code inputStream} is not closed.
+     *
+     * @param label The optional label for file to write. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to write.
+     * @param inputStream The {@link InputStream} to read the data from.
+     * @param append The {@code boolean} that decides if file should be appended to or not.
+     * @return Returns the {@code error} if writing was not successful, otherwise {@code null}.
+     */
+    public static Error writeStreamToFile(String label, final String filePath, final InputStream inputStream, final boolean append) {
+        label = (label == null || label.isEmpty() ? "" : label + " ");
+        if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "writeStreamToFile");
+        if (inputStream == null) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "input stream", "writeStreamToFile");
+
+        Logger.logVerbose(LOG_TAG, "Writing stream to " + label + "file at path \"" + filePath + "\"");
+
+        Error error;
+
+        error = preWriteToFile(label, filePath);
+        if (error != null)
+            return error;
+
+        FileOutputStream fileOutputStream = null;
+        try {
+            // Write stream to file
+            fileOutputStream = new FileOutputStream(filePath, append);
+
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+                fileOutputStream.write(buffer, 0, read);
+            fileOutputStream.flush();
+        } catch (Exception e) {
+            return FileUtilsErrno.ERRNO_WRITING_STREAM_TO_FILE_FAILED_WITH_EXCEPTION.getError(e, label + "file", filePath, e.getMessage());
+        } finally {
+            closeCloseable(fileOutputStream);
+        }
+
+        return null;
+    }
+
     /**
      * Write the {@link Serializable} {@code serializableObject} to file at path.
      *
@@ -0,0 +1,304 @@
+package com.termux.shared.logger;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log messages queued in a {@link LogRingBuffer} by {@link Logger} to logcat and the
+ * optional {@link LogFileSink} from a single background thread, so that threads logging only
+ * have to claim and fill an entry.
+ *
+ * The writer thread builds the messages and drains up to {@link #MAX_BATCH_SIZE} entries at a
+ * time. Consecutive messages with the same priority and tag are joined into one logcat entry of up
+ * to {@link Logger#LOGGER_ENTRY_MAX_SAFE_PAYLOAD}, and the file sink is flushed once per batch. If
+ * the buffer is full, messages below warnings are dropped instead of blocking the threads
+ * logging, and the number dropped is logged. Warnings and errors instead wait up to
+ * {@link #FULL_BUFFER_WAIT_TIME} for the writer thread to make room, so that they are still written
+ * in order and to the file sink.
+ */
+final class AsyncLogWriter implements Runnable {
+
+    /** The number of entries in the {@link LogRingBuffer}. */
+    static final int BUFFER_CAPACITY = 4096;
+
+    /** The max number of entries drained before writes are flushed. */
+    static final int MAX_BATCH_SIZE = 256;
+
+    /** The max time in milliseconds a warning or error waits for room in a full buffer. */
+    static final long FULL_BUFFER_WAIT_TIME = Logger.FLUSH_TIMEOUT;
+
+    /** The time the writer thread waits for new messages before checking again. */
+    private static final long IDLE_WAIT_TIME_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String LOG_TAG = "AsyncLogWriter";
+
+    private final LogRingBuffer mBuffer;
+    private final Thread mThread;
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /** Whether the writer thread is waiting or about to wait for new messages. */
+    private volatile boolean mIsWaiting;
+    private volatile boolean mIsStopped;
+
+    /** The file sink set by {@link #setFileSink(LogFileSink)}, which the writer thread switches to. */
+    @Nullable private volatile LogFileSink mFileSink;
+    /** The file sink in use by the writer thread. */
+    @Nullable private LogFileSink mActiveFileSink;
+
+    /** The logcat entry being built from consecutive messages with the same priority and tag. */
+    private final StringBuilder mBatchMessage = new StringBuilder();
+    private int mBatchPriority;
+    @Nullable private String mBatchTag;
+
+    AsyncLogWriter(@Nullable LogFileSink fileSink) {
+        this(fileSink, BUFFER_CAPACITY);
+    }
+
+    AsyncLogWriter(@Nullable LogFileSink fileSink, int bufferCapacity) {
+        mBuffer = new LogRingBuffer(bufferCapacity);
+        mFileSink = fileSink;
+        mThread = new Thread(this, "Logger");
+        mThread.setDaemon(true);
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /** Stop the writer thread after all queued messages have been written. */
+    void stop() {
+        mIsStopped = true;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Wait for the writer thread to terminate after {@link #stop()}.
+     *
+     * @param timeoutMillis The max time to wait.
+     * @return Returns {@code true} if the thread terminated before the timeout.
+     */
+    boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        mThread.join(timeoutMillis);
+        return !mThread.isAlive();
+    }
+
+    void setFileSink(@Nullable LogFileSink fileSink) {
+        mFileSink = fileSink;
+    }
+
+    /**
+     * Queue a log message. Only one of {@code message}, {@code format} or {@code supplier} is used.
+     *
+     * @return Returns {@code false} if the writer is stopped, or if the message is a warning or
+     * error and the buffer stayed full for {@link #FULL_BUFFER_WAIT_TIME}, in which case the caller
+     * must write the message itself. Such messages are only written to logcat, and may come before
+     * messages that are still queued.
+     */
+    boolean write(int priority, String tag, boolean isFullTag, boolean isExtended,
+                  @Nullable String message, @Nullable String format, @Nullable Object[] args,
+                  @Nullable Logger.MessageSupplier supplier) {
+        if (mIsStopped) return false;
+
+        LogEntry entry = mBuffer.claim();
+        if (entry == null) {
+            if (priority < Log.WARN) {
+                mDroppedCount.incrementAndGet();
+                return true;
+            }
+
+            // Do not drop warnings and errors
+            entry = awaitClaim();
+            if (entry == null)
+                return false;
+        }
+
+        entry.priority = priority;
+        entry.tag = tag;
+        entry.isFullTag = isFullTag;
+        entry.isExtended = isExtended;
+        entry.message = message;
+        entry.format = format;
+        entry.args = args;
+        entry.supplier = supplier;
+        entry.time = System.currentTimeMillis();
+        entry.tid = android.os.Process.myTid();
+        mBuffer.publish(entry);
+
+        if (mIsWaiting)
+            LockSupport.unpark(mThread);
+        return true;
+    }
+
+    /**
+     * Wait for up to {@link #FULL_BUFFER_WAIT_TIME} for the writer thread to make room in the full
+     * buffer and claim an entry.
+     *
+     * @return Returns the entry, or {@code null} if the buffer is still full, or if it would never
+     * be drained since this is the writer thread or it has terminated.
+     */
+    @Nullable
+    private LogEntry awaitClaim() {
+        if (Thread.currentThread() == mThread) return null;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FULL_BUFFER_WAIT_TIME);
+        LogEntry entry;
+        while ((entry = mBuffer.claim()) == null) {
+            if (mIsStopped || mThread.getState() == Thread.State.TERMINATED || System.nanoTime() - deadline >= 0)
+                return null;
+            LockSupport.unpark(mThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return entry;
+    }
+
+    /**
+     * Wait until the messages queued before the call have been written.
+     *
+     * @param timeoutMillis The max time to wait.
+     * @return Returns {@code true} if messages were written before the timeout.
+     */
+    boolean flush(long timeoutMillis) {
+        if (Thread.currentThread() == mThread) return true;
+
+        long target = mBuffer.getTail();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        LockSupport.unpark(mThread);
+        while (mBuffer.getHead() < target) {
+            if (System.nanoTime() - deadline >= 0 || !mThread.isAlive())
+                return false;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            if (drain() > 0)
+                continue;
+
+            if (mIsStopped)
+                break;
+
+            // Recheck after announcing the wait, so that a message published before a producer saw
+            // mIsWaiting as false is not missed
+            mIsWaiting = true;
+            if (mBuffer.peek() == null && !mIsStopped)
+                LockSupport.parkNanos(this, IDLE_WAIT_TIME_NANOS);
+            mIsWaiting = false;
+        }
+
+        closeFileSink();
+    }
+
+    /** Write up to {@link #MAX_BATCH_SIZE} queued messages and flush them. */
+    private int drain() {
+        LogFileSink fileSink = mFileSink;
+        if (fileSink != mActiveFileSink) {
+            closeFileSink();
+            mActiveFileSink = fileSink;
+        }
+
+        int count = 0;
+        LogEntry entry;
+        while (count < MAX_BATCH_SIZE && (entry = mBuffer.peek()) != null) {
+            int priority = entry.priority;
+            String tag = entry.isFullTag ? entry.tag : Logger.getFullTag(entry.tag);
+            boolean isExtended = entry.isExtended;
+            long time = entry.time;
+            int tid = entry.tid;
+            String message = entry.getMessage();
+            mBuffer.release(entry);
+            count++;
+
+            if (isExtended) {
+                flushBatchMessage();
+                for (String messagePart : Logger.splitExtendedMessage(tag, message))
+                    Log.println(priority, tag, messagePart);
+            } else {
+                addToBatchMessage(priority, tag, message);
+            }
+
+            writeToFileSink(time, tid, priority, tag, message);
+        }
+
+        long droppedCount = mDroppedCount.getAndSet(0);
+        if (droppedCount > 0) {
+            String message = "Dropped " + droppedCount + " log messages since log buffer was full";
+            addToBatchMessage(Log.WARN, Logger.getFullTag(LOG_TAG), message);
+            writeToFileSink(System.currentTimeMillis(), android.os.Process.myTid(), Log.WARN, Logger.getFullTag(LOG_TAG), message);
+        }
+
+        flushBatchMessage();
+
+        if (count > 0 && mActiveFileSink != null) {
+            try {
+                mActiveFileSink.flush();
+            } catch (IOException e) {
+                onFileSinkError(e);
+            }
+        }
+
+        return count;
+    }
+
+    private void addToBatchMessage(int priority, @NonNull String tag, @NonNull String message) {
+        if (mBatchTag != null && (priority != mBatchPriority || !tag.equals(mBatchTag) ||
+            mBatchMessage.length() + 1 + message.length() > Logger.LOGGER_ENTRY_MAX_SAFE_PAYLOAD))
+            flushBatchMessage();
+
+        if (mBatchTag == null) {
+            mBatchPriority = priority;
+            mBatchTag = tag;
+        } else {
+            mBatchMessage.append('\n');
+        }
+        mBatchMessage.append(message);
+    }
+
+    private void flushBatchMessage() {
+        if (mBatchTag == null) return;
+
+        Log.println(mBatchPriority, mBatchTag, mBatchMessage.toString());
+        mBatchTag = null;
+        mBatchMessage.setLength(0);
+        // Do not hold on to the memory of a large message
+        if (mBatchMessage.capacity() > Logger.LOGGER_ENTRY_MAX_PAYLOAD * 2)
+            mBatchMessage.trimToSize();
+    }
+
+    private void writeToFileSink(long time, int tid, int priority, @NonNull String tag, @NonNull String message) {
+        if (mActiveFileSink == null) return;
+        try {
+            mActiveFileSink.write(time, tid, priority, tag, message);
+        } catch (IOException e) {
+            onFileSinkError(e);
+        }
+    }
+
+    private void onFileSinkError(@NonNull IOException e) {
+        Log.e(Logger.getFullTag(LOG_TAG), "Disabling log file sink after write failure", e);
+        closeFileSink();
+        // Only disable the sink if it was not replaced in the meantime
+        if (mFileSink == mActiveFileSink)
+            mFileSink = null;
+        mActiveFileSink = null;
+    }
+
+    private void closeFileSink() {
+        if (mActiveFileSink == null) return;
+        try {
+            mActiveFileSink.close();
+        } catch (IOException e) {
+            Log.e(Logger.getFullTag(LOG_TAG), "Failed to close log file sink", e);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.termux.shared.logger;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * A preallocated slot of {@link LogRingBuffer}, filled by the thread logging and read by
+ * {@link AsyncLogWriter}. The message is only built from {@link #format} or {@link #supplier} by
+ * {@link #getMessage()} on the writer thread.
+ */
+final class LogEntry {
+
+    long sequence;
+
+    int priority;
+    String tag;
+    /** Whether {@link #tag} is already the full tag, otherwise {@link Logger#getFullTag(String)} is used. */
+    boolean isFullTag;
+    /** Whether the message should be split like with {@link Logger#logExtendedMessage(int, String, String)}. */
+    boolean isExtended;
+
+    String message;
+    String format;
+    Object[] args;
+    Logger.MessageSupplier supplier;
+
+    long time;
+    int tid;
+
+    /** Build the message. Any exception thrown while building it is logged instead. */
+    @NonNull
+    String getMessage() {
+        String builtMessage;
+        try {
+            if (supplier != null)
+                builtMessage = supplier.get();
+            else if (format != null)
+                builtMessage = String.format(Locale.ENGLISH, format, args);
+            else
+                builtMessage = message;
+        } catch (Exception e) {
+            builtMessage = "Failed to build log message: " + e;
+        }
+        return builtMessage != null ? builtMessage : "null";
+    }
+
+    /** Clear references so that they can be garbage collected while the slot is free. */
+    void clear() {
+        tag = null;
+        message = null;
+        format = null;
+        args = null;
+        supplier = null;
+    }
+
+}
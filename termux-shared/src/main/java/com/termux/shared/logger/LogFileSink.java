@@ -0,0 +1,153 @@
+package com.termux.shared.logger;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A log file sink for {@link Logger#startAsyncLogging(LogFileSink)}, which writes log messages
+ * in the logcat `threadtime` format to `<name>.log` in a directory. Once the file exceeds
+ * {@link #mMaxFileSize}, it is rotated to `<name>.1.log`, and older files to `<name>.2.log` and
+ * so on up to {@link #mMaxFileCount} files.
+ *
+ * This must only be used by the {@link AsyncLogWriter} thread.
+ */
+public class LogFileSink implements Closeable {
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024; // 1MB
+    public static final int DEFAULT_MAX_FILE_COUNT = 3;
+
+    private final File mDirectory;
+    private final String mName;
+    private final long mMaxFileSize;
+    private final int mMaxFileCount;
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+    private final Date mDate = new Date();
+    private final int mPid = android.os.Process.myPid();
+
+    private OutputStream mOutputStream;
+    private long mFileSize;
+
+    /**
+     * Create an new instance of {@link LogFileSink}. The directory is created when the first
+     * message is written.
+     *
+     * @param directory The directory for the log files, like `files/logs` of the app.
+     * @param name The name of the log files without extension.
+     * @param maxFileSize The size in bytes after which the file is rotated.
+     * @param maxFileCount The max number of files including the current one.
+     */
+    public LogFileSink(@NonNull File directory, @NonNull String name, long maxFileSize, int maxFileCount) {
+        mDirectory = directory;
+        mName = name;
+        mMaxFileSize = Math.max(1024, maxFileSize);
+        mMaxFileCount = Math.max(1, maxFileCount);
+    }
+
+    /** Create an new instance of {@link LogFileSink} with the default limits. */
+    public LogFileSink(@NonNull File directory, @NonNull String name) {
+        this(directory, name, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILE_COUNT);
+    }
+
+    /** Get the current log {@link File}. */
+    @NonNull
+    public File getFile() {
+        return getFile(0);
+    }
+
+    /** Write a log message, with a header for each of its lines like logcat. */
+    void write(long time, int tid, int priority, @NonNull String tag, @NonNull String message) throws IOException {
+        if (mOutputStream == null)
+            open();
+
+        mDate.setTime(time);
+        String header = String.format(Locale.ENGLISH, "%s %5d %5d %c %s: ", mDateFormat.format(mDate), mPid, tid,
+            getPriorityChar(priority), tag);
+
+        StringBuilder lines = new StringBuilder(message.length() + header.length() + 1);
+        int start = 0;
+        int end;
+        do {
+            end = message.indexOf('\n', start);
+            lines.append(header).append(message, start, end < 0 ? message.length() : end).append('\n');
+            start = end + 1;
+        } while (end >= 0 && start < message.length());
+
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        mOutputStream.write(bytes);
+        mFileSize += bytes.length;
+
+        if (mFileSize >= mMaxFileSize)
+            rotate();
+    }
+
+    /** Flush written messages to the file. */
+    void flush() throws IOException {
+        if (mOutputStream != null)
+            mOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mOutputStream != null) {
+            OutputStream outputStream = mOutputStream;
+            mOutputStream = null;
+            outputStream.close();
+        }
+    }
+
+    private void open() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Failed to create log directory \"" + mDirectory + "\"");
+
+        File file = getFile(0);
+        mFileSize = file.length();
+        mOutputStream = new BufferedOutputStream(new FileOutputStream(file, true), 8192);
+    }
+
+    private void rotate() throws IOException {
+        close();
+
+        // Shift name.(n-1).log to name.n.log, dropping the oldest file
+        File oldest = getFile(mMaxFileCount - 1);
+        if (oldest.exists() && !oldest.delete())
+            throw new IOException("Failed to delete log file \"" + oldest + "\"");
+        for (int i = mMaxFileCount - 2; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists() && !file.renameTo(getFile(i + 1)))
+                throw new IOException("Failed to rotate log file \"" + file + "\"");
+        }
+
+        open();
+    }
+
+    @NonNull
+    private File getFile(int index) {
+        return new File(mDirectory, index == 0 ? mName + ".log" : mName + "." + index + ".log");
+    }
+
+    private static char getPriorityChar(int priority) {
+        switch (priority) {
+            case Log.VERBOSE: return 'V';
+            case Log.DEBUG: return 'D';
+            case Log.INFO: return 'I';
+            case Log.WARN: return 'W';
+            case Log.ERROR: return 'E';
+            case Log.ASSERT: return 'A';
+            default: return '?';
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.termux.shared.logger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free multi producer single consumer ring buffer of preallocated {@link LogEntry},
+ * so that logging does not take a lock or allocate an entry.
+ *
+ * Each slot has a sequence. A slot at position `pos` can be claimed by a producer when its sequence
+ * is `pos`, is readable by the consumer when it is `pos + 1` after the producer has published it,
+ * and is free again for position `pos + capacity` once the consumer has released it. Producers
+ * claim positions with a CAS on {@link #mTail} and never wait, if the buffer is full then
+ * {@link #claim()} fails.
+ *
+ * https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ */
+final class LogRingBuffer {
+
+    private final LogEntry[] mEntries;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+
+    /** The next position to be claimed by producers. */
+    private final AtomicLong mTail = new AtomicLong();
+    /** The next position to be read by the consumer. Only written by the consumer. */
+    private volatile long mHead;
+
+    /**
+     * @param capacity The number of entries. It is rounded up to a power of 2, and at least 2,
+     *                 since with 1 slot a published entry would look free to the next claim.
+     */
+    LogRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity) size <<= 1;
+
+        mEntries = new LogEntry[size];
+        mSequences = new AtomicLongArray(size);
+        mMask = size - 1;
+        for (int i = 0; i < size; i++) {
+            mEntries[i] = new LogEntry();
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Claim an entry to be filled by a producer, which must then call {@link #publish(LogEntry)}.
+     *
+     * @return Returns the entry, or {@code null} if buffer is full.
+     */
+    @Nullable
+    LogEntry claim() {
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) (tail & mMask);
+            long diff = mSequences.get(index) - tail;
+            if (diff == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    LogEntry entry = mEntries[index];
+                    entry.sequence = tail;
+                    return entry;
+                }
+            } else if (diff < 0) {
+                // The slot has not been released by the consumer for this rotation
+                return null;
+            }
+            // Else another producer claimed the position, so retry
+        }
+    }
+
+    /** Make a claimed entry readable by the consumer. */
+    void publish(@NonNull LogEntry entry) {
+        // A volatile write, so that a consumer check after the producer's check of waiting state is ordered
+        mSequences.set((int) (entry.sequence & mMask), entry.sequence + 1);
+    }
+
+    /**
+     * Get the next entry for the consumer without removing it.
+     *
+     * @return Returns the entry, or {@code null} if the next entry has not been published yet.
+     */
+    @Nullable
+    LogEntry peek() {
+        long head = mHead;
+        int index = (int) (head & mMask);
+        if (mSequences.get(index) != head + 1)
+            return null;
+        return mEntries[index];
+    }
+
+    /** Release the entry returned by {@link #peek()} so that its slot can be claimed again. */
+    void release(@NonNull LogEntry entry) {
+        long head = mHead;
+        entry.clear();
+        mSequences.lazySet((int) (head & mMask), head + mEntries.length);
+        mHead = head + 1;
+    }
+
+    /** Get the number of positions released by the consumer. */
+    long getHead() {
+        return mHead;
+    }
+
+    /** Get the number of positions claimed by producers. */
+    long getTail() {
+        return mTail.get();
+    }
+
+}
@@ -7,6 +7,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
@@ -17,6 +18,7 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 public class Logger {
 
@@ -51,30 +53,149 @@ public class Logger {
      */
     public static final int LOGGER_ENTRY_MAX_SAFE_PAYLOAD = 4000; // 4000 bytes
 
+    /** The max time {@link #flush()} waits for queued messages to be written. */
+    public static final long FLUSH_TIMEOUT = 1000; // 1000ms
+
+    /**
+     * The {@link AsyncLogWriter} started by {@link #startAsyncLogging(LogFileSink)}. If {@code null},
+     * messages are written to logcat on the calling thread.
+     */
+    private static volatile AsyncLogWriter ASYNC_LOG_WRITER;
+
+    /**
+     * Supplies a log message, so that it is only built if it will be logged. If async logging is
+     * started, it is called on the log writer thread, so it must not depend on state that may
+     * change after the log call.
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+
+
+    /**
+     * Start writing log messages from a background thread, so that logging only queues them. This
+     * would normally be called once at app startup.
+     *
+     * @param logFileSink The optional {@link LogFileSink} to also write messages to.
+     */
+    public static synchronized void startAsyncLogging(@Nullable LogFileSink logFileSink) {
+        if (ASYNC_LOG_WRITER != null) {
+            ASYNC_LOG_WRITER.setFileSink(logFileSink);
+            return;
+        }
+
+        AsyncLogWriter asyncLogWriter = new AsyncLogWriter(logFileSink);
+        asyncLogWriter.start();
+        ASYNC_LOG_WRITER = asyncLogWriter;
+    }
+
+    /** Stop writing log messages from a background thread after writing queued messages. */
+    public static synchronized void stopAsyncLogging() {
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null) return;
+
+        ASYNC_LOG_WRITER = null;
+        asyncLogWriter.flush(FLUSH_TIMEOUT);
+        asyncLogWriter.stop();
+    }
+
+    /** Set the {@link LogFileSink} if async logging is started. */
+    public static synchronized void setLogFileSink(@Nullable LogFileSink logFileSink) {
+        if (ASYNC_LOG_WRITER != null)
+            ASYNC_LOG_WRITER.setFileSink(logFileSink);
+    }
+
+    public static boolean isAsyncLoggingStarted() {
+        return ASYNC_LOG_WRITER != null;
+    }
+
+    /**
+     * Wait for up to {@link #FLUSH_TIMEOUT} for queued messages to be written if async logging is
+     * started, like before the app crashes.
+     */
+    public static void flush() {
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter != null)
+            asyncLogWriter.flush(FLUSH_TIMEOUT);
+    }
+
+    /** Check if messages with {@code logPriority} are logged for {@link #CURRENT_LOG_LEVEL}. */
+    public static boolean isLoggable(int logPriority) {
+        switch (logPriority) {
+            case Log.ERROR:
+            case Log.WARN:
+            case Log.INFO:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL;
+            case Log.DEBUG:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG;
+            case Log.VERBOSE:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE;
+            default:
+                return false;
+        }
+    }
+
 
 
     public static void logMessage(int logPriority, String tag, String message) {
-        if (logPriority == Log.ERROR && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.e(getFullTag(tag), message);
-        else if (logPriority == Log.WARN && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.w(getFullTag(tag), message);
-        else if (logPriority == Log.INFO && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.i(getFullTag(tag), message);
-        else if (logPriority == Log.DEBUG && CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
-            Log.d(getFullTag(tag), message);
-        else if (logPriority == Log.VERBOSE && CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE)
-            Log.v(getFullTag(tag), message);
+        if (!isLoggable(logPriority)) return;
+
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null || !asyncLogWriter.write(logPriority, tag, false, false, message, null, null, null))
+            Log.println(logPriority, getFullTag(tag), message);
+    }
+
+    /** Log a message built by {@code messageSupplier} only if it will be logged. */
+    public static void logMessage(int logPriority, String tag, @NonNull MessageSupplier messageSupplier) {
+        if (!isLoggable(logPriority)) return;
+
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null || !asyncLogWriter.write(logPriority, tag, false, false, null, null, null, messageSupplier))
+            Log.println(logPriority, getFullTag(tag), String.valueOf(messageSupplier.get()));
+    }
+
+    /**
+     * Log a message formatted with {@link String#format(Locale, String, Object...)} only if it will
+     * be logged. The {@code args} must not be modified after the call.
+     */
+    public static void logMessageFormat(int logPriority, String tag, @NonNull String format, Object... args) {
+        if (!isLoggable(logPriority)) return;
+
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null || !asyncLogWriter.write(logPriority, tag, false, false, null, format, args, null))
+            Log.println(logPriority, getFullTag(tag), String.format(Locale.ENGLISH, format, args));
     }
 
     public static void logExtendedMessage(int logLevel, String tag, String message) {
         if (message == null) return;
+        if (!isLoggable(logLevel)) return;
+
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter != null && asyncLogWriter.write(logLevel, tag, false, true, message, null, null, null))
+            return;
+
+        String fullTag = getFullTag(tag);
+        for (String messagePart : splitExtendedMessage(fullTag, message))
+            Log.println(logLevel, fullTag, messagePart);
+    }
 
+    /**
+     * Split a message into parts that fit in {@link #LOGGER_ENTRY_MAX_PAYLOAD}, preferably at
+     * newlines. If there is more than one part, each part is prefixed with its number.
+     *
+     * @param fullTag The full log tag the message will be logged with.
+     * @param message The message to split.
+     * @return Returns the list of message parts.
+     */
+    @NonNull
+    static List<String> splitExtendedMessage(@NonNull String fullTag, @NonNull String message) {
         int cutOffIndex;
         int nextNewlineIndex;
         String prefix = "";
 
         // -8 for prefix "(xx/xx)" (max 99 sections), - log tag length, -4 for log tag prefix "D/" and suffix ": "
-        int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - getFullTag(tag).length() - 4;
+        int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - fullTag.length() - 4;
 
         List<String> messagesList = new ArrayList<>();
 
@@ -93,11 +214,14 @@ public class Logger {
             }
         }
 
-        for(int i=0; i<messagesList.size(); i++) {
-            if (messagesList.size() > 1)
+        if (messagesList.size() > 1) {
+            for (int i = 0; i < messagesList.size(); i++) {
                 prefix = "(" + (i + 1) + "/" + messagesList.size() + ")\n";
-            logMessage(logLevel, tag, prefix + messagesList.get(i));
+                messagesList.set(i, prefix + messagesList.get(i));
+            }
         }
+
+        return messagesList;
     }
 
 
@@ -186,6 +310,10 @@ public class Logger {
         logMessage(Log.DEBUG, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logDebug(String tag, @NonNull MessageSupplier messageSupplier) {
+        logMessage(Log.DEBUG, tag, messageSupplier);
+    }
+
     public static void logDebugExtended(String tag, String message) {
         logExtendedMessage(Log.DEBUG, tag, message);
     }
@@ -212,8 +340,21 @@ public class Logger {
         logExtendedMessage(Log.VERBOSE, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logVerbose(String tag, @NonNull MessageSupplier messageSupplier) {
+        logMessage(Log.VERBOSE, tag, messageSupplier);
+    }
+
     public static void logVerboseForce(String tag, String message) {
-        Log.v(tag, message);
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null || !asyncLogWriter.write(Log.VERBOSE, tag, true, false, message, null, null, null))
+            Log.v(tag, message);
+    }
+
+    /** Log a message built by {@code messageSupplier} regardless of {@link #CURRENT_LOG_LEVEL} with {@code tag} as is. */
+    public static void logVerboseForce(String tag, @NonNull MessageSupplier messageSupplier) {
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter == null || !asyncLogWriter.write(Log.VERBOSE, tag, true, false, null, null, null, messageSupplier))
+            Log.v(tag, String.valueOf(messageSupplier.get()));
     }
 
 
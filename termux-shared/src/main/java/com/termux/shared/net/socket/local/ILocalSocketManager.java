@@ -60,6 +60,13 @@ public interface ILocalSocketManager {
      * implementation to close the client socket with a call to
      * {@link LocalClientSocket#closeClientSocket(boolean)} once its done processing.
      *
+     * This is called on one of the {@link LocalSocketRunConfig#getMaxClientWorkers()} worker threads
+     * once the client has sent data, so processing should not block on anything other than the
+     * client for long, since other clients are queued meanwhile. A client that keeps its connection
+     * open between requests should be passed to
+     * {@link LocalSocketManager#waitForClientData(LocalClientSocket, Runnable)} after each request
+     * instead of being waited for on the worker thread.
+     *
      * The {@link LocalClientSocket#getPeerCred()} can be used to get the {@link PeerCred} object
      * containing info for the connected client/peer.
      *
@@ -1,6 +1,7 @@
 package com.termux.shared.net.socket.local;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.errors.Error;
@@ -8,13 +9,15 @@ import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /** The client socket for {@link LocalSocketManager}. */
 public class LocalClientSocket implements Closeable {
@@ -45,6 +48,25 @@ public class LocalClientSocket implements Closeable {
     /** The {@link InputStream} implementation for the {@link LocalClientSocket}. */
     @NonNull protected final SocketInputStream mInputStream;
 
+    /** The size of the direct {@link ByteBuffer} used by the streams for bulk reads and sends. */
+    public static final int STREAM_BUFFER_SIZE = 8192;
+
+    /** The direct {@link ByteBuffer} used for sending arrays with {@link #send(byte[], int, int)}. */
+    @Nullable private ByteBuffer mSendBuffer;
+
+    /**
+     * The {@link LocalSocketTimerWheel.Timeout} of the {@link LocalServerSocket} for the client, if
+     * scheduled, and the {@link LocalSocketTimerWheel} it was scheduled in.
+     */
+    @Nullable private LocalSocketTimerWheel.Timeout mTimeout;
+    @Nullable private LocalSocketTimerWheel mTimeoutTimerWheel;
+
+    /**
+     * The handler to run on a worker thread once the client sends more data, if it was returned to
+     * the {@link LocalServerSocket} with {@link LocalSocketManager#waitForClientData(LocalClientSocket, Runnable)}.
+     */
+    @Nullable private Runnable mDataHandler;
+
     /**
      * Create an new instance of {@link LocalClientSocket}.
      *
@@ -86,7 +108,9 @@ public class LocalClientSocket implements Closeable {
 
     /** Implementation for {@link Closeable#close()} to close client socket. */
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        cancelTimeout();
+
         if (mFD >= 0) {
             Logger.logVerbose(LOG_TAG, "Client socket close for \"" + mLocalSocketRunConfig.getTitle() + "\" server: " + getPeerCred().getMinimalString());
             JniResult result = LocalSocketManager.closeSocket(mLocalSocketRunConfig.getLogTitle() + " (client)", mFD);
@@ -129,8 +153,7 @@ public class LocalClientSocket implements Closeable {
         }
 
         JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
-            mFD, data,
-            mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0);
+            mFD, data, getDeadline());
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_READ_DATA_FROM_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -162,8 +185,73 @@ public class LocalClientSocket implements Closeable {
         }
 
         JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
-            mFD, data,
-            mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0);
+            mFD, data, getDeadline());
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_SEND_DATA_TO_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        return null;
+    }
+
+    /**
+     * Attempts to read up to {@link ByteBuffer#remaining()} bytes from file descriptor into the
+     * direct {@code buffer} and advances its position. On success, the number of bytes read is
+     * returned (zero indicates end of file) in bytesRead. Unlike {@link #read(byte[], MutableInt)},
+     * this returns as soon as some bytes have been read.
+     *
+     * If the {@link #mCreationTime} + the milliseconds returned by
+     * {@link LocalSocketRunConfig#getDeadline()} elapses before any data is available, an error
+     * would be returned.
+     *
+     * This is a wrapper for {@link LocalSocketManager#read(String, int, ByteBuffer, long)}.
+     *
+     * @param buffer The direct {@link ByteBuffer} to read bytes into.
+     * @param bytesRead The actual bytes read.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error read(@NonNull ByteBuffer buffer, MutableInt bytesRead) {
+        bytesRead.value = 0;
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, buffer, getDeadline());
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_READ_DATA_FROM_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        bytesRead.value = result.intData;
+        return null;
+    }
+
+    /**
+     * Attempts to send the {@link ByteBuffer#remaining()} bytes of the direct {@code buffer} to
+     * the file descriptor and advances its position to its limit.
+     *
+     * If while sending the {@link #mCreationTime} + the milliseconds returned by
+     * {@link LocalSocketRunConfig#getDeadline()} elapses but all the data has not been sent, an
+     * error would be returned.
+     *
+     * This is a wrapper for {@link LocalSocketManager#send(String, int, ByteBuffer, long)}.
+     *
+     * @param buffer The direct {@link ByteBuffer} containing bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error send(@NonNull ByteBuffer buffer) {
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, buffer, getDeadline());
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_SEND_DATA_TO_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -172,11 +260,45 @@ public class LocalClientSocket implements Closeable {
         return null;
     }
 
+    /**
+     * Attempts to send {@code length} bytes of {@code data} starting at {@code offset}, in chunks
+     * of {@link #STREAM_BUFFER_SIZE} through a direct {@link ByteBuffer}.
+     *
+     * This is a wrapper for {@link #send(ByteBuffer)}.
+     *
+     * @param data The data array containing bytes to send.
+     * @param offset The offset in data to send from.
+     * @param length The number of bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error send(@NonNull byte[] data, int offset, int length) {
+        if (mSendBuffer == null)
+            mSendBuffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+
+        Error error;
+        while (length > 0) {
+            int chunk = Math.min(length, mSendBuffer.capacity());
+            mSendBuffer.clear();
+            mSendBuffer.put(data, offset, chunk);
+            mSendBuffer.flip();
+            error = send(mSendBuffer);
+            if (error != null)
+                return error;
+            offset += chunk;
+            length -= chunk;
+        }
+
+        return null;
+    }
+
     /**
      * Attempts to read all the bytes available on {@link SocketInputStream} and appends them to
      * {@code data} {@link StringBuilder}.
      *
-     * This is a wrapper for {@link #read(byte[], MutableInt)} called via {@link SocketInputStream#read()}.
+     * This is a wrapper for {@link #read(ByteBuffer, MutableInt)} called via
+     * {@link SocketInputStream#read(byte[], int, int)}. Reading stops at end of file or at the
+     * first null byte, and the bytes are decoded as UTF-8.
      *
      * @param data The data {@link StringBuilder} to append the bytes read into.
      * @param closeStreamOnFinish If set to {@code true}, then underlying input stream will closed
@@ -185,14 +307,41 @@ public class LocalClientSocket implements Closeable {
      * error {@link String}, otherwise {@code null}.
      */
     public Error readDataOnInputStream(@NonNull StringBuilder data, boolean closeStreamOnFinish) {
-        int c;
-        InputStreamReader inputStreamReader = getInputStreamReader();
+        return readDataOnInputStream(getInputStream(), data, closeStreamOnFinish);
+    }
+
+    /**
+     * Attempts to read all the bytes available on {@code inputStream} and appends them to
+     * {@code data} {@link StringBuilder}, like {@link #readDataOnInputStream(StringBuilder, boolean)}.
+     *
+     * @param inputStream The {@link InputStream} to read from, which must wrap {@link SocketInputStream},
+     *                    like a {@link java.io.PushbackInputStream} used to peek at the first bytes.
+     * @param data The data {@link StringBuilder} to append the bytes read into.
+     * @param closeStreamOnFinish If set to {@code true}, then underlying input stream will closed
+     *                            and further attempts to read from socket will fail.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error readDataOnInputStream(@NonNull InputStream inputStream, @NonNull StringBuilder data, boolean closeStreamOnFinish) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int bytesRead;
         try {
-            while ((c = inputStreamReader.read()) > 0) {
-                data.append((char) c);
+            // Read in bulk until end of file or a null byte, and decode once at the end, so that
+            // multi-byte characters split across reads are decoded correctly
+            reading:
+            while ((bytesRead = inputStream.read(buffer)) > 0) {
+                for (int i = 0; i < bytesRead; i++) {
+                    if (buffer[i] == 0) {
+                        bytes.write(buffer, 0, i);
+                        break reading;
+                    }
+                }
+                bytes.write(buffer, 0, bytesRead);
             }
+            data.append(bytes.toString(StandardCharsets.UTF_8.name()));
         } catch (IOException e) {
-            // The SocketInputStream.read() throws the Error message in an IOException,
+            // The SocketInputStream.read(byte[], int, int) throws the Error message in an IOException,
             // so just read the exception message and not the stack trace, otherwise it would result
             // in a messy nested error message.
             return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
@@ -202,7 +351,7 @@ public class LocalClientSocket implements Closeable {
                 e, mLocalSocketRunConfig.getTitle(), e.getMessage());
         } finally {
             if (closeStreamOnFinish) {
-                try { inputStreamReader.close();
+                try { inputStream.close();
                 } catch (IOException e) {
                     // Ignore
                 }
@@ -215,7 +364,8 @@ public class LocalClientSocket implements Closeable {
     /**
      * Attempts to send all the bytes passed to {@link SocketOutputStream} .
      *
-     * This is a wrapper for {@link #send(byte[])} called via {@link SocketOutputStream#write(int)}.
+     * This is a wrapper for {@link #send(byte[], int, int)} called via
+     * {@link SocketOutputStream#write(byte[], int, int)}. The bytes are encoded as UTF-8.
      *
      * @param data The {@link String} bytes to send.
      * @param closeStreamOnFinish If set to {@code true}, then underlying output stream will closed
@@ -225,11 +375,11 @@ public class LocalClientSocket implements Closeable {
      */
     public Error sendDataToOutputStream(@NonNull String data, boolean closeStreamOnFinish) {
 
-        OutputStreamWriter outputStreamWriter = getOutputStreamWriter();
+        OutputStream outputStream = getOutputStream();
 
-        try (BufferedWriter byteStreamWriter = new BufferedWriter(outputStreamWriter)) {
-            byteStreamWriter.write(data);
-            byteStreamWriter.flush();
+        try {
+            outputStream.write(data.getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
         } catch (IOException e) {
             // The SocketOutputStream.write() throws the Error message in an IOException,
             // so just read the exception message and not the stack trace, otherwise it would result
@@ -242,7 +392,7 @@ public class LocalClientSocket implements Closeable {
         } finally {
             if (closeStreamOnFinish) {
                 try {
-                    outputStreamWriter.close();
+                    outputStream.close();
                 } catch (IOException e) {
                     // Ignore
                 }
@@ -274,7 +424,7 @@ public class LocalClientSocket implements Closeable {
             return null;
         }
 
-        JniResult result = LocalSocketManager.available(mLocalSocketRunConfig.getLogTitle() + " (client)", mLocalSocketRunConfig.getFD());
+        JniResult result = LocalSocketManager.available(mLocalSocketRunConfig.getLogTitle() + " (client)", mFD);
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_CHECK_AVAILABLE_DATA_ON_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -314,6 +464,67 @@ public class LocalClientSocket implements Closeable {
 
 
 
+    /**
+     * Get the deadline milliseconds since epoch, which is {@link #mCreationTime} + the milliseconds
+     * returned by {@link LocalSocketRunConfig#getDeadline()}, or {@code 0} if there is no deadline.
+     */
+    public long getDeadline() {
+        return mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0;
+    }
+
+    /**
+     * Schedule {@code task} in {@code timerWheel} to run at {@code time}. Any previously scheduled
+     * task is cancelled. The task is cancelled when the client socket is closed.
+     */
+    synchronized void scheduleTimeout(@NonNull LocalSocketTimerWheel timerWheel, long time,
+                                      @NonNull Runnable task) {
+        cancelTimeout();
+        mTimeoutTimerWheel = timerWheel;
+        mTimeout = timerWheel.schedule(time, task);
+    }
+
+    /** Cancel the task scheduled with {@link #scheduleTimeout(LocalSocketTimerWheel, long, Runnable)}. */
+    synchronized void cancelTimeout() {
+        if (mTimeoutTimerWheel != null) {
+            mTimeoutTimerWheel.cancel(mTimeout);
+            mTimeoutTimerWheel = null;
+            mTimeout = null;
+        }
+    }
+
+    /**
+     * Shutdown the client socket if it's still open, so that a thread blocked on reading from or
+     * sending to it is woken up. This is done once {@link #getDeadline()} has elapsed.
+     */
+    synchronized void shutdownClientSocket() {
+        if (mFD < 0) return;
+        JniResult result = LocalSocketManager.shutdown(mLocalSocketRunConfig.getLogTitle() + " (client)", mFD);
+        if (result == null || result.retval != 0)
+            Logger.logWarn(LOG_TAG, "Failed to shutdown client socket for \"" + mLocalSocketRunConfig.getTitle() + "\" server: " +
+                JniResult.getErrorString(result));
+    }
+
+    /** Set {@link #mDataHandler}. */
+    synchronized void setDataHandler(@Nullable Runnable dataHandler) {
+        mDataHandler = dataHandler;
+    }
+
+    /** Get and clear {@link #mDataHandler}. */
+    @Nullable
+    synchronized Runnable takeDataHandler() {
+        Runnable dataHandler = mDataHandler;
+        mDataHandler = null;
+        return dataHandler;
+    }
+
+    /**
+     * Check whether {@link #mInputStream} has read ahead bytes that have not been read from it yet.
+     * Polling the fd does not report these, since they have already been read from the socket.
+     */
+    public boolean hasBufferedInput() {
+        return mInputStream.getBufferedLength() > 0;
+    }
+
     /** Get {@link #mFD} for the client socket. */
     public int getFD() {
         return mFD;
@@ -406,42 +617,63 @@ public class LocalClientSocket implements Closeable {
 
 
 
-    /** The {@link InputStream} implementation for the {@link LocalClientSocket}. */
+    /**
+     * The {@link InputStream} implementation for the {@link LocalClientSocket}. Data is read in bulk
+     * into a direct {@link ByteBuffer} of {@link #STREAM_BUFFER_SIZE} and served from it.
+     */
     protected class SocketInputStream extends InputStream {
-        private final byte[] mBytes = new byte[1];
+        /** The read ahead buffer, in read mode. */
+        @Nullable private ByteBuffer mBuffer;
 
-        @Override
-        public int read() throws IOException {
+        /** Get the number of bytes in {@link #mBuffer} that have not been read yet. */
+        int getBufferedLength() {
+            return mBuffer != null ? mBuffer.remaining() : 0;
+        }
+
+        /** Read the next bytes into {@link #mBuffer}. Returns {@code false} on end of file. */
+        private boolean fill() throws IOException {
+            if (mBuffer == null)
+                mBuffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+
+            mBuffer.clear();
             MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(mBytes, bytesRead);
+            Error error = LocalClientSocket.this.read(mBuffer, bytesRead);
+            mBuffer.flip();
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
 
-            if (bytesRead.value == 0) {
+            return bytesRead.value > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ((mBuffer == null || !mBuffer.hasRemaining()) && !fill()) {
                 return -1;
             }
 
-            return mBytes[0];
+            return mBuffer.get() & 0xFF;
         }
 
         @Override
-        public int read(byte[] bytes) throws IOException {
+        public int read(byte[] bytes, int offset, int length) throws IOException {
             if (bytes == null) {
                 throw new NullPointerException("Read buffer can't be null");
             }
-
-            MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(bytes, bytesRead);
-            if (error != null) {
-                throw new IOException(error.getErrorMarkdownString());
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return 0;
             }
 
-            if (bytesRead.value == 0) {
+            if ((mBuffer == null || !mBuffer.hasRemaining()) && !fill()) {
                 return -1;
             }
 
-            return bytesRead.value;
+            int bytesRead = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, bytesRead);
+            return bytesRead;
         }
 
         @Override
@@ -451,7 +683,7 @@ public class LocalClientSocket implements Closeable {
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
-            return available.value;
+            return getBufferedLength() + available.value;
         }
     }
 
@@ -464,16 +696,16 @@ public class LocalClientSocket implements Closeable {
         @Override
         public void write(int b) throws IOException {
             mBytes[0] = (byte) b;
-
-            Error error = LocalClientSocket.this.send(mBytes);
-            if (error != null) {
-                throw new IOException(error.getErrorMarkdownString());
-            }
+            write(mBytes, 0, 1);
         }
 
         @Override
-        public void write(byte[] bytes) throws IOException {
-            Error error = LocalClientSocket.this.send(bytes);
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            Error error = LocalClientSocket.this.send(bytes, offset, length);
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
@@ -1,6 +1,10 @@
 package com.termux.shared.net.socket.local;
 
+import android.os.ParcelFileDescriptor;
+import android.system.OsConstants;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.errors.Error;
 import com.termux.shared.file.FileUtils;
@@ -10,9 +14,26 @@ import com.termux.shared.logger.Logger;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-
-/** The server socket for {@link LocalSocketManager}. */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The server socket for {@link LocalSocketManager}.
+ *
+ * The server socket is non-blocking and served by a single {@link ClientSocketListener} event loop
+ * thread, which polls the server socket and the accepted clients that have not sent any data yet.
+ * Once a client has sent data, it is dispatched to the bounded worker pool of the
+ * {@link LocalSocketManager}, so that slow or idle clients do not hold a thread each. Clients
+ * that keep their connection open between requests are returned to the listener by the workers
+ * with {@link LocalSocketManager#waitForClientData(LocalClientSocket, Runnable)}. The receive
+ * timeouts of pending clients and the deadlines of dispatched clients are tracked with a
+ * {@link LocalSocketTimerWheel}.
+ */
 public class LocalServerSocket implements Closeable {
 
     public static final String LOG_TAG = "LocalServerSocket";
@@ -29,6 +50,26 @@ public class LocalServerSocket implements Closeable {
     /** The {@link ClientSocketListener} {@link Thread} for the {@link LocalServerSocket}. */
     @NonNull protected final Thread mClientSocketListener;
 
+    /** The {@link LocalSocketTimerWheel} for the timeouts of clients of the {@link LocalServerSocket}. */
+    @NonNull protected final LocalSocketTimerWheel mTimerWheel;
+
+    /**
+     * The read side and write side of the pipe used to wake up the {@link ClientSocketListener}
+     * from poll when the server is stopped, since closing the server socket does not.
+     */
+    @Nullable protected InputStream mWakeupInputStream;
+    @Nullable protected OutputStream mWakeupOutputStream;
+    protected int mWakeupFD = -1;
+
+    /** The idle clients returned by workers that the {@link ClientSocketListener} must poll again. */
+    @NonNull protected final Queue<LocalClientSocket> mIdleClients = new ConcurrentLinkedQueue<>();
+
+    /** The duration in milliseconds of a tick of {@link #mTimerWheel}. */
+    public static final int TIMER_WHEEL_TICK_DURATION = 100; // Default: 100
+
+    /** The number of ticks per rotation of {@link #mTimerWheel}. */
+    public static final int TIMER_WHEEL_TICKS_PER_WHEEL = 512; // Default: 512
+
     /**
      * The required permissions for server socket file parent directory.
      * Creation of a new socket will fail if the server starter app process does not have
@@ -46,6 +87,7 @@ public class LocalServerSocket implements Closeable {
         mLocalSocketRunConfig = localSocketManager.getLocalSocketRunConfig();
         mLocalSocketManagerClient = mLocalSocketRunConfig.getLocalSocketManagerClient();
         mClientSocketListener = new Thread(new ClientSocketListener());
+        mTimerWheel = new LocalSocketTimerWheel(TIMER_WHEEL_TICK_DURATION, TIMER_WHEEL_TICKS_PER_WHEEL);
     }
 
     /** Start server by creating server socket. */
@@ -96,15 +138,28 @@ public class LocalServerSocket implements Closeable {
                 return error;
         }
 
+        // Create the pipe to wake up the listener when server is stopped
+        ParcelFileDescriptor[] wakeupPipe;
+        try {
+            wakeupPipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            return LocalSocketErrno.ERRNO_CREATE_WAKEUP_PIPE_FAILED_WITH_EXCEPTION.getError(e, mLocalSocketRunConfig.getTitle(), e.getMessage());
+        }
+        mWakeupFD = wakeupPipe[0].getFd();
+        mWakeupInputStream = new ParcelFileDescriptor.AutoCloseInputStream(wakeupPipe[0]);
+        mWakeupOutputStream = new ParcelFileDescriptor.AutoCloseOutputStream(wakeupPipe[1]);
+
         // Create the server socket
         JniResult result = LocalSocketManager.createServerSocket(mLocalSocketRunConfig.getLogTitle() + " (server)",
             path.getBytes(StandardCharsets.UTF_8), backlog);
         if (result == null || result.retval != 0) {
+            closeWakeupPipe();
             return LocalSocketErrno.ERRNO_CREATE_SERVER_SOCKET_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
         }
 
         int fd = result.intData;
         if (fd < 0) {
+            closeWakeupPipe();
             return LocalSocketErrno.ERRNO_SERVER_SOCKET_FD_INVALID.getError(fd, mLocalSocketRunConfig.getTitle());
         }
 
@@ -133,12 +188,49 @@ public class LocalServerSocket implements Closeable {
         } catch (Exception ignored) {}
 
         Error error = closeServerSocket(false);
+
+        // Wake up the listener from poll, it will close the pipe when it ends
+        OutputStream wakeupOutputStream = mWakeupOutputStream;
+        if (wakeupOutputStream != null) {
+            try {
+                wakeupOutputStream.write(0);
+            } catch (IOException ignored) {}
+        }
+
         if (error != null)
             return error;
 
         return deleteServerSocketFile();
     }
 
+    /**
+     * Add an idle client to {@link #mIdleClients} and wake up the {@link ClientSocketListener} to
+     * poll it, so that {@code dataHandler} is run once the client sends more data. The client is
+     * closed if the server has been stopped.
+     */
+    synchronized void addIdleClient(@NonNull LocalClientSocket clientSocket, @NonNull Runnable dataHandler) {
+        OutputStream wakeupOutputStream = mWakeupOutputStream;
+        if (wakeupOutputStream == null) {
+            clientSocket.closeClientSocket(true);
+            return;
+        }
+
+        clientSocket.setDataHandler(dataHandler);
+        mIdleClients.add(clientSocket);
+        try {
+            wakeupOutputStream.write(0);
+        } catch (IOException ignored) {}
+    }
+
+    /** Close the wakeup pipe. */
+    protected synchronized void closeWakeupPipe() {
+        FileUtils.closeCloseable(mWakeupInputStream);
+        FileUtils.closeCloseable(mWakeupOutputStream);
+        mWakeupInputStream = null;
+        mWakeupOutputStream = null;
+        mWakeupFD = -1;
+    }
+
     /** Close server socket. */
     public synchronized Error closeServerSocket(boolean logErrorMessage) {
         Logger.logDebug(LOG_TAG, "closeServerSocket");
@@ -183,8 +275,20 @@ public class LocalServerSocket implements Closeable {
             return null;
     }
 
-    /** Listen and accept new {@link LocalClientSocket}. */
+    /** Listen and accept new {@link LocalClientSocket}, waiting until a client connects. */
     public LocalClientSocket accept() {
+        return acceptClient(true);
+    }
+
+    /**
+     * Accept new {@link LocalClientSocket}.
+     *
+     * @param wait If set to {@code true}, then wait until a client connects, otherwise return
+     *             {@code null} if no client is waiting to be accepted or accepting failed.
+     * @return Returns the {@link LocalClientSocket}, or {@code null} if server socket is closed.
+     */
+    @Nullable
+    protected LocalClientSocket acceptClient(boolean wait) {
         Logger.logVerbose(LOG_TAG, "accept");
 
         int clientFD;
@@ -196,9 +300,25 @@ public class LocalServerSocket implements Closeable {
             }
 
             JniResult result = LocalSocketManager.accept(mLocalSocketRunConfig.getLogTitle() + " (client)", fd);
+            if (result != null && result.retval != 0 &&
+                (result.errno == OsConstants.EAGAIN || result.errno == OsConstants.EWOULDBLOCK)) {
+                // Server socket is non-blocking, so wait for a client to connect
+                if (!wait)
+                    return null;
+                result = LocalSocketManager.poll(mLocalSocketRunConfig.getLogTitle() + " (server)",
+                    new int[]{fd}, new int[]{OsConstants.POLLIN}, 1, -1);
+                if (result == null || result.retval != 0) {
+                    mLocalSocketManager.onError(
+                        LocalSocketErrno.ERRNO_POLL_SOCKETS_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                    return null;
+                }
+                continue;
+            }
             if (result == null || result.retval != 0) {
                 mLocalSocketManager.onError(
                     LocalSocketErrno.ERRNO_ACCEPT_CLIENT_SOCKET_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                if (!wait)
+                    return null;
                 continue;
             }
 
@@ -245,51 +365,99 @@ public class LocalServerSocket implements Closeable {
 
 
 
-    /** The {@link LocalClientSocket} listener {@link java.lang.Runnable} for {@link LocalServerSocket}. */
+    /**
+     * The {@link LocalClientSocket} listener {@link java.lang.Runnable} for {@link LocalServerSocket}.
+     *
+     * Accepted clients are kept pending until they have sent data or hung up, and are then
+     * dispatched with {@link LocalSocketManager#onClientAccepted(LocalClientSocket)}. Idle clients
+     * returned by workers are kept pending the same way, and are then dispatched to their data
+     * handler with {@link LocalSocketManager#onClientData(LocalClientSocket, Runnable)}. At most
+     * {@link LocalSocketRunConfig#getBacklog()} clients are kept pending, after which new
+     * connections are left in the kernel backlog until pending clients are dispatched.
+     */
     protected class ClientSocketListener implements Runnable {
 
+        /** The accepted clients that have not sent any data yet. */
+        protected final List<LocalClientSocket> mPendingClients = new ArrayList<>();
+
+        /** The fds and events passed to poll, reused across iterations. */
+        private int[] mFDs = new int[16];
+        private int[] mEvents = new int[16];
+
         @Override
         public void run() {
             try {
                 Logger.logVerbose(LOG_TAG, "ClientSocketListener start");
 
+                byte[] wakeupBuffer = new byte[64];
                 while (!Thread.currentThread().isInterrupted()) {
-                    LocalClientSocket clientSocket = null;
-                    try {
-                        // Listen for new client socket connections
-                        clientSocket = null;
-                        clientSocket = accept();
-                        // If server socket is closed, then stop listener thread.
-                        if (clientSocket == null)
-                            break;
-
-                        Error error;
-
-                        error = clientSocket.setReadTimeout();
-                        if (error != null) {
-                            mLocalSocketManager.onError(clientSocket, error);
-                            clientSocket.closeClientSocket(true);
-                            continue;
-                        }
-
-                        error = clientSocket.setWriteTimeout();
-                        if (error != null) {
-                            mLocalSocketManager.onError(clientSocket, error);
-                            clientSocket.closeClientSocket(true);
-                            continue;
-                        }
-
-                        // Start new thread for client logic and pass control to ILocalSocketManager implementation
-                        mLocalSocketManager.onClientAccepted(clientSocket);
-                    } catch (Throwable t) {
-                        mLocalSocketManager.onError(clientSocket,
-                            LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
-                        if (clientSocket != null)
-                            clientSocket.closeClientSocket(true);
+                    // If server socket is closed, then stop listener thread.
+                    int fd = mLocalSocketRunConfig.getFD();
+                    InputStream wakeupInputStream = mWakeupInputStream;
+                    if (fd < 0 || wakeupInputStream == null)
+                        break;
+
+                    LocalClientSocket idleClientSocket;
+                    while ((idleClientSocket = mIdleClients.poll()) != null)
+                        addPendingClient(idleClientSocket, true);
+
+                    int count = mPendingClients.size() + 2;
+                    if (mFDs.length < count) {
+                        mFDs = new int[count * 2];
+                        mEvents = new int[count * 2];
+                    }
+
+                    mFDs[0] = mWakeupFD;
+                    // Stop accepting while backlog of pending clients is full, poll ignores negative fds
+                    mFDs[1] = mPendingClients.size() < mLocalSocketRunConfig.getBacklog() ? fd : -1;
+                    for (int i = 2; i < count; i++)
+                        mFDs[i] = mPendingClients.get(i - 2).getFD();
+                    for (int i = 0; i < count; i++)
+                        mEvents[i] = OsConstants.POLLIN;
+
+                    // Wait until the next timeout tick, or indefinitely if there are none
+                    long delay = mTimerWheel.getNextExpiryDelay(System.currentTimeMillis());
+                    int timeout = delay < 0 ? -1 : (int) Math.min(delay, Integer.MAX_VALUE);
+
+                    JniResult result = LocalSocketManager.poll(mLocalSocketRunConfig.getLogTitle() + " (server)",
+                        mFDs, mEvents, count, timeout);
+                    if (result == null || result.retval != 0) {
+                        mLocalSocketManager.onError(
+                            LocalSocketErrno.ERRNO_POLL_SOCKETS_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                        break;
+                    }
+
+                    if (mEvents[0] != 0)
+                        //noinspection ResultOfMethodCallIgnored
+                        wakeupInputStream.read(wakeupBuffer);
+
+                    // Dispatch pending clients that sent data, hung up or errored, in reverse so
+                    // that indexes of remaining clients do not change
+                    for (int i = count - 1; i >= 2; i--) {
+                        if (mEvents[i] != 0)
+                            dispatchClient(mPendingClients.remove(i - 2));
                     }
+
+                    // If server socket was not closed and reopened during poll
+                    if (mEvents[1] != 0 && mFDs[1] == mLocalSocketRunConfig.getFD())
+                        acceptClients();
+
+                    for (Runnable task : mTimerWheel.expire(System.currentTimeMillis()))
+                        task.run();
                 }
             } catch (Exception ignored) {
             } finally {
+                for (LocalClientSocket clientSocket : mPendingClients)
+                    clientSocket.closeClientSocket(true);
+                mPendingClients.clear();
+
+                closeWakeupPipe();
+
+                // Clients returned after the pipe is closed are closed by addIdleClient()
+                LocalClientSocket idleClientSocket;
+                while ((idleClientSocket = mIdleClients.poll()) != null)
+                    idleClientSocket.closeClientSocket(true);
+
                 try {
                     close();
                 } catch (Exception ignored) {}
@@ -298,6 +466,95 @@ public class LocalServerSocket implements Closeable {
             Logger.logVerbose(LOG_TAG, "ClientSocketListener end");
         }
 
+        /** Accept new clients that are waiting until backlog of pending clients is full. */
+        protected void acceptClients() {
+            while (mPendingClients.size() < mLocalSocketRunConfig.getBacklog()) {
+                LocalClientSocket clientSocket = null;
+                try {
+                    clientSocket = acceptClient(false);
+                    if (clientSocket == null)
+                        return;
+
+                    Error error;
+
+                    error = clientSocket.setReadTimeout();
+                    if (error != null) {
+                        mLocalSocketManager.onError(clientSocket, error);
+                        clientSocket.closeClientSocket(true);
+                        continue;
+                    }
+
+                    error = clientSocket.setWriteTimeout();
+                    if (error != null) {
+                        mLocalSocketManager.onError(clientSocket, error);
+                        clientSocket.closeClientSocket(true);
+                        continue;
+                    }
+
+                    addPendingClient(clientSocket, false);
+                } catch (Throwable t) {
+                    mLocalSocketManager.onError(clientSocket,
+                        LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                    if (clientSocket != null) {
+                        mPendingClients.remove(clientSocket);
+                        clientSocket.closeClientSocket(true);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add a client to {@link #mPendingClients} and close it if it does not send data within
+         * the receive timeout.
+         *
+         * @param clientSocket The {@link LocalClientSocket} to add.
+         * @param isIdle Whether the client was returned by a worker after it was done with a previous
+         *               request, in which case closing it on timeout is not an error.
+         */
+        protected void addPendingClient(@NonNull LocalClientSocket clientSocket, boolean isIdle) {
+            mPendingClients.add(clientSocket);
+
+            final int receiveTimeout = mLocalSocketRunConfig.getReceiveTimeout();
+            if (receiveTimeout > 0) {
+                clientSocket.scheduleTimeout(mTimerWheel, System.currentTimeMillis() + receiveTimeout, () -> {
+                    if (mPendingClients.remove(clientSocket)) {
+                        if (isIdle)
+                            Logger.logVerbose(LOG_TAG, "Closing idle client socket for \"" + mLocalSocketRunConfig.getTitle() +
+                                "\" server: " + clientSocket.getPeerCred().getMinimalString());
+                        else
+                            mLocalSocketManager.onError(clientSocket,
+                                LocalSocketErrno.ERRNO_CLIENT_SOCKET_REQUEST_TIMEOUT.getError(mLocalSocketRunConfig.getTitle(), receiveTimeout));
+                        clientSocket.closeClientSocket(true);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Dispatch a client to the worker pool. If the {@link LocalSocketRunConfig#getDeadline()}
+         * elapses before the client is closed, then it is shutdown to wake up the worker.
+         */
+        protected void dispatchClient(@NonNull LocalClientSocket clientSocket) {
+            try {
+                if (mLocalSocketRunConfig.getDeadline() > 0)
+                    clientSocket.scheduleTimeout(mTimerWheel, clientSocket.getDeadline(), clientSocket::shutdownClientSocket);
+                else
+                    clientSocket.cancelTimeout();
+
+                // Pass control to the data handler of an idle client or to ILocalSocketManager
+                // implementation on a worker thread
+                Runnable dataHandler = clientSocket.takeDataHandler();
+                if (dataHandler != null)
+                    mLocalSocketManager.onClientData(clientSocket, dataHandler);
+                else
+                    mLocalSocketManager.onClientAccepted(clientSocket);
+            } catch (Throwable t) {
+                mLocalSocketManager.onError(clientSocket,
+                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                clientSocket.closeClientSocket(true);
+            }
+        }
+
     }
 
 }
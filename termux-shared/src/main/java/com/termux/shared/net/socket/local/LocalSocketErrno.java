@@ -9,6 +9,7 @@ public class LocalSocketErrno extends Errno {
 
     /** Errors for {@link LocalSocketManager} (100-150) */
     public static final Errno ERRNO_START_LOCAL_SOCKET_LIB_LOAD_FAILED_WITH_EXCEPTION = new Errno(TYPE, 100, "Failed to load \"%1$s\" library.\nException: %2$s");
+    public static final Errno ERRNO_CLIENT_WORKER_POOL_FULL = new Errno(TYPE, 101, "All %1$s workers of \"%2$s\" server are busy and %3$s clients are already queued.");
 
     /** Errors for {@link LocalServerSocket} (150-200) */
     public static final Errno ERRNO_SERVER_SOCKET_PATH_NULL_OR_EMPTY = new Errno(TYPE, 150, "The \"%1$s\" server socket path is null or empty.");
@@ -24,6 +25,9 @@ public class LocalSocketErrno extends Errno {
     public static final Errno ERRNO_CLIENT_SOCKET_PEER_UID_DISALLOWED = new Errno(TYPE, 160, "Disallowed peer %1$s tried to connect with \"%2$s\" server.");
     public static final Errno ERRNO_CLOSE_SERVER_SOCKET_FAILED_WITH_EXCEPTION = new Errno(TYPE, 161, "Close \"%1$s\" server socket failed.\nException: %2$s");
     public static final Errno ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION = new Errno(TYPE, 162, "Exception in client socket listener for \"%1$s\" server.\nException: %2$s");
+    public static final Errno ERRNO_POLL_SOCKETS_FAILED = new Errno(TYPE, 163, "Polling sockets for \"%1$s\" server failed.\n%2$s");
+    public static final Errno ERRNO_CREATE_WAKEUP_PIPE_FAILED_WITH_EXCEPTION = new Errno(TYPE, 164, "Create wakeup pipe for \"%1$s\" server failed.\nException: %2$s");
+    public static final Errno ERRNO_CLIENT_SOCKET_REQUEST_TIMEOUT = new Errno(TYPE, 165, "Client socket did not send a request to \"%1$s\" server within %2$sms.");
 
     /** Errors for {@link LocalClientSocket} (200-250) */
     public static final Errno ERRNO_SET_CLIENT_SOCKET_READ_TIMEOUT_FAILED = new Errno(TYPE, 200, "Set \"%1$s\" client socket read (SO_RCVTIMEO) timeout to \"%2$s\" failed.\n%3$s");
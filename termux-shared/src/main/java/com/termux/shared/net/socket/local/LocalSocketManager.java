@@ -1,6 +1,7 @@
 package com.termux.shared.net.socket.local;
 
 import android.content.Context;
+import android.system.OsConstants;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -9,6 +10,13 @@ import com.termux.shared.errors.Error;
 import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Manager for an AF_UNIX/SOCK_STREAM local server.
  *
@@ -24,6 +32,9 @@ public class LocalSocketManager {
 
     public static final String LOG_TAG = "LocalSocketManager";
 
+    /** The time in milliseconds after which idle {@link #mClientWorkerPool} threads exit. */
+    protected static final long CLIENT_WORKER_KEEP_ALIVE_TIME = 30000;
+
     /** The native JNI local socket library. */
     protected static String LOCAL_SOCKET_LIBRARY = "local-socket";
 
@@ -48,6 +59,13 @@ public class LocalSocketManager {
     /** Whether the {@link LocalServerSocket} managed by {@link LocalSocketManager} in running or not. */
     protected boolean mIsRunning;
 
+    /**
+     * The bounded pool of worker threads on which {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)}
+     * is called, with {@link LocalSocketRunConfig#getMaxClientWorkers()} threads and a queue of
+     * {@link LocalSocketRunConfig#getBacklog()} clients.
+     */
+    @Nullable protected ThreadPoolExecutor mClientWorkerPool;
+
 
     /**
      * Create an new instance of {@link LocalSocketManager}.
@@ -83,6 +101,7 @@ public class LocalSocketManager {
         }
 
         mIsRunning = true;
+        mClientWorkerPool = createClientWorkerPool();
         return mServerSocket.start();
     }
 
@@ -93,6 +112,9 @@ public class LocalSocketManager {
         if (mIsRunning) {
             Logger.logDebugExtended(LOG_TAG, "stop\n" + mLocalSocketRunConfig);
             mIsRunning = false;
+            // Let clients already accepted finish
+            if (mClientWorkerPool != null)
+                mClientWorkerPool.shutdown();
             return mServerSocket.stop();
         }
         return null;
@@ -223,6 +245,109 @@ public class LocalSocketManager {
         }
     }
 
+    /**
+     * Attempts to read up to {@link ByteBuffer#remaining()} bytes from file descriptor fd into the
+     * direct {@code buffer} at its position, without copying through a java array. Unlike
+     * {@link #read(String, int, byte[], long)}, this returns as soon as some bytes have been read.
+     * On success, the buffer position is advanced by the number of bytes read, which is also
+     * returned (zero indicates end of file). On error, the {@link JniResult#errno} and
+     * {@link JniResult#errmsg} will be set.
+     *
+     * If the deadline elapses before any data is available, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param buffer The direct {@link ByteBuffer} to read bytes into.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If reading was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the bytes read.
+     */
+    @Nullable
+    public static JniResult read(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, long deadline) {
+        try {
+            JniResult result = readBufferNative(serverTitle, fd, buffer, buffer.position(), buffer.limit(), deadline);
+            if (result != null && result.retval == 0)
+                buffer.position(buffer.position() + result.intData);
+            return result;
+        } catch (Throwable t) {
+            String message = "Exception in readBufferNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to send the {@link ByteBuffer#remaining()} bytes of the direct {@code buffer} to the
+     * file descriptor, without copying through a java array. On success, the buffer position is set
+     * to its limit. On error, the {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
+     *
+     * If while sending the deadline elapses but all the data has not been sent, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param buffer The direct {@link ByteBuffer} containing bytes to send.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If sending was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the bytes sent.
+     */
+    @Nullable
+    public static JniResult send(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, long deadline) {
+        try {
+            JniResult result = sendBufferNative(serverTitle, fd, buffer, buffer.position(), buffer.limit(), deadline);
+            if (result != null && result.retval == 0)
+                buffer.position(buffer.limit());
+            return result;
+        } catch (Throwable t) {
+            String message = "Exception in sendBufferNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Wait for events on a set of file descriptors with poll().
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fds The fds to poll. Negative fds are ignored.
+     * @param events The events to poll each fd for, like {@link OsConstants#POLLIN}. The events
+     *               that occurred for each fd are returned in the same array.
+     * @param count The number of fds to poll.
+     * @param timeout The timeout in milliseconds, or -1 to wait without timeout.
+     * @return Returns the {@link JniResult}. If polling was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the number of fds with events, which will
+     * be 0 on timeout or if interrupted by a signal.
+     */
+    @Nullable
+    public static JniResult poll(@NonNull String serverTitle, @NonNull int[] fds, @NonNull int[] events, int count, int timeout) {
+        try {
+            return pollNative(serverTitle, fds, events, count, timeout);
+        } catch (Throwable t) {
+            String message = "Exception in pollNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Shutdown reading and writing on the socket with fd, which wakes up any thread blocked on it.
+     * The fd must still be closed with {@link #closeSocket(String, int)}.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @return Returns the {@link JniResult}. If shutdown was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult shutdown(@NonNull String serverTitle, int fd) {
+        try {
+            return shutdownNative(serverTitle, fd);
+        } catch (Throwable t) {
+            String message = "Exception in shutdownNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
     /**
      * Gets the number of bytes available to read on the socket.
      *
@@ -321,12 +446,71 @@ public class LocalSocketManager {
             mLocalSocketManagerClient.onDisallowedClientConnected(this, clientSocket, error));
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)} in a new thread. */
+    /**
+     * Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)}
+     * on a {@link #mClientWorkerPool} thread. If all workers are busy and the queue is full, then
+     * the client is closed.
+     */
     public void onClientAccepted(@NonNull LocalClientSocket clientSocket) {
-        startLocalSocketManagerClientThread(() ->
+        onClientData(clientSocket, () ->
             mLocalSocketManagerClient.onClientAccepted(this, clientSocket));
     }
 
+    /**
+     * Run the {@code dataHandler} of a client passed to {@link #waitForClientData(LocalClientSocket, Runnable)}
+     * on a {@link #mClientWorkerPool} thread. If all workers are busy and the queue is full, then
+     * the client is closed.
+     */
+    public void onClientData(@NonNull LocalClientSocket clientSocket, @NonNull Runnable dataHandler) {
+        ThreadPoolExecutor clientWorkerPool = mClientWorkerPool;
+        try {
+            if (clientWorkerPool == null)
+                throw new RejectedExecutionException("Server not started");
+            clientWorkerPool.execute(dataHandler);
+        } catch (RejectedExecutionException e) {
+            onError(clientSocket, LocalSocketErrno.ERRNO_CLIENT_WORKER_POOL_FULL.getError(mLocalSocketRunConfig.getMaxClientWorkers(),
+                mLocalSocketRunConfig.getTitle(), clientWorkerPool != null ? clientWorkerPool.getQueue().size() : 0));
+            clientSocket.closeClientSocket(true);
+        }
+    }
+
+    /**
+     * Return a client that is idle between requests to the {@link LocalServerSocket} listener, so
+     * that a client keeping its connection open does not hold a {@link #mClientWorkerPool} thread
+     * while it waits. Once the client sends more data or hangs up, {@code dataHandler} is run on a
+     * worker thread, which must then close the client or call this again. The client is closed if
+     * it does not send data within {@link LocalSocketRunConfig#getReceiveTimeout()}.
+     *
+     * This must only be called from the worker thread processing the client.
+     *
+     * @param clientSocket The idle {@link LocalClientSocket}.
+     * @param dataHandler The {@link Runnable} to run once the client has sent data.
+     */
+    public void waitForClientData(@NonNull LocalClientSocket clientSocket, @NonNull Runnable dataHandler) {
+        // Data already read ahead from the socket would not be reported by poll
+        if (clientSocket.hasBufferedInput())
+            onClientData(clientSocket, dataHandler);
+        else
+            mServerSocket.addIdleClient(clientSocket, dataHandler);
+    }
+
+    /** Create the {@link #mClientWorkerPool}, whose idle threads exit after a while. */
+    @NonNull
+    protected ThreadPoolExecutor createClientWorkerPool() {
+        int maxClientWorkers = mLocalSocketRunConfig.getMaxClientWorkers();
+        AtomicInteger workerCount = new AtomicInteger();
+        ThreadPoolExecutor clientWorkerPool = new ThreadPoolExecutor(maxClientWorkers, maxClientWorkers,
+            CLIENT_WORKER_KEEP_ALIVE_TIME, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(mLocalSocketRunConfig.getBacklog()),
+            runnable -> {
+                Thread thread = new Thread(runnable, mLocalSocketRunConfig.getTitle() + "-worker-" + workerCount.incrementAndGet());
+                thread.setUncaughtExceptionHandler(getLocalSocketManagerClientThreadUEH());
+                return thread;
+            });
+        clientWorkerPool.allowCoreThreadTimeOut(true);
+        return clientWorkerPool;
+    }
+
     /** All client accept logic must be run on separate threads so that incoming client acceptance is not blocked. */
     public void startLocalSocketManagerClientThread(@NonNull Runnable runnable) {
         Thread thread = new Thread(runnable);
@@ -439,6 +623,14 @@ public class LocalSocketManager {
 
     @Nullable private static native JniResult sendNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, long deadline);
 
+    @Nullable private static native JniResult readBufferNative(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, int position, int limit, long deadline);
+
+    @Nullable private static native JniResult sendBufferNative(@NonNull String serverTitle, int fd, @NonNull ByteBuffer buffer, int position, int limit, long deadline);
+
+    @Nullable private static native JniResult pollNative(@NonNull String serverTitle, @NonNull int[] fds, @NonNull int[] events, int count, int timeout);
+
+    @Nullable private static native JniResult shutdownNative(@NonNull String serverTitle, int fd);
+
     @Nullable private static native JniResult availableNative(@NonNull String serverTitle, int fd);
 
     private static native JniResult setSocketReadTimeoutNative(@NonNull String serverTitle, int fd, int timeout);
@@ -94,6 +94,16 @@ public class LocalSocketRunConfig implements Serializable {
     protected Integer mBacklog;
     public static final int DEFAULT_BACKLOG = 50;
 
+    /**
+     * The maximum number of {@link LocalClientSocket} that are handled at the same time by
+     * {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)} on
+     * worker threads. Up to {@link #getBacklog()} more clients are queued until a worker is free,
+     * and further clients are closed.
+     * Defaults to {@link #DEFAULT_MAX_CLIENT_WORKERS}.
+     */
+    protected Integer mMaxClientWorkers;
+    public static final int DEFAULT_MAX_CLIENT_WORKERS = 4;
+
 
     /**
      * Create an new instance of {@link LocalSocketRunConfig}.
@@ -194,6 +204,17 @@ public class LocalSocketRunConfig implements Serializable {
             mBacklog = backlog;
     }
 
+    /** Get {@link #mMaxClientWorkers} if set, otherwise {@link #DEFAULT_MAX_CLIENT_WORKERS}. */
+    public Integer getMaxClientWorkers() {
+        return mMaxClientWorkers != null ? mMaxClientWorkers : DEFAULT_MAX_CLIENT_WORKERS;
+    }
+
+    /** Set {@link #mMaxClientWorkers}. Value must be greater than 0. */
+    public void setMaxClientWorkers(Integer maxClientWorkers) {
+        if (maxClientWorkers > 0)
+            mMaxClientWorkers = maxClientWorkers;
+    }
+
 
     /**
      * Get a log {@link String} for {@link LocalSocketRunConfig}.
@@ -221,6 +242,7 @@ public class LocalSocketRunConfig implements Serializable {
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("SendTimeout", getSendTimeout(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Deadline", getDeadline(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Backlog", getBacklog(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxClientWorkers", getMaxClientWorkers(), "-"));
 
         return logString.toString();
     }
@@ -250,6 +272,7 @@ public class LocalSocketRunConfig implements Serializable {
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("SendTimeout", getSendTimeout(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Deadline", getDeadline(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Backlog", getBacklog(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxClientWorkers", getMaxClientWorkers(), "-"));
 
         return markdownString.toString();
     }
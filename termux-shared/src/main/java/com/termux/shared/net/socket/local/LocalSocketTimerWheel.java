@@ -0,0 +1,184 @@
+package com.termux.shared.net.socket.local;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timer wheel for the deadlines of {@link LocalClientSocket}, so that the
+ * {@link LocalServerSocket} event loop can track the deadlines of many clients with O(1) schedule
+ * and cancel, and wake up only for the ticks that have timeouts.
+ *
+ * Timeouts are hashed into {@link #mWheel} slots by the tick they expire at. A timeout further
+ * away than one rotation of the wheel stays in its slot for the remaining rounds. Timeouts never
+ * expire before their deadline, but may expire up to one tick after it.
+ *
+ * Timeouts can be scheduled and cancelled from any thread, and must be expired by one thread
+ * with {@link #expire(long)}.
+ *
+ * http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf
+ */
+public class LocalSocketTimerWheel {
+
+    /** A scheduled timeout. */
+    public static final class Timeout {
+        private final long mDeadline;
+        @NonNull private final Runnable mTask;
+        private int mRemainingRounds;
+        private int mSlot = -1;
+        @Nullable private Timeout mPrev;
+        @Nullable private Timeout mNext;
+
+        private Timeout(long deadline, @NonNull Runnable task) {
+            mDeadline = deadline;
+            mTask = task;
+        }
+
+        /** Get the deadline milliseconds since epoch. */
+        public long getDeadline() {
+            return mDeadline;
+        }
+    }
+
+    private final long mStartTime;
+    private final long mTickDuration;
+    private final Timeout[] mWheel;
+    private final int mMask;
+
+    /** The next tick to be expired. */
+    private long mTick;
+    private int mSize;
+
+    /**
+     * Create an new instance of {@link LocalSocketTimerWheel}.
+     *
+     * @param tickDuration The duration of a tick in milliseconds.
+     * @param ticksPerWheel The number of slots in the wheel. It is rounded up to a power of 2.
+     */
+    public LocalSocketTimerWheel(long tickDuration, int ticksPerWheel) {
+        this(tickDuration, ticksPerWheel, System.currentTimeMillis());
+    }
+
+    /**
+     * Create an new instance of {@link LocalSocketTimerWheel} whose first tick starts at
+     * {@code startTime} milliseconds since epoch.
+     */
+    LocalSocketTimerWheel(long tickDuration, int ticksPerWheel, long startTime) {
+        int slots = 1;
+        while (slots < ticksPerWheel) slots <<= 1;
+
+        mStartTime = startTime;
+        mTickDuration = Math.max(1, tickDuration);
+        mWheel = new Timeout[slots];
+        mMask = slots - 1;
+    }
+
+    /**
+     * Schedule {@code task} to be run by {@link #expire(long)} once {@code deadline} has passed.
+     *
+     * @param deadline The deadline milliseconds since epoch.
+     * @param task The task to run.
+     * @return Returns the {@link Timeout} that can be passed to {@link #cancel(Timeout)}.
+     */
+    @NonNull
+    public synchronized Timeout schedule(long deadline, @NonNull Runnable task) {
+        Timeout timeout = new Timeout(deadline, task);
+
+        // Round up, so that timeout does not expire before deadline
+        long tick = Math.max(mTick, (deadline - mStartTime + mTickDuration - 1) / mTickDuration);
+        timeout.mRemainingRounds = (int) ((tick - mTick) / mWheel.length);
+        timeout.mSlot = (int) (tick & mMask);
+
+        timeout.mNext = mWheel[timeout.mSlot];
+        if (timeout.mNext != null) timeout.mNext.mPrev = timeout;
+        mWheel[timeout.mSlot] = timeout;
+        mSize++;
+        return timeout;
+    }
+
+    /**
+     * Cancel a scheduled {@link Timeout}.
+     *
+     * @return Returns {@code true} if timeout was cancelled, {@code false} if it already expired
+     * or was cancelled.
+     */
+    public synchronized boolean cancel(@Nullable Timeout timeout) {
+        if (timeout == null || timeout.mSlot < 0) return false;
+        remove(timeout);
+        return true;
+    }
+
+    /**
+     * Expire the timeouts whose ticks have passed at {@code now}.
+     *
+     * @param now The current milliseconds since epoch.
+     * @return Returns the tasks of the expired timeouts, which the caller must run.
+     */
+    @NonNull
+    public synchronized List<Runnable> expire(long now) {
+        List<Runnable> tasks = new ArrayList<>();
+        long lastTick = (now - mStartTime) / mTickDuration;
+        while (mTick <= lastTick) {
+            // Skip the remaining ticks if wheel is empty
+            if (mSize == 0) {
+                mTick = lastTick + 1;
+                break;
+            }
+
+            Timeout timeout = mWheel[(int) (mTick & mMask)];
+            while (timeout != null) {
+                Timeout next = timeout.mNext;
+                if (timeout.mRemainingRounds <= 0) {
+                    remove(timeout);
+                    tasks.add(timeout.mTask);
+                } else {
+                    timeout.mRemainingRounds--;
+                }
+                timeout = next;
+            }
+            mTick++;
+        }
+        return tasks;
+    }
+
+    /**
+     * Get the milliseconds after {@code now} at which {@link #expire(long)} should be called next.
+     *
+     * @param now The current milliseconds since epoch.
+     * @return Returns the delay, which will be {@code 0} if ticks have already passed, or {@code -1}
+     * if there are no timeouts.
+     */
+    public synchronized long getNextExpiryDelay(long now) {
+        if (mSize == 0) return -1;
+
+        // Find the next slot with timeouts in one rotation, which may still have remaining rounds
+        long tick = mTick;
+        for (int i = 0; i < mWheel.length; i++, tick++) {
+            if (mWheel[(int) (tick & mMask)] != null)
+                break;
+        }
+        return Math.max(0, mStartTime + tick * mTickDuration - now);
+    }
+
+    /** Get the number of scheduled timeouts. */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private void remove(@NonNull Timeout timeout) {
+        if (timeout.mPrev != null)
+            timeout.mPrev.mNext = timeout.mNext;
+        else
+            mWheel[timeout.mSlot] = timeout.mNext;
+        if (timeout.mNext != null)
+            timeout.mNext.mPrev = timeout.mPrev;
+
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        timeout.mSlot = -1;
+        mSize--;
+    }
+
+}
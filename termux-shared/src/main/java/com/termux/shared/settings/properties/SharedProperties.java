@@ -179,7 +179,11 @@ public class SharedProperties {
      */
     public String getProperty(String key, boolean cached) {
         synchronized (mLock) {
-            return (String) getProperties(cached).get(key);
+            // Do not copy the in-memory cache just to read one value
+            if (cached)
+                return mProperties != null && key != null ? mProperties.getProperty(key) : null;
+            else
+                return (String) getProperties(false).get(key);
         }
     }
 
@@ -209,8 +213,8 @@ public class SharedProperties {
     public Object getInternalProperty(String key) {
         synchronized (mLock) {
             // null keys are not allowed to be stored in mMap
-            if (key != null)
-                return getInternalProperties().get(key);
+            if (key != null && mMap != null)
+                return mMap.get(key);
             else
                 return null;
         }
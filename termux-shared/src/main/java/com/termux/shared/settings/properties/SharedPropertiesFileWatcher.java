@@ -0,0 +1,204 @@
+package com.termux.shared.settings.properties;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the properties files that may be loaded by {@link SharedProperties} with a
+ * {@link FileObserver} and calls {@link Listener#onPropertiesFilesChanged()} after any of them is
+ * written, created, deleted or moved, so that properties can be reloaded without an explicit
+ * reload request.
+ *
+ * The parent directory of each file is watched instead of the file itself, since editors often
+ * replace the file instead of writing to it. If a parent directory does not exist, then its nearest
+ * existing ancestor is watched until it is created. Events are debounced by
+ * {@link #DEBOUNCE_DELAY} and the listener is called on a background thread.
+ */
+public class SharedPropertiesFileWatcher {
+
+    /** The listener for changes to the properties files. */
+    public interface Listener {
+
+        /** Called on the watcher thread after the properties files have changed. */
+        void onPropertiesFilesChanged();
+
+    }
+
+    /** The time in milliseconds to wait for more events before calling the listener. */
+    public static final int DEBOUNCE_DELAY = 250;
+
+    /** The events of a watched directory that may change which file or content is loaded. */
+    private static final int EVENTS_MASK = FileObserver.CLOSE_WRITE | FileObserver.CREATE |
+        FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO |
+        FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    /** The events after which the directories to watch must be found again. */
+    private static final int STRUCTURE_EVENTS_MASK = FileObserver.CREATE | FileObserver.DELETE |
+        FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private final String mLabel;
+    private final List<String> mPropertiesFilePaths;
+    private final Listener mListener;
+
+    private final List<FileObserver> mFileObservers = new ArrayList<>();
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private boolean mShouldUpdateFileObservers;
+
+    private final Object mLock = new Object();
+
+    private static final String LOG_TAG = "SharedPropertiesFileWatcher";
+
+    /**
+     * Create an new instance of {@link SharedPropertiesFileWatcher}.
+     *
+     * @param label The label for logging and the watcher thread.
+     * @param propertiesFilePaths The paths of the properties files in order of priority, like
+     *                            passed to {@link SharedProperties#getPropertiesFileFromList(List, String)}.
+     * @param listener The {@link Listener} to call on changes.
+     */
+    public SharedPropertiesFileWatcher(@NonNull String label, @NonNull List<String> propertiesFilePaths,
+                                       @NonNull Listener listener) {
+        mLabel = label;
+        mPropertiesFilePaths = propertiesFilePaths;
+        mListener = listener;
+    }
+
+    /** Start watching the properties files. This does nothing if already watching. */
+    public void startWatching() {
+        synchronized (mLock) {
+            if (mHandlerThread != null) return;
+
+            mHandlerThread = new HandlerThread(mLabel + "PropertiesFileWatcher");
+            mHandlerThread.start();
+            mHandler = new Handler(mHandlerThread.getLooper());
+            updateFileObservers();
+        }
+    }
+
+    /** Stop watching the properties files. Pending changes are not reported. */
+    public void stopWatching() {
+        synchronized (mLock) {
+            if (mHandlerThread == null) return;
+
+            stopFileObservers();
+            mHandler.removeCallbacksAndMessages(null);
+            mHandlerThread.quit();
+            mHandlerThread = null;
+            mHandler = null;
+        }
+    }
+
+    /** Check whether the properties files are being watched. */
+    public boolean isWatching() {
+        synchronized (mLock) {
+            return mHandlerThread != null;
+        }
+    }
+
+
+
+    private final Runnable mOnChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mHandlerThread == null) return;
+                if (mShouldUpdateFileObservers) {
+                    mShouldUpdateFileObservers = false;
+                    updateFileObservers();
+                }
+            }
+
+            Logger.logVerbose(LOG_TAG, mLabel + " properties files changed");
+            try {
+                mListener.onPropertiesFilesChanged();
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to handle " + mLabel + " properties files change", e);
+            }
+        }
+    };
+
+    private void onEvent(int event, @Nullable String name, @NonNull Set<String> watchedNames) {
+        // Events for the directory itself have a null name
+        if (name != null && !watchedNames.contains(name)) return;
+
+        synchronized (mLock) {
+            if (mHandler == null) return;
+            if (name == null || (event & STRUCTURE_EVENTS_MASK) != 0)
+                mShouldUpdateFileObservers = true;
+            mHandler.removeCallbacks(mOnChangedRunnable);
+            mHandler.postDelayed(mOnChangedRunnable, DEBOUNCE_DELAY);
+        }
+    }
+
+    /** Find the directories to watch for the properties files and start a {@link FileObserver} for each. */
+    private void updateFileObservers() {
+        stopFileObservers();
+
+        for (Map.Entry<String, Set<String>> entry : getWatchedDirectories(mPropertiesFilePaths).entrySet()) {
+            final Set<String> watchedNames = entry.getValue();
+            @SuppressWarnings("deprecation") // The File constructor requires API 29
+            FileObserver fileObserver = new FileObserver(entry.getKey(), EVENTS_MASK) {
+                @Override
+                public void onEvent(int event, @Nullable String name) {
+                    SharedPropertiesFileWatcher.this.onEvent(event & FileObserver.ALL_EVENTS, name, watchedNames);
+                }
+            };
+            fileObserver.startWatching();
+            mFileObservers.add(fileObserver);
+            Logger.logVerbose(LOG_TAG, "Watching " + watchedNames + " in \"" + entry.getKey() + "\" for " + mLabel + " properties");
+        }
+    }
+
+    /**
+     * Get the directories to watch for the properties files. The parent directory of each file is
+     * watched for its name, or if it does not exist, the nearest existing ancestor for the name of
+     * its child on the path to the file.
+     *
+     * @param propertiesFilePaths The paths of the properties files.
+     * @return Returns the map of directory paths to the names to watch in them.
+     */
+    @NonNull
+    static Map<String, Set<String>> getWatchedDirectories(@NonNull List<String> propertiesFilePaths) {
+        Map<String, Set<String>> watchedDirectories = new HashMap<>();
+        for (String path : propertiesFilePaths) {
+            if (path == null) continue;
+            File child = new File(path).getAbsoluteFile();
+            File directory = child.getParentFile();
+            while (directory != null && !directory.isDirectory()) {
+                child = directory;
+                directory = directory.getParentFile();
+            }
+            if (directory == null) continue;
+
+            Set<String> watchedNames = watchedDirectories.get(directory.getPath());
+            if (watchedNames == null) {
+                watchedNames = new HashSet<>();
+                watchedDirectories.put(directory.getPath(), watchedNames);
+            }
+            watchedNames.add(child.getName());
+        }
+        return watchedDirectories;
+    }
+
+    private void stopFileObservers() {
+        for (FileObserver fileObserver : mFileObservers)
+            fileObserver.stopWatching();
+        mFileObservers.clear();
+    }
+
+}
@@ -17,11 +17,20 @@
 package com.termux.shared.shell;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -29,6 +38,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.result.OutputCapture;
 
 /**
  * Thread utility class continuously reading from an InputStream
@@ -38,6 +48,9 @@ import com.termux.shared.logger.Logger;
  */
 @SuppressWarnings({"WeakerAccess"})
 public class StreamGobbler extends Thread {
+    /** The size of the buffer the stream is read into when reading chunks. */
+    private static final int CHUNK_BUFFER_SIZE = 8192;
+
     private static int threadCounter = 0;
     private static int incThreadCounter() {
         synchronized (StreamGobbler.class) {
@@ -77,7 +90,7 @@ public class StreamGobbler extends Thread {
     private final String shell;
     @NonNull
     private final InputStream inputStream;
-    @NonNull
+    @Nullable
     private final BufferedReader reader;
     @Nullable
     private final List<String> listWriter;
@@ -86,12 +99,25 @@ public class StreamGobbler extends Thread {
     @Nullable
     private final OnLineListener lineListener;
     @Nullable
+    private final OutputCapture captureWriter;
+    @Nullable
+    private WritableByteChannel channelWriter;
+    @Nullable
     private final OnStreamClosedListener streamClosedListener;
     @Nullable
     private final Integer mLogLevel;
     private volatile boolean active = true;
+    private volatile boolean finished = false;
     private volatile boolean calledOnClose = false;
 
+    /* Incremental decoding of chunks for the lineListener */
+    @Nullable
+    private CharsetDecoder lineDecoder;
+    @Nullable
+    private CharBuffer lineChars;
+    @Nullable
+    private StringBuilder line;
+
     private static final String LOG_TAG = "StreamGobbler";
 
     /**
@@ -120,6 +146,7 @@ public class StreamGobbler extends Thread {
         listWriter = outputList;
         stringWriter = null;
         lineListener = null;
+        captureWriter = null;
 
         mLogLevel = logLevel;
     }
@@ -152,6 +179,7 @@ public class StreamGobbler extends Thread {
         listWriter = null;
         stringWriter = outputString;
         lineListener = null;
+        captureWriter = null;
 
         mLogLevel = logLevel;
     }
@@ -184,6 +212,83 @@ public class StreamGobbler extends Thread {
         listWriter = null;
         stringWriter = null;
         lineListener = onLineListener;
+        captureWriter = null;
+
+        mLogLevel = logLevel;
+    }
+
+    /**
+     * <p>StreamGobbler constructor</p>
+     *
+     * <p>We use this class because shell STDOUT and STDERR should be read as quickly as
+     * possible to prevent a deadlock from occurring, or Process.waitFor() never
+     * returning (as the buffer is full, pausing the native process)</p>
+     *
+     * <p>The stream is read as raw bytes instead of lines, so output is neither decoded nor
+     * split, and memory use is bounded by the {@link OutputCapture}.</p>
+     *
+     * @param shell Name of the shell
+     * @param inputStream InputStream to read from
+     * @param outputCapture {@link OutputCapture} to write to, or null
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     */
+    @AnyThread
+    public StreamGobbler(@NonNull String shell, @NonNull InputStream inputStream,
+                         @Nullable OutputCapture outputCapture,
+                         @Nullable Integer logLevel) {
+        this(shell, inputStream, outputCapture, null, null, null, logLevel);
+    }
+
+    /**
+     * <p>StreamGobbler constructor</p>
+     *
+     * <p>We use this class because shell STDOUT and STDERR should be read as quickly as
+     * possible to prevent a deadlock from occurring, or Process.waitFor() never
+     * returning (as the buffer is full, pausing the native process)</p>
+     *
+     * <p>The stream is read in chunks into a reused buffer instead of lines, and each raw chunk
+     * is written to the {@link OutputCapture} and {@link WritableByteChannel}, so large output
+     * can be piped to a file, pipe or another session at the speed of the sink. If the stream
+     * is a {@link FileInputStream}, like the streams of processes started through the fork server,
+     * and only the channel is written to, chunks are read through the stream's channel into a
+     * direct buffer, so they are never copied into the Java heap. The buffered streams of processes
+     * started with {@link Runtime#exec(String[], String[], java.io.File)} are read through an array,
+     * since the platform drains and closes their pipe when the process exits.
+     * Chunks are only decoded as UTF-8, incrementally, if an {@link OnLineListener} is set.</p>
+     *
+     * <p>Since chunks are read ahead, {@link #suspendGobbling()} takes effect after the current
+     * chunk and must not be used to let other code read from the stream.</p>
+     *
+     * @param shell Name of the shell
+     * @param inputStream InputStream to read from
+     * @param outputCapture {@link OutputCapture} to write to, or null
+     * @param outputChannel {@link WritableByteChannel} to write to, or null. It is not closed
+     *                      when the stream ends. If writing fails, it is no longer written to,
+     *                      but the stream is still read.
+     * @param onLineListener OnLineListener callback for decoded lines, or null
+     * @param onStreamClosedListener OnStreamClosedListener callback
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     */
+    @AnyThread
+    public StreamGobbler(@NonNull String shell, @NonNull InputStream inputStream,
+                         @Nullable OutputCapture outputCapture,
+                         @Nullable WritableByteChannel outputChannel,
+                         @Nullable OnLineListener onLineListener,
+                         @Nullable OnStreamClosedListener onStreamClosedListener,
+                         @Nullable Integer logLevel) {
+        super("Gobbler#" + incThreadCounter());
+        this.shell = shell;
+        this.inputStream = inputStream;
+        reader = null;
+        streamClosedListener = onStreamClosedListener;
+
+        listWriter = null;
+        stringWriter = null;
+        lineListener = onLineListener;
+        captureWriter = outputCapture;
+        channelWriter = outputChannel;
 
         mLogLevel = logLevel;
     }
@@ -198,23 +303,10 @@ public class StreamGobbler extends Thread {
         // keep reading the InputStream until it ends (or an error occurs)
         // optionally pausing when a command is executed that consumes the InputStream itself
         try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (loggingEnabled)
-                    Logger.logVerboseForce(defaultLogTag + "Command", String.format(Locale.ENGLISH, "[%s] %s", shell, line)); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
-
-                if (stringWriter != null) stringWriter.append(line).append("\n");
-                if (listWriter != null) listWriter.add(line);
-                if (lineListener != null) lineListener.onLine(line);
-                while (!active) {
-                    synchronized (this) {
-                        try {
-                            this.wait(128);
-                        } catch (InterruptedException e) {
-                            // no action
-                        }
-                    }
-                }
+            if (reader == null) {
+                gobbleChunks(defaultLogTag, loggingEnabled);
+            } else {
+                gobbleLines(defaultLogTag, loggingEnabled);
             }
         } catch (IOException e) {
             // reader probably closed, expected exit condition
@@ -226,7 +318,10 @@ public class StreamGobbler extends Thread {
 
         // make sure our stream is closed and resources will be freed
         try {
-            reader.close();
+            if (reader != null)
+                reader.close();
+            else
+                inputStream.close();
         } catch (IOException e) {
             // read already closed
         }
@@ -237,6 +332,174 @@ public class StreamGobbler extends Thread {
                 streamClosedListener.onStreamClosed();
             }
         }
+
+        // wake up waitForSuspend() callers, since gobbling will never be suspended now
+        synchronized (this) {
+            finished = true;
+            this.notifyAll();
+        }
+    }
+
+    private void gobbleLines(String defaultLogTag, boolean loggingEnabled) throws IOException {
+        String logTag = defaultLogTag + "Command";
+        String line;
+        //noinspection ConstantConditions
+        while ((line = reader.readLine()) != null) {
+            if (loggingEnabled) {
+                // Formatted lazily on the log writer thread if async logging is started
+                final String logLine = line;
+                Logger.logVerboseForce(logTag, () -> "[" + shell + "] " + logLine); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
+            }
+
+            if (stringWriter != null) stringWriter.append(line).append("\n");
+            if (listWriter != null) listWriter.add(line);
+            if (lineListener != null) lineListener.onLine(line);
+            waitWhileSuspended();
+        }
+    }
+
+    private void gobbleChunks(String defaultLogTag, boolean loggingEnabled) throws IOException {
+        String logTag = defaultLogTag + "Command";
+
+        // Bytes are only needed in the Java heap if something other than the channel uses them,
+        // otherwise read them through the channel of the stream into a direct buffer
+        boolean needsArray = captureWriter != null || lineListener != null || loggingEnabled;
+        ReadableByteChannel inputChannel = null;
+        ByteBuffer buffer;
+        if (!needsArray && inputStream instanceof FileInputStream) {
+            inputChannel = ((FileInputStream) inputStream).getChannel();
+            buffer = ByteBuffer.allocateDirect(CHUNK_BUFFER_SIZE);
+        } else {
+            buffer = ByteBuffer.allocate(CHUNK_BUFFER_SIZE);
+        }
+
+        if (lineListener != null) {
+            lineDecoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            lineChars = CharBuffer.allocate(CHUNK_BUFFER_SIZE);
+            line = new StringBuilder();
+        }
+
+        // The bytes at the start of the buffer that are the incomplete end of a UTF-8 sequence,
+        // which were already written but not decoded yet
+        int undecoded = 0;
+        int read;
+        while ((read = readChunk(inputChannel, buffer)) != -1) {
+            int end = buffer.position();
+
+            if (read > 0) {
+                if (loggingEnabled) {
+                    // Only copy the bytes, since buffer is reused, and decode them lazily on the log writer thread
+                    final byte[] logBytes = Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + undecoded, buffer.arrayOffset() + end);
+                    Logger.logVerboseForce(logTag, () -> "[" + shell + "] " + new String(logBytes, StandardCharsets.UTF_8)); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
+                }
+
+                if (captureWriter != null) captureWriter.write(buffer.array(), buffer.arrayOffset() + undecoded, read);
+                if (channelWriter != null) writeChunkToChannel(buffer, undecoded, end);
+            }
+
+            if (lineListener != null) {
+                buffer.limit(end).position(0);
+                decodeLines(buffer, false);
+                undecoded = buffer.remaining();
+                buffer.compact();
+            } else {
+                buffer.clear();
+            }
+
+            waitWhileSuspended();
+        }
+
+        if (lineListener != null) {
+            buffer.flip();
+            decodeLines(buffer, true);
+        }
+    }
+
+    /** Read the next chunk into the buffer after its position. */
+    private int readChunk(@Nullable ReadableByteChannel inputChannel, @NonNull ByteBuffer buffer) throws IOException {
+        if (inputChannel != null)
+            return inputChannel.read(buffer);
+
+        int read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (read > 0)
+            buffer.position(buffer.position() + read);
+        return read;
+    }
+
+    /** Write the bytes between start and end of the buffer to the {@link #channelWriter}. */
+    private void writeChunkToChannel(@NonNull ByteBuffer buffer, int start, int end) {
+        //noinspection ConstantConditions
+        try {
+            buffer.limit(end).position(start);
+            while (buffer.hasRemaining())
+                channelWriter.write(buffer);
+        } catch (IOException e) {
+            // The stream must still be read, so that the process is not blocked on a full pipe
+            Logger.logErrorExtended(LOG_TAG, "[" + shell + "] Stopped writing output to channel after failure: " + e.getMessage());
+            channelWriter = null;
+        } finally {
+            buffer.limit(buffer.capacity()).position(end);
+        }
+    }
+
+    /**
+     * Decode the remaining bytes of the buffer and call the {@link #lineListener} for each complete
+     * line. An incomplete UTF-8 sequence at the end is left in the buffer, unless endOfInput is
+     * {@code true}, in which case the last line is also passed even if it has no line terminator.
+     */
+    private void decodeLines(@NonNull ByteBuffer bytes, boolean endOfInput) {
+        //noinspection ConstantConditions
+        while (true) {
+            CoderResult result = lineDecoder.decode(bytes, lineChars, endOfInput);
+            if (endOfInput && result.isUnderflow())
+                result = lineDecoder.flush(lineChars);
+            lineChars.flip();
+            splitLines();
+            lineChars.clear();
+            if (!result.isOverflow()) break;
+        }
+
+        if (endOfInput) {
+            if (line.length() > 0) {
+                lineListener.onLine(line.toString());
+                line.setLength(0);
+            }
+            lineDecoder.reset();
+        }
+    }
+
+    /** Split the decoded chars into lines like {@link BufferedReader#readLine()} for `\n` and `\r\n`. */
+    private void splitLines() {
+        //noinspection ConstantConditions
+        char[] chars = lineChars.array();
+        int start = lineChars.arrayOffset() + lineChars.position();
+        int limit = lineChars.arrayOffset() + lineChars.limit();
+        for (int i = start; i < limit; i++) {
+            if (chars[i] != '\n') continue;
+
+            line.append(chars, start, i - start);
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r')
+                line.setLength(length - 1);
+            lineListener.onLine(line.toString());
+            line.setLength(0);
+            start = i + 1;
+        }
+        line.append(chars, start, limit - start);
+    }
+
+    private void waitWhileSuspended() {
+        synchronized (this) {
+            while (!active) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    // no action
+                }
+            }
+        }
     }
 
     /**
@@ -269,13 +532,15 @@ public class StreamGobbler extends Thread {
      * <p>Wait for gobbling to be suspended</p>
      *
      * <p>Obviously this cannot be called from the same thread as {@link #suspendGobbling()}</p>
+     *
+     * <p>This also returns if the stream ended, since gobbling can then no longer be suspended</p>
      */
     @WorkerThread
     public void waitForSuspend() {
         synchronized (this) {
-            while (active) {
+            while (active && !finished) {
                 try {
-                    this.wait(32);
+                    this.wait();
                 } catch (InterruptedException e) {
                     // no action
                 }
@@ -0,0 +1,91 @@
+package com.termux.shared.shell.am;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.net.socket.local.LocalClientSocket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A client for the framed protocol of {@link AmSocketServer}, which can run any number of am
+ * commands on one connection.
+ *
+ * Usage:
+ * <pre>
+ * try (AmSocketClient client = new AmSocketClient(TermuxConstants.TERMUX_APP.TERMUX_AM_SOCKET_FILE_PATH)) {
+ *     AmSocketClient.Result result = client.run("broadcast", "-a", action);
+ * }
+ * </pre>
+ *
+ * The methods must not be called from multiple threads at the same time.
+ */
+public class AmSocketClient implements Closeable {
+
+    /** The result of an am command. */
+    public static class Result {
+        public final int exitCode;
+        @NonNull public final String stdout;
+        @NonNull public final String stderr;
+
+        Result(int exitCode, @NonNull String stdout, @NonNull String stderr) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+
+    private final LocalSocket mSocket;
+    private final DataInputStream mInputStream;
+    private final DataOutputStream mOutputStream;
+
+    /**
+     * Connect to the {@link AmSocketServer} at {@code path} in the filesystem namespace.
+     *
+     * @param path The path of the server socket file.
+     */
+    public AmSocketClient(@NonNull String path) throws IOException {
+        mSocket = new LocalSocket();
+        try {
+            mSocket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+            mInputStream = new DataInputStream(new BufferedInputStream(mSocket.getInputStream(), LocalClientSocket.STREAM_BUFFER_SIZE));
+            mOutputStream = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream(), LocalClientSocket.STREAM_BUFFER_SIZE));
+            mOutputStream.write(AmSocketServer.FRAMED_PROTOCOL_MAGIC);
+        } catch (IOException e) {
+            mSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Run an am command and wait for its result.
+     *
+     * @param amCommandArray The am command arguments without the initial "am" arg.
+     * @return Returns the {@link Result}.
+     */
+    @NonNull
+    public Result run(@NonNull String... amCommandArray) throws IOException {
+        mOutputStream.writeInt(amCommandArray.length);
+        for (String arg : amCommandArray)
+            AmSocketServer.writeFramedString(mOutputStream, arg);
+        mOutputStream.flush();
+
+        int exitCode = mInputStream.readInt();
+        String stdout = AmSocketServer.readFramedString(mInputStream);
+        String stderr = AmSocketServer.readFramedString(mInputStream);
+        return new Result(exitCode, stdout, stderr);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+}
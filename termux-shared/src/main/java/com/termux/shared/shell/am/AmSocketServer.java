@@ -3,6 +3,7 @@ package com.termux.shared.shell.am;
 import android.Manifest;
 import android.app.Application;
 import android.content.Context;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -17,13 +18,20 @@ import com.termux.shared.net.socket.local.ILocalSocketManager;
 import com.termux.shared.net.socket.local.LocalClientSocket;
 import com.termux.shared.net.socket.local.LocalServerSocket;
 import com.termux.shared.net.socket.local.LocalSocketManager;
+import com.termux.shared.net.socket.local.LocalSocketErrno;
 import com.termux.shared.net.socket.local.LocalSocketManagerClientBase;
 import com.termux.shared.net.socket.local.LocalSocketRunConfig;
 import com.termux.shared.shell.ArgumentTokenizer;
 import com.termux.shared.shell.command.ExecutionCommand;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PushbackInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +48,20 @@ import java.util.List;
  * back in the format `exit_code\0stdout\0stderr\0` where `\0` represents a null character.
  * Check termux/termux-am-socket for implementation of a native c client.
  *
+ * Alternatively, the client can send {@link #FRAMED_PROTOCOL_MAGIC} as its first bytes to use the
+ * framed protocol, where the arguments are sent already split and any number of commands can be
+ * sent on the same connection, without the server having to tokenize a string or the client
+ * having to connect again for each command. All integers are 4 byte big endian and strings are
+ * UTF-8 bytes prefixed with their length.
+ * - Request: `argc` followed by `argc` strings for the arguments without the initial "am" arg.
+ * - Response: `exit_code` followed by the `stdout` and `stderr` strings.
+ * The client closes the connection or shuts down its output when done. The connection is also
+ * closed if the client is idle for longer than {@link LocalSocketRunConfig#getReceiveTimeout()}.
+ * Between requests, the connection is returned to the server with
+ * {@link LocalSocketManager#waitForClientData(LocalClientSocket, Runnable)}, so that idle clients
+ * do not hold a worker thread each.
+ * Check {@link AmSocketClient} for the implementation of a java client.
+ *
  * Usage:
  * 1. Optionally extend {@link AmSocketServerClient}, the implementation for
  *    {@link ILocalSocketManager} that will receive call backs from the server including
@@ -61,6 +83,32 @@ public class AmSocketServer {
 
     public static final String LOG_TAG = "AmSocketServer";
 
+    /**
+     * The bytes a client sends first to use the framed protocol. It starts with a null byte, which
+     * would be an empty am command for the text protocol, and ends with the protocol version.
+     */
+    public static final byte[] FRAMED_PROTOCOL_MAGIC = {0, 'A', 'M', 'F', 1};
+
+    /** The max number of arguments in a framed protocol request. */
+    public static final int FRAMED_PROTOCOL_MAX_ARGS = 1024;
+
+    /** The max total length in bytes of the arguments in a framed protocol request. */
+    public static final int FRAMED_PROTOCOL_MAX_REQUEST_LENGTH = 1024 * 1024;
+
+    /**
+     * The max total length in characters of the text am commands whose parsed arguments are kept in
+     * {@link #AM_COMMAND_CACHE}, so that scripts sending the same commands repeatedly do not have
+     * them tokenized again.
+     */
+    public static final int AM_COMMAND_CACHE_MAX_SIZE = 64 * 1024;
+
+    private static final LruCache<String, String[]> AM_COMMAND_CACHE = new LruCache<String, String[]>(AM_COMMAND_CACHE_MAX_SIZE) {
+        @Override
+        protected int sizeOf(String amCommandString, String[] amCommandArray) {
+            return Math.max(1, amCommandString.length());
+        }
+    };
+
     /**
      * Create the {@link AmSocketServer} {@link LocalServerSocket} and start listening for new {@link LocalClientSocket}.
      *
@@ -79,16 +127,42 @@ public class AmSocketServer {
         return localSocketManager;
     }
 
-    public static void processAmClient(@NonNull LocalSocketManager localSocketManager,
-                                       @NonNull LocalClientSocket clientSocket) {
+    /**
+     * Process a client that has connected and sent data.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} of the client.
+     * @return Returns {@code true} if the client uses the framed protocol and has been returned to
+     * the server to wait for its next request, in which case it must not be closed by the caller.
+     */
+    public static boolean processAmClient(@NonNull LocalSocketManager localSocketManager,
+                                          @NonNull LocalClientSocket clientSocket) {
         Error error;
 
+        // Peek at the first bytes to find the protocol used by the client
+        PushbackInputStream inputStream = new PushbackInputStream(clientSocket.getInputStream(), 1);
+        boolean isFramedClient;
+        try {
+            isFramedClient = readFramedProtocolMagic(inputStream);
+        } catch (IOException e) {
+            error = LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
+                localSocketManager.getLocalSocketRunConfig().getTitle(), e.getMessage());
+            sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
+            return false;
+        }
+
+        if (isFramedClient) {
+            // The magic has been read, so the client stream is used directly for the requests
+            localSocketManager.waitForClientData(clientSocket, new FramedAmClient(localSocketManager, clientSocket));
+            return true;
+        }
+
         // Read amCommandString client sent and close input stream
         StringBuilder data = new StringBuilder();
-        error = clientSocket.readDataOnInputStream(data, true);
+        error = clientSocket.readDataOnInputStream(inputStream, data, true);
         if (error != null) {
             sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
-            return;
+            return false;
         }
 
         String amCommandString = data.toString();
@@ -96,32 +170,213 @@ public class AmSocketServer {
         Logger.logVerbose(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\nam command: `" + amCommandString + "`");
 
-        // Parse am command string and convert it to a list of arguments
-        List<String> amCommandList = new ArrayList<>();
-        error = parseAmCommand(amCommandString, amCommandList);
-        if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
-            return;
+        // Parse am command string and convert it to an array of arguments, unless recently parsed
+        String[] amCommandArray = AM_COMMAND_CACHE.get(amCommandString);
+        if (amCommandArray == null) {
+            List<String> amCommandList = new ArrayList<>();
+            error = parseAmCommand(amCommandString, amCommandList);
+            if (error != null) {
+                sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
+                return false;
+            }
+
+            amCommandArray = amCommandList.toArray(new String[0]);
+            AM_COMMAND_CACHE.put(amCommandString, amCommandArray);
+        }
+
+        // Run am command and send its result to the client
+        StringBuilder stdout = new StringBuilder();
+        StringBuilder stderr = new StringBuilder();
+        int exitCode = runAmCommandForClient(localSocketManager, clientSocket, amCommandArray.clone(), stdout, stderr);
+        sendResultToClient(localSocketManager, clientSocket, exitCode, stdout.toString(), stderr.toString());
+        return false;
+    }
+
+    /**
+     * A client using the framed protocol. Each time it is run on a worker thread, it runs the next
+     * am command the client sent and then returns the client to the server to wait for the next one.
+     */
+    private static class FramedAmClient implements Runnable {
+
+        @NonNull private final LocalSocketManager mLocalSocketManager;
+        @NonNull private final LocalClientSocket mClientSocket;
+        @NonNull private final DataInputStream mInputStream;
+        @NonNull private final DataOutputStream mOutputStream;
+        private int mCommandCount;
+
+        FramedAmClient(@NonNull LocalSocketManager localSocketManager, @NonNull LocalClientSocket clientSocket) {
+            mLocalSocketManager = localSocketManager;
+            mClientSocket = clientSocket;
+            mInputStream = new DataInputStream(clientSocket.getInputStream());
+            mOutputStream = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream(),
+                LocalClientSocket.STREAM_BUFFER_SIZE));
+        }
+
+        @Override
+        public void run() {
+            if (processRequest())
+                mLocalSocketManager.waitForClientData(mClientSocket, this);
+            else
+                mClientSocket.closeClientSocket(true);
         }
 
-        String[] amCommandArray = amCommandList.toArray(new String[0]);
+        /**
+         * Read the next request of the client, run it and send its result.
+         *
+         * @return Returns {@code true} if the client may send more requests, otherwise {@code false}
+         * if it closed the connection or the connection can not be used anymore.
+         */
+        private boolean processRequest() {
+            String title = mLocalSocketManager.getLocalSocketRunConfig().getTitle();
+
+            String[] amCommandArray;
+            StringBuilder stdout = new StringBuilder();
+            StringBuilder stderr = new StringBuilder();
+            int exitCode;
+            boolean isRequestValid = true;
+            try {
+                int firstByte = mInputStream.read();
+                if (firstByte < 0) {
+                    Logger.logVerbose(LOG_TAG, "am framed protocol connection closed by peer " +
+                        mClientSocket.getPeerCred().getMinimalString() + " after " + mCommandCount + " commands");
+                    return false;
+                }
+
+                amCommandArray = readFramedAmCommand(firstByte, mInputStream);
+                if (amCommandArray == null) {
+                    isRequestValid = false;
+                    exitCode = 1;
+                    stderr.append(AmSocketServerErrno.ERRNO_INVALID_AM_FRAMED_REQUEST.getError(
+                        mClientSocket.getPeerCred().getMinimalString(), FRAMED_PROTOCOL_MAX_ARGS, FRAMED_PROTOCOL_MAX_REQUEST_LENGTH));
+                } else {
+                    exitCode = runAmCommandForClient(mLocalSocketManager, mClientSocket, amCommandArray, stdout, stderr);
+                }
+            } catch (IOException e) {
+                mLocalSocketManager.onError(mClientSocket,
+                    LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(title, e.getMessage()));
+                return false;
+            }
+
+            try {
+                mOutputStream.writeInt(sanitizeExitCode(mClientSocket, exitCode));
+                writeFramedString(mOutputStream, stdout.toString());
+                writeFramedString(mOutputStream, stderr.toString());
+                mOutputStream.flush();
+            } catch (IOException e) {
+                mLocalSocketManager.onError(mClientSocket,
+                    LocalSocketErrno.ERRNO_SEND_DATA_TO_OUTPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(title, e.getMessage()));
+                return false;
+            }
+
+            mCommandCount++;
 
-        Logger.logDebug(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
-            "\n" + ExecutionCommand.getArgumentsLogString("am command", amCommandArray));
+            // The rest of the stream can not be trusted to be at a request boundary
+            return isRequestValid;
+        }
+
+    }
+
+    /**
+     * Read {@link #FRAMED_PROTOCOL_MAGIC} from {@code inputStream} if the client sent it. If the
+     * first byte is not a null byte, it is pushed back so that the text am command can be read.
+     *
+     * @param inputStream The {@link PushbackInputStream} of the client.
+     * @return Returns {@code true} if the client uses the framed protocol. If {@code false} is
+     * returned after a null byte was read, then the rest of the stream is to be ignored, same as
+     * for text am commands.
+     */
+    private static boolean readFramedProtocolMagic(@NonNull PushbackInputStream inputStream) throws IOException {
+        int firstByte = inputStream.read();
+        if (firstByte != FRAMED_PROTOCOL_MAGIC[0]) {
+            if (firstByte >= 0)
+                inputStream.unread(firstByte);
+            return false;
+        }
+
+        for (int i = 1; i < FRAMED_PROTOCOL_MAGIC.length; i++) {
+            if (inputStream.read() != FRAMED_PROTOCOL_MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read a framed protocol request.
+     *
+     * @param firstByte The first byte of the request already read.
+     * @param inputStream The {@link DataInputStream} of the client.
+     * @return Returns the am command array, or {@code null} if request exceeds
+     * {@link #FRAMED_PROTOCOL_MAX_ARGS} or {@link #FRAMED_PROTOCOL_MAX_REQUEST_LENGTH}.
+     */
+    @Nullable
+    private static String[] readFramedAmCommand(int firstByte, @NonNull DataInputStream inputStream) throws IOException {
+        int argc = (firstByte << 24) | (inputStream.readUnsignedByte() << 16) | inputStream.readUnsignedShort();
+        if (argc < 0 || argc > FRAMED_PROTOCOL_MAX_ARGS)
+            return null;
+
+        String[] amCommandArray = new String[argc];
+        int remaining = FRAMED_PROTOCOL_MAX_REQUEST_LENGTH;
+        for (int i = 0; i < argc; i++) {
+            int length = inputStream.readInt();
+            if (length < 0 || length > remaining)
+                return null;
+            remaining -= length;
+
+            byte[] bytes = new byte[length];
+            inputStream.readFully(bytes);
+            amCommandArray[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return amCommandArray;
+    }
+
+    /** Write a framed protocol string. */
+    static void writeFramedString(@NonNull DataOutputStream outputStream, @NonNull String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    /** Read a framed protocol string. */
+    @NonNull
+    static String readFramedString(@NonNull DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0)
+            throw new EOFException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Run an am command received from a client.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that sent the am command.
+     * @param amCommandArray The am command array.
+     * @param stdout The {@link StringBuilder} to set stdout in.
+     * @param stderr The {@link StringBuilder} to set stderr in, including any error.
+     * @return Returns the exit code to send to the client.
+     */
+    private static int runAmCommandForClient(@NonNull LocalSocketManager localSocketManager,
+                                             @NonNull LocalClientSocket clientSocket,
+                                             @NonNull String[] amCommandArray,
+                                             @NonNull StringBuilder stdout, @NonNull StringBuilder stderr) {
+        if (Logger.getLogLevel() >= Logger.LOG_LEVEL_DEBUG)
+            Logger.logDebug(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+                "\n" + ExecutionCommand.getArgumentsLogString("am command", amCommandArray));
 
         AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
 
-        // Run am command and send its result to the client
-        StringBuilder stdout = new StringBuilder();
-        StringBuilder stderr = new StringBuilder();
-        error = runAmCommand(localSocketManager.getContext(), amCommandArray, stdout, stderr,
+        Error error = runAmCommand(localSocketManager.getContext(), amCommandArray, stdout, stderr,
             amSocketServerRunConfig.shouldCheckDisplayOverAppsPermission());
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, stdout.toString(),
-                !stderr.toString().isEmpty() ? stderr + "\n\n" + error : error.toString());
+            if (stderr.length() > 0)
+                stderr.append("\n\n");
+            stderr.append(error);
+            return 1;
         }
 
-        sendResultToClient(localSocketManager, clientSocket, 0, stdout.toString(), stderr.toString());
+        return 0;
     }
 
     /**
@@ -249,8 +504,8 @@ public class AmSocketServer {
         @Override
         public void onClientAccepted(@NonNull LocalSocketManager localSocketManager,
                                      @NonNull LocalClientSocket clientSocket) {
-            AmSocketServer.processAmClient(localSocketManager, clientSocket);
-            super.onClientAccepted(localSocketManager, clientSocket);
+            if (!AmSocketServer.processAmClient(localSocketManager, clientSocket))
+                super.onClientAccepted(localSocketManager, clientSocket);
         }
 
     }
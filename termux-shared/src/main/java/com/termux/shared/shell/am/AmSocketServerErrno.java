@@ -10,6 +10,7 @@ public class AmSocketServerErrno extends Errno {
     /** Errors for {@link AmSocketServer} (100-150) */
     public static final Errno ERRNO_PARSE_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 100, "Parse am command `%1$s` failed.\nException: %2$s");
     public static final Errno ERRNO_RUN_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 101, "Run am command `%1$s` failed.\nException: %2$s");
+    public static final Errno ERRNO_INVALID_AM_FRAMED_REQUEST = new Errno(TYPE, 102, "Invalid am framed protocol request received from peer %1$s. The request must have at most %2$s arguments of at most %3$s bytes in total.");
 
     AmSocketServerErrno(final String type, final int code, final String message) {
         super(type, code, message);
@@ -0,0 +1,102 @@
+package com.termux.shared.shell.am.tests;
+
+import android.content.Context;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.am.AmSocketClient;
+import com.termux.shared.shell.am.AmSocketServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+public class AmSocketServerBenchmark {
+
+    private static final String LOG_TAG = "AmSocketServerBenchmark";
+
+    /**
+     * Benchmark the commands/sec of {@link AmSocketServer} with the text protocol, with one
+     * connection per command like termux-am-socket, against the framed protocol with one
+     * keep-alive connection. The command sends a broadcast restricted to the app package, which
+     * nothing receives, so that mostly the server overhead is measured.
+     *
+     * The server must be running. This must not be run on the main thread.
+     *
+     * Run from a background thread
+     * AmSocketServerBenchmark.runBenchmark(context, TermuxConstants.TERMUX_APP.TERMUX_AM_SOCKET_FILE_PATH, 500);
+     *
+     * @param context The {@link Context} for operations.
+     * @param socketPath The path of the server socket file.
+     * @param iterations The number of commands to run with each protocol.
+     */
+    public static void runBenchmark(@NonNull final Context context, @NonNull final String socketPath, int iterations) {
+        String action = context.getPackageName() + ".AM_SOCKET_SERVER_BENCHMARK";
+        String[] amCommandArray = {"broadcast", "-a", action, "-p", context.getPackageName()};
+        String amCommandString = String.join(" ", amCommandArray);
+
+        try {
+            Logger.logInfo(LOG_TAG, "Running benchmark with " + iterations + " iterations");
+
+            // Warm up both paths
+            runTextCommand(socketPath, amCommandString);
+            try (AmSocketClient client = new AmSocketClient(socketPath)) {
+                client.run(amCommandArray);
+            }
+
+            long startTime = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < iterations; i++) {
+                if (runTextCommand(socketPath, amCommandString) != 0)
+                    throw new Exception("Text protocol am command failed");
+            }
+            long textTime = SystemClock.elapsedRealtimeNanos() - startTime;
+
+            startTime = SystemClock.elapsedRealtimeNanos();
+            try (AmSocketClient client = new AmSocketClient(socketPath)) {
+                for (int i = 0; i < iterations; i++) {
+                    AmSocketClient.Result result = client.run(amCommandArray);
+                    if (result.exitCode != 0)
+                        throw new Exception("Framed protocol am command failed: " + result.stderr);
+                }
+            }
+            long framedTime = SystemClock.elapsedRealtimeNanos() - startTime;
+
+            Logger.logInfo(LOG_TAG, String.format(Locale.ENGLISH,
+                "text: %.1f commands/sec, framed keep-alive: %.1f commands/sec, speedup: %.2fx",
+                getCommandsPerSecond(iterations, textTime), getCommandsPerSecond(iterations, framedTime),
+                (double) textTime / Math.max(1, framedTime)));
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Benchmark failed", e);
+        }
+    }
+
+    /** Run an am command with the text protocol and return its exit code. */
+    private static int runTextCommand(@NonNull String socketPath, @NonNull String amCommandString) throws IOException {
+        try (LocalSocket socket = new LocalSocket()) {
+            socket.connect(new LocalSocketAddress(socketPath, LocalSocketAddress.Namespace.FILESYSTEM));
+            socket.getOutputStream().write(amCommandString.getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+
+            InputStream inputStream = socket.getInputStream();
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1)
+                result.write(buffer, 0, bytesRead);
+
+            String exitCode = result.toString(StandardCharsets.UTF_8.name()).split("\0", 2)[0];
+            return Integer.parseInt(exitCode.trim());
+        }
+    }
+
+    private static double getCommandsPerSecond(int iterations, long timeNanos) {
+        return iterations * 1e9 / Math.max(1, timeNanos);
+    }
+
+}
@@ -184,6 +184,15 @@ public class ExecutionCommand {
      */
     public Integer backgroundCustomLogLevel;
 
+    /**
+     * The path of the file to which the stdout of {@link AppShell} commands is written as it is read,
+     * instead of being captured in {@link ResultData#stdout}. The file is created or truncated. A
+     * `/proc/self/fd/<fd>` path can be used to write to an fd open in the app process.
+     */
+    public String stdoutFilePath;
+    /** The path of the file to which the stderr of {@link AppShell} commands is written, like {@link #stdoutFilePath}. */
+    public String stderrFilePath;
+
 
     /** The session action of {@link Runner#TERMINAL_SESSION} commands. */
     public String sessionAction;
@@ -387,6 +396,12 @@ public class ExecutionCommand {
 
             if (!ignoreNull || executionCommand.backgroundCustomLogLevel != null)
                 logString.append("\n").append(executionCommand.getBackgroundCustomLogLevelLogString());
+
+            if (!ignoreNull || executionCommand.stdoutFilePath != null)
+                logString.append("\n").append(executionCommand.getStdoutFilePathLogString());
+
+            if (!ignoreNull || executionCommand.stderrFilePath != null)
+                logString.append("\n").append(executionCommand.getStderrFilePathLogString());
         }
 
         if (!ignoreNull || executionCommand.sessionAction != null)
@@ -490,6 +505,10 @@ public class ExecutionCommand {
                 markdownString.append("\n").append(MarkdownUtils.getMultiLineMarkdownStringEntry("Stdin", executionCommand.stdin, "-"));
             if (executionCommand.backgroundCustomLogLevel != null)
                 markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Background Custom Log Level", executionCommand.backgroundCustomLogLevel, "-"));
+            if (executionCommand.stdoutFilePath != null)
+                markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Stdout File Path", executionCommand.stdoutFilePath, "-"));
+            if (executionCommand.stderrFilePath != null)
+                markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Stderr File Path", executionCommand.stderrFilePath, "-"));
         }
 
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Session Action", executionCommand.sessionAction, "-"));
@@ -582,6 +601,14 @@ public class ExecutionCommand {
         return "Background Custom Log Level: `" + backgroundCustomLogLevel + "`";
     }
 
+    public String getStdoutFilePathLogString() {
+        return Logger.getSingleLineLogStringEntry("Stdout File Path", stdoutFilePath, "-");
+    }
+
+    public String getStderrFilePathLogString() {
+        return Logger.getSingleLineLogStringEntry("Stderr File Path", stderrFilePath, "-");
+    }
+
     public String getSessionActionLogString() {
         return Logger.getSingleLineLogStringEntry("Session Action", sessionAction, "-");
     }
@@ -3,6 +3,7 @@ package com.termux.shared.shell.command.environment;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.shell.command.ExecutionCommand;
 
@@ -84,17 +85,47 @@ public class AndroidShellEnvironment extends UnixShellEnvironment {
     public HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                                 @NonNull ExecutionCommand executionCommand) {
         HashMap<String, String> environment = getEnvironment(currentPackageContext, executionCommand.isFailsafe);
+        ShellEnvironmentUtils.createHomeDir(environment);
+        putShellCommandEnvironment(currentPackageContext, executionCommand, environment);
+        return environment;
+    }
+
+    @NonNull
+    @Override
+    public String[] setupShellCommandEnviron(@NonNull Context currentPackageContext,
+                                             @NonNull ExecutionCommand executionCommand,
+                                             @Nullable HashMap<String, String> additionalEnvironment) {
+        ShellEnvironmentSnapshot snapshot = getEnvironmentSnapshot(currentPackageContext, executionCommand.isFailsafe);
+        ShellEnvironmentUtils.createHomeDir(snapshot.getEnvironment());
+
+        HashMap<String, String> overlay = new HashMap<>();
+        putShellCommandEnvironment(currentPackageContext, executionCommand, overlay);
+        if (additionalEnvironment != null)
+            overlay.putAll(additionalEnvironment);
+
+        return snapshot.getEnviron(overlay);
+    }
 
+    /**
+     * Get a {@link ShellEnvironmentSnapshot} of {@link #getEnvironment(Context, boolean)}.
+     * Subclasses may return a cached snapshot while its inputs have not changed.
+     */
+    @NonNull
+    public ShellEnvironmentSnapshot getEnvironmentSnapshot(@NonNull Context currentPackageContext, boolean isFailSafe) {
+        return new ShellEnvironmentSnapshot(0, getEnvironment(currentPackageContext, isFailSafe));
+    }
+
+    /** Put the variables specific to {@code executionCommand}, like its working directory, in {@code environment}. */
+    protected void putShellCommandEnvironment(@NonNull Context currentPackageContext,
+                                              @NonNull ExecutionCommand executionCommand,
+                                              @NonNull HashMap<String, String> environment) {
         String workingDirectory = executionCommand.workingDirectory;
         environment.put(ENV_PWD,
             workingDirectory != null && !workingDirectory.isEmpty() ? new File(workingDirectory).getAbsolutePath() : // PWD must be absolute path
             getDefaultWorkingDirectoryPath());
-        ShellEnvironmentUtils.createHomeDir(environment);
 
         if (executionCommand.setShellCommandShellEnvironment && shellCommandShellEnvironment != null)
             environment.putAll(shellCommandShellEnvironment.getEnvironment(currentPackageContext, executionCommand));
-
-        return environment;
     }
 
 }
@@ -49,4 +49,19 @@ public interface IShellEnvironment {
     HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                          @NonNull ExecutionCommand executionCommand);
 
+    /**
+     * Setup shell command `environ` to be used for commands. This is the same environment as
+     * {@link #setupShellCommandEnvironment(Context, ExecutionCommand)} with {@code additionalEnvironment}
+     * added, converted to a sorted `environ` array ready to be passed to exec.
+     *
+     * @param currentPackageContext The {@link Context} for the current package.
+     * @param executionCommand The {@link ExecutionCommand} for which to set environment.
+     * @param additionalEnvironment The optional additional environment variables for the command.
+     * @return Should return the shell `environ`.
+     */
+    @NonNull
+    String[] setupShellCommandEnviron(@NonNull Context currentPackageContext,
+                                      @NonNull ExecutionCommand executionCommand,
+                                      @Nullable HashMap<String, String> additionalEnvironment);
+
 }
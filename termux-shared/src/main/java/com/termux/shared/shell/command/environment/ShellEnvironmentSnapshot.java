@@ -0,0 +1,107 @@
+package com.termux.shared.shell.command.environment;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of a shell environment, with its `environ` already converted, validated
+ * and sorted, so that it can be reused for spawning processes while its inputs do not change.
+ *
+ * Per command variables are overlaid with {@link #getEnviron(Map)}, which only has to copy the
+ * precomputed array and replace or append the overlaid variables.
+ */
+public class ShellEnvironmentSnapshot {
+
+    private final long mVersion;
+    private final Map<String, String> mEnvironment;
+    private final String[] mEnviron;
+    /** The index in {@link #mEnviron} of each variable name. */
+    private final HashMap<String, Integer> mEnvironIndexes;
+
+    /**
+     * @param version The version of the inputs the {@code environment} was created from.
+     * @param environment The environment {@link HashMap}. It is copied.
+     */
+    public ShellEnvironmentSnapshot(long version, @NonNull HashMap<String, String> environment) {
+        mVersion = version;
+        mEnvironment = Collections.unmodifiableMap(new HashMap<>(environment));
+
+        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environmentList);
+        mEnviron = environmentList.toArray(new String[0]);
+
+        mEnvironIndexes = new HashMap<>(mEnviron.length * 2);
+        for (int i = 0; i < mEnviron.length; i++)
+            mEnvironIndexes.put(mEnviron[i].substring(0, mEnviron[i].indexOf('=')), i);
+    }
+
+    /** Get the version of the inputs the snapshot was created from. */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /** Get the unmodifiable environment {@link Map}. */
+    @NonNull
+    public Map<String, String> getEnvironment() {
+        return mEnvironment;
+    }
+
+    /**
+     * Get the `environ` for the snapshot with {@code overlay} variables replacing or added to it.
+     *
+     * Invalid overlay variables are not added, and remove the variable of the same name, same as
+     * if they were put in the environment {@link HashMap} before converting it with
+     * {@link ShellEnvironmentUtils#convertEnvironmentToEnviron(HashMap)}.
+     *
+     * @param overlay The optional variables to overlay.
+     * @return Returns a new `environ` array, which is sorted.
+     */
+    @NonNull
+    public String[] getEnviron(@Nullable Map<String, String> overlay) {
+        if (overlay == null || overlay.isEmpty())
+            return mEnviron.clone();
+
+        String[] environ = Arrays.copyOf(mEnviron, mEnviron.length + overlay.size());
+        int length = mEnviron.length;
+        boolean removed = false;
+        boolean appended = false;
+
+        for (Map.Entry<String, String> variable : overlay.entrySet()) {
+            String name = variable.getKey();
+            String value = variable.getValue();
+            Integer index = mEnvironIndexes.get(name);
+            if (!ShellEnvironmentUtils.isValidEnvironmentVariableNameValuePair(name, value, true)) {
+                if (index != null) {
+                    environ[index] = null;
+                    removed = true;
+                }
+            } else if (index != null) {
+                environ[index] = name + "=" + value;
+            } else {
+                environ[length++] = name + "=" + value;
+                appended = true;
+            }
+        }
+
+        if (removed) {
+            int j = 0;
+            for (int i = 0; i < length; i++)
+                if (environ[i] != null) environ[j++] = environ[i];
+            length = j;
+        }
+
+        if (length != environ.length)
+            environ = Arrays.copyOf(environ, length);
+        if (appended)
+            Arrays.sort(environ);
+
+        return environ;
+    }
+
+}
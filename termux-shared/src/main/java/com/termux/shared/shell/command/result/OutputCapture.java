@@ -0,0 +1,335 @@
+package com.termux.shared.shell.command.result;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A bounded sink for the raw bytes of command output, like the stdout or stderr of an
+ * {@link com.termux.shared.shell.command.runner.app.AppShell}.
+ *
+ * The first {@link #mHeadCapacity} bytes are kept in a head buffer and the most recent
+ * {@link #mTailCapacity} bytes in a ring buffer, so memory use is fixed regardless of output size.
+ * Bytes pushed out of the ring are spilled to an unlinked temp file, up to {@link #mMaxSpillLength}
+ * bytes, so that the complete output can still be streamed with {@link #openInputStream()}. Bytes
+ * beyond that, or all of them if no spill directory was given, are dropped.
+ *
+ * Output is not decoded while capturing, so binary output is kept intact. Text is only decoded
+ * for the windows requested with {@link #getText(int)} and {@link #getTailText(int)}.
+ *
+ * Writing and reading is thread safe. The temp file is released with {@link #close()}. Other
+ * users that read it after the owner may be done, like a stream to another app, must call
+ * {@link #retain()} first and {@link #close()} when done.
+ */
+public class OutputCapture implements Closeable {
+
+    /** The default number of bytes kept from the start of the output. */
+    public static final int DEFAULT_HEAD_CAPACITY = 64 * 1024; // 64KB
+    /** The default number of bytes kept from the end of the output. */
+    public static final int DEFAULT_TAIL_CAPACITY = 256 * 1024; // 256KB
+    /** The default maximum number of bytes spilled to the temp file. */
+    public static final long DEFAULT_MAX_SPILL_LENGTH = 64 * 1024 * 1024; // 64MB
+
+    private static final String LOG_TAG = "OutputCapture";
+
+    private final int mHeadCapacity;
+    private final int mTailCapacity;
+    private final long mMaxSpillLength;
+    @Nullable private final File mSpillDirectory;
+
+    private final byte[] mHead;
+    private int mHeadLength;
+
+    private final byte[] mTail;
+    private int mTailStart;
+    private int mTailLength;
+
+    private RandomAccessFile mSpillFile;
+    private FileChannel mSpillChannel;
+    private long mSpillLength;
+    private boolean mSpillFailed;
+
+    private long mTotalLength;
+    private long mDroppedLength;
+    private int mReferences = 1;
+    private boolean mClosed;
+
+    /**
+     * Create a capture with the default capacities.
+     *
+     * @param spillDirectory The directory for the temp file. If {@code null}, overflow is dropped.
+     */
+    public OutputCapture(@Nullable File spillDirectory) {
+        this(DEFAULT_HEAD_CAPACITY, DEFAULT_TAIL_CAPACITY, DEFAULT_MAX_SPILL_LENGTH, spillDirectory);
+    }
+
+    public OutputCapture(int headCapacity, int tailCapacity, long maxSpillLength, @Nullable File spillDirectory) {
+        if (headCapacity < 0 || tailCapacity <= 0 || maxSpillLength < 0)
+            throw new IllegalArgumentException("Invalid capacities: head " + headCapacity + ", tail " + tailCapacity + ", spill " + maxSpillLength);
+        mHeadCapacity = headCapacity;
+        mTailCapacity = tailCapacity;
+        mMaxSpillLength = maxSpillLength;
+        mSpillDirectory = spillDirectory;
+        mHead = new byte[headCapacity];
+        mTail = new byte[tailCapacity];
+    }
+
+    /** Append {@code length} bytes of {@code buffer} starting at {@code offset}. */
+    public synchronized void write(@NonNull byte[] buffer, int offset, int length) {
+        mTotalLength += length;
+
+        int toHead = Math.min(length, mHeadCapacity - mHeadLength);
+        if (toHead > 0) {
+            System.arraycopy(buffer, offset, mHead, mHeadLength, toHead);
+            mHeadLength += toHead;
+            offset += toHead;
+            length -= toHead;
+        }
+        if (length == 0) return;
+
+        // Make room in the ring, the oldest bytes go to the spill file
+        int overflow = mTailLength + length - mTailCapacity;
+        if (overflow > 0) {
+            int fromTail = Math.min(overflow, mTailLength);
+            int firstPart = Math.min(fromTail, mTailCapacity - mTailStart);
+            spill(mTail, mTailStart, firstPart);
+            spill(mTail, 0, fromTail - firstPart);
+            mTailStart = (mTailStart + fromTail) % mTailCapacity;
+            mTailLength -= fromTail;
+
+            // Anything that would not fit in the ring even when empty skips it
+            int fromBuffer = overflow - fromTail;
+            spill(buffer, offset, fromBuffer);
+            offset += fromBuffer;
+            length -= fromBuffer;
+        }
+
+        int end = (mTailStart + mTailLength) % mTailCapacity;
+        int firstPart = Math.min(length, mTailCapacity - end);
+        System.arraycopy(buffer, offset, mTail, end, firstPart);
+        System.arraycopy(buffer, offset + firstPart, mTail, 0, length - firstPart);
+        mTailLength += length;
+    }
+
+    private void spill(byte[] buffer, int offset, int length) {
+        if (length <= 0) return;
+
+        if (mSpillChannel == null && !mSpillFailed)
+            openSpillFile();
+
+        if (mSpillChannel == null || mDroppedLength > 0 || mSpillLength + length > mMaxSpillLength) {
+            // Once bytes have been dropped, nothing more is spilled so that the spilled bytes stay contiguous
+            mDroppedLength += length;
+            return;
+        }
+
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+            while (byteBuffer.hasRemaining())
+                mSpillLength += mSpillChannel.write(byteBuffer, mSpillLength);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to spill command output", e);
+            mSpillFailed = true;
+            mDroppedLength += mSpillLength + length;
+            mSpillLength = 0;
+            closeSpillFile();
+        }
+    }
+
+    private void openSpillFile() {
+        if (mSpillDirectory == null || mClosed || mMaxSpillLength == 0) {
+            mSpillFailed = true;
+            return;
+        }
+
+        try {
+            File file = File.createTempFile("output-", ".spill", mSpillDirectory);
+            mSpillFile = new RandomAccessFile(file, "rw");
+            mSpillChannel = mSpillFile.getChannel();
+            // Unlinked right away, so that the space is reclaimed even if the app is killed
+            if (!file.delete())
+                Logger.logWarn(LOG_TAG, "Failed to unlink spill file \"" + file.getAbsolutePath() + "\"");
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create spill file in \"" + mSpillDirectory.getAbsolutePath() + "\"", e);
+            mSpillFailed = true;
+            closeSpillFile();
+        }
+    }
+
+    private void closeSpillFile() {
+        if (mSpillChannel != null) {
+            try {
+                mSpillChannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        if (mSpillFile != null) {
+            try {
+                mSpillFile.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        mSpillChannel = null;
+        mSpillFile = null;
+    }
+
+    /** Get the total number of bytes written, including those that were spilled or dropped. */
+    public synchronized long getTotalLength() {
+        return mTotalLength;
+    }
+
+    /** Get the number of bytes that were neither kept in memory nor spilled. */
+    public synchronized long getDroppedLength() {
+        return mDroppedLength;
+    }
+
+    /** Check whether all of the output is still in memory. */
+    public synchronized boolean isInMemory() {
+        return mTotalLength == mHeadLength + mTailLength;
+    }
+
+    /** Get a copy of the bytes kept from the start of the output. */
+    @NonNull
+    public synchronized byte[] getHead() {
+        return Arrays.copyOf(mHead, mHeadLength);
+    }
+
+    /** Get a copy of up to {@code maxLength} of the last bytes of the output. */
+    @NonNull
+    public synchronized byte[] getTail(int maxLength) {
+        // The head only continues into the tail if nothing was spilled or dropped in between
+        int available = isInMemory() ? mHeadLength + mTailLength : mTailLength;
+        int length = Math.max(0, Math.min(maxLength, available));
+        byte[] result = new byte[length];
+
+        int fromTail = Math.min(length, mTailLength);
+        int fromHead = length - fromTail;
+        System.arraycopy(mHead, mHeadLength - fromHead, result, 0, fromHead);
+
+        int start = (mTailStart + mTailLength - fromTail) % mTailCapacity;
+        int firstPart = Math.min(fromTail, mTailCapacity - start);
+        System.arraycopy(mTail, start, result, fromHead, firstPart);
+        System.arraycopy(mTail, 0, result, fromHead + firstPart, fromTail - firstPart);
+        return result;
+    }
+
+    /**
+     * Get up to {@code maxLength} of the last bytes of the output decoded as UTF-8. Bytes of a
+     * character cut by the window are skipped.
+     */
+    @NonNull
+    public String getTailText(int maxLength) {
+        byte[] tail = getTail(maxLength);
+        int start = 0;
+        while (start < tail.length && start < 3 && (tail[start] & 0xC0) == 0x80)
+            start++;
+        return new String(tail, start, tail.length - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the output decoded as UTF-8, if it is at most {@code maxLength} bytes long. Otherwise
+     * the start and end of it, about {@code maxLength} bytes in total, with a line noting the
+     * number of bytes omitted in between.
+     */
+    @NonNull
+    public synchronized String getText(int maxLength) {
+        if (isInMemory() && mTotalLength <= maxLength)
+            return new String(getTail(maxLength), StandardCharsets.UTF_8);
+
+        int headLength = Math.min(mHeadLength, maxLength / 4);
+        int tailLength = Math.min(mTailLength, maxLength - headLength);
+        long omitted = mTotalLength - headLength - tailLength;
+        return new String(mHead, 0, headLength, StandardCharsets.UTF_8) +
+            "\n[... " + omitted + " bytes omitted ...]\n" +
+            getTailText(tailLength);
+    }
+
+    /**
+     * Open a stream of the captured output as written so far: the head, spilled bytes and tail.
+     * If bytes were dropped, see {@link #getDroppedLength()}, they are missing from the stream.
+     *
+     * The stream stays valid until {@link #close()} is called.
+     */
+    @NonNull
+    public synchronized InputStream openInputStream() {
+        Vector<InputStream> streams = new Vector<>();
+        streams.add(new ByteArrayInputStream(mHead, 0, mHeadLength));
+        if (mSpillChannel != null && mSpillLength > 0)
+            streams.add(new SpillInputStream(mSpillChannel, mSpillLength));
+        if (mTailLength > 0) {
+            byte[] tail = new byte[mTailLength];
+            int firstPart = Math.min(mTailLength, mTailCapacity - mTailStart);
+            System.arraycopy(mTail, mTailStart, tail, 0, firstPart);
+            System.arraycopy(mTail, 0, tail, firstPart, mTailLength - firstPart);
+            streams.add(new ByteArrayInputStream(tail));
+        }
+        return new SequenceInputStream(streams.elements());
+    }
+
+    /**
+     * Keep the spill file open until a matching {@link #close()}.
+     *
+     * @return Returns {@code false} if the spill file has already been released.
+     */
+    public synchronized boolean retain() {
+        if (mClosed) return false;
+        mReferences++;
+        return true;
+    }
+
+    /**
+     * Release the spill file, once every {@link #retain()} has been matched. The captured output
+     * in memory stays available.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed || --mReferences > 0) return;
+        mClosed = true;
+        closeSpillFile();
+    }
+
+    /** Reads the spill file up to a fixed length, with positional reads so that writing may continue. */
+    private static class SpillInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private final long mLength;
+        private long mPosition;
+
+        SpillInputStream(FileChannel channel, long length) {
+            mChannel = channel;
+            mLength = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (mPosition >= mLength) return -1;
+            length = (int) Math.min(length, mLength - mPosition);
+            int read = mChannel.read(ByteBuffer.wrap(buffer, offset, length), mPosition);
+            if (read == -1) return -1;
+            mPosition += read;
+            return read;
+        }
+    }
+
+}
@@ -30,6 +30,11 @@ public class ResultConfig {
     public String resultStdoutOriginalLengthKey;
     /** The key with which to send original length of {@link ResultData#stderr} in {@link #resultPendingIntent}. */
     public String resultStderrOriginalLengthKey;
+    /** Defines whether stdout and stderr should be sent as a {@link ResultStream} instead of as
+     * truncated strings in {@link #resultPendingIntent}. */
+    public boolean resultStream;
+    /** The key with which to send the {@link ResultStream} in {@link #resultPendingIntent}. */
+    public String resultStreamKey;
 
 
     /** Defines the directory path in which to write the result of the command. */
@@ -115,6 +120,10 @@ public class ResultConfig {
             resultPendingIntentVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Stdout Original Length Key", resultStdoutOriginalLengthKey, "-"));
         if (!ignoreNull || resultStderrOriginalLengthKey != null)
             resultPendingIntentVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Stderr Original Length Key", resultStderrOriginalLengthKey, "-"));
+        if (!ignoreNull || resultStream)
+            resultPendingIntentVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Stream", resultStream, "-"));
+        if (!ignoreNull || resultStreamKey != null)
+            resultPendingIntentVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Stream Key", resultStreamKey, "-"));
 
         return resultPendingIntentVariablesString.toString();
     }
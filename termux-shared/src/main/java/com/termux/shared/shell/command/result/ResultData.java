@@ -1,6 +1,7 @@
 package com.termux.shared.shell.command.result;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.logger.Logger;
@@ -22,6 +23,14 @@ public class ResultData implements Serializable {
     /** The exit code of command. */
     public Integer exitCode;
 
+    /**
+     * The raw stdout of command, if it was captured as bytes. The {@link #stdout} then only holds
+     * the start and end of it, and this should be used to send the complete output.
+     */
+    @Nullable public transient OutputCapture stdoutCapture;
+    /** The raw stderr of command, if it was captured as bytes. */
+    @Nullable public transient OutputCapture stderrCapture;
+
     /** The internal errors list of command. */
     public List<Error> errorsList =  new ArrayList<>();
 
@@ -30,6 +39,31 @@ public class ResultData implements Serializable {
     }
 
 
+    /**
+     * Set the {@link OutputCapture} of stdout and stderr, and append the bounded text of each to
+     * {@link #stdout} and {@link #stderr} for callers that only read those.
+     */
+    public void setOutputCaptures(@Nullable OutputCapture stdoutCapture, @Nullable OutputCapture stderrCapture) {
+        this.stdoutCapture = stdoutCapture;
+        this.stderrCapture = stderrCapture;
+        if (stdoutCapture != null)
+            stdout.append(stdoutCapture.getText(OutputCapture.DEFAULT_HEAD_CAPACITY + OutputCapture.DEFAULT_TAIL_CAPACITY));
+        if (stderrCapture != null)
+            stderr.append(stderrCapture.getText(OutputCapture.DEFAULT_HEAD_CAPACITY + OutputCapture.DEFAULT_TAIL_CAPACITY));
+    }
+
+    /**
+     * Release the spill files of {@link #stdoutCapture} and {@link #stderrCapture}, if set, and
+     * unset them. Only the bounded text in {@link #stdout} and {@link #stderr} stays available.
+     */
+    public void closeOutputCaptures() {
+        if (stdoutCapture != null) stdoutCapture.close();
+        if (stderrCapture != null) stderrCapture.close();
+        stdoutCapture = null;
+        stderrCapture = null;
+    }
+
+
     public void clearStdout() {
         stdout.setLength(0);
     }
@@ -16,6 +16,8 @@ import com.termux.shared.errors.FunctionErrno;
 import com.termux.shared.android.AndroidUtils;
 import com.termux.shared.shell.command.ShellCommandConstants.RESULT_SENDER;
 
+import java.io.InputStream;
+
 public class ResultSender {
 
     private static final String LOG_TAG = "ResultSender";
@@ -57,6 +59,10 @@ public class ResultSender {
     /**
      * Send result stored in {@link ResultConfig} to command caller via {@link ResultConfig#resultPendingIntent}.
      *
+     * If {@link ResultConfig#resultStream} is {@code true}, then stdout and stderr are not sent in
+     * the result {@link Bundle}, but a {@link ResultStream} which the caller can read the complete
+     * output from.
+     *
      * @param context The {@link Context} for operations.
      * @param logTag The log tag to use for logging.
      * @param label The label for the command.
@@ -74,33 +80,50 @@ public class ResultSender {
 
         Logger.logDebugExtended(logTag, "Sending result for command \"" + label + "\":\n" + resultConfig.toString() + "\n" + ResultData.getResultDataLogString(resultData, logStdoutAndStderr));
 
-        String resultDataStdout = resultData.stdout.toString();
-        String resultDataStderr = resultData.stderr.toString();
-
-        String truncatedStdout = null;
-        String truncatedStderr = null;
-
-        String stdoutOriginalLength = String.valueOf(resultDataStdout.length());
-        String stderrOriginalLength = String.valueOf(resultDataStderr.length());
-
-        // Truncate stdout and stdout to max TRANSACTION_SIZE_LIMIT_IN_BYTES
-        if (resultDataStderr.isEmpty()) {
-            truncatedStdout = DataUtils.getTruncatedCommandOutput(resultDataStdout, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, false, false);
-        } else if (resultDataStdout.isEmpty()) {
-            truncatedStderr = DataUtils.getTruncatedCommandOutput(resultDataStderr, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, false, false);
+        String resultDataStdout;
+        String resultDataStderr;
+        String stdoutOriginalLength;
+        String stderrOriginalLength;
+        ResultStream resultStream = null;
+
+        if (resultConfig.resultStream && resultConfig.resultStreamKey != null) {
+            // The caller reads the complete output through the stream, only its length in bytes is sent
+            resultStream = new ResultStream(label, resultData);
+            resultDataStdout = null;
+            resultDataStderr = null;
+            stdoutOriginalLength = String.valueOf(resultStream.getStdoutLength());
+            stderrOriginalLength = String.valueOf(resultStream.getStderrLength());
         } else {
-            truncatedStdout = DataUtils.getTruncatedCommandOutput(resultDataStdout, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 2, false, false, false);
-            truncatedStderr = DataUtils.getTruncatedCommandOutput(resultDataStderr, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 2, false, false, false);
-        }
+            // Captured output is only read up to the transaction limit, instead of copying all of it.
+            // Its original length is then in bytes.
+            resultDataStdout = getOutputText(resultData.stdout, resultData.stdoutCapture, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+            resultDataStderr = getOutputText(resultData.stderr, resultData.stderrCapture, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+
+            String truncatedStdout = null;
+            String truncatedStderr = null;
+
+            stdoutOriginalLength = String.valueOf(resultData.stdoutCapture != null ? resultData.stdoutCapture.getTotalLength() : resultDataStdout.length());
+            stderrOriginalLength = String.valueOf(resultData.stderrCapture != null ? resultData.stderrCapture.getTotalLength() : resultDataStderr.length());
+
+            // Truncate stdout and stdout to max TRANSACTION_SIZE_LIMIT_IN_BYTES
+            if (resultDataStderr.isEmpty()) {
+                truncatedStdout = DataUtils.getTruncatedCommandOutput(resultDataStdout, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, false, false);
+            } else if (resultDataStdout.isEmpty()) {
+                truncatedStderr = DataUtils.getTruncatedCommandOutput(resultDataStderr, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, false, false);
+            } else {
+                truncatedStdout = DataUtils.getTruncatedCommandOutput(resultDataStdout, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 2, false, false, false);
+                truncatedStderr = DataUtils.getTruncatedCommandOutput(resultDataStderr, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 2, false, false, false);
+            }
 
-        if (truncatedStdout != null && truncatedStdout.length() < resultDataStdout.length()) {
-            Logger.logWarn(logTag, "The result for command \"" + label + "\" stdout length truncated from " + stdoutOriginalLength + " to " + truncatedStdout.length());
-            resultDataStdout = truncatedStdout;
-        }
+            if (truncatedStdout != null && truncatedStdout.length() < resultDataStdout.length()) {
+                Logger.logWarn(logTag, "The result for command \"" + label + "\" stdout length truncated from " + stdoutOriginalLength + " to " + truncatedStdout.length());
+                resultDataStdout = truncatedStdout;
+            }
 
-        if (truncatedStderr != null && truncatedStderr.length() < resultDataStderr.length()) {
-            Logger.logWarn(logTag, "The result for command \"" + label + "\" stderr length truncated from " + stderrOriginalLength + " to " + truncatedStderr.length());
-            resultDataStderr = truncatedStderr;
+            if (truncatedStderr != null && truncatedStderr.length() < resultDataStderr.length()) {
+                Logger.logWarn(logTag, "The result for command \"" + label + "\" stderr length truncated from " + stderrOriginalLength + " to " + truncatedStderr.length());
+                resultDataStderr = truncatedStderr;
+            }
         }
 
         String resultDataErrmsg = null;
@@ -129,6 +152,8 @@ public class ResultSender {
             resultBundle.putInt(resultConfig.resultExitCodeKey, resultData.exitCode);
         resultBundle.putInt(resultConfig.resultErrCodeKey, resultData.getErrCode());
         resultBundle.putString(resultConfig.resultErrmsgKey, resultDataErrmsg);
+        if (resultStream != null)
+            resultBundle.putBinder(resultConfig.resultStreamKey, resultStream);
 
         Intent resultIntent = new Intent();
         resultIntent.putExtra(resultConfig.resultBundleKey, resultBundle);
@@ -136,6 +161,8 @@ public class ResultSender {
         try {
             resultConfig.resultPendingIntent.send(context, Activity.RESULT_OK, resultIntent);
         } catch (PendingIntent.CanceledException e) {
+            if (resultStream != null)
+                resultStream.release();
             // The caller doesn't want the result? That's fine, just ignore
             Logger.logDebug(logTag, "The command \"" + label + "\" creator " + resultConfig.resultPendingIntent.getCreatorPackage() + " does not want the results anymore");
         }
@@ -165,6 +192,8 @@ public class ResultSender {
 
         Error error;
 
+        // The bounded text of captured output, the result files get the complete output streamed
+        // from the capture instead
         String resultDataStdout = resultData.stdout.toString();
         String resultDataStderr = resultData.stderr.toString();
 
@@ -280,8 +309,8 @@ public class ResultSender {
             // Write stdout to file
             if (!resultDataStdout.isEmpty()) {
                 filename = RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX + resultConfig.resultFilesSuffix;
-                error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
-                    null, resultDataStdout, false);
+                error = writeOutputToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
+                    resultDataStdout, resultData.stdoutCapture);
                 if (error != null) {
                     return error;
                 }
@@ -290,8 +319,8 @@ public class ResultSender {
             // Write stderr to file
             if (!resultDataStderr.isEmpty()) {
                 filename = RESULT_SENDER.RESULT_FILE_STDERR_PREFIX + resultConfig.resultFilesSuffix;
-                error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
-                    null, resultDataStderr, false);
+                error = writeOutputToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
+                    resultDataStderr, resultData.stderrCapture);
                 if (error != null) {
                     return error;
                 }
@@ -346,4 +375,24 @@ public class ResultSender {
         return null;
     }
 
+    /** Get the text of command output, at most {@code maxLength} bytes from the end if it was captured. */
+    private static String getOutputText(StringBuilder output, OutputCapture outputCapture, int maxLength) {
+        if (outputCapture != null)
+            return outputCapture.getTailText(maxLength);
+        return output.toString();
+    }
+
+    /** Write command output to a result file, streamed from its {@link OutputCapture} if it was captured. */
+    private static Error writeOutputToFile(String label, String filePath, String output, OutputCapture outputCapture) {
+        if (outputCapture == null)
+            return FileUtils.writeTextToFile(label, filePath, null, output, false);
+
+        InputStream inputStream = outputCapture.openInputStream();
+        try {
+            return FileUtils.writeStreamToFile(label, filePath, inputStream, false);
+        } finally {
+            FileUtils.closeCloseable(inputStream);
+        }
+    }
+
 }
@@ -0,0 +1,217 @@
+package com.termux.shared.shell.command.result;
+
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.RemoteException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Binder} sent in the result {@link android.os.Bundle} of a command instead of its stdout
+ * and stderr, so that the caller can read the complete output through a pipe, without the size
+ * limit of a binder transaction.
+ *
+ * File descriptors can not be sent in the {@link android.content.Intent} of a
+ * {@link android.app.PendingIntent}, so the caller gets them by calling the binder:
+ * <pre>
+ * IBinder binder = resultBundle.getBinder(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STREAM);
+ * try (ParcelFileDescriptor stdout = ResultStream.open(binder, ResultStream.TRANSACTION_OPEN_STDOUT)) {
+ *     // Read from new ParcelFileDescriptor.AutoCloseInputStream(stdout)
+ * }
+ * ResultStream.release(binder);
+ * </pre>
+ *
+ * Each open returns a new pipe with the output from the start. The output is kept until
+ * {@link #TRANSACTION_RELEASE} is called, or {@link #RELEASE_TIMEOUT_MS} has passed.
+ */
+public class ResultStream extends Binder {
+
+    /** Open a pipe for stdout. The reply has an {@code int} which is {@code 1} if a {@link ParcelFileDescriptor} follows. */
+    public static final int TRANSACTION_OPEN_STDOUT = IBinder.FIRST_CALL_TRANSACTION;
+    /** Open a pipe for stderr. The reply is the same as for {@link #TRANSACTION_OPEN_STDOUT}. */
+    public static final int TRANSACTION_OPEN_STDERR = IBinder.FIRST_CALL_TRANSACTION + 1;
+    /** Release the output. Pipes already opened are still written to the end. */
+    public static final int TRANSACTION_RELEASE = IBinder.FIRST_CALL_TRANSACTION + 2;
+
+    /** The output is released after this long if the caller does not release it. */
+    public static final long RELEASE_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private static final String LOG_TAG = "ResultStream";
+
+    private final String mLabel;
+    private final Source mStdout;
+    private final Source mStderr;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mReleased;
+
+    /**
+     * @param label The label for the command.
+     * @param resultData The {@link ResultData} with the output. If the output was captured, the
+     *                   {@link OutputCapture} is retained until the stream is released.
+     */
+    public ResultStream(String label, @NonNull ResultData resultData) {
+        mLabel = label;
+        mStdout = new Source(resultData.stdout, resultData.stdoutCapture);
+        mStderr = new Source(resultData.stderr, resultData.stderrCapture);
+        mHandler.postDelayed(this::release, RELEASE_TIMEOUT_MS);
+    }
+
+    /** Get the length in bytes of stdout as streamed. */
+    public long getStdoutLength() {
+        return mStdout.getLength();
+    }
+
+    /** Get the length in bytes of stderr as streamed. */
+    public long getStderrLength() {
+        return mStderr.getLength();
+    }
+
+    @Override
+    protected boolean onTransact(int code, @NonNull Parcel data, @Nullable Parcel reply, int flags) throws RemoteException {
+        switch (code) {
+            case TRANSACTION_OPEN_STDOUT:
+            case TRANSACTION_OPEN_STDERR:
+                ParcelFileDescriptor readSide = openPipe(code == TRANSACTION_OPEN_STDOUT ? mStdout : mStderr,
+                    code == TRANSACTION_OPEN_STDOUT ? "stdout" : "stderr");
+                if (reply != null) {
+                    reply.writeInt(readSide != null ? 1 : 0);
+                    if (readSide != null)
+                        readSide.writeToParcel(reply, Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+                } else if (readSide != null) {
+                    FileUtils.closeCloseable(readSide);
+                }
+                return true;
+            case TRANSACTION_RELEASE:
+                mHandler.post(this::release);
+                return true;
+            default:
+                return super.onTransact(code, data, reply, flags);
+        }
+    }
+
+    @Nullable
+    private synchronized ParcelFileDescriptor openPipe(@NonNull Source source, String name) {
+        if (mReleased) return null;
+
+        final InputStream inputStream = source.open();
+        if (inputStream == null) return null;
+
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create " + name + " pipe for command \"" + mLabel + "\"", e);
+            source.close();
+            return null;
+        }
+
+        final OutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+        new Thread("ResultStream-" + name) {
+            @Override
+            public void run() {
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1)
+                        outputStream.write(buffer, 0, read);
+                } catch (IOException e) {
+                    // The caller closed the pipe
+                    Logger.logVerbose(LOG_TAG, "Stopped streaming " + name + " of command \"" + mLabel + "\": " + e.getMessage());
+                } finally {
+                    FileUtils.closeCloseable(outputStream);
+                    FileUtils.closeCloseable(inputStream);
+                    source.close();
+                }
+            }
+        }.start();
+
+        return pipe[0];
+    }
+
+    /** Release the output. Pipes already opened are still written to the end. */
+    public synchronized void release() {
+        if (mReleased) return;
+        mReleased = true;
+        mHandler.removeCallbacksAndMessages(null);
+        mStdout.close();
+        mStderr.close();
+    }
+
+    /**
+     * Open a pipe for stdout or stderr of a {@link ResultStream} received in a result bundle.
+     *
+     * @param binder The {@link IBinder} received.
+     * @param transaction {@link #TRANSACTION_OPEN_STDOUT} or {@link #TRANSACTION_OPEN_STDERR}.
+     * @return Returns the read side of the pipe, or {@code null} if the output was already released.
+     */
+    @Nullable
+    public static ParcelFileDescriptor open(@NonNull IBinder binder, int transaction) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            binder.transact(transaction, data, reply, 0);
+            return reply.readInt() != 0 ? ParcelFileDescriptor.CREATOR.createFromParcel(reply) : null;
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+
+    /** Release the output of a {@link ResultStream} received in a result bundle. */
+    public static void release(@NonNull IBinder binder) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        try {
+            binder.transact(TRANSACTION_RELEASE, data, null, IBinder.FLAG_ONEWAY);
+        } finally {
+            data.recycle();
+        }
+    }
+
+    /** The output of one stream, either captured as bytes or only available as text. */
+    private static final class Source {
+        @Nullable private final OutputCapture mCapture;
+        @Nullable private final byte[] mText;
+        private final boolean mRetained;
+
+        Source(@NonNull StringBuilder text, @Nullable OutputCapture capture) {
+            mRetained = capture != null && capture.retain();
+            mCapture = mRetained ? capture : null;
+            mText = mRetained ? null : text.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        long getLength() {
+            //noinspection ConstantConditions
+            return mCapture != null ? mCapture.getTotalLength() - mCapture.getDroppedLength() : mText.length;
+        }
+
+        /** Open the output, which must be matched by {@link #close()}. */
+        @Nullable
+        InputStream open() {
+            if (mCapture == null)
+                //noinspection ConstantConditions
+                return new ByteArrayInputStream(mText);
+            return mCapture.retain() ? mCapture.openInputStream() : null;
+        }
+
+        void close() {
+            if (mCapture != null)
+                mCapture.close();
+        }
+    }
+
+}
@@ -11,8 +11,9 @@ import androidx.annotation.Nullable;
 import com.google.common.base.Joiner;
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
+import com.termux.shared.file.FileUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
-import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
+import com.termux.shared.shell.command.result.OutputCapture;
 import com.termux.shared.shell.command.result.ResultData;
 import com.termux.shared.errors.Errno;
 import com.termux.shared.logger.Logger;
@@ -20,17 +21,19 @@ import com.termux.shared.shell.command.ExecutionCommand.ExecutionState;
 import com.termux.shared.shell.command.environment.IShellEnvironment;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.StreamGobbler;
+import com.termux.terminal.ForkServer;
 
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 
 /**
- * A class that maintains info for background app shells run with {@link Runtime#exec(String[], String[], File)}.
+ * A class that maintains info for background app shells run with {@link ForkServer#exec(String[], String[], File)}
+ * or {@link Runtime#exec(String[], String[], File)} if the fork server is not running.
  * It also provides a way to link each {@link Process} with the {@link ExecutionCommand}
  * that started it. The shell is run in the app user context.
  */
@@ -50,7 +53,8 @@ public final class AppShell {
     }
 
     /**
-     * Start execution of an {@link ExecutionCommand} with {@link Runtime#exec(String[], String[], File)}.
+     * Start execution of an {@link ExecutionCommand} with {@link ForkServer#exec(String[], String[], File)}
+     * or {@link Runtime#exec(String[], String[], File)}.
      *
      * The {@link ExecutionCommand#executable}, must be set.
      * The  {@link ExecutionCommand#commandLabel}, {@link ExecutionCommand#arguments} and
@@ -105,13 +109,8 @@ public final class AppShell {
         final String[] commandArray = shellEnvironmentClient.setupShellCommandArguments(executionCommand.executable, executionCommand.arguments);
 
         // Setup command environment
-        HashMap<String, String> environment = shellEnvironmentClient.setupShellCommandEnvironment(currentPackageContext,
-            executionCommand);
-        if (additionalEnvironment != null)
-            environment.putAll(additionalEnvironment);
-        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
-        Collections.sort(environmentList);
-        String[] environmentArray = environmentList.toArray(new String[0]);
+        String[] environmentArray = shellEnvironmentClient.setupShellCommandEnviron(currentPackageContext,
+            executionCommand, additionalEnvironment);
 
         if (!executionCommand.setState(ExecutionState.EXECUTING)) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()));
@@ -125,16 +124,30 @@ public final class AppShell {
         Logger.logVerboseExtended(LOG_TAG, "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
             Joiner.on("\n").join(environmentArray));
 
-        // Exec the process
-        final Process process;
+        // Exec the process, through the fork server if it's running, since forking the app process is slow
+        Process process;
         try {
-            process = Runtime.getRuntime().exec(commandArray, environmentArray, new File(executionCommand.workingDirectory));
+            File workingDirectory = new File(executionCommand.workingDirectory);
+            process = ForkServer.exec(commandArray, environmentArray, workingDirectory);
+            if (process == null)
+                process = Runtime.getRuntime().exec(commandArray, environmentArray, workingDirectory);
         } catch (IOException e) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()), e);
             AppShell.processAppShellResult(null, executionCommand);
             return null;
         }
 
+        return execute(currentPackageContext, process, executionCommand, appShellClient, isSynchronous);
+    }
+
+    /**
+     * Run the {@link AppShell} for the already started {@code process} of an {@link ExecutionCommand}
+     * that is in the {@link ExecutionState#EXECUTING} state. This is package-private so that it can
+     * be tested without the native fork server.
+     */
+    static AppShell execute(@NonNull final Context currentPackageContext, @NonNull Process process,
+                            @NonNull ExecutionCommand executionCommand, final AppShellClient appShellClient,
+                            final boolean isSynchronous) {
         final AppShell appShell = new AppShell(process, executionCommand, appShellClient);
         if (isSynchronous) {
             try {
@@ -161,9 +174,15 @@ public final class AppShell {
     /**
      * Sets up stdout and stderr readers for the {@link #mProcess} and waits for the process to end.
      *
-     * If the processes finishes, then sets {@link ResultData#stdout}, {@link ResultData#stderr}
-     * and {@link ResultData#exitCode} for the {@link #mExecutionCommand} of the {@code appShell}
-     * and then calls {@link #processAppShellResult(AppShell, ExecutionCommand) to process the result}.
+     * If the processes finishes, then sets {@link ResultData#stdout}, {@link ResultData#stderr},
+     * their {@link OutputCapture} and {@link ResultData#exitCode} for the {@link #mExecutionCommand}
+     * of the {@code appShell} and then calls {@link #processAppShellResult(AppShell, ExecutionCommand) to process the result}.
+     *
+     * The output is captured as bytes with a bounded amount kept in memory, and the rest spilled to
+     * the cache directory, so that commands with large output don't exhaust the heap. The
+     * {@link AppShellClient} must call {@link ResultData#closeOutputCaptures()} when done with it.
+     * If {@link ExecutionCommand#stdoutFilePath} or {@link ExecutionCommand#stderrFilePath} is set,
+     * then that output is written to the file as it is read instead of being captured.
      *
      * @param context The {@link Context} for operations.
      */
@@ -174,10 +193,27 @@ public final class AppShell {
 
         mExecutionCommand.resultData.exitCode = null;
 
+        // open the files to stream stdout and stderr to, if set
+        FileOutputStream stdoutFileStream = null;
+        FileOutputStream stderrFileStream = null;
+        try {
+            stdoutFileStream = openOutputFile(mExecutionCommand.stdoutFilePath);
+            stderrFileStream = openOutputFile(mExecutionCommand.stderrFilePath);
+        } catch (IOException e) {
+            FileUtils.closeCloseable(stdoutFileStream);
+            mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
+            mExecutionCommand.resultData.exitCode = 1;
+            AppShell.processAppShellResult(this, null);
+            kill();
+            return;
+        }
+
         // setup stdin, and stdout and stderr gobblers
         DataOutputStream STDIN = new DataOutputStream(mProcess.getOutputStream());
-        StreamGobbler STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
-        StreamGobbler STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
+        OutputCapture stdoutCapture = stdoutFileStream == null ? new OutputCapture(context.getCacheDir()) : null;
+        OutputCapture stderrCapture = stderrFileStream == null ? new OutputCapture(context.getCacheDir()) : null;
+        StreamGobbler STDOUT = createStreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), stdoutCapture, stdoutFileStream);
+        StreamGobbler STDERR = createStreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), stderrCapture, stderrFileStream);
 
         // start gobbling
         STDOUT.start();
@@ -201,6 +237,10 @@ public final class AppShell {
                     // returning null
                     mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
                     mExecutionCommand.resultData.exitCode = 1;
+                    if (stdoutCapture != null) stdoutCapture.close();
+                    if (stderrCapture != null) stderrCapture.close();
+                    FileUtils.closeCloseable(stdoutFileStream);
+                    FileUtils.closeCloseable(stderrFileStream);
                     AppShell.processAppShellResult(this, null);
                     kill();
                     return;
@@ -224,6 +264,10 @@ public final class AppShell {
         STDOUT.join();
         STDERR.join();
         mProcess.destroy();
+        FileUtils.closeCloseable(stdoutFileStream);
+        FileUtils.closeCloseable(stderrFileStream);
+
+        mExecutionCommand.resultData.setOutputCaptures(stdoutCapture, stderrCapture);
 
         // Process result
         if (exitCode == 0)
@@ -234,17 +278,41 @@ public final class AppShell {
         // If the execution command has already failed, like SIGKILL was sent, then don't continue
         if (mExecutionCommand.isStateFailed()) {
             Logger.logDebug(LOG_TAG, "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell state to ExecutionState.EXECUTED and processing results since it has already failed");
+            mExecutionCommand.resultData.closeOutputCaptures();
             return;
         }
 
         mExecutionCommand.resultData.exitCode = exitCode;
 
-        if (!mExecutionCommand.setState(ExecutionState.EXECUTED))
+        if (!mExecutionCommand.setState(ExecutionState.EXECUTED)) {
+            mExecutionCommand.resultData.closeOutputCaptures();
             return;
+        }
 
         AppShell.processAppShellResult(this, null);
     }
 
+    /** Open the file at {@code path} to write output to, or return {@code null} if it is not set. */
+    @Nullable
+    private static FileOutputStream openOutputFile(@Nullable String path) throws IOException {
+        return DataUtils.isNullOrEmpty(path) ? null : new FileOutputStream(path);
+    }
+
+    /**
+     * Create a {@link StreamGobbler} for an output stream of {@link #mProcess}, which writes the
+     * output to {@code fileStream} through its channel if set, otherwise to {@code outputCapture}.
+     */
+    @NonNull
+    private StreamGobbler createStreamGobbler(@NonNull String shell, @NonNull InputStream inputStream,
+                                              @Nullable OutputCapture outputCapture,
+                                              @Nullable FileOutputStream fileStream) {
+        if (fileStream != null)
+            return new StreamGobbler(shell, inputStream, null, fileStream.getChannel(), null, null,
+                mExecutionCommand.backgroundCustomLogLevel);
+        else
+            return new StreamGobbler(shell, inputStream, outputCapture, mExecutionCommand.backgroundCustomLogLevel);
+    }
+
     /**
      * Kill this {@link AppShell} by sending a {@link OsConstants#SIGILL} to its {@link #mProcess}
      * if its still executing.
@@ -322,6 +390,8 @@ public final class AppShell {
             // Otherwise, the callback host can set it himself when its done with the appShell
             if (!executionCommand.isStateFailed())
                 executionCommand.setState(ExecutionCommand.ExecutionState.SUCCESS);
+            // Callers without a callback only read the bounded text in ResultData
+            executionCommand.resultData.closeOutputCaptures();
         }
     }
 
@@ -12,7 +12,7 @@ import java.util.Formatter;
 import java.util.List;
 
 /*
- * Version: v0.53.0
+ * Version: v0.55.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -282,6 +282,14 @@ import java.util.List;
  * - 0.53.0 (2025-01-12)
  *      - Renamed `TERMUX_API`, `TERMUX_STYLING`, `TERMUX_TASKER`, `TERMUX_WIDGET` classes with `_APP` suffix added.
  *      - Added `TERMUX_*_MAIN_ACTIVITY_NAME` and `TERMUX_*_LAUNCHER_ACTIVITY_NAME` constants to each app class.
+ *
+ * - 0.54.0 (2026-10-19)
+ *      - Added `TERMUX_APP.TERMUX_SERVICE.EXTRA_RESULT_STREAM`, `TERMUX_APP.TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STREAM`
+ *          and `TERMUX_APP.RUN_COMMAND_SERVICE.EXTRA_RESULT_STREAM`.
+ *
+ * - 0.55.0 (2026-10-19)
+ *      - Added `TERMUX_APP.TERMUX_SERVICE.EXTRA_STDOUT_FILE`, `TERMUX_APP.TERMUX_SERVICE.EXTRA_STDERR_FILE`,
+ *          `TERMUX_APP.RUN_COMMAND_SERVICE.EXTRA_STDOUT_FILE` and `TERMUX_APP.RUN_COMMAND_SERVICE.EXTRA_STDERR_FILE`.
  */
 
 /**
@@ -1051,6 +1059,18 @@ public final class TermuxConstants {
              * be created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".execute.result_files_suffix"; // Default: "com.termux.execute.result_files_suffix"
+            /** Intent {@code boolean} extra for whether stdout and stderr should be sent as a
+             * {@link com.termux.shared.shell.command.result.ResultStream} in {@link #EXTRA_PLUGIN_RESULT_BUNDLE_STREAM}
+             * instead of truncated in {@link #EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT} and {@link #EXTRA_PLUGIN_RESULT_BUNDLE_STDERR}
+             * for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_RESULT_STREAM = TERMUX_PACKAGE_NAME + ".execute.result_stream"; // Default: "com.termux.execute.result_stream"
+            /** Intent {@code String} extra for the path of the file to which stdout of background
+             * commands should be written as it is read, instead of being sent with the result.
+             * The file is created or truncated. This is for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_STDOUT_FILE = TERMUX_PACKAGE_NAME + ".execute.stdout_file"; // Default: "com.termux.execute.stdout_file"
+            /** Intent {@code String} extra for the path of the file to which stderr of background
+             * commands should be written, like {@link #EXTRA_STDOUT_FILE}, for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_STDERR_FILE = TERMUX_PACKAGE_NAME + ".execute.stderr_file"; // Default: "com.termux.execute.stderr_file"
 
 
 
@@ -1112,6 +1132,9 @@ public final class TermuxConstants {
             public static final String EXTRA_PLUGIN_RESULT_BUNDLE_ERR = "err"; // Default: "err"
             /** Intent {@code String} extra for errmsg value of execute command of the {@link #EXTRA_PLUGIN_RESULT_BUNDLE} */
             public static final String EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG = "errmsg"; // Default: "errmsg"
+            /** Intent {@code IBinder} extra for the {@link com.termux.shared.shell.command.result.ResultStream}
+             * of execute command of the {@link #EXTRA_PLUGIN_RESULT_BUNDLE} if {@link #EXTRA_RESULT_STREAM} is {@code true} */
+            public static final String EXTRA_PLUGIN_RESULT_BUNDLE_STREAM = "stream"; // Default: "stream"
 
         }
 
@@ -1189,6 +1212,17 @@ public final class TermuxConstants {
              * created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_FILES_SUFFIX"; // Default: "com.termux.RUN_COMMAND_RESULT_FILES_SUFFIX"
+            /** Intent {@code boolean} extra for whether stdout and stderr should be sent as a
+             * {@link com.termux.shared.shell.command.result.ResultStream} instead of truncated in
+             * the result bundle of {@link #EXTRA_PENDING_INTENT} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_RESULT_STREAM = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_STREAM"; // Default: "com.termux.RUN_COMMAND_RESULT_STREAM"
+            /** Intent {@code String} extra for the path of the file to which stdout of background
+             * commands should be written as it is read, instead of being sent with the result.
+             * The file is created or truncated. This is for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_STDOUT_FILE = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_STDOUT_FILE"; // Default: "com.termux.RUN_COMMAND_STDOUT_FILE"
+            /** Intent {@code String} extra for the path of the file to which stderr of background
+             * commands should be written, like {@link #EXTRA_STDOUT_FILE}, for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_STDERR_FILE = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_STDERR_FILE"; // Default: "com.termux.RUN_COMMAND_STDERR_FILE"
 
         }
     }
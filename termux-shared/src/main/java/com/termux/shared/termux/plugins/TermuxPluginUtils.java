@@ -85,6 +85,7 @@ public class TermuxPluginUtils {
             // Send result to caller
             error = ResultSender.sendCommandResultData(context, logTag, executionCommand.getCommandIdAndLabelLogString(),
                 executionCommand.resultConfig, executionCommand.resultData, isExecutionCommandLoggingEnabled);
+            resultData.closeOutputCaptures();
             if (error != null) {
                 // error will be added to existing Errors
                 resultData.setStateFailed(error);
@@ -185,6 +186,7 @@ public class TermuxPluginUtils {
             // Send result to caller
             error = ResultSender.sendCommandResultData(context, logTag, executionCommand.getCommandIdAndLabelLogString(),
                 executionCommand.resultConfig, executionCommand.resultData, isExecutionCommandLoggingEnabled);
+            resultData.closeOutputCaptures();
             if (error != null) {
                 // error will be added to existing Errors
                 resultData.setStateFailed(error);
@@ -217,6 +219,7 @@ public class TermuxPluginUtils {
         resultConfig.resultExitCodeKey = TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE;
         resultConfig.resultErrCodeKey = TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR;
         resultConfig.resultErrmsgKey = TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG;
+        resultConfig.resultStreamKey = TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STREAM;
     }
 
     /** Set variables which will be used by {@link ResultSender#sendCommandResultData(Context, String, String, ResultConfig, ResultData, boolean)}
@@ -18,14 +18,17 @@ public class TermuxAppSharedProperties extends TermuxSharedProperties {
     }
 
     /**
-     * Initialize the {@link #properties} and load properties from disk.
+     * Initialize the {@link #properties}, load properties from disk and start watching the
+     * properties files so that they are reloaded when changed.
      *
      * @param context The {@link Context} for operations.
      * @return Returns the {@link TermuxAppSharedProperties}.
      */
     public static TermuxAppSharedProperties init(@NonNull Context context) {
-        if (properties == null)
+        if (properties == null) {
             properties = new TermuxAppSharedProperties(context);
+            properties.startWatchingPropertiesFiles();
+        }
 
         return properties;
     }
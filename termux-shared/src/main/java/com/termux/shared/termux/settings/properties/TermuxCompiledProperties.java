@@ -0,0 +1,197 @@
+package com.termux.shared.termux.settings.properties;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.termux.TermuxConstants;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the internal values of the termux properties, with a typed final field
+ * for each key defined by {@link TermuxPropertyConstants#TERMUX_APP_PROPERTIES_LIST}.
+ *
+ * A new instance is built by {@link TermuxSharedProperties#loadTermuxPropertiesFromDisk()} every
+ * time the properties are loaded and swapped with the previous one, so that reading a value is a
+ * field read without any locking, copying or casting, and all values read from one instance are
+ * consistent with each other. Values for keys not loaded by the {@link TermuxSharedProperties}
+ * are set to their defaults.
+ */
+public final class TermuxCompiledProperties {
+
+    /* boolean */
+    public final boolean allowExternalApps;
+    public final boolean disableFileShareReceiver;
+    public final boolean disableFileViewReceiver;
+    public final boolean disableHardwareKeyboardShortcuts;
+    public final boolean disableTerminalSessionChangeToast;
+    public final boolean enforceCharBasedInput;
+    public final boolean extraKeysTextAllCaps;
+    public final boolean hideSoftKeyboardOnStartup;
+    public final boolean runTermuxAmSocketServer;
+    public final boolean terminalOnClickUrlOpen;
+    public final boolean useCtrlSpaceWorkaround;
+    public final boolean useFullScreen;
+    public final boolean useFullScreenWorkaround;
+    public final boolean desktopLocalDisplay;
+    public final boolean desktopPerfHud;
+
+    /* int */
+    public final int bellBehaviour;
+    public final int deleteTMPDIRFilesOlderThanXDaysOnExit;
+    public final int linuxSessionPoolSize;
+    public final int maxBackgroundTasks;
+    public final int terminalCursorBlinkRate;
+    public final int terminalCursorStyle;
+    public final int terminalMarginHorizontal;
+    public final int terminalMarginVertical;
+    public final int terminalTranscriptRows;
+
+    /* float */
+    public final float terminalToolbarHeightScaleFactor;
+
+    /* Integer (may be null) */
+    @Nullable public final Integer shortcutCreateSession;
+    @Nullable public final Integer shortcutNextSession;
+    @Nullable public final Integer shortcutPreviousSession;
+    @Nullable public final Integer shortcutRenameSession;
+
+    /* String */
+    public final String backKeyBehaviour;
+    public final String defaultWorkingDirectory;
+    public final String extraKeys;
+    public final String extraKeysStyle;
+    public final String nightMode;
+    public final String softKeyboardToggleBehaviour;
+    public final String volumeKeysBehaviour;
+
+    /* Derived from String values */
+    public final boolean isBackKeyTheEscapeKey;
+    public final boolean shouldEnableDisableSoftKeyboardOnToggle;
+    public final boolean areVirtualVolumeKeysDisabled;
+
+    /** The internal values the fields were built from. */
+    private final Map<String, Object> mInternalProperties;
+
+    /**
+     * Build the snapshot.
+     *
+     * @param context The {@link Context} to get default values.
+     * @param internalProperties The internal values of the loaded properties. This must be a map
+     *                           that is not modified afterwards, like the copy returned by
+     *                           {@link TermuxSharedProperties#getInternalProperties()}.
+     */
+    TermuxCompiledProperties(@NonNull Context context, @NonNull Map<String, Object> internalProperties) {
+        mInternalProperties = Collections.unmodifiableMap(internalProperties);
+
+        allowExternalApps = getBoolean(context, TermuxConstants.PROP_ALLOW_EXTERNAL_APPS);
+        disableFileShareReceiver = getBoolean(context, TermuxPropertyConstants.KEY_DISABLE_FILE_SHARE_RECEIVER);
+        disableFileViewReceiver = getBoolean(context, TermuxPropertyConstants.KEY_DISABLE_FILE_VIEW_RECEIVER);
+        disableHardwareKeyboardShortcuts = getBoolean(context, TermuxPropertyConstants.KEY_DISABLE_HARDWARE_KEYBOARD_SHORTCUTS);
+        disableTerminalSessionChangeToast = getBoolean(context, TermuxPropertyConstants.KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST);
+        enforceCharBasedInput = getBoolean(context, TermuxPropertyConstants.KEY_ENFORCE_CHAR_BASED_INPUT);
+        extraKeysTextAllCaps = getBoolean(context, TermuxPropertyConstants.KEY_EXTRA_KEYS_TEXT_ALL_CAPS);
+        hideSoftKeyboardOnStartup = getBoolean(context, TermuxPropertyConstants.KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP);
+        runTermuxAmSocketServer = getBoolean(context, TermuxPropertyConstants.KEY_RUN_TERMUX_AM_SOCKET_SERVER);
+        terminalOnClickUrlOpen = getBoolean(context, TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN);
+        useCtrlSpaceWorkaround = getBoolean(context, TermuxPropertyConstants.KEY_USE_CTRL_SPACE_WORKAROUND);
+        useFullScreen = getBoolean(context, TermuxPropertyConstants.KEY_USE_FULLSCREEN);
+        useFullScreenWorkaround = getBoolean(context, TermuxPropertyConstants.KEY_USE_FULLSCREEN_WORKAROUND);
+        desktopLocalDisplay = getBoolean(context, TermuxPropertyConstants.KEY_DESKTOP_LOCAL_DISPLAY);
+        desktopPerfHud = getBoolean(context, TermuxPropertyConstants.KEY_DESKTOP_PERF_HUD);
+
+        bellBehaviour = getInt(context, TermuxPropertyConstants.KEY_BELL_BEHAVIOUR);
+        deleteTMPDIRFilesOlderThanXDaysOnExit = getInt(context, TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT);
+        linuxSessionPoolSize = getInt(context, TermuxPropertyConstants.KEY_LINUX_SESSION_POOL_SIZE);
+        maxBackgroundTasks = getInt(context, TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS);
+        terminalCursorBlinkRate = getInt(context, TermuxPropertyConstants.KEY_TERMINAL_CURSOR_BLINK_RATE);
+        terminalCursorStyle = getInt(context, TermuxPropertyConstants.KEY_TERMINAL_CURSOR_STYLE);
+        terminalMarginHorizontal = getInt(context, TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL);
+        terminalMarginVertical = getInt(context, TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL);
+        terminalTranscriptRows = getInt(context, TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS);
+
+        terminalToolbarHeightScaleFactor = (float) getValue(context, TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR);
+
+        shortcutCreateSession = (Integer) getValue(context, TermuxPropertyConstants.KEY_SHORTCUT_CREATE_SESSION);
+        shortcutNextSession = (Integer) getValue(context, TermuxPropertyConstants.KEY_SHORTCUT_NEXT_SESSION);
+        shortcutPreviousSession = (Integer) getValue(context, TermuxPropertyConstants.KEY_SHORTCUT_PREVIOUS_SESSION);
+        shortcutRenameSession = (Integer) getValue(context, TermuxPropertyConstants.KEY_SHORTCUT_RENAME_SESSION);
+
+        backKeyBehaviour = (String) getValue(context, TermuxPropertyConstants.KEY_BACK_KEY_BEHAVIOUR);
+        defaultWorkingDirectory = (String) getValue(context, TermuxPropertyConstants.KEY_DEFAULT_WORKING_DIRECTORY);
+        extraKeys = (String) getValue(context, TermuxPropertyConstants.KEY_EXTRA_KEYS);
+        extraKeysStyle = (String) getValue(context, TermuxPropertyConstants.KEY_EXTRA_KEYS_STYLE);
+        nightMode = (String) getValue(context, TermuxPropertyConstants.KEY_NIGHT_MODE);
+        softKeyboardToggleBehaviour = (String) getValue(context, TermuxPropertyConstants.KEY_SOFT_KEYBOARD_TOGGLE_BEHAVIOUR);
+        volumeKeysBehaviour = (String) getValue(context, TermuxPropertyConstants.KEY_VOLUME_KEYS_BEHAVIOUR);
+
+        isBackKeyTheEscapeKey = TermuxPropertyConstants.IVALUE_BACK_KEY_BEHAVIOUR_ESCAPE.equals(backKeyBehaviour);
+        shouldEnableDisableSoftKeyboardOnToggle = TermuxPropertyConstants.IVALUE_SOFT_KEYBOARD_TOGGLE_BEHAVIOUR_ENABLE_DISABLE.equals(softKeyboardToggleBehaviour);
+        areVirtualVolumeKeysDisabled = TermuxPropertyConstants.IVALUE_VOLUME_KEY_BEHAVIOUR_VOLUME.equals(volumeKeysBehaviour);
+    }
+
+    /**
+     * Get the internal {@link Object} value for the key.
+     *
+     * @param key The key to read.
+     * @return Returns the {@link Object} object. This will be {@code null} if key is not found or
+     * the object stored against the key is {@code null}. Use {@link #containsKey(String)} to
+     * detect the later.
+     */
+    @Nullable
+    public Object getInternalPropertyValue(String key) {
+        return key != null ? mInternalProperties.get(key) : null;
+    }
+
+    /** Check whether the key was loaded from the properties. */
+    public boolean containsKey(String key) {
+        return key != null && mInternalProperties.containsKey(key);
+    }
+
+    /** Get the unmodifiable map of internal values the snapshot was built from. */
+    @NonNull
+    public Map<String, Object> getInternalProperties() {
+        return mInternalProperties;
+    }
+
+    /**
+     * Get the keys whose internal values differ between {@code other} and this snapshot, including
+     * the keys loaded by only one of them.
+     */
+    @NonNull
+    public Set<String> getChangedKeys(@NonNull TermuxCompiledProperties other) {
+        Set<String> keys = new HashSet<>(mInternalProperties.keySet());
+        keys.addAll(other.mInternalProperties.keySet());
+
+        Set<String> changedKeys = new HashSet<>();
+        for (String key : keys) {
+            if (!Objects.equals(mInternalProperties.get(key), other.mInternalProperties.get(key)))
+                changedKeys.add(key);
+        }
+        return changedKeys;
+    }
+
+
+
+    private Object getValue(@NonNull Context context, @NonNull String key) {
+        if (mInternalProperties.containsKey(key))
+            return mInternalProperties.get(key);
+        else
+            return TermuxSharedProperties.getInternalTermuxPropertyValueFromValue(context, key, null);
+    }
+
+    private boolean getBoolean(@NonNull Context context, @NonNull String key) {
+        return (boolean) getValue(context, key);
+    }
+
+    private int getInt(@NonNull Context context, @NonNull String key) {
+        return (int) getValue(context, key);
+    }
+
+}
@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.19.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,12 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-19)
+ *      - Add `*KEY_LINUX_SESSION_POOL_SIZE*`.
+ *      - Add `KEY_DESKTOP_LOCAL_DISPLAY`.
+ *      - Add `KEY_DESKTOP_PERF_HUD`.
+ *      - Add `*KEY_MAX_BACKGROUND_TASKS*`.
  */
 
 /**
@@ -163,6 +169,17 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for whether the OS tab desktop should run on a local Xvfb whose screen is
+     * read directly from memory instead of being sent over VNC */
+    public static final String KEY_DESKTOP_LOCAL_DISPLAY =  "desktop-local-display"; // Default: "desktop-local-display"
+
+
+
+    /** Defines the key for whether the OS tab desktop should show an overlay with VNC performance numbers */
+    public static final String KEY_DESKTOP_PERF_HUD =  "desktop-perf-hud"; // Default: "desktop-perf-hud"
+
+
+
 
 
     /* int */
@@ -233,6 +250,28 @@ public final class TermuxPropertyConstants {
 
 
 
+    /**
+     * Defines the key for the number of pre-started Linux sessions kept per working mode so that
+     * new tabs open instantly. `0` disables the pool.
+     */
+    public static final String KEY_LINUX_SESSION_POOL_SIZE =  "linux-session-pool-size"; // Default: "linux-session-pool-size"
+    public static final int IVALUE_LINUX_SESSION_POOL_SIZE_MIN = 0;
+    public static final int IVALUE_LINUX_SESSION_POOL_SIZE_MAX = 4;
+    public static final int DEFAULT_IVALUE_LINUX_SESSION_POOL_SIZE = 1;
+
+
+
+    /**
+     * Defines the key for the maximum number of background TermuxTasks that may run at the same
+     * time. Further tasks are queued until one exits.
+     */
+    public static final String KEY_MAX_BACKGROUND_TASKS =  "max-background-tasks"; // Default: "max-background-tasks"
+    public static final int IVALUE_MAX_BACKGROUND_TASKS_MIN = 1;
+    public static final int IVALUE_MAX_BACKGROUND_TASKS_MAX = 32;
+    public static final int DEFAULT_IVALUE_MAX_BACKGROUND_TASKS = 8;
+
+
+
     /** Defines the key for the terminal margin on left and right in dp units */
     public static final String KEY_TERMINAL_MARGIN_HORIZONTAL =  "terminal-margin-horizontal"; // Default: "terminal-margin-horizontal"
     public static final int IVALUE_TERMINAL_MARGIN_HORIZONTAL_MIN = 0;
@@ -403,11 +442,15 @@ public final class TermuxPropertyConstants {
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
+        KEY_DESKTOP_LOCAL_DISPLAY,
+        KEY_DESKTOP_PERF_HUD,
         TermuxConstants.PROP_ALLOW_EXTERNAL_APPS,
 
         /* int */
         KEY_BELL_BEHAVIOUR,
         KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT,
+        KEY_LINUX_SESSION_POOL_SIZE,
+        KEY_MAX_BACKGROUND_TASKS,
         KEY_TERMINAL_CURSOR_BLINK_RATE,
         KEY_TERMINAL_CURSOR_STYLE,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
@@ -449,6 +492,8 @@ public final class TermuxPropertyConstants {
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
+        KEY_DESKTOP_LOCAL_DISPLAY,
+        KEY_DESKTOP_PERF_HUD,
         TermuxConstants.PROP_ALLOW_EXTERNAL_APPS
     ));
 
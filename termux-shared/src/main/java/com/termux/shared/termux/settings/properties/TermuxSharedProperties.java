@@ -3,12 +3,15 @@ package com.termux.shared.termux.settings.properties;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.logger.Logger;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.settings.properties.SharedProperties;
+import com.termux.shared.settings.properties.SharedPropertiesFileWatcher;
 import com.termux.shared.settings.properties.SharedPropertiesParser;
 import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 
 import java.io.File;
 import java.util.HashMap;
@@ -16,9 +19,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class TermuxSharedProperties {
 
+    /** The listener for changes to the internal value of a property. */
+    public interface OnPropertyChangeListener {
+
+        /**
+         * Called after the properties have been reloaded and the internal value for the key has
+         * changed. This is called on the thread that reloaded the properties, which is the
+         * properties file watcher thread for changes to the properties files, so it must not block
+         * and must post to the main thread for UI updates.
+         *
+         * @param properties The {@link TermuxCompiledProperties} with the new values.
+         * @param key The key of the property.
+         * @param oldValue The old internal value.
+         * @param newValue The new internal value.
+         */
+        void onPropertyChanged(@NonNull TermuxCompiledProperties properties, @NonNull String key,
+                               @Nullable Object oldValue, @Nullable Object newValue);
+
+    }
+
     protected final Context mContext;
     protected final String mLabel;
     protected final List<String> mPropertiesFilePaths;
@@ -27,6 +51,12 @@ public abstract class TermuxSharedProperties {
     protected File mPropertiesFile;
     protected SharedProperties mSharedProperties;
 
+    /** The snapshot of the internal values, swapped by {@link #loadTermuxPropertiesFromDisk()}. */
+    private volatile TermuxCompiledProperties mCompiledProperties;
+
+    private final Map<String, CopyOnWriteArrayList<OnPropertyChangeListener>> mPropertyChangeListeners = new ConcurrentHashMap<>();
+    private SharedPropertiesFileWatcher mPropertiesFileWatcher;
+
     public static final String LOG_TAG = "TermuxSharedProperties";
 
     public TermuxSharedProperties(@NonNull Context context, @NonNull String label, List<String> propertiesFilePaths,
@@ -53,6 +83,101 @@ public abstract class TermuxSharedProperties {
         mSharedProperties.loadPropertiesFromDisk();
         dumpPropertiesToLog();
         dumpInternalPropertiesToLog();
+
+        TermuxCompiledProperties oldCompiledProperties = mCompiledProperties;
+        TermuxCompiledProperties compiledProperties = new TermuxCompiledProperties(mContext, mSharedProperties.getInternalProperties());
+        mCompiledProperties = compiledProperties;
+
+        TermuxShellEnvironment.invalidateEnvironment("termux properties were reloaded");
+
+        if (oldCompiledProperties != null)
+            notifyPropertyChangeListeners(oldCompiledProperties, compiledProperties);
+    }
+
+    /**
+     * Get the {@link TermuxCompiledProperties} snapshot of the internal values last loaded by
+     * {@link #loadTermuxPropertiesFromDisk()}. Reading it does not take a lock or touch the disk,
+     * so it should be preferred on hot paths. Read multiple values from the same instance if they
+     * must be consistent with each other.
+     */
+    @NonNull
+    public TermuxCompiledProperties getCompiledProperties() {
+        return mCompiledProperties;
+    }
+
+
+
+    /**
+     * Start watching the properties files, so that properties are reloaded by
+     * {@link #loadTermuxPropertiesFromDisk()} whenever they are changed, instead of requiring an
+     * explicit reload. Listeners added with {@link #addPropertyChangeListener(String, OnPropertyChangeListener)}
+     * are notified of changed values.
+     */
+    public synchronized void startWatchingPropertiesFiles() {
+        if (mPropertiesFileWatcher == null)
+            mPropertiesFileWatcher = new SharedPropertiesFileWatcher(mLabel, mPropertiesFilePaths, this::loadTermuxPropertiesFromDisk);
+        mPropertiesFileWatcher.startWatching();
+    }
+
+    /** Stop watching the properties files. */
+    public synchronized void stopWatchingPropertiesFiles() {
+        if (mPropertiesFileWatcher != null)
+            mPropertiesFileWatcher.stopWatching();
+    }
+
+    /** Check whether properties files are being watched for changes. */
+    public synchronized boolean isWatchingPropertiesFiles() {
+        return mPropertiesFileWatcher != null && mPropertiesFileWatcher.isWatching();
+    }
+
+    /**
+     * Add a listener for changes to the internal value of a property.
+     *
+     * @param key The key of the property.
+     * @param listener The {@link OnPropertyChangeListener} to add.
+     */
+    public void addPropertyChangeListener(@NonNull String key, @NonNull OnPropertyChangeListener listener) {
+        CopyOnWriteArrayList<OnPropertyChangeListener> listeners = mPropertyChangeListeners.get(key);
+        if (listeners == null) {
+            CopyOnWriteArrayList<OnPropertyChangeListener> newListeners = new CopyOnWriteArrayList<>();
+            listeners = mPropertyChangeListeners.putIfAbsent(key, newListeners);
+            if (listeners == null) listeners = newListeners;
+        }
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addPropertyChangeListener(String, OnPropertyChangeListener)}.
+     *
+     * @param key The key of the property.
+     * @param listener The {@link OnPropertyChangeListener} to remove.
+     */
+    public void removePropertyChangeListener(@NonNull String key, @NonNull OnPropertyChangeListener listener) {
+        CopyOnWriteArrayList<OnPropertyChangeListener> listeners = mPropertyChangeListeners.get(key);
+        if (listeners != null)
+            listeners.remove(listener);
+    }
+
+    private void notifyPropertyChangeListeners(@NonNull TermuxCompiledProperties oldCompiledProperties,
+                                               @NonNull TermuxCompiledProperties compiledProperties) {
+        if (mPropertyChangeListeners.isEmpty()) return;
+
+        for (String key : compiledProperties.getChangedKeys(oldCompiledProperties)) {
+            CopyOnWriteArrayList<OnPropertyChangeListener> listeners = mPropertyChangeListeners.get(key);
+            if (listeners == null) continue;
+
+            Object oldValue = oldCompiledProperties.getInternalPropertyValue(key);
+            Object newValue = compiledProperties.getInternalPropertyValue(key);
+
+            Logger.logVerbose(LOG_TAG, "The " + mLabel + " property \"" + key + "\" changed from `" + oldValue + "` to `" + newValue + "`");
+            for (OnPropertyChangeListener listener : listeners) {
+                try {
+                    listener.onPropertyChanged(compiledProperties, key, oldValue, newValue);
+                } catch (Exception e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Failed to notify listener of change to the " + mLabel + " property \"" + key + "\"", e);
+                }
+            }
+        }
     }
 
 
@@ -153,11 +278,12 @@ public abstract class TermuxSharedProperties {
     public Object getInternalPropertyValue(String key, boolean cached) {
         Object value;
         if (cached) {
-            value = mSharedProperties.getInternalProperty(key);
+            TermuxCompiledProperties compiledProperties = mCompiledProperties;
+            value = compiledProperties.getInternalPropertyValue(key);
             // If the value is not null since key was found or if the value was null since the
             // object stored for the key was itself null, we detect the later by checking if the key
             // exists in the map.
-            if (value != null || mSharedProperties.getInternalProperties().containsKey(key)) {
+            if (value != null || compiledProperties.containsKey(key)) {
                 return value;
             } else {
                 // This should not happen normally unless mMap was modified after the
@@ -180,8 +306,11 @@ public abstract class TermuxSharedProperties {
 
     /**
      * Get the internal {@link Object} value for the key passed from the first file found in
-     * {@link TermuxConstants#TERMUX_PROPERTIES_FILE_PATHS_LIST}. The {@link Properties} object is
-     * read directly from the file and internal value is returned for the property value against the key.
+     * {@link TermuxConstants#TERMUX_PROPERTIES_FILE_PATHS_LIST}. If the {@link TermuxAppSharedProperties}
+     * have been loaded in this process and are watching the properties files, then the value is
+     * returned from its {@link TermuxCompiledProperties}, since it is kept up to date with the file.
+     * Otherwise, the {@link Properties} object is read directly from the file and internal value is
+     * returned for the property value against the key.
      *
      * @param context The context for operations.
      * @param key The key for which the internal object is required.
@@ -189,6 +318,13 @@ public abstract class TermuxSharedProperties {
      * the object stored against the key is {@code null}.
      */
     public static Object getTermuxInternalPropertyValue(Context context, String key) {
+        TermuxAppSharedProperties properties = TermuxAppSharedProperties.getProperties();
+        if (properties != null && properties.isWatchingPropertiesFiles()) {
+            TermuxCompiledProperties compiledProperties = properties.getCompiledProperties();
+            if (compiledProperties.containsKey(key))
+                return compiledProperties.getInternalPropertyValue(key);
+        }
+
         return SharedProperties.getInternalProperty(context,
             SharedProperties.getPropertiesFileFromList(TermuxConstants.TERMUX_PROPERTIES_FILE_PATHS_LIST, LOG_TAG),
             key, new SharedPropertiesParserClient());
@@ -263,6 +399,10 @@ public abstract class TermuxSharedProperties {
                 return (int) getBellBehaviourInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT:
                 return (int) getDeleteTMPDIRFilesOlderThanXDaysOnExitInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_LINUX_SESSION_POOL_SIZE:
+                return (int) getLinuxSessionPoolSizeInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS:
+                return (int) getMaxBackgroundTasksInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_CURSOR_BLINK_RATE:
                 return (int) getTerminalCursorBlinkRateInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_CURSOR_STYLE:
@@ -354,6 +494,42 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_LINUX_SESSION_POOL_SIZE_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_LINUX_SESSION_POOL_SIZE_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_LINUX_SESSION_POOL_SIZE}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getLinuxSessionPoolSizeInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_LINUX_SESSION_POOL_SIZE,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_LINUX_SESSION_POOL_SIZE),
+            TermuxPropertyConstants.DEFAULT_IVALUE_LINUX_SESSION_POOL_SIZE,
+            TermuxPropertyConstants.IVALUE_LINUX_SESSION_POOL_SIZE_MIN,
+            TermuxPropertyConstants.IVALUE_LINUX_SESSION_POOL_SIZE_MAX,
+            true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_MAX_BACKGROUND_TASKS_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_MAX_BACKGROUND_TASKS_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_MAX_BACKGROUND_TASKS}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getMaxBackgroundTasksInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_MAX_BACKGROUND_TASKS),
+            TermuxPropertyConstants.DEFAULT_IVALUE_MAX_BACKGROUND_TASKS,
+            TermuxPropertyConstants.IVALUE_MAX_BACKGROUND_TASKS_MIN,
+            TermuxPropertyConstants.IVALUE_MAX_BACKGROUND_TASKS_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_CURSOR_BLINK_RATE_MIN} and
@@ -575,113 +751,129 @@ public abstract class TermuxSharedProperties {
 
 
     public boolean shouldAllowExternalApps() {
-        return (boolean) getInternalPropertyValue(TermuxConstants.PROP_ALLOW_EXTERNAL_APPS, true);
+        return mCompiledProperties.allowExternalApps;
     }
 
     public boolean isFileShareReceiverDisabled() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_DISABLE_FILE_SHARE_RECEIVER, true);
+        return mCompiledProperties.disableFileShareReceiver;
     }
 
     public boolean isFileViewReceiverDisabled() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_DISABLE_FILE_VIEW_RECEIVER, true);
+        return mCompiledProperties.disableFileViewReceiver;
     }
 
     public boolean areHardwareKeyboardShortcutsDisabled() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_DISABLE_HARDWARE_KEYBOARD_SHORTCUTS, true);
+        return mCompiledProperties.disableHardwareKeyboardShortcuts;
     }
 
     public boolean areTerminalSessionChangeToastsDisabled() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST, true);
+        return mCompiledProperties.disableTerminalSessionChangeToast;
     }
 
     public boolean isEnforcingCharBasedInput() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_ENFORCE_CHAR_BASED_INPUT, true);
+        return mCompiledProperties.enforceCharBasedInput;
     }
 
     public boolean shouldExtraKeysTextBeAllCaps() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_EXTRA_KEYS_TEXT_ALL_CAPS, true);
+        return mCompiledProperties.extraKeysTextAllCaps;
     }
 
     public boolean shouldSoftKeyboardBeHiddenOnStartup() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP, true);
+        return mCompiledProperties.hideSoftKeyboardOnStartup;
     }
 
     public boolean shouldRunTermuxAmSocketServer() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_RUN_TERMUX_AM_SOCKET_SERVER, true);
+        return mCompiledProperties.runTermuxAmSocketServer;
     }
 
     public boolean shouldOpenTerminalTranscriptURLOnClick() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN, true);
+        return mCompiledProperties.terminalOnClickUrlOpen;
     }
 
     public boolean isUsingCtrlSpaceWorkaround() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_CTRL_SPACE_WORKAROUND, true);
+        return mCompiledProperties.useCtrlSpaceWorkaround;
     }
 
     public boolean isUsingFullScreen() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_FULLSCREEN, true);
+        return mCompiledProperties.useFullScreen;
     }
 
     public boolean isUsingFullScreenWorkAround() {
-        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_FULLSCREEN_WORKAROUND, true);
+        return mCompiledProperties.useFullScreenWorkaround;
+    }
+
+    public boolean isDesktopLocalDisplayEnabled() {
+        return mCompiledProperties.desktopLocalDisplay;
+    }
+
+    public boolean isDesktopPerfHudEnabled() {
+        return mCompiledProperties.desktopPerfHud;
     }
 
     public int getBellBehaviour() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_BELL_BEHAVIOUR, true);
+        return mCompiledProperties.bellBehaviour;
     }
 
     public int getDeleteTMPDIRFilesOlderThanXDaysOnExit() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT, true);
+        return mCompiledProperties.deleteTMPDIRFilesOlderThanXDaysOnExit;
+    }
+
+    public int getLinuxSessionPoolSize() {
+        return mCompiledProperties.linuxSessionPoolSize;
+    }
+
+    public int getMaxBackgroundTasks() {
+        return mCompiledProperties.maxBackgroundTasks;
     }
 
     public int getTerminalCursorBlinkRate() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_CURSOR_BLINK_RATE, true);
+        return mCompiledProperties.terminalCursorBlinkRate;
     }
 
     public int getTerminalCursorStyle() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_CURSOR_STYLE, true);
+        return mCompiledProperties.terminalCursorStyle;
     }
 
     public int getTerminalMarginHorizontal() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL, true);
+        return mCompiledProperties.terminalMarginHorizontal;
     }
 
     public int getTerminalMarginVertical() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL, true);
+        return mCompiledProperties.terminalMarginVertical;
     }
 
     public int getTerminalTranscriptRows() {
-        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
+        return mCompiledProperties.terminalTranscriptRows;
     }
 
     public float getTerminalToolbarHeightScaleFactor() {
-        return (float) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR, true);
+        return mCompiledProperties.terminalToolbarHeightScaleFactor;
     }
 
     public boolean isBackKeyTheEscapeKey() {
-        return (boolean) TermuxPropertyConstants.IVALUE_BACK_KEY_BEHAVIOUR_ESCAPE.equals(getInternalPropertyValue(TermuxPropertyConstants.KEY_BACK_KEY_BEHAVIOUR, true));
+        return mCompiledProperties.isBackKeyTheEscapeKey;
     }
 
     public String getDefaultWorkingDirectory() {
-        return (String) getInternalPropertyValue(TermuxPropertyConstants.KEY_DEFAULT_WORKING_DIRECTORY, true);
+        return mCompiledProperties.defaultWorkingDirectory;
     }
 
     public String getNightMode() {
-        return (String) getInternalPropertyValue(TermuxPropertyConstants.KEY_NIGHT_MODE, true);
+        return mCompiledProperties.nightMode;
     }
 
-    /** Get the {@link TermuxPropertyConstants#KEY_NIGHT_MODE} value from the properties file on disk. */
+    /** Get the {@link TermuxPropertyConstants#KEY_NIGHT_MODE} value like {@link #getTermuxInternalPropertyValue(Context, String)}. */
     public static String getNightMode(Context context) {
         return (String) TermuxSharedProperties.getTermuxInternalPropertyValue(context,
             TermuxPropertyConstants.KEY_NIGHT_MODE);
     }
 
     public boolean shouldEnableDisableSoftKeyboardOnToggle() {
-        return (boolean) TermuxPropertyConstants.IVALUE_SOFT_KEYBOARD_TOGGLE_BEHAVIOUR_ENABLE_DISABLE.equals(getInternalPropertyValue(TermuxPropertyConstants.KEY_SOFT_KEYBOARD_TOGGLE_BEHAVIOUR, true));
+        return mCompiledProperties.shouldEnableDisableSoftKeyboardOnToggle;
     }
 
     public boolean areVirtualVolumeKeysDisabled() {
-        return (boolean) TermuxPropertyConstants.IVALUE_VOLUME_KEY_BEHAVIOUR_VOLUME.equals(getInternalPropertyValue(TermuxPropertyConstants.KEY_VOLUME_KEYS_BEHAVIOUR, true));
+        return mCompiledProperties.areVirtualVolumeKeysDisabled;
     }
 
 
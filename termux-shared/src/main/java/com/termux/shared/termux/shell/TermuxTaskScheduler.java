@@ -0,0 +1,274 @@
+package com.termux.shared.termux.shell;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.android.PhantomProcessUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.runner.app.AppShell;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Admits background TermuxTasks, so that bursts of commands, like from Termux:Tasker or the
+ * RUN_COMMAND intent, are queued instead of starting all at once.
+ *
+ * At most {@link #getMaxConcurrentTasks()} tasks started through the scheduler run at the same
+ * time. On android 12+ a task is also held back while the live processes of the app in `/proc`
+ * are within {@link #PHANTOM_PROCESS_HEADROOM} of {@link PhantomProcessUtils#DEFAULT_MAX_PHANTOM_PROCESSES},
+ * since exceeding it gets the app killed with SIGKILL. Queued tasks are started in
+ * {@link Priority} order, and in submission order within a priority.
+ *
+ * All methods must be called on the main thread.
+ */
+public class TermuxTaskScheduler {
+
+    /** The priority of a queued task, in the order they are started. */
+    public enum Priority {
+        /** Tasks started by the app itself, which the user is likely waiting on. */
+        INTERACTIVE,
+        /** Tasks started by a plugin which expects the result back. */
+        PLUGIN,
+        /** Tasks started by a plugin which does not expect the result back. */
+        BACKGROUND
+    }
+
+    /** Starts a task once it has been admitted. */
+    public interface TaskStarter {
+        /**
+         * Start the task for {@code executionCommand}.
+         *
+         * @return Returns {@code true} if the task was started, in which case
+         * {@link #onTaskExited(ExecutionCommand)} must be called when it exits, otherwise
+         * {@code false}, in which case the starter must process the error.
+         */
+        boolean startTask(@NonNull ExecutionCommand executionCommand);
+    }
+
+    /** Processes of the app, like terminal session shells, left room for before admitting a task. */
+    static final int PHANTOM_PROCESS_HEADROOM = 8;
+    /** How often admission is retried while held back by the phantom process count. */
+    private static final long PHANTOM_PROCESS_RETRY_DELAY_MS = 1000;
+
+    private static final String LOG_TAG = "TermuxTaskScheduler";
+
+    private static final class QueuedTask {
+        final ExecutionCommand executionCommand;
+        final long submitTime;
+
+        QueuedTask(ExecutionCommand executionCommand, long submitTime) {
+            this.executionCommand = executionCommand;
+            this.submitTime = submitTime;
+        }
+    }
+
+    private final TaskStarter mTaskStarter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<QueuedTask>[] mQueues;
+    private final Set<ExecutionCommand> mRunningTasks = new HashSet<>();
+
+    private int mMaxConcurrentTasks;
+    private boolean mHeldBackByPhantomProcesses;
+    private int mLastPhantomProcessCount = -1;
+
+    private long mSubmittedCount;
+    private long mStartedCount;
+    private long mCancelledCount;
+    private long mTotalWaitTime;
+    private long mMaxWaitTime;
+
+    private final Runnable mDispatch = this::dispatch;
+
+    /**
+     * @param taskStarter The {@link TaskStarter} which starts admitted tasks.
+     * @param maxConcurrentTasks The maximum number of tasks to run at the same time.
+     */
+    @SuppressWarnings("unchecked")
+    public TermuxTaskScheduler(@NonNull TaskStarter taskStarter, int maxConcurrentTasks) {
+        mTaskStarter = taskStarter;
+        mMaxConcurrentTasks = Math.max(1, maxConcurrentTasks);
+        mQueues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < mQueues.length; i++)
+            mQueues[i] = new ArrayDeque<>();
+    }
+
+    /** Get the {@link Priority} that {@code executionCommand} is queued with. */
+    @NonNull
+    public static Priority getPriority(@NonNull ExecutionCommand executionCommand) {
+        if (!executionCommand.isPluginExecutionCommand)
+            return Priority.INTERACTIVE;
+        else if (executionCommand.isPluginExecutionCommandWithPendingResult())
+            return Priority.PLUGIN;
+        else
+            return Priority.BACKGROUND;
+    }
+
+    public int getMaxConcurrentTasks() {
+        return mMaxConcurrentTasks;
+    }
+
+    /** Set the maximum number of tasks to run at the same time. Running tasks are not killed. */
+    public void setMaxConcurrentTasks(int maxConcurrentTasks) {
+        mMaxConcurrentTasks = Math.max(1, maxConcurrentTasks);
+        dispatch();
+    }
+
+    /** Queue the task for {@code executionCommand}, and start it right away if it is admitted. */
+    public void submit(@NonNull ExecutionCommand executionCommand) {
+        Priority priority = getPriority(executionCommand);
+        mQueues[priority.ordinal()].add(new QueuedTask(executionCommand, SystemClock.elapsedRealtime()));
+        mSubmittedCount++;
+
+        if (!dispatch())
+            Logger.logDebug(LOG_TAG, "Queued \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask with " +
+                priority + " priority: " + getStatsString());
+    }
+
+    /**
+     * Remove all queued tasks. The caller is responsible for failing the commands and processing
+     * their results.
+     *
+     * @return Returns the {@link ExecutionCommand} of the removed tasks.
+     */
+    @NonNull
+    public List<ExecutionCommand> cancelAll() {
+        List<ExecutionCommand> cancelled = new ArrayList<>();
+        for (ArrayDeque<QueuedTask> queue : mQueues) {
+            for (QueuedTask queuedTask : queue)
+                cancelled.add(queuedTask.executionCommand);
+            queue.clear();
+        }
+        mCancelledCount += cancelled.size();
+        mHandler.removeCallbacks(mDispatch);
+        return cancelled;
+    }
+
+    /** This must be called with the {@link AppShell#getExecutionCommand()} of a task when it exits. */
+    public void onTaskExited(@NonNull ExecutionCommand executionCommand) {
+        if (mRunningTasks.remove(executionCommand))
+            dispatch();
+    }
+
+    /** Get the number of queued tasks. */
+    public int getQueuedCount() {
+        int count = 0;
+        for (ArrayDeque<QueuedTask> queue : mQueues)
+            count += queue.size();
+        return count;
+    }
+
+    /** Get the number of queued tasks with {@code priority}. */
+    public int getQueuedCount(@NonNull Priority priority) {
+        return mQueues[priority.ordinal()].size();
+    }
+
+    /** Get the number of running tasks started by the scheduler. */
+    public int getRunningCount() {
+        return mRunningTasks.size();
+    }
+
+    /** Get the mean time in milliseconds that started tasks spent queued. */
+    public long getMeanWaitTime() {
+        return mStartedCount == 0 ? 0 : mTotalWaitTime / mStartedCount;
+    }
+
+    /** Get the longest time in milliseconds that a started task spent queued. */
+    public long getMaxWaitTime() {
+        return mMaxWaitTime;
+    }
+
+    @NonNull
+    public String getStatsString() {
+        return String.format(Locale.ENGLISH, "running=%d/%d, queued=%d (interactive=%d, plugin=%d, background=%d), " +
+                "submitted=%d, started=%d, cancelled=%d, waitMeanMs=%d, waitMaxMs=%d, phantomProcesses=%d",
+            getRunningCount(), mMaxConcurrentTasks, getQueuedCount(),
+            getQueuedCount(Priority.INTERACTIVE), getQueuedCount(Priority.PLUGIN), getQueuedCount(Priority.BACKGROUND),
+            mSubmittedCount, mStartedCount, mCancelledCount, getMeanWaitTime(), mMaxWaitTime, mLastPhantomProcessCount);
+    }
+
+    /**
+     * Start queued tasks while they are admitted.
+     *
+     * @return Returns {@code true} if the queues are empty afterwards.
+     */
+    private boolean dispatch() {
+        mHandler.removeCallbacks(mDispatch);
+
+        QueuedTask queuedTask;
+        while (mRunningTasks.size() < mMaxConcurrentTasks && (queuedTask = peekNext()) != null) {
+            if (isHeldBackByPhantomProcesses()) {
+                mHandler.postDelayed(mDispatch, PHANTOM_PROCESS_RETRY_DELAY_MS);
+                return false;
+            }
+
+            pollNext();
+            long waitTime = SystemClock.elapsedRealtime() - queuedTask.submitTime;
+            mStartedCount++;
+            mTotalWaitTime += waitTime;
+            mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+            if (waitTime > 0)
+                Logger.logDebug(LOG_TAG, "Starting \"" + queuedTask.executionCommand.getCommandIdAndLabelLogString() +
+                    "\" TermuxTask after " + waitTime + "ms in queue");
+
+            if (mTaskStarter.startTask(queuedTask.executionCommand))
+                mRunningTasks.add(queuedTask.executionCommand);
+        }
+
+        return getQueuedCount() == 0;
+    }
+
+    private boolean isHeldBackByPhantomProcesses() {
+        mLastPhantomProcessCount = getAppPhantomProcessCount();
+        if (mLastPhantomProcessCount < 0) return false;
+
+        boolean heldBack = mLastPhantomProcessCount >= PhantomProcessUtils.DEFAULT_MAX_PHANTOM_PROCESSES - PHANTOM_PROCESS_HEADROOM;
+        if (heldBack != mHeldBackByPhantomProcesses) {
+            mHeldBackByPhantomProcesses = heldBack;
+            if (heldBack)
+                Logger.logWarn(LOG_TAG, "Holding back TermuxTasks since the app has " + mLastPhantomProcessCount +
+                    " phantom processes: " + getStatsString());
+            else
+                Logger.logDebug(LOG_TAG, "Resuming TermuxTasks since the app has " + mLastPhantomProcessCount + " phantom processes");
+        }
+        return heldBack;
+    }
+
+    /**
+     * Get the number of live processes of the app that count towards the phantom process limit.
+     *
+     * @return Returns the count, or {@code -1} if the limit does not apply.
+     */
+    int getAppPhantomProcessCount() {
+        // Phantom processes are only killed since android 12
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) return -1;
+        return PhantomProcessUtils.getAppPhantomProcessCount();
+    }
+
+    @Nullable
+    private QueuedTask peekNext() {
+        for (ArrayDeque<QueuedTask> queue : mQueues)
+            if (!queue.isEmpty()) return queue.peekFirst();
+        return null;
+    }
+
+    private void pollNext() {
+        for (ArrayDeque<QueuedTask> queue : mQueues) {
+            if (!queue.isEmpty()) {
+                queue.pollFirst();
+                return;
+            }
+        }
+    }
+
+}
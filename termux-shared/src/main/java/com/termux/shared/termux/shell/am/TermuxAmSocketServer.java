@@ -21,6 +21,7 @@ import com.termux.shared.termux.plugins.TermuxPluginUtils;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
 import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.shell.command.environment.TermuxAppShellEnvironment;
+import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 
 /**
  * A wrapper for {@link AmSocketServer} for termux-app usage.
@@ -94,6 +95,7 @@ public class TermuxAmSocketServer {
         // retain invalid value. User should force stop the app to update state after changing prop.
         TERMUX_APP_AM_SOCKET_SERVER_ENABLED = enabled;
         TermuxAppShellEnvironment.updateTermuxAppAMSocketServerEnabled(context);
+        TermuxShellEnvironment.invalidateEnvironment("am socket server state was set");
     }
 
     /**
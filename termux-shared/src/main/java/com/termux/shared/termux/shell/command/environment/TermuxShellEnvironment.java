@@ -9,6 +9,7 @@ import com.termux.shared.file.FileUtils;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
+import com.termux.shared.shell.command.environment.ShellEnvironmentSnapshot;
 import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.ShellCommandShellEnvironment;
 import com.termux.shared.termux.TermuxBootstrap;
@@ -28,6 +29,13 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
     /** Environment variable for the termux {@link TermuxConstants#TERMUX_PREFIX_DIR_PATH}. */
     public static final String ENV_PREFIX = "PREFIX";
 
+    /** The version of the inputs of the cached environment snapshots, incremented when they change. */
+    private static long environmentVersion;
+    /** The cached environment snapshot, for when failsafe is not enabled. */
+    private static ShellEnvironmentSnapshot environmentSnapshot;
+    /** The cached environment snapshot, for when failsafe is enabled. */
+    private static ShellEnvironmentSnapshot failSafeEnvironmentSnapshot;
+
     public TermuxShellEnvironment() {
         super();
         shellCommandShellEnvironment = new TermuxShellCommandShellEnvironment();
@@ -39,6 +47,24 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
         TermuxAppShellEnvironment.setTermuxAppEnvironment(currentPackageContext);
     }
 
+    /**
+     * Invalidate the cached environment snapshots, since an input of the environment has changed,
+     * like a plugin app was installed or updated. Shells started afterwards get a new snapshot.
+     *
+     * @param reason The reason the environment changed, which is logged.
+     */
+    public synchronized static void invalidateEnvironment(@NonNull String reason) {
+        environmentVersion++;
+        environmentSnapshot = null;
+        failSafeEnvironmentSnapshot = null;
+        Logger.logVerbose(LOG_TAG, "Invalidated environment version " + (environmentVersion - 1) + " since " + reason);
+    }
+
+    /** Get the version of the inputs of the cached environment snapshots. */
+    public synchronized static long getEnvironmentVersion() {
+        return environmentVersion;
+    }
+
     /** Init {@link TermuxShellEnvironment} constants and caches. */
     public synchronized static void writeEnvironmentToFile(@NonNull Context currentPackageContext) {
         HashMap<String, String> environmentMap = new TermuxShellEnvironment().getEnvironment(currentPackageContext, false);
@@ -96,6 +122,33 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
     }
 
 
+    /**
+     * Get the cached snapshot of {@link #getEnvironment(Context, boolean)}, or create it if the
+     * environment has been invalidated with {@link #invalidateEnvironment(String)} since.
+     *
+     * Only the Termux app is notified of changes, so other apps always get a new snapshot, same
+     * as {@link TermuxAppShellEnvironment#setTermuxAppEnvironment(Context)} does.
+     */
+    @NonNull
+    @Override
+    public ShellEnvironmentSnapshot getEnvironmentSnapshot(@NonNull Context currentPackageContext, boolean isFailSafe) {
+        if (!TermuxConstants.TERMUX_PACKAGE_NAME.equals(currentPackageContext.getPackageName()))
+            return super.getEnvironmentSnapshot(currentPackageContext, isFailSafe);
+
+        synchronized (TermuxShellEnvironment.class) {
+            ShellEnvironmentSnapshot snapshot = isFailSafe ? failSafeEnvironmentSnapshot : environmentSnapshot;
+            if (snapshot != null) return snapshot;
+
+            snapshot = new ShellEnvironmentSnapshot(environmentVersion, getEnvironment(currentPackageContext, isFailSafe));
+            if (isFailSafe)
+                failSafeEnvironmentSnapshot = snapshot;
+            else
+                environmentSnapshot = snapshot;
+            return snapshot;
+        }
+    }
+
+
     @NonNull
     @Override
     public String getDefaultWorkingDirectoryPath() {
@@ -0,0 +1,151 @@
+package com.termux.shared.logger;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncLogWriterTest {
+
+    private File logDirectory;
+    private LogFileSink fileSink;
+
+    @Before
+    public void setUp() throws IOException {
+        logDirectory = File.createTempFile("logs", "");
+        Assert.assertTrue(logDirectory.delete() && logDirectory.mkdir());
+        fileSink = new LogFileSink(logDirectory, "test");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = logDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        logDirectory.delete();
+    }
+
+    private static boolean write(AsyncLogWriter writer, int priority, String message) {
+        return writer.write(priority, "Test", false, false, message, null, null, null);
+    }
+
+    /** Get the messages written to the log file, without the logcat headers. */
+    private List<String> readMessages() throws IOException {
+        List<String> messages = new ArrayList<>();
+        for (String line : new String(Files.readAllBytes(fileSink.getFile().toPath()), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty())
+                messages.add(line.substring(line.indexOf(": ") + 2));
+        }
+        return messages;
+    }
+
+    private static void stop(AsyncLogWriter writer) throws InterruptedException {
+        writer.stop();
+        Assert.assertTrue(writer.awaitTermination(5000));
+    }
+
+    @Test
+    public void testDropsBelowWarningWhenFull() throws Exception {
+        AsyncLogWriter writer = new AsyncLogWriter(fileSink, 2);
+        Assert.assertTrue(write(writer, Log.DEBUG, "debug 1"));
+        Assert.assertTrue(write(writer, Log.INFO, "info 2"));
+        // Not queued, but the caller must not write it either
+        Assert.assertTrue(write(writer, Log.DEBUG, "debug 3"));
+
+        writer.start();
+        Assert.assertTrue(writer.flush(5000));
+        stop(writer);
+
+        List<String> messages = readMessages();
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals("debug 1", messages.get(0));
+        Assert.assertEquals("info 2", messages.get(1));
+        Assert.assertEquals("Dropped 1 log messages since log buffer was full", messages.get(2));
+    }
+
+    @Test
+    public void testWarningWaitsForRoomWhenFull() throws Exception {
+        final AsyncLogWriter writer = new AsyncLogWriter(fileSink, 2);
+        Assert.assertTrue(write(writer, Log.DEBUG, "debug 1"));
+        Assert.assertTrue(write(writer, Log.DEBUG, "debug 2"));
+
+        final AtomicBoolean queued = new AtomicBoolean();
+        Thread producer = new Thread(() -> queued.set(write(writer, Log.WARN, "warn 3")));
+        producer.start();
+
+        // The warning is queued once the writer makes room, so it is written to the sink in order
+        writer.start();
+        producer.join(5000);
+        Assert.assertTrue(queued.get());
+        stop(writer);
+
+        List<String> messages = readMessages();
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals("debug 1", messages.get(0));
+        Assert.assertEquals("debug 2", messages.get(1));
+        Assert.assertEquals("warn 3", messages.get(2));
+    }
+
+    @Test
+    public void testWarningNotQueuedWhenWriterCannotMakeRoom() throws Exception {
+        AsyncLogWriter writer = new AsyncLogWriter(fileSink, 2);
+        Assert.assertTrue(write(writer, Log.DEBUG, "debug 1"));
+        Assert.assertTrue(write(writer, Log.DEBUG, "debug 2"));
+
+        // The writer was never started, so the caller must write the message itself after the wait
+        long start = System.nanoTime();
+        Assert.assertFalse(write(writer, Log.ERROR, "error 3"));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= AsyncLogWriter.FULL_BUFFER_WAIT_TIME);
+
+        writer.stop();
+        Assert.assertFalse(write(writer, Log.DEBUG, "debug 4"));
+        Assert.assertFalse(write(writer, Log.ERROR, "error 5"));
+    }
+
+    @Test
+    public void testMultipleProducers() throws Exception {
+        final AsyncLogWriter writer = new AsyncLogWriter(fileSink, 16);
+        writer.start();
+
+        final int producerCount = 4;
+        final int messageCount = 500;
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            final int producerId = p;
+            Thread producer = new Thread(() -> {
+                // Warnings are never dropped, they wait for room
+                for (int i = 0; i < messageCount; i++)
+                    Assert.assertTrue(write(writer, Log.WARN, producerId + " " + i));
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers)
+            producer.join();
+        stop(writer);
+
+        // Messages of each producer are written in order, consecutive ones may be joined in one entry
+        int[] nextIndexes = new int[producerCount];
+        for (String message : readMessages()) {
+            String[] parts = message.split(" ");
+            Assert.assertEquals(message, 2, parts.length);
+            int producerId = Integer.parseInt(parts[0]);
+            Assert.assertEquals(nextIndexes[producerId]++, Integer.parseInt(parts[1]));
+        }
+        for (int nextIndex : nextIndexes)
+            Assert.assertEquals(messageCount, nextIndex);
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.termux.shared.logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogRingBufferTest {
+
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        LogRingBuffer buffer = new LogRingBuffer(3);
+        for (int i = 0; i < 4; i++)
+            Assert.assertNotNull(buffer.claim());
+        Assert.assertNull(buffer.claim());
+    }
+
+    @Test
+    public void testCapacityIsAtLeastTwo() {
+        LogRingBuffer buffer = new LogRingBuffer(1);
+        LogEntry entry = buffer.claim();
+        buffer.publish(entry);
+        Assert.assertNotNull(buffer.claim());
+        Assert.assertNull(buffer.claim());
+    }
+
+    @Test
+    public void testClaimFailsWhenFull() {
+        LogRingBuffer buffer = new LogRingBuffer(2);
+        LogEntry first = buffer.claim();
+        LogEntry second = buffer.claim();
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+        Assert.assertNull(buffer.claim());
+
+        // Published entries still take their slot until the consumer releases them
+        buffer.publish(first);
+        buffer.publish(second);
+        Assert.assertNull(buffer.claim());
+
+        Assert.assertSame(first, buffer.peek());
+        buffer.release(first);
+        Assert.assertNotNull(buffer.claim());
+        Assert.assertNull(buffer.claim());
+    }
+
+    @Test
+    public void testEntriesAreReadInClaimOrder() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        LogEntry first = buffer.claim();
+        LogEntry second = buffer.claim();
+
+        // An entry published before an earlier claimed one waits for it
+        buffer.publish(second);
+        Assert.assertNull(buffer.peek());
+        buffer.publish(first);
+
+        Assert.assertSame(first, buffer.peek());
+        buffer.release(first);
+        Assert.assertSame(second, buffer.peek());
+        buffer.release(second);
+        Assert.assertNull(buffer.peek());
+    }
+
+    @Test
+    public void testSequencesWrapAround() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        for (long i = 0; i < 4 * 10 + 3; i++) {
+            LogEntry entry = buffer.claim();
+            Assert.assertNotNull(entry);
+            Assert.assertEquals(i, entry.sequence);
+            entry.message = "message " + i;
+            buffer.publish(entry);
+
+            Assert.assertSame(entry, buffer.peek());
+            Assert.assertEquals("message " + i, entry.getMessage());
+            buffer.release(entry);
+            Assert.assertNull(entry.message);
+
+            Assert.assertEquals(i + 1, buffer.getHead());
+            Assert.assertEquals(i + 1, buffer.getTail());
+        }
+    }
+
+    @Test
+    public void testMultipleProducers() throws InterruptedException {
+        final int producerCount = 4;
+        final int messageCount = 20000;
+        final LogRingBuffer buffer = new LogRingBuffer(64);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            final String tag = String.valueOf(p);
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < messageCount; i++) {
+                    LogEntry entry;
+                    while ((entry = buffer.claim()) == null)
+                        Thread.yield();
+                    entry.tag = tag;
+                    entry.time = i;
+                    buffer.publish(entry);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        // Each producer's messages must be read once each and in order
+        long[] nextTimes = new long[producerCount];
+        int read = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (read < producerCount * messageCount) {
+            Assert.assertTrue("Timed out after reading " + read + " messages", System.currentTimeMillis() < deadline);
+            LogEntry entry = buffer.peek();
+            if (entry == null) {
+                Thread.yield();
+                continue;
+            }
+            int p = Integer.parseInt(entry.tag);
+            Assert.assertEquals(nextTimes[p]++, entry.time);
+            buffer.release(entry);
+            read++;
+        }
+
+        for (Thread producer : producers)
+            producer.join();
+        Assert.assertNull(buffer.peek());
+        Assert.assertEquals(producerCount * messageCount, buffer.getHead());
+        Assert.assertEquals(producerCount * messageCount, buffer.getTail());
+    }
+
+}
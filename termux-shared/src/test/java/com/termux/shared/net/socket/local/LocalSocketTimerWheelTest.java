@@ -0,0 +1,154 @@
+package com.termux.shared.net.socket.local;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LocalSocketTimerWheelTest {
+
+    private static final long START_TIME = 1_000_000;
+    private static final long TICK_DURATION = 10;
+    private static final int TICKS_PER_WHEEL = 8;
+
+    private LocalSocketTimerWheel timerWheel;
+    private final List<String> expired = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        timerWheel = new LocalSocketTimerWheel(TICK_DURATION, TICKS_PER_WHEEL, START_TIME);
+        expired.clear();
+    }
+
+    private LocalSocketTimerWheel.Timeout schedule(long delay, String name) {
+        return timerWheel.schedule(START_TIME + delay, () -> expired.add(name));
+    }
+
+    private void expire(long time) {
+        for (Runnable task : timerWheel.expire(START_TIME + time))
+            task.run();
+    }
+
+    @Test
+    public void testExpiryOrder() {
+        schedule(35, "c");
+        schedule(5, "a");
+        schedule(15, "b");
+        Assert.assertEquals(3, timerWheel.size());
+
+        expire(9);
+        Assert.assertEquals(Collections.emptyList(), expired);
+        expire(10);
+        Assert.assertEquals(Arrays.asList("a"), expired);
+        expire(40);
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), expired);
+        Assert.assertEquals(0, timerWheel.size());
+    }
+
+    @Test
+    public void testNeverExpiresBeforeDeadline() {
+        schedule(21, "a");
+        expire(29);
+        Assert.assertEquals(Collections.emptyList(), expired);
+        // May expire up to one tick after the deadline
+        expire(30);
+        Assert.assertEquals(Arrays.asList("a"), expired);
+    }
+
+    @Test
+    public void testPastDeadlineExpiresOnNextTick() {
+        expire(55);
+        schedule(0, "a");
+        expire(59);
+        Assert.assertEquals(Collections.emptyList(), expired);
+        expire(60);
+        Assert.assertEquals(Arrays.asList("a"), expired);
+    }
+
+    @Test
+    public void testCancelBeforeExpiry() {
+        LocalSocketTimerWheel.Timeout a = schedule(10, "a");
+        LocalSocketTimerWheel.Timeout b = schedule(10, "b");
+        schedule(10, "c");
+
+        // Cancel from the middle and head of the slot's list
+        Assert.assertTrue(timerWheel.cancel(b));
+        Assert.assertFalse(timerWheel.cancel(b));
+        Assert.assertTrue(timerWheel.cancel(a));
+        Assert.assertFalse(timerWheel.cancel(null));
+        Assert.assertEquals(1, timerWheel.size());
+
+        expire(10);
+        Assert.assertEquals(Arrays.asList("c"), expired);
+        Assert.assertFalse(timerWheel.cancel(a));
+    }
+
+    @Test
+    public void testCancelAfterExpiry() {
+        LocalSocketTimerWheel.Timeout a = schedule(10, "a");
+        expire(10);
+        Assert.assertFalse(timerWheel.cancel(a));
+        Assert.assertEquals(0, timerWheel.size());
+    }
+
+    @Test
+    public void testReschedule() {
+        LocalSocketTimerWheel.Timeout timeout = schedule(20, "a");
+        expire(10);
+
+        // Like a client that was active again, the old timeout is cancelled and a later one scheduled
+        Assert.assertTrue(timerWheel.cancel(timeout));
+        timeout = schedule(50, "a");
+        expire(40);
+        Assert.assertEquals(Collections.emptyList(), expired);
+        expire(50);
+        Assert.assertEquals(Arrays.asList("a"), expired);
+        Assert.assertFalse(timerWheel.cancel(timeout));
+    }
+
+    @Test
+    public void testTimeoutLongerThanOneRotation() {
+        long rotation = TICK_DURATION * TICKS_PER_WHEEL;
+        // Same slot as "short", but two rotations later
+        schedule(2 * rotation + 10, "long");
+        schedule(10, "short");
+
+        expire(10);
+        Assert.assertEquals(Arrays.asList("short"), expired);
+        expire(rotation + 10);
+        Assert.assertEquals(Arrays.asList("short"), expired);
+        expire(2 * rotation + 9);
+        Assert.assertEquals(Arrays.asList("short"), expired);
+        expire(2 * rotation + 10);
+        Assert.assertEquals(Arrays.asList("short", "long"), expired);
+    }
+
+    @Test
+    public void testTimeoutLongerThanOneRotationScheduledMidRotation() {
+        long rotation = TICK_DURATION * TICKS_PER_WHEEL;
+        expire(35);
+        schedule(35 + rotation + 15, "a");
+
+        expire(35 + rotation + 9);
+        Assert.assertEquals(Collections.emptyList(), expired);
+        expire(35 + rotation + 15);
+        Assert.assertEquals(Arrays.asList("a"), expired);
+    }
+
+    @Test
+    public void testNextExpiryDelay() {
+        Assert.assertEquals(-1, timerWheel.getNextExpiryDelay(START_TIME));
+
+        schedule(25, "a");
+        Assert.assertEquals(30, timerWheel.getNextExpiryDelay(START_TIME));
+        Assert.assertEquals(0, timerWheel.getNextExpiryDelay(START_TIME + 40));
+
+        expire(30);
+        Assert.assertEquals(-1, timerWheel.getNextExpiryDelay(START_TIME + 30));
+    }
+
+}
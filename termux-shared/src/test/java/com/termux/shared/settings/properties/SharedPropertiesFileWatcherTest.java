@@ -0,0 +1,80 @@
+package com.termux.shared.settings.properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SharedPropertiesFileWatcherTest {
+
+    private File homeDirectory;
+    private List<String> propertiesFilePaths;
+
+    @Before
+    public void setUp() throws IOException {
+        homeDirectory = File.createTempFile("home", "");
+        Assert.assertTrue(homeDirectory.delete() && homeDirectory.mkdir());
+        propertiesFilePaths = Arrays.asList(
+            homeDirectory + "/.termux/termux.properties",
+            homeDirectory + "/.config/termux/termux.properties");
+    }
+
+    @After
+    public void tearDown() {
+        delete(homeDirectory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+
+    private static Set<String> names(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    @Test
+    public void testWatchesNearestExistingAncestor() {
+        Map<String, Set<String>> expected = new HashMap<>();
+        expected.put(homeDirectory.getPath(), names(".termux", ".config"));
+        Assert.assertEquals(expected, SharedPropertiesFileWatcher.getWatchedDirectories(propertiesFilePaths));
+    }
+
+    @Test
+    public void testReRootsOnceDirectoriesAreCreated() {
+        // Like ~/.termux being created after the app started
+        Assert.assertTrue(new File(homeDirectory, ".termux").mkdir());
+        Assert.assertTrue(new File(homeDirectory, ".config").mkdir());
+
+        Map<String, Set<String>> expected = new HashMap<>();
+        expected.put(homeDirectory + "/.termux", names("termux.properties"));
+        expected.put(homeDirectory + "/.config", names("termux"));
+        Assert.assertEquals(expected, SharedPropertiesFileWatcher.getWatchedDirectories(propertiesFilePaths));
+
+        Assert.assertTrue(new File(homeDirectory, ".config/termux").mkdir());
+        expected.remove(homeDirectory + "/.config");
+        expected.put(homeDirectory + "/.config/termux", names("termux.properties"));
+        Assert.assertEquals(expected, SharedPropertiesFileWatcher.getWatchedDirectories(propertiesFilePaths));
+    }
+
+    @Test
+    public void testFilesInSameDirectoryShareWatch() {
+        List<String> paths = Arrays.asList(homeDirectory + "/a.properties", null, homeDirectory + "/b.properties");
+        Assert.assertEquals(Collections.singletonMap(homeDirectory.getPath(), names("a.properties", "b.properties")),
+            SharedPropertiesFileWatcher.getWatchedDirectories(paths));
+    }
+
+}
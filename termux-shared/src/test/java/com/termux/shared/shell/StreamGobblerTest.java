@@ -0,0 +1,172 @@
+package com.termux.shared.shell;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StreamGobblerTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("gobbler", "");
+        Assert.assertTrue(directory.delete() && directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    /** An {@link InputStream} that returns at most {@link #mChunkSize} bytes per read. */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+        private final int mChunkSize;
+        boolean closed;
+
+        ChunkedInputStream(byte[] bytes, int chunkSize) {
+            super(bytes);
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] bytes, int offset, int length) {
+            return super.read(bytes, offset, Math.min(length, mChunkSize));
+        }
+
+        boolean isFullyRead() {
+            return pos == count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    /** A {@link WritableByteChannel} that fails on every write. */
+    private static class FailingChannel implements WritableByteChannel {
+        int writes;
+
+        @Override
+        public int write(ByteBuffer buffer) throws IOException {
+            writes++;
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static List<String> gobbleLines(String output, int chunkSize) {
+        List<String> lines = new ArrayList<>();
+        new StreamGobbler("test", new ChunkedInputStream(output.getBytes(StandardCharsets.UTF_8), chunkSize),
+            null, null, lines::add, null, null).run();
+        return lines;
+    }
+
+    @Test
+    public void testMultiByteSequenceSplitAcrossChunks() {
+        // 2, 3 and 4 byte sequences, split at every position by the smaller chunk sizes
+        String output = "h\u00e9llo\n\u20acuro\n\ud83d\ude00\n";
+        for (int chunkSize : new int[]{1, 2, 3, 5, 8192})
+            Assert.assertEquals("chunk size " + chunkSize, Arrays.asList("h\u00e9llo", "\u20acuro", "\ud83d\ude00"),
+                gobbleLines(output, chunkSize));
+    }
+
+    @Test
+    public void testCarriageReturnLineFeed() {
+        for (int chunkSize : new int[]{1, 2, 8192}) {
+            Assert.assertEquals("chunk size " + chunkSize, Arrays.asList("a", "b", "", "c\rd"),
+                gobbleLines("a\r\nb\n\r\nc\rd\n", chunkSize));
+        }
+    }
+
+    @Test
+    public void testFinalLineWithoutTerminator() {
+        for (int chunkSize : new int[]{1, 8192}) {
+            Assert.assertEquals(Arrays.asList("a", "b"), gobbleLines("a\nb", chunkSize));
+            Assert.assertEquals(Arrays.asList("a"), gobbleLines("a\n", chunkSize));
+            Assert.assertEquals(new ArrayList<String>(), gobbleLines("", chunkSize));
+        }
+
+        // An incomplete sequence at the end of the stream is replaced
+        List<String> lines = new ArrayList<>();
+        byte[] bytes = {'a', '\n', 'b', (byte) 0xE2, (byte) 0x82};
+        new StreamGobbler("test", new ChunkedInputStream(bytes, 1), null, null, lines::add, null, null).run();
+        Assert.assertEquals(Arrays.asList("a", "b\ufffd"), lines);
+    }
+
+    @Test
+    public void testChunksAreWrittenToChannel() {
+        String output = "h\u00e9llo\nworld";
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        List<String> lines = new ArrayList<>();
+        new StreamGobbler("test", new ChunkedInputStream(output.getBytes(StandardCharsets.UTF_8), 2),
+            null, Channels.newChannel(sink), lines::add, null, null).run();
+
+        // Bytes of a sequence split across chunks are written only once
+        Assert.assertArrayEquals(output.getBytes(StandardCharsets.UTF_8), sink.toByteArray());
+        Assert.assertEquals(Arrays.asList("h\u00e9llo", "world"), lines);
+    }
+
+    @Test
+    public void testChannelFailureDropsSinkAndKeepsDraining() {
+        byte[] bytes = "line1\nline2\nline3".getBytes(StandardCharsets.UTF_8);
+        ChunkedInputStream inputStream = new ChunkedInputStream(bytes, 4);
+        FailingChannel channel = new FailingChannel();
+        List<String> lines = new ArrayList<>();
+        boolean[] streamClosed = new boolean[1];
+        new StreamGobbler("test", inputStream, null, channel, lines::add, () -> streamClosed[0] = true, null).run();
+
+        Assert.assertEquals(1, channel.writes);
+        Assert.assertTrue(inputStream.isFullyRead());
+        Assert.assertTrue(inputStream.closed);
+        Assert.assertTrue(streamClosed[0]);
+        Assert.assertEquals(Arrays.asList("line1", "line2", "line3"), lines);
+    }
+
+    @Test
+    public void testFileInputStreamIsCopiedToChannel() throws IOException {
+        // Larger than a chunk, so that the direct buffer is reused
+        byte[] bytes = new byte[20000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+        File input = new File(directory, "input");
+        File output = new File(directory, "output");
+        Files.write(input.toPath(), bytes);
+
+        try (FileOutputStream outputStream = new FileOutputStream(output)) {
+            new StreamGobbler("test", new FileInputStream(input), null, outputStream.getChannel(), null, null, null).run();
+        }
+        Assert.assertArrayEquals(bytes, Files.readAllBytes(output.toPath()));
+    }
+
+}
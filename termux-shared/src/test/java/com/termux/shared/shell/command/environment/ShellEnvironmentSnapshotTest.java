@@ -0,0 +1,64 @@
+package com.termux.shared.shell.command.environment;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ShellEnvironmentSnapshotTest {
+
+    private ShellEnvironmentSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        HashMap<String, String> environment = new HashMap<>();
+        environment.put("PATH", "/usr/bin");
+        environment.put("HOME", "/home");
+        environment.put("TERM", "xterm");
+        snapshot = new ShellEnvironmentSnapshot(1, environment);
+    }
+
+    @Test
+    public void testEmptyOverlay() {
+        String[] expected = {"HOME=/home", "PATH=/usr/bin", "TERM=xterm"};
+        Assert.assertArrayEquals(expected, snapshot.getEnviron(null));
+        Assert.assertArrayEquals(expected, snapshot.getEnviron(Collections.emptyMap()));
+
+        // A copy is returned every time
+        String[] environ = snapshot.getEnviron(null);
+        environ[0] = "HOME=/changed";
+        Assert.assertArrayEquals(expected, snapshot.getEnviron(null));
+    }
+
+    @Test
+    public void testOverlayReplacesExistingVariable() {
+        Map<String, String> overlay = Collections.singletonMap("PATH", "/bin");
+        Assert.assertArrayEquals(new String[]{"HOME=/home", "PATH=/bin", "TERM=xterm"}, snapshot.getEnviron(overlay));
+        // The snapshot itself is not changed
+        Assert.assertEquals("/usr/bin", snapshot.getEnvironment().get("PATH"));
+    }
+
+    @Test
+    public void testOverlayAddsNewVariable() {
+        Map<String, String> overlay = new LinkedHashMap<>();
+        overlay.put("SHELL", "/bin/sh");
+        overlay.put("A", "1");
+        overlay.put("TERM", "screen");
+        Assert.assertArrayEquals(new String[]{"A=1", "HOME=/home", "PATH=/usr/bin", "SHELL=/bin/sh", "TERM=screen"},
+            snapshot.getEnviron(overlay));
+    }
+
+    @Test
+    public void testInvalidOverlayVariableRemovesExistingVariable() {
+        Map<String, String> overlay = new LinkedHashMap<>();
+        overlay.put("HOME", null);
+        overlay.put("1INVALID", "value");
+        overlay.put("LANG", "C");
+        Assert.assertArrayEquals(new String[]{"LANG=C", "PATH=/usr/bin", "TERM=xterm"}, snapshot.getEnviron(overlay));
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.termux.shared.shell.command.result;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class OutputCaptureTest {
+
+    private File spillDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        spillDirectory = File.createTempFile("capture", "");
+        Assert.assertTrue(spillDirectory.delete() && spillDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = spillDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        spillDirectory.delete();
+    }
+
+    private static byte[] bytes(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (start + i);
+        return bytes;
+    }
+
+    private static void write(OutputCapture capture, byte[] bytes) {
+        capture.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1)
+            outputStream.write(buffer, 0, read);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void testBelowHeadCapacity() throws IOException {
+        OutputCapture capture = new OutputCapture(8, 4, 100, spillDirectory);
+        write(capture, "hello".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertTrue(capture.isInMemory());
+        Assert.assertEquals(5, capture.getTotalLength());
+        Assert.assertEquals("hello", new String(capture.getHead(), StandardCharsets.UTF_8));
+        Assert.assertEquals("llo", new String(capture.getTail(3), StandardCharsets.UTF_8));
+        Assert.assertEquals("hello", capture.getText(100));
+        Assert.assertEquals("hello", new String(readAll(capture.openInputStream()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExactlyHeadAndTailCapacity() throws IOException {
+        OutputCapture capture = new OutputCapture(4, 4, 100, spillDirectory);
+        byte[] output = bytes(0, 8);
+        write(capture, output);
+
+        Assert.assertTrue(capture.isInMemory());
+        Assert.assertEquals(0, capture.getDroppedLength());
+        Assert.assertArrayEquals(bytes(0, 4), capture.getHead());
+        // The head continues into the tail since nothing is in between
+        Assert.assertArrayEquals(output, capture.getTail(100));
+        Assert.assertArrayEquals(output, readAll(capture.openInputStream()));
+        Assert.assertEquals(0, spillDirectory.list().length);
+    }
+
+    @Test
+    public void testTailWrapsAround() throws IOException {
+        OutputCapture capture = new OutputCapture(2, 4, 0, null);
+        // Written in odd sized chunks so that the ring start moves around the end of the buffer
+        for (int i = 0; i < 20; i += 3)
+            write(capture, bytes(i, Math.min(3, 20 - i)));
+
+        Assert.assertFalse(capture.isInMemory());
+        Assert.assertEquals(20, capture.getTotalLength());
+        Assert.assertEquals(20 - 2 - 4, capture.getDroppedLength());
+        Assert.assertArrayEquals(bytes(0, 2), capture.getHead());
+        Assert.assertArrayEquals(bytes(16, 4), capture.getTail(100));
+        Assert.assertArrayEquals(bytes(18, 2), capture.getTail(2));
+
+        byte[] expected = new byte[6];
+        System.arraycopy(bytes(0, 2), 0, expected, 0, 2);
+        System.arraycopy(bytes(16, 4), 0, expected, 2, 4);
+        Assert.assertArrayEquals(expected, readAll(capture.openInputStream()));
+    }
+
+    @Test
+    public void testWriteLargerThanTailCapacity() {
+        OutputCapture capture = new OutputCapture(2, 4, 0, null);
+        write(capture, bytes(0, 3));
+        write(capture, bytes(3, 10));
+
+        Assert.assertArrayEquals(bytes(0, 2), capture.getHead());
+        Assert.assertArrayEquals(bytes(9, 4), capture.getTail(100));
+        Assert.assertEquals(7, capture.getDroppedLength());
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        OutputCapture capture = new OutputCapture(4, 4, 100, spillDirectory);
+        byte[] output = bytes(0, 50);
+        for (int i = 0; i < output.length; i += 5)
+            capture.write(output, i, 5);
+
+        Assert.assertFalse(capture.isInMemory());
+        Assert.assertEquals(0, capture.getDroppedLength());
+        Assert.assertArrayEquals(output, readAll(capture.openInputStream()));
+        // The spill file is unlinked right after it is created
+        Assert.assertEquals(0, spillDirectory.list().length);
+
+        String text = capture.getText(8);
+        Assert.assertTrue(text, text.contains("[... 44 bytes omitted ...]"));
+        capture.close();
+    }
+
+    @Test
+    public void testSpillLimit() throws IOException {
+        OutputCapture capture = new OutputCapture(4, 4, 10, spillDirectory);
+        write(capture, bytes(0, 30));
+
+        Assert.assertEquals(30 - 4 - 4, capture.getDroppedLength());
+        // Only the head and tail are left since the overflow did not fit in the spill file at once
+        byte[] expected = new byte[8];
+        System.arraycopy(bytes(0, 4), 0, expected, 0, 4);
+        System.arraycopy(bytes(26, 4), 0, expected, 4, 4);
+        Assert.assertArrayEquals(expected, readAll(capture.openInputStream()));
+
+        capture = new OutputCapture(4, 4, 10, spillDirectory);
+        write(capture, bytes(0, 12));
+        write(capture, bytes(12, 10));
+        write(capture, bytes(22, 10));
+
+        // Once a spill does not fit, nothing more is spilled so that the spilled bytes stay contiguous
+        Assert.assertEquals(32 - 4 - 8 - 4, capture.getDroppedLength());
+        byte[] stream = readAll(capture.openInputStream());
+        Assert.assertArrayEquals(bytes(0, 12), Arrays.copyOf(stream, 12));
+        Assert.assertArrayEquals(bytes(28, 4), Arrays.copyOfRange(stream, 12, 16));
+    }
+
+    @Test
+    public void testRetainAndClose() throws IOException {
+        OutputCapture capture = new OutputCapture(4, 4, 100, spillDirectory);
+        byte[] output = bytes(0, 20);
+        write(capture, output);
+
+        Assert.assertTrue(capture.retain());
+        InputStream retainedStream = capture.openInputStream();
+        InputStream releasedStream = capture.openInputStream();
+
+        // The spill file stays open while retained
+        capture.close();
+        Assert.assertArrayEquals(output, readAll(retainedStream));
+
+        // Released once every retain is matched
+        capture.close();
+        try {
+            readAll(releasedStream);
+            Assert.fail("Spill file was not released");
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertFalse(capture.retain());
+
+        // Streams opened afterwards only have the output in memory
+        byte[] expected = new byte[8];
+        System.arraycopy(bytes(0, 4), 0, expected, 0, 4);
+        System.arraycopy(bytes(16, 4), 0, expected, 4, 4);
+        Assert.assertArrayEquals(expected, readAll(capture.openInputStream()));
+
+        // Extra closes are ignored and the output in memory stays available
+        capture.close();
+        Assert.assertArrayEquals(bytes(0, 4), capture.getHead());
+        Assert.assertArrayEquals(bytes(16, 4), capture.getTail(4));
+    }
+
+}
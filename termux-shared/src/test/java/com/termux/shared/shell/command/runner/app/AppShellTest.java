@@ -0,0 +1,112 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.ExecutionCommand.ExecutionState;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class AppShellTest {
+
+    private File directory;
+    private Context context;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("appshell", "");
+        Assert.assertTrue(directory.delete() && directory.mkdir());
+        context = new ContextWrapper(null) {
+            @Override
+            public File getCacheDir() {
+                return directory;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private static ExecutionCommand executing() {
+        ExecutionCommand executionCommand = new ExecutionCommand(1);
+        executionCommand.commandLabel = "test";
+        Assert.assertTrue(executionCommand.setState(ExecutionState.EXECUTING));
+        return executionCommand;
+    }
+
+    private static Process startProcess(String script) throws IOException {
+        return new ProcessBuilder("sh", "-c", script).start();
+    }
+
+    @Test
+    public void testOutputIsStreamedToFile() throws IOException {
+        File stdoutFile = new File(directory, "stdout");
+        ExecutionCommand executionCommand = executing();
+        executionCommand.stdoutFilePath = stdoutFile.getAbsolutePath();
+
+        // Much larger than a chunk, so that the output is written to the file in many writes
+        AppShell.execute(context, startProcess("seq 1 100000; echo error >&2; exit 3"),
+            executionCommand, null, true);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 100000; i++)
+            expected.append(i).append('\n');
+        Assert.assertEquals(expected.toString(), new String(Files.readAllBytes(stdoutFile.toPath()), StandardCharsets.UTF_8));
+
+        // Only stderr is captured
+        Assert.assertEquals("", executionCommand.resultData.stdout.toString());
+        Assert.assertEquals("error", executionCommand.resultData.stderr.toString().trim());
+        Assert.assertEquals(Integer.valueOf(3), executionCommand.resultData.exitCode);
+        Assert.assertFalse(executionCommand.isStateFailed());
+    }
+
+    @Test
+    public void testOutputFilesAreTruncated() throws IOException {
+        File stdoutFile = new File(directory, "stdout");
+        File stderrFile = new File(directory, "stderr");
+        Files.write(stdoutFile.toPath(), "previous output that is longer\n".getBytes(StandardCharsets.UTF_8));
+        ExecutionCommand executionCommand = executing();
+        executionCommand.stdoutFilePath = stdoutFile.getAbsolutePath();
+        executionCommand.stderrFilePath = stderrFile.getAbsolutePath();
+
+        AppShell.execute(context, startProcess("echo out; echo err >&2"), executionCommand, null, true);
+
+        Assert.assertEquals("out\n", new String(Files.readAllBytes(stdoutFile.toPath()), StandardCharsets.UTF_8));
+        Assert.assertEquals("err\n", new String(Files.readAllBytes(stderrFile.toPath()), StandardCharsets.UTF_8));
+        Assert.assertEquals("", executionCommand.resultData.stdout.toString());
+        Assert.assertEquals("", executionCommand.resultData.stderr.toString());
+        Assert.assertEquals(Integer.valueOf(0), executionCommand.resultData.exitCode);
+    }
+
+    @Test
+    public void testUnopenableOutputFileFailsCommand() throws IOException {
+        ExecutionCommand executionCommand = executing();
+        executionCommand.stdoutFilePath = new File(directory, "missing/stdout").getAbsolutePath();
+
+        Process process = startProcess("cat");
+        try {
+            AppShell.execute(context, process, executionCommand, null, true);
+        } finally {
+            process.destroy();
+        }
+
+        Assert.assertTrue(executionCommand.isStateFailed());
+        Assert.assertEquals(Integer.valueOf(1), executionCommand.resultData.exitCode);
+    }
+
+}
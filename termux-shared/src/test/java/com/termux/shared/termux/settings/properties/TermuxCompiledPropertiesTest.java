@@ -0,0 +1,81 @@
+package com.termux.shared.termux.settings.properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+public class TermuxCompiledPropertiesTest {
+
+    /** The context is not used for the default values of the properties. */
+    private static TermuxCompiledProperties compile(Map<String, Object> internalProperties) {
+        return new TermuxCompiledProperties(null, new HashMap<>(internalProperties));
+    }
+
+    @Test
+    public void testAbsentKeysFallBackToDefaults() {
+        TermuxCompiledProperties properties = compile(Collections.emptyMap());
+
+        Assert.assertFalse(properties.containsKey(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS));
+        Assert.assertNull(properties.getInternalPropertyValue(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS));
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_MAX_BACKGROUND_TASKS, properties.maxBackgroundTasks);
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MARGIN_HORIZONTAL, properties.terminalMarginHorizontal);
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_BELL_BEHAVIOUR, properties.bellBehaviour);
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_EXTRA_KEYS, properties.extraKeys);
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_BACK_KEY_BEHAVIOUR, properties.backKeyBehaviour);
+        Assert.assertFalse(properties.isBackKeyTheEscapeKey);
+        Assert.assertFalse(properties.useFullScreen);
+        Assert.assertTrue(properties.extraKeysTextAllCaps);
+        Assert.assertNull(properties.shortcutCreateSession);
+    }
+
+    @Test
+    public void testLoadedKeysAreUsed() {
+        Map<String, Object> internalProperties = new HashMap<>();
+        internalProperties.put(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS, 2);
+        internalProperties.put(TermuxPropertyConstants.KEY_BACK_KEY_BEHAVIOUR, TermuxPropertyConstants.IVALUE_BACK_KEY_BEHAVIOUR_ESCAPE);
+        internalProperties.put(TermuxPropertyConstants.KEY_USE_FULLSCREEN, true);
+        TermuxCompiledProperties properties = compile(internalProperties);
+
+        Assert.assertTrue(properties.containsKey(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS));
+        Assert.assertEquals(2, properties.getInternalPropertyValue(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS));
+        Assert.assertEquals(2, properties.maxBackgroundTasks);
+        Assert.assertTrue(properties.isBackKeyTheEscapeKey);
+        Assert.assertTrue(properties.useFullScreen);
+        // Keys not loaded still fall back to defaults
+        Assert.assertEquals(TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MARGIN_HORIZONTAL, properties.terminalMarginHorizontal);
+    }
+
+    @Test
+    public void testChangedKeys() {
+        Map<String, Object> oldInternalProperties = new HashMap<>();
+        oldInternalProperties.put(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS, 2);
+        oldInternalProperties.put(TermuxPropertyConstants.KEY_USE_FULLSCREEN, true);
+        oldInternalProperties.put(TermuxPropertyConstants.KEY_EXTRA_KEYS, TermuxPropertyConstants.DEFAULT_IVALUE_EXTRA_KEYS);
+        oldInternalProperties.put(TermuxPropertyConstants.KEY_SHORTCUT_CREATE_SESSION, null);
+
+        Map<String, Object> newInternalProperties = new HashMap<>(oldInternalProperties);
+        // Changed
+        newInternalProperties.put(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS, 4);
+        // Removed
+        newInternalProperties.remove(TermuxPropertyConstants.KEY_USE_FULLSCREEN);
+        // Added
+        newInternalProperties.put(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL, 5);
+        // Equal but not the same instance
+        newInternalProperties.put(TermuxPropertyConstants.KEY_EXTRA_KEYS, new String(TermuxPropertyConstants.DEFAULT_IVALUE_EXTRA_KEYS));
+
+        TermuxCompiledProperties oldProperties = compile(oldInternalProperties);
+        TermuxCompiledProperties newProperties = compile(newInternalProperties);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(TermuxPropertyConstants.KEY_MAX_BACKGROUND_TASKS,
+            TermuxPropertyConstants.KEY_USE_FULLSCREEN, TermuxPropertyConstants.KEY_TERMINAL_MARGIN_HORIZONTAL)),
+            newProperties.getChangedKeys(oldProperties));
+        Assert.assertEquals(newProperties.getChangedKeys(oldProperties), oldProperties.getChangedKeys(newProperties));
+        Assert.assertTrue(newProperties.getChangedKeys(compile(newInternalProperties)).isEmpty());
+    }
+
+}
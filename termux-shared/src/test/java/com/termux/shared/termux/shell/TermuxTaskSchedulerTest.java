@@ -0,0 +1,166 @@
+package com.termux.shared.termux.shell;
+
+import com.termux.shared.android.PhantomProcessUtils;
+import com.termux.shared.shell.command.ExecutionCommand;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TermuxTaskSchedulerTest {
+
+    private final List<ExecutionCommand> started = new ArrayList<>();
+    private final Set<ExecutionCommand> failing = new HashSet<>();
+    private int phantomProcessCount;
+    private TermuxTaskScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        started.clear();
+        failing.clear();
+        phantomProcessCount = -1;
+        scheduler = createScheduler(1);
+    }
+
+    private TermuxTaskScheduler createScheduler(int maxConcurrentTasks) {
+        return new TermuxTaskScheduler(executionCommand -> {
+            if (failing.contains(executionCommand))
+                return false;
+            started.add(executionCommand);
+            return true;
+        }, maxConcurrentTasks) {
+            @Override
+            int getAppPhantomProcessCount() {
+                return phantomProcessCount;
+            }
+        };
+    }
+
+    private static ExecutionCommand interactive(int id) {
+        return new ExecutionCommand(id);
+    }
+
+    private static ExecutionCommand plugin(int id) {
+        ExecutionCommand executionCommand = new ExecutionCommand(id);
+        executionCommand.isPluginExecutionCommand = true;
+        executionCommand.resultConfig.resultDirectoryPath = "/result";
+        return executionCommand;
+    }
+
+    private static ExecutionCommand background(int id) {
+        ExecutionCommand executionCommand = new ExecutionCommand(id);
+        executionCommand.isPluginExecutionCommand = true;
+        return executionCommand;
+    }
+
+    @Test
+    public void testPriority() {
+        Assert.assertEquals(TermuxTaskScheduler.Priority.INTERACTIVE, TermuxTaskScheduler.getPriority(interactive(1)));
+        Assert.assertEquals(TermuxTaskScheduler.Priority.PLUGIN, TermuxTaskScheduler.getPriority(plugin(2)));
+        Assert.assertEquals(TermuxTaskScheduler.Priority.BACKGROUND, TermuxTaskScheduler.getPriority(background(3)));
+    }
+
+    @Test
+    public void testStartsUpToMaxConcurrentTasks() {
+        scheduler = createScheduler(2);
+        ExecutionCommand first = interactive(1), second = interactive(2), third = interactive(3);
+        scheduler.submit(first);
+        scheduler.submit(second);
+        scheduler.submit(third);
+
+        Assert.assertEquals(Arrays.asList(first, second), started);
+        Assert.assertEquals(2, scheduler.getRunningCount());
+        Assert.assertEquals(1, scheduler.getQueuedCount());
+
+        scheduler.onTaskExited(first);
+        Assert.assertEquals(Arrays.asList(first, second, third), started);
+        Assert.assertEquals(0, scheduler.getQueuedCount());
+
+        // Exits of tasks not started by the scheduler or already exited are ignored
+        scheduler.onTaskExited(first);
+        scheduler.onTaskExited(interactive(4));
+        Assert.assertEquals(2, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void testQueuedTasksStartInPriorityOrder() {
+        ExecutionCommand running = interactive(1);
+        scheduler.submit(running);
+
+        ExecutionCommand background = background(2), plugin = plugin(3);
+        ExecutionCommand firstInteractive = interactive(4), secondInteractive = interactive(5);
+        scheduler.submit(background);
+        scheduler.submit(plugin);
+        scheduler.submit(firstInteractive);
+        scheduler.submit(secondInteractive);
+
+        Assert.assertEquals(2, scheduler.getQueuedCount(TermuxTaskScheduler.Priority.INTERACTIVE));
+        Assert.assertEquals(1, scheduler.getQueuedCount(TermuxTaskScheduler.Priority.PLUGIN));
+        Assert.assertEquals(1, scheduler.getQueuedCount(TermuxTaskScheduler.Priority.BACKGROUND));
+
+        for (ExecutionCommand executionCommand : Arrays.asList(running, firstInteractive, secondInteractive, plugin))
+            scheduler.onTaskExited(executionCommand);
+
+        Assert.assertEquals(Arrays.asList(running, firstInteractive, secondInteractive, plugin, background), started);
+    }
+
+    @Test
+    public void testFailedStartDoesNotTakeSlot() {
+        ExecutionCommand failed = interactive(1), next = interactive(2);
+        failing.add(failed);
+        scheduler.submit(failed);
+        scheduler.submit(next);
+
+        Assert.assertEquals(Arrays.asList(next), started);
+        Assert.assertEquals(1, scheduler.getRunningCount());
+        Assert.assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void testHeldBackWithinPhantomProcessHeadroom() {
+        scheduler = createScheduler(4);
+        int limit = PhantomProcessUtils.DEFAULT_MAX_PHANTOM_PROCESSES - TermuxTaskScheduler.PHANTOM_PROCESS_HEADROOM;
+
+        phantomProcessCount = limit;
+        ExecutionCommand first = interactive(1), second = interactive(2);
+        scheduler.submit(first);
+        scheduler.submit(second);
+        Assert.assertTrue(started.isEmpty());
+        Assert.assertEquals(2, scheduler.getQueuedCount());
+
+        // Admission is retried on the next dispatch once the count drops below the headroom
+        phantomProcessCount = limit - 1;
+        scheduler.setMaxConcurrentTasks(4);
+        Assert.assertEquals(Arrays.asList(first, second), started);
+        Assert.assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void testNotHeldBackWhenPhantomProcessLimitDoesNotApply() {
+        phantomProcessCount = -1;
+        ExecutionCommand first = interactive(1);
+        scheduler.submit(first);
+        Assert.assertEquals(Arrays.asList(first), started);
+    }
+
+    @Test
+    public void testCancelAll() {
+        ExecutionCommand running = interactive(1), plugin = plugin(2), background = background(3);
+        scheduler.submit(running);
+        scheduler.submit(background);
+        scheduler.submit(plugin);
+
+        Assert.assertEquals(Arrays.asList(plugin, background), scheduler.cancelAll());
+        Assert.assertEquals(0, scheduler.getQueuedCount());
+
+        scheduler.onTaskExited(running);
+        Assert.assertEquals(Arrays.asList(running), started);
+    }
+
+}